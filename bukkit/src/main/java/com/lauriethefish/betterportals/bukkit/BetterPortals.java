@@ -7,15 +7,18 @@ import com.lauriethefish.betterportals.bukkit.command.framework.CommandTree;
 import com.lauriethefish.betterportals.bukkit.config.ConfigManager;
 import com.lauriethefish.betterportals.bukkit.config.MiscConfig;
 import com.lauriethefish.betterportals.bukkit.config.ProxyConfig;
+import com.lauriethefish.betterportals.bukkit.entity.faking.IEntityPacketManipulator;
 import com.lauriethefish.betterportals.bukkit.events.IEventRegistrar;
 import com.lauriethefish.betterportals.bukkit.net.IPortalClient;
 import com.lauriethefish.betterportals.bukkit.player.IPlayerDataManager;
 import com.lauriethefish.betterportals.bukkit.portal.IPortalManager;
 import com.lauriethefish.betterportals.bukkit.portal.storage.IPortalStorage;
+import com.lauriethefish.betterportals.bukkit.tasks.BlockArrayWorkerPool;
 import com.lauriethefish.betterportals.bukkit.tasks.BlockUpdateFinisher;
 import com.lauriethefish.betterportals.bukkit.tasks.MainUpdate;
 import com.lauriethefish.betterportals.bukkit.util.performance.OperationTimer;
 import com.lauriethefish.betterportals.shared.logging.Logger;
+import com.lauriethefish.betterportals.shared.net.transport.NetworkEventLoop;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandSender;
 import org.bukkit.plugin.java.JavaPlugin;
@@ -35,11 +38,14 @@ public class BetterPortals extends JavaPlugin {
     @Inject private MiscConfig miscConfig;
     @Inject private ProxyConfig proxyConfig;
     @Inject private IPortalClient portalClient;
+    @Inject private NetworkEventLoop networkEventLoop;
     @Inject private MainUpdate mainUpdate;
     @Inject private BlockUpdateFinisher blockUpdateFinisher;
+    @Inject private BlockArrayWorkerPool blockArrayWorkerPool;
     @Inject private IPortalManager portalManager;
     @Inject private IEventRegistrar eventRegistrar;
     @Inject private API apiImplementation;
+    @Inject private IEntityPacketManipulator entityPacketManipulator;
 
     private boolean firstEnable = true;
     private boolean didEnableFail = false;
@@ -72,6 +78,7 @@ public class BetterPortals extends JavaPlugin {
         }
 
         blockUpdateFinisher.start();
+        blockArrayWorkerPool.start();
         mainUpdate.start();
         portalStorage.start();
 
@@ -134,6 +141,7 @@ public class BetterPortals extends JavaPlugin {
         }
 
         playerDataManager.onPluginDisable();
+        entityPacketManipulator.flush(); // Send the packets that reshow hidden entities and remove replicated ones
         portalManager.onReload();
 
         if(proxyConfig.isEnabled()) {
@@ -154,6 +162,18 @@ public class BetterPortals extends JavaPlugin {
             ex.printStackTrace();
         }
 
+        // Stop the block update threads after the views are reset, so that they don't resend blocks afterwards
+        blockUpdateFinisher.shutDown();
+        blockArrayWorkerPool.shutDown();
+
+        try {
+            // The main update won't run again to send the packets that reset entities
+            entityPacketManipulator.flush();
+        }   catch(RuntimeException ex) {
+            logger.severe("Error occurred while sending entity packets");
+            ex.printStackTrace();
+        }
+
         try {
             portalStorage.savePortals();
         }   catch(RuntimeException | IOException ex) {
@@ -164,6 +184,7 @@ public class BetterPortals extends JavaPlugin {
         if(portalClient.isConnectionOpen()) {
             portalClient.shutDown();
         }
+        networkEventLoop.shutDown(); // Waits for the disconnection notice to be written
         logger.fine("Goodbye!");
     }
 
@@ -9,7 +9,7 @@ import com.lauriethefish.betterportals.bukkit.net.*;
 import com.lauriethefish.betterportals.bukkit.player.*;
 import com.lauriethefish.betterportals.bukkit.portal.*;
 import com.lauriethefish.betterportals.bukkit.tasks.BlockUpdateFinisher;
-import com.lauriethefish.betterportals.bukkit.tasks.ThreadedBlockUpdateFinisher;
+import com.lauriethefish.betterportals.bukkit.tasks.PooledBlockUpdateFinisher;
 import com.lauriethefish.betterportals.bukkit.util.performance.IPerformanceWatcher;
 import com.lauriethefish.betterportals.bukkit.util.performance.PerformanceWatcher;
 import com.lauriethefish.betterportals.shared.logging.Logger;
@@ -29,7 +29,7 @@ public class MainModule extends AbstractModule {
         bind(BetterPortals.class).toInstance(pl);
         bind(Logger.class).toInstance(new OverrideLogger(pl.getLogger()));
 
-        bind(BlockUpdateFinisher.class).to(ThreadedBlockUpdateFinisher.class);
+        bind(BlockUpdateFinisher.class).to(PooledBlockUpdateFinisher.class);
         bind(IPerformanceWatcher.class).to(PerformanceWatcher.class);
         bind(ICrashHandler.class).to(CrashHandler.class);
 
@@ -2,7 +2,11 @@ package com.lauriethefish.betterportals.bukkit.block;
 
 import com.google.inject.AbstractModule;
 import com.google.inject.assistedinject.FactoryModuleBuilder;
+import com.lauriethefish.betterportals.bukkit.block.changes.BlockChangeTracker;
+import com.lauriethefish.betterportals.bukkit.block.changes.IBlockChangeTracker;
 import com.lauriethefish.betterportals.bukkit.block.external.*;
+import com.lauriethefish.betterportals.bukkit.block.fetch.BlockDataCache;
+import com.lauriethefish.betterportals.bukkit.block.fetch.IBlockDataCache;
 import com.lauriethefish.betterportals.bukkit.player.view.ViewFactory;
 import com.lauriethefish.betterportals.bukkit.player.view.block.IPlayerBlockView;
 import com.lauriethefish.betterportals.bukkit.player.view.block.PlayerBlockView;
@@ -30,5 +34,8 @@ public class BlockModule extends AbstractModule {
 
 
         bind(IExternalBlockWatcherManager.class).to(ExternalBlockWatcherManager.class);
+        bind(IExternalBlockSubscriptionManager.class).to(ExternalBlockSubscriptionManager.class);
+        bind(IBlockChangeTracker.class).to(BlockChangeTracker.class);
+        bind(IBlockDataCache.class).to(BlockDataCache.class);
     }
 }
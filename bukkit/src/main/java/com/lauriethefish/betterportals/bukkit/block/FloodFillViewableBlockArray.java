@@ -4,16 +4,23 @@ import com.comphenix.protocol.events.PacketContainer;
 import com.comphenix.protocol.wrappers.WrappedBlockData;
 import com.google.inject.Inject;
 import com.google.inject.assistedinject.Assisted;
+import com.lauriethefish.betterportals.bukkit.block.changes.DirtyBlockArea;
+import com.lauriethefish.betterportals.bukkit.block.changes.IBlockChangeTracker;
 import com.lauriethefish.betterportals.bukkit.block.data.BlockData;
 import com.lauriethefish.betterportals.bukkit.block.fetch.BlockDataFetcherFactory;
+import com.lauriethefish.betterportals.bukkit.block.fetch.ChunkSnapshotArea;
 import com.lauriethefish.betterportals.bukkit.block.fetch.IBlockDataFetcher;
+import com.lauriethefish.betterportals.bukkit.block.multiblockchange.MultiBlockChangeCache;
 import com.lauriethefish.betterportals.bukkit.block.rotation.IBlockRotator;
 import com.lauriethefish.betterportals.bukkit.config.RenderConfig;
 import com.lauriethefish.betterportals.api.IntVector;
+import com.lauriethefish.betterportals.bukkit.math.IntMatrix;
 import com.lauriethefish.betterportals.bukkit.math.MathUtil;
 import com.lauriethefish.betterportals.bukkit.math.Matrix;
 import com.lauriethefish.betterportals.bukkit.portal.IPortal;
 import com.lauriethefish.betterportals.api.PortalDirection;
+import com.lauriethefish.betterportals.bukkit.tasks.BlockArrayWorkerPool;
+import com.lauriethefish.betterportals.bukkit.util.ConcurrentBitSet;
 import com.lauriethefish.betterportals.bukkit.util.MaterialUtil;
 import com.lauriethefish.betterportals.bukkit.util.nms.BlockDataUtil;
 import com.lauriethefish.betterportals.bukkit.util.performance.IPerformanceWatcher;
@@ -28,42 +35,97 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 
 /**
  * After lots of testing, a flood-fill appears to be the most efficient way to find the blocks around the destination that aren't obscured.
  * <br>If you want, you can try to optimise more, but I'm not sure how to make this much better with the requirements it has.
  */
 public class FloodFillViewableBlockArray implements IViewableBlockArray    {
+    /**
+     * Holds everything built by the flood-fill.
+     * This is separate so that the initial flood-fill can be done on a worker thread, then swapped in once it finishes.
+     */
+    private static class SearchState {
+        // Indexed by the portal-relative position of each block, see RenderConfig#getArrayIndex.
+        // This avoids allocating a new IntVector every time we check if a block has already been reached by the flood-fill.
+        final ViewableBlockInfo[] nonObscuredStates;
+        final boolean[] reachedStates; // Set when a position is queued, so that each position is only added to the stack once
+        final int[] searchStack;
+        int nonObscuredCount;
+        final ConcurrentMap<IntVector, ViewableBlockInfo> viewableStates = new ConcurrentHashMap<>();
+
+        // Origin positions of tile entities found since the last update.
+        // Their packets are fetched afterwards on the main thread, since this requires a BlockState
+        final List<IntVector> originTileEntities = new ArrayList<>();
+        final List<IntVector> destTileEntities = new ArrayList<>();
+
+        SearchState(int arrayLength) {
+            nonObscuredStates = new ViewableBlockInfo[arrayLength];
+            reachedStates = new boolean[arrayLength];
+            searchStack = new int[arrayLength];
+        }
+    }
+
     private final Logger logger;
     private final RenderConfig renderConfig;
     private final IPerformanceWatcher performanceWatcher;
     private final IBlockRotator blockRotator;
     private final BlockDataFetcherFactory dataFetcherFactory;
+    private final IBlockChangeTracker changeTracker;
+    private final BlockArrayWorkerPool workerPool;
     private IBlockDataFetcher dataFetcher;
 
-    private ConcurrentMap<IntVector, ViewableBlockInfo> nonObscuredStates;
-    @Getter private ConcurrentMap<IntVector, ViewableBlockInfo> viewableStates;
+    // Blocks changed since the last check, used to avoid re-checking every block each update.
+    // These are null for cross-server portals, since changes at the destination can't be tracked with events
+    private DirtyBlockArea originChanges;
+    private DirtyBlockArea destChanges;
+    private int lastFullUpdateTick;
+
+    // Only accessed on the main thread. The arrays are only allocated once the portal is actually viewed, since most portals never are
+    private SearchState state;
+    // Set while the initial flood-fill is running on a worker thread, and holds the result once it finishes
+    private AtomicReference<SearchState> pendingSearch;
+    // Published instead of a result if the flood-fill on the worker thread fails
+    private static final SearchState FAILED_SEARCH = new SearchState(0);
+    // Set if the async flood-fill failed, so that the initial update is done on the main thread instead until the portal is reset
+    private boolean asyncInitialUpdateFailed = false;
+    @Getter private volatile ConcurrentMap<IntVector, ViewableBlockInfo> viewableStates;
 
     private final ConcurrentMap<IntVector, PacketContainer> originTileStates = new ConcurrentHashMap<>();
     private final ConcurrentMap<IntVector, PacketContainer> destTileStates = new ConcurrentHashMap<>();
+    @Getter private final MultiBlockChangeCache packetCache = new MultiBlockChangeCache();
 
     private final IPortal portal;
     private final Matrix rotateDestToOrigin;
-    private final Matrix rotateOriginToDest;
+    private final IntMatrix rotateOriginToDest;
+    private final IntMatrix originToDest; // Transforms portal-relative positions at the origin to absolute positions at the destination
+    private final IntMatrix destToOrigin; // Transforms absolute positions at the destination to portal-relative positions at the origin
     private final IntVector portalOriginPos;
     private final IntVector portalDestPos;
 
+    // Corners of the area around each portal that the flood-fill can reach
+    private final IntVector originMin;
+    private final IntVector originMax;
+    private final IntVector destMin;
+    private final IntVector destMax;
+
     private final IntVector centerPos;
     private final World originWorld;
     private final PortalDirection destDirection;
     private boolean firstUpdate;
 
     @Inject
-    public FloodFillViewableBlockArray(@Assisted IPortal portal, Logger logger, RenderConfig renderConfig, IPerformanceWatcher performanceWatcher, IBlockRotator blockRotator, BlockDataFetcherFactory dataFetcherFactory) {
+    public FloodFillViewableBlockArray(@Assisted IPortal portal, Logger logger, RenderConfig renderConfig, IPerformanceWatcher performanceWatcher, IBlockRotator blockRotator, BlockDataFetcherFactory dataFetcherFactory, IBlockChangeTracker changeTracker, BlockArrayWorkerPool workerPool) {
         this.portal = portal;
         this.logger = logger;
         this.renderConfig = renderConfig;
@@ -71,15 +133,30 @@ public class FloodFillViewableBlockArray implements IViewableBlockArray    {
         this.blockRotator = blockRotator;
         this.centerPos = new IntVector(portal.getOriginPos().getVector());
         this.rotateDestToOrigin = portal.getTransformations().getRotateToOrigin();
-        this.rotateOriginToDest = portal.getTransformations().getRotateToDestination();
+        this.rotateOriginToDest = new IntMatrix(portal.getTransformations().getRotateToDestination());
         this.originWorld = portal.getOriginPos().getWorld();
         this.destDirection = portal.getDestPos().getDirection();
         this.dataFetcherFactory = dataFetcherFactory;
+        this.changeTracker = changeTracker;
+        this.workerPool = workerPool;
         this.portalOriginPos = new IntVector(portal.getOriginPos().getVector());
         this.portalDestPos = roundBasedOnDirection(portal);
+        this.originToDest = rotateOriginToDest.translate(portalDestPos);
+        this.destToOrigin = originToDest.inverse();
         logger.fine("Origin pos: %s, Dest pos: %s", portalOriginPos, portalDestPos);
         logger.fine("Origin direction: %s, Dest Direction: %s", portal.getOriginPos().getDirection(), portal.getDestPos().getDirection());
 
+        IntVector relativeMin = new IntVector(renderConfig.getMinXZ(), renderConfig.getMinY(), renderConfig.getMinXZ());
+        IntVector relativeMax = new IntVector(renderConfig.getMaxXZ(), renderConfig.getMaxY(), renderConfig.getMaxXZ());
+        this.originMin = relativeMin.add(portalOriginPos);
+        this.originMax = relativeMax.add(portalOriginPos);
+
+        // The destination area may be rotated, so we need to find the new minimum and maximum corners
+        IntVector destCornerA = originToDest.transform(relativeMin);
+        IntVector destCornerB = originToDest.transform(relativeMax);
+        this.destMin = new IntVector(Math.min(destCornerA.getX(), destCornerB.getX()), Math.min(destCornerA.getY(), destCornerB.getY()), Math.min(destCornerA.getZ(), destCornerB.getZ()));
+        this.destMax = new IntVector(Math.max(destCornerA.getX(), destCornerB.getX()), Math.max(destCornerA.getY(), destCornerB.getY()), Math.max(destCornerA.getZ(), destCornerB.getZ()));
+
         reset();
     }
 
@@ -93,139 +170,373 @@ public class FloodFillViewableBlockArray implements IViewableBlockArray    {
         return new IntVector(destPosCenter);
     }
 
-    private boolean isInLine(IntVector relPos) {
-        return destDirection.swapVector(relPos).getZ() == 0;
+    /**
+     * Finds if a destination-relative position is in line with the portal, i.e. has no offset on the axis that the destination portal faces.
+     */
+    private boolean isInLine(int destRelX, int destRelY, int destRelZ) {
+        switch(destDirection) {
+            case EAST:
+            case WEST:
+                return destRelX == 0;
+            case UP:
+            case DOWN:
+                return destRelY == 0;
+            default:
+                return destRelZ == 0;
+        }
+    }
+
+    private BlockData readOriginBlock(IntVector position) {
+        return BlockData.create(position.getBlock(originWorld));
     }
 
     /**
      * Starts a flood fill from <code>start</code> out to the edges of the viewed portal area.
      * The fill stops when it reaches occluding blocks, as we don't need to render other blocks behind these.
-     * The origin data is also fetched, and this is placed in {@link FloodFillViewableBlockArray#viewableStates}.
+     * The origin data is also fetched, and this is placed in {@link SearchState#viewableStates}.
+     * <br>This doesn't access any Bukkit blocks directly, so can run on a worker thread if the readers are thread-safe.
      * <br>Some notes:
      * - There used to be a check to see if the origin and destination states are the same, but this added too much complexity when checking for changes, so I decided to remove it.
      * - That unfortunately reduces the performance of the threaded bit slightly, but I think it's worth it for the gains here.
+     * @param state The state to add the found blocks to
      * @param start Start position of the flood fill, at the origin
+     * @param originReader Used to read blocks at the origin
+     * @param destReader Used to read blocks at the destination
+     * @param isInitial Whether this is the first flood-fill for the portal
      */
-    private void searchFromBlock(IntVector start) {
-        WrappedBlockData backgroundData = renderConfig.getBackgroundBlockData();
-        if(backgroundData == null) {
-            backgroundData = MaterialUtil.PORTAL_EDGE_DATA; // Use the default if not overridden in the config
-        }
+    private void searchFromBlock(SearchState state, IntVector start, Function<IntVector, BlockData> originReader, Function<IntVector, BlockData> destReader, boolean isInitial) {
+        WrappedBlockData backgroundData = getBackgroundData();
+
+        IntVector startRelPos = start.subtract(centerPos);
+        logger.fine("Starting at %s", startRelPos);
+
+        boolean[] reachedStates = state.reachedStates;
+        int[] searchStack = state.searchStack;
+
+        int startIndex = renderConfig.getArrayIndex(startRelPos);
+        reachedStates[startIndex] = true;
+        searchStack[0] = startIndex;
+        int stackSize = 1;
+        while(stackSize > 0) {
+            int index = searchStack[--stackSize];
+            if(state.nonObscuredStates[index] == null) {
+                state.nonObscuredCount++;
+            }
 
-        List<IntVector> stack = new ArrayList<>(renderConfig.getTotalArrayLength());
+            if(!visitBlock(state, index, originReader, destReader, isInitial, backgroundData, state.originTileEntities, state.destTileEntities)) {continue;}
 
-        logger.fine("Starting at %s", start.subtract(centerPos));
-        stack.add(start.subtract(centerPos));
-        while(stack.size() > 0) {
-            IntVector originRelPos = stack.remove(stack.size() - 1);
-            IntVector originPos = originRelPos.add(portalOriginPos);
-            IntVector destRelPos = rotateOriginToDest.transform(originRelPos);
-            IntVector destPos = destRelPos.add(portalDestPos);
+            // Continue for any surrounding blocks that haven't been checked yet
+            for(IntVector offset : renderConfig.getSurroundingOffsets()) {
+                int offsetIndex = getOffsetIndex(index, offset);
 
-            BlockData destData = dataFetcher.getData(destPos);
-            boolean isOccluding = destData.getType().isOccluding();
+                if (!reachedStates[offsetIndex]) {
+                    reachedStates[offsetIndex] = true;
+                    searchStack[stackSize++] = offsetIndex;
+                }
+            }
+        }
+    }
 
-            Block originBlock = originPos.getBlock(originWorld);
-            BlockData originData = BlockData.create(originBlock);
+    /**
+     * Does the same as {@link FloodFillViewableBlockArray#searchFromBlock(SearchState, IntVector, Function, Function, boolean)} for the initial flood-fill, but using multiple threads.
+     * The search is done one layer at a time, i.e. all blocks the same distance from the start, and each layer is split between the threads in <code>pool</code>.
+     * This is only worth it for large effect sizes, and the readers must be thread-safe.
+     * @param state The state to add the found blocks to
+     * @param start Start position of the flood fill, at the origin
+     * @param originReader Used to read blocks at the origin
+     * @param destReader Used to read blocks at the destination
+     * @param pool Pool to split each layer between
+     */
+    private void parallelSearchFromBlock(SearchState state, IntVector start, Function<IntVector, BlockData> originReader, Function<IntVector, BlockData> destReader, ForkJoinPool pool) {
+        WrappedBlockData backgroundData = getBackgroundData();
+        ConcurrentBitSet reached = new ConcurrentBitSet(renderConfig.getTotalArrayLength());
+
+        int startIndex = renderConfig.getArrayIndex(start.subtract(centerPos));
+        reached.trySet(startIndex);
+        int[] frontier = new int[]{startIndex};
+        int layerCount = 0;
+        while(frontier.length > 0) {
+            LayerResult result = pool.invoke(new LayerTask(state, frontier, 0, frontier.length, reached, originReader, destReader, backgroundData));
+
+            state.nonObscuredCount += frontier.length;
+            state.originTileEntities.addAll(result.originTileEntities);
+            state.destTileEntities.addAll(result.destTileEntities);
+            frontier = Arrays.copyOf(result.nextFrontier, result.nextFrontierSize);
+            layerCount++;
+        }
+        logger.fine("Parallel flood-fill finished after %d layers", layerCount);
 
-            if(!portal.isCrossServer() && MaterialUtil.isTileEntity(destData.getType())) {
-                logger.finer("Adding tile state to map . . .");
-                Block destBlock = destPos.getBlock(portal.getDestPos().getWorld());
+        // Later re-flood-fills are done on the main thread, so these need to be copied into the normal array
+        for(int index = 0; index < state.reachedStates.length; index++) {
+            state.reachedStates[index] = reached.get(index);
+        }
+    }
 
-                PacketContainer updatePacket = BlockDataUtil.getUpdatePacket(destBlock.getState());
-                if(updatePacket != null) {
-                    BlockDataUtil.setTileEntityPosition(updatePacket, originPos);
+    // Output of processing part of a layer in the parallel flood-fill
+    private static class LayerResult {
+        int[] nextFrontier;
+        int nextFrontierSize;
+        final List<IntVector> originTileEntities = new ArrayList<>();
+        final List<IntVector> destTileEntities = new ArrayList<>();
 
-                    destTileStates.put(originPos, updatePacket);
-                }
-            }
+        LayerResult(int initialCapacity) {
+            nextFrontier = new int[initialCapacity];
+        }
 
-            if(MaterialUtil.isTileEntity(originBlock.getType()))  {
-                logger.finer("Adding tile state to map . . .");
-                PacketContainer updatePacket = BlockDataUtil.getUpdatePacket(originBlock.getState());
-                if(updatePacket != null) {
-                    originTileStates.put(originPos, updatePacket);
-                }
+        void addToFrontier(int index) {
+            if(nextFrontierSize == nextFrontier.length) {
+                nextFrontier = Arrays.copyOf(nextFrontier, Math.max(16, nextFrontier.length * 2));
             }
+            nextFrontier[nextFrontierSize++] = index;
+        }
 
-            ViewableBlockInfo blockInfo = new ViewableBlockInfo(originData, destData);
-            boolean isEdge = renderConfig.isOutsideBounds(originRelPos);
-            if(isEdge && !isOccluding) {
-                blockInfo.setRenderedDestData(backgroundData);
-            }   else    {
-                blockInfo.setRenderedDestData(blockRotator.rotateByMatrix(rotateDestToOrigin, destData).toProtocolLib());
+        void merge(LayerResult other) {
+            for(int i = 0; i < other.nextFrontierSize; i++) {
+                addToFrontier(other.nextFrontier[i]);
             }
-            nonObscuredStates.put(originPos, blockInfo);
+            originTileEntities.addAll(other.originTileEntities);
+            destTileEntities.addAll(other.destTileEntities);
+        }
+    }
 
-            boolean canSkip = destData.equals(originData) && firstUpdate && !isEdge;
-            boolean isInLine = isInLine(destRelPos);
-            if (!isInLine && !canSkip) {
-                viewableStates.put(originPos, blockInfo);
+    /**
+     * Visits the blocks in part of a layer of the parallel flood-fill, splitting itself in two if the part is large.
+     * Each block is only ever visited by one task, since it is claimed in the concurrent bitset before being added to a frontier.
+     */
+    private class LayerTask extends RecursiveTask<LayerResult> {
+        private static final int MIN_SPLIT_SIZE = 256;
+
+        private final SearchState state;
+        private final int[] frontier;
+        private final int from;
+        private final int to;
+        private final ConcurrentBitSet reached;
+        private final Function<IntVector, BlockData> originReader;
+        private final Function<IntVector, BlockData> destReader;
+        private final WrappedBlockData backgroundData;
+
+        LayerTask(SearchState state, int[] frontier, int from, int to, ConcurrentBitSet reached, Function<IntVector, BlockData> originReader, Function<IntVector, BlockData> destReader, WrappedBlockData backgroundData) {
+            this.state = state;
+            this.frontier = frontier;
+            this.from = from;
+            this.to = to;
+            this.reached = reached;
+            this.originReader = originReader;
+            this.destReader = destReader;
+            this.backgroundData = backgroundData;
+        }
+
+        @Override
+        protected LayerResult compute() {
+            if(to - from > MIN_SPLIT_SIZE) {
+                int middle = (from + to) >>> 1;
+                LayerTask second = new LayerTask(state, frontier, middle, to, reached, originReader, destReader, backgroundData);
+                second.fork();
+
+                LayerResult result = new LayerTask(state, frontier, from, middle, reached, originReader, destReader, backgroundData).compute();
+                result.merge(second.join());
+                return result;
             }
 
-            // Stop when we reach the edge or an occluding block, since we don't want to show blocks outside the view area
-            if ((isOccluding && !isInLine) || isEdge) {continue;}
+            LayerResult result = new LayerResult((to - from) * 2);
+            for(int i = from; i < to; i++) {
+                int index = frontier[i];
+                if(!visitBlock(state, index, originReader, destReader, true, backgroundData, result.originTileEntities, result.destTileEntities)) {continue;}
 
-            // Continue for any surrounding blocks that haven't been checked yet
-            for(IntVector offset : renderConfig.getSurroundingOffsets()) {
-                IntVector offsetPos = originRelPos.add(offset);
-                if (!nonObscuredStates.containsKey(offsetPos.add(portalOriginPos))) {
-                    stack.add(offsetPos);
+                for(IntVector offset : renderConfig.getSurroundingOffsets()) {
+                    int offsetIndex = getOffsetIndex(index, offset);
+                    if(reached.trySet(offsetIndex)) {
+                        result.addToFrontier(offsetIndex);
+                    }
                 }
             }
+            return result;
         }
     }
 
+    private WrappedBlockData getBackgroundData() {
+        WrappedBlockData backgroundData = renderConfig.getBackgroundBlockData();
+        if(backgroundData == null) {
+            backgroundData = MaterialUtil.PORTAL_EDGE_DATA; // Use the default if not overridden in the config
+        }
+        return backgroundData;
+    }
+
+    private int getOffsetIndex(int index, IntVector offset) {
+        return index + offset.getX() + offset.getZ() * renderConfig.getZMultip() + offset.getY() * renderConfig.getYMultip();
+    }
+
     /**
-     * Checks the origin and destination blocks for changes.
+     * Reads the origin and destination blocks at <code>index</code> and adds them to <code>state</code>.
+     * Each index must only be visited by one thread at once.
+     * @return Whether the flood-fill should continue to the surrounding blocks
+     */
+    private boolean visitBlock(SearchState state, int index, Function<IntVector, BlockData> originReader, Function<IntVector, BlockData> destReader, boolean isInitial,
+                               WrappedBlockData backgroundData, List<IntVector> originTileEntities, List<IntVector> destTileEntities) {
+        IntVector originRelPos = renderConfig.getArrayPosition(index);
+        int relX = originRelPos.getX();
+        int relY = originRelPos.getY();
+        int relZ = originRelPos.getZ();
+
+        IntVector originPos = originRelPos.add(portalOriginPos);
+        IntVector destPos = originToDest.transform(originRelPos);
+
+        BlockData destData = destReader.apply(destPos);
+        boolean isOccluding = destData.getType().isOccluding();
+
+        BlockData originData = originReader.apply(originPos);
+
+        if(!portal.isCrossServer() && MaterialUtil.isTileEntity(destData.getType())) {
+            destTileEntities.add(originPos);
+        }
+
+        if(MaterialUtil.isTileEntity(originData.getType()))  {
+            originTileEntities.add(originPos);
+        }
+
+        ViewableBlockInfo blockInfo = new ViewableBlockInfo(originData, destData, index);
+        boolean isEdge = renderConfig.isOutsideBounds(originRelPos);
+        if(isEdge && !isOccluding) {
+            blockInfo.setRenderedDestData(backgroundData);
+        }   else    {
+            blockInfo.setRenderedDestData(blockRotator.rotateByMatrix(rotateDestToOrigin, destData).toProtocolLib());
+        }
+        state.nonObscuredStates[index] = blockInfo;
+
+        boolean canSkip = destData.equals(originData) && isInitial && !isEdge;
+        boolean isInLine = isInLine(
+                rotateOriginToDest.transformX(relX, relY, relZ),
+                rotateOriginToDest.transformY(relX, relY, relZ),
+                rotateOriginToDest.transformZ(relX, relY, relZ)
+        );
+        if (!isInLine && !canSkip) {
+            state.viewableStates.put(originPos, blockInfo);
+        }
+
+        // Stop when we reach the edge or an occluding block, since we don't want to show blocks outside the view area
+        return !(isOccluding && !isInLine) && !isEdge;
+    }
+
+    /**
+     * Checks every block reached by the flood-fill for changes.
      * At the origin, we only need to check the actually viewable blocks, since there is no need to re-flood-fill.
      * At the destination, we must check all blocks that were reached by the flood-fill, then do a re-flood-fill for any that have changed to add blocks in a newly revealed cavern, for instance.
      */
-    private void checkForChanges() {
-        for(Map.Entry<IntVector, ViewableBlockInfo> entry : nonObscuredStates.entrySet()) {
-            ViewableBlockInfo blockInfo = entry.getValue();
+    private void checkAllForChanges() {
+        ViewableBlockInfo[] nonObscuredStates = state.nonObscuredStates;
+        for(int index = 0; index < nonObscuredStates.length; index++) {
+            ViewableBlockInfo blockInfo = nonObscuredStates[index];
+            if(blockInfo != null) {
+                checkForChanges(index, blockInfo);
+            }
+        }
+
+        fetchTileStates();
+        updateTileStateMaps();
+    }
+
+    /**
+     * Checks only the blocks that have been marked as changed by block events since the last check.
+     */
+    private void checkDirtyForChanges() {
+        for(IntVector position : originChanges.getDirtyPositions()) {
+            checkIfReached(renderConfig.getArrayIndex(
+                    position.getX() - portalOriginPos.getX(),
+                    position.getY() - portalOriginPos.getY(),
+                    position.getZ() - portalOriginPos.getZ()
+            ));
+        }
 
-            IntVector destPos = rotateOriginToDest.transform(entry.getKey().subtract(portalOriginPos)).add(portalDestPos); // Avoid directly using the matrix to fix floating point precision issues
-            BlockData newDestData = dataFetcher.getData(destPos);
+        for(IntVector position : destChanges.getDirtyPositions()) {
+            int x = position.getX();
+            int y = position.getY();
+            int z = position.getZ();
 
-            if(!newDestData.equals(blockInfo.getBaseDestData())) {
-                logger.finer("Destination block change");
-                searchFromBlock(entry.getKey());
-            }
+            checkIfReached(renderConfig.getArrayIndex(destToOrigin.transformX(x, y, z), destToOrigin.transformY(x, y, z), destToOrigin.transformZ(x, y, z)));
+        }
 
-            if(!portal.isCrossServer()) {
-                if (MaterialUtil.isTileEntity(newDestData.getType())) {
-                    logger.finer("Adding tile state to map . . .");
-                    Block destBlock = destPos.getBlock(portal.getDestPos().getWorld());
+        fetchTileStates();
+        updateTileStateMaps();
+    }
 
-                    PacketContainer updatePacket = BlockDataUtil.getUpdatePacket(destBlock.getState());
-                    if(updatePacket != null) {
-                        BlockDataUtil.setTileEntityPosition(updatePacket, entry.getKey());
+    // Changes to blocks that weren't reached by the flood-fill don't matter, since they're hidden behind other blocks
+    private void checkIfReached(int index) {
+        ViewableBlockInfo blockInfo = state.nonObscuredStates[index];
+        if(blockInfo != null) {
+            checkForChanges(index, blockInfo);
+        }
+    }
 
-                        destTileStates.put(entry.getKey(), updatePacket);
-                    }
-                }
+    /**
+     * Checks the origin and destination block at <code>index</code> for changes, and re-flood-fills from it if the destination has changed.
+     */
+    private void checkForChanges(int index, ViewableBlockInfo blockInfo) {
+        IntVector originRelPos = renderConfig.getArrayPosition(index);
+        IntVector originPos = originRelPos.add(portalOriginPos);
+        IntVector destPos = originToDest.transform(originRelPos);
+        BlockData newDestData = dataFetcher.getData(destPos);
+
+        if(!newDestData.equals(blockInfo.getBaseDestData())) {
+            logger.finer("Destination block change");
+            searchFromBlock(state, originPos, this::readOriginBlock, dataFetcher::getData, false);
+        }
+
+        if(!portal.isCrossServer() && MaterialUtil.isTileEntity(newDestData.getType())) {
+            state.destTileEntities.add(originPos);
+        }
+
+        BlockData newOriginData = readOriginBlock(originPos);
+        if(MaterialUtil.isTileEntity(newOriginData.getType()))  {
+            state.originTileEntities.add(originPos);
+        }
+
+        if(!newOriginData.equals(blockInfo.getBaseOriginData())) {
+            logger.finer("Origin block change");
+            blockInfo.setOriginData(newOriginData);
+            if(!newOriginData.equals(newDestData) && !portal.getOriginPos().isInLine(originPos)) {
+                state.viewableStates.put(originPos, blockInfo);
             }
+        }
+    }
 
-            Block originBlock = entry.getKey().getBlock(originWorld);
-            BlockData newOriginData = BlockData.create(originBlock);
-            if(MaterialUtil.isTileEntity(originBlock.getType()))  {
-                logger.finer("Adding tile state to map . . .");
-                PacketContainer updatePacket = BlockDataUtil.getUpdatePacket(originBlock.getState());
-                if(updatePacket != null) {
-                    originTileStates.put(entry.getKey(), updatePacket);
-                }
+    /**
+     * Fetches the update packets of the tile entities found since this was last called.
+     * Must be called on the main thread.
+     */
+    private void fetchTileStates() {
+        for(IntVector originPos : state.originTileEntities) {
+            logger.finer("Adding tile state to map . . .");
+            PacketContainer updatePacket = getTileEntityPacket(originPos.getBlock(originWorld));
+            if(updatePacket != null) {
+                originTileStates.put(originPos, updatePacket);
             }
+        }
 
-            if(!newOriginData.equals(blockInfo.getBaseOriginData())) {
-                logger.finer("Origin block change");
-                blockInfo.setOriginData(newOriginData);
-                if(!newOriginData.equals(newDestData) && !portal.getOriginPos().isInLine(entry.getKey())) {
-                    viewableStates.put(entry.getKey(), entry.getValue());
-                }
+        World destWorld = portal.getDestPos().getWorld();
+        for(IntVector originPos : state.destTileEntities) {
+            logger.finer("Adding tile state to map . . .");
+            IntVector destPos = originToDest.transform(originPos.subtract(portalOriginPos));
+            PacketContainer updatePacket = getTileEntityPacket(destPos.getBlock(destWorld));
+            if(updatePacket != null) {
+                BlockDataUtil.setTileEntityPosition(updatePacket, originPos);
+
+                destTileStates.put(originPos, updatePacket);
             }
         }
 
+        state.originTileEntities.clear();
+        state.destTileEntities.clear();
+    }
+
+    // The block may no longer be a tile entity if it was found by the initial flood-fill on a worker thread
+    private @Nullable PacketContainer getTileEntityPacket(Block block) {
+        BlockState blockState = block.getState();
+        if(!MaterialUtil.isTileEntity(blockState.getType())) {return null;}
+
+        return BlockDataUtil.getUpdatePacket(blockState);
+    }
+
+    private void updateTileStateMaps() {
         updateTileStateMap(originTileStates, originWorld, false);
         if(!portal.isCrossServer()) {
             updateTileStateMap(destTileStates, portal.getDestPos().getWorld(), true);
@@ -237,7 +548,7 @@ public class FloodFillViewableBlockArray implements IViewableBlockArray    {
             IntVector position;
             if(isDestination) {
                 IntVector portalRelativePos = entry.getKey().subtract(portalOriginPos);
-                position = rotateOriginToDest.transform(portalRelativePos).add(portalDestPos);
+                position = originToDest.transform(portalRelativePos);
             }   else    {
                 position = entry.getKey();
             }
@@ -253,6 +564,22 @@ public class FloodFillViewableBlockArray implements IViewableBlockArray    {
 
     @Override
     public void update(int ticksSinceActivated) {
+        // The initial flood-fill is installed as soon as it finishes, rather than waiting for the next update interval
+        if(pendingSearch != null) {
+            SearchState finished = pendingSearch.get();
+            if(finished == null) {return;}
+
+            pendingSearch = null;
+            if(finished != FAILED_SEARCH) {
+                finishInitialUpdate(finished, ticksSinceActivated);
+                return;
+            }
+
+            logger.warning("Async initial flood-fill failed, falling back to updating on the main thread");
+            stopTrackingChanges(); // Started again by the synchronous initial update
+            asyncInitialUpdateFailed = true;
+        }
+
         if(ticksSinceActivated % renderConfig.getBlockUpdateInterval() != 0) {return;}
 
         if(dataFetcher == null) {
@@ -266,16 +593,115 @@ public class FloodFillViewableBlockArray implements IViewableBlockArray    {
             return;
         }
 
+        if(firstUpdate && renderConfig.isAsyncInitialUpdate() && !portal.isCrossServer() && !asyncInitialUpdateFailed) {
+            startAsyncInitialUpdate();
+            return;
+        }
+
         OperationTimer timer = new OperationTimer();
-        if(firstUpdate) {
-            searchFromBlock(centerPos);
+        boolean isInitial = firstUpdate;
+        if(isInitial) {
+            SearchState newState = new SearchState(renderConfig.getTotalArrayLength());
+            searchFromBlock(newState, centerPos, this::readOriginBlock, dataFetcher::getData, true);
+            startTrackingChanges();
+            finishInitialUpdate(newState, ticksSinceActivated);
+        }   else if(isFullUpdateRequired(ticksSinceActivated)) {
+            checkAllForChanges();
+            lastFullUpdateTick = ticksSinceActivated;
         }   else    {
-            checkForChanges();
+            checkDirtyForChanges();
+        }
+
+        if(originChanges != null) {
+            originChanges.clear();
+            destChanges.clear();
         }
-        performanceWatcher.putTimeTaken(firstUpdate ? "Initial viewable block update" : "Incremental viewable block update", timer);
+        performanceWatcher.putTimeTaken(isInitial ? "Initial viewable block update" : "Incremental viewable block update", timer);
         performanceWatcher.putTimeTaken("Viewable block update", timer);
+        logger.finer("Viewable block array update took: %.3f ms. Block count: %d. Viewable count: %d", timer.getTimeTakenMillis(), state.nonObscuredCount, viewableStates.size());
+    }
+
+    /**
+     * Takes snapshots of the chunks at the origin and destination, then does the initial flood-fill from them on a worker thread.
+     * Taking the snapshots is much cheaper than the flood-fill, so this avoids the lag spike when a portal is first activated.
+     */
+    private void startAsyncInitialUpdate() {
+        OperationTimer timer = new OperationTimer();
+        ChunkSnapshotArea originSnapshot = new ChunkSnapshotArea(originWorld, originMin, originMax);
+        ChunkSnapshotArea destSnapshot = new ChunkSnapshotArea(portal.getDestPos().getWorld(), destMin, destMax);
+
+        // Blocks changed after the snapshots were taken are picked up by the first update after the flood-fill is installed
+        startTrackingChanges();
+        performanceWatcher.putTimeTaken("Viewable block snapshot capture", timer);
+
+        AtomicReference<SearchState> result = new AtomicReference<>();
+        pendingSearch = result;
+        try {
+            workerPool.execute(() -> {
+                try {
+                    OperationTimer searchTimer = new OperationTimer();
+                    SearchState newState = new SearchState(renderConfig.getTotalArrayLength());
+                    int threshold = renderConfig.getParallelSearchThreshold();
+                    if(threshold > 0 && renderConfig.getTotalArrayLength() >= threshold) {
+                        parallelSearchFromBlock(newState, centerPos, originSnapshot::getData, destSnapshot::getData, workerPool.getPool());
+                    }   else    {
+                        searchFromBlock(newState, centerPos, originSnapshot::getData, destSnapshot::getData, true);
+                    }
+
+                    performanceWatcher.putTimeTaken("Initial viewable block update", searchTimer);
+                    logger.finer("Async initial flood-fill took: %.3f ms. Block count: %d", searchTimer.getTimeTakenMillis(), newState.nonObscuredCount);
+                    result.set(newState);
+                }   catch(Throwable ex) {
+                    // The main thread would otherwise wait for the result forever
+                    logger.warning("An error occurred during the async initial flood-fill");
+                    ex.printStackTrace();
+                    result.set(FAILED_SEARCH);
+                }
+            });
+        }   catch(RejectedExecutionException ex) {
+            logger.warning("Failed to start the async initial flood-fill");
+            ex.printStackTrace();
+            result.set(FAILED_SEARCH);
+        }
+    }
+
+    /**
+     * Makes <code>newState</code> the current state after the initial flood-fill.
+     * Must be called on the main thread.
+     */
+    private void finishInitialUpdate(SearchState newState, int ticksSinceActivated) {
+        state = newState;
+        viewableStates = newState.viewableStates;
+        fetchTileStates();
+        lastFullUpdateTick = ticksSinceActivated;
         firstUpdate = false;
-        logger.finer("Viewable block array update took: %.3f ms. Block count: %d. Viewable count: %d", timer.getTimeTakenMillis(), nonObscuredStates.size(), viewableStates.size());
+    }
+
+    private void startTrackingChanges() {
+        // Cross-server portals have no way of finding which destination blocks changed, and the full update is required if the interval is 0
+        if(portal.isCrossServer() || renderConfig.getFullBlockUpdateInterval() <= 0) {return;}
+
+        originChanges = changeTracker.watch(originWorld, originMin, originMax);
+        destChanges = changeTracker.watch(portal.getDestPos().getWorld(), destMin, destMax);
+    }
+
+    private void stopTrackingChanges() {
+        if(originChanges == null) {return;}
+
+        changeTracker.unwatch(originChanges);
+        changeTracker.unwatch(destChanges);
+        originChanges = null;
+        destChanges = null;
+    }
+
+    private boolean isFullUpdateRequired(int ticksSinceActivated) {
+        if(originChanges == null) {return true;}
+        if(originChanges.hasOverflowed() || destChanges.hasOverflowed()) {return true;}
+
+        // The tick count restarts when the portal is viewed again, without the array being reset
+        if(ticksSinceActivated < lastFullUpdateTick) {return true;}
+
+        return ticksSinceActivated - lastFullUpdateTick >= renderConfig.getFullBlockUpdateInterval();
     }
 
     @Override
@@ -288,13 +714,26 @@ public class FloodFillViewableBlockArray implements IViewableBlockArray    {
         return destTileStates.get(position);
     }
 
+    @Override
+    public @NotNull IntVector getArrayPosition(int index) {
+        return renderConfig.getArrayPosition(index).add(portalOriginPos);
+    }
+
     @Override
     public void reset() {
         logger.finer("Clearing block array to save memory");
-        nonObscuredStates = new ConcurrentHashMap<>();
+        stopTrackingChanges();
+        if(dataFetcher != null) {
+            dataFetcher.close();
+        }
+        // Any flood-fill still running on a worker is discarded when it finishes
+        pendingSearch = null;
+        asyncInitialUpdateFailed = false;
+        state = null;
         viewableStates = new ConcurrentHashMap<>();
         originTileStates.clear();
         destTileStates.clear();
+        packetCache.clear();
         firstUpdate = true;
         dataFetcher = null;
     }
@@ -1,6 +1,7 @@
 package com.lauriethefish.betterportals.bukkit.block;
 
 import com.comphenix.protocol.events.PacketContainer;
+import com.lauriethefish.betterportals.bukkit.block.multiblockchange.MultiBlockChangeCache;
 import com.lauriethefish.betterportals.bukkit.config.RenderConfig;
 import com.lauriethefish.betterportals.api.IntVector;
 import com.lauriethefish.betterportals.bukkit.portal.IPortal;
@@ -51,6 +52,19 @@ public interface IViewableBlockArray {
     @Nullable PacketContainer getDestinationTileEntityPacket(@NotNull IntVector position);
 
 
+    /**
+     * Finds the position of a block from its index in the array, see {@link ViewableBlockInfo#getArrayIndex()}.
+     * @param index The array index
+     * @return The absolute position of the block at the origin
+     */
+    @NotNull IntVector getArrayPosition(int index);
+
+    /**
+     * Gets the cache used to share block change packets between the players viewing this portal.
+     * @return The packet cache
+     */
+    @NotNull MultiBlockChangeCache getPacketCache();
+
     /**
      * Clears the currently rendered array to save memory.
      * Called on portal deactivation.
@@ -12,11 +12,13 @@ public class ViewableBlockInfo {
     @Getter private BlockData baseDestData;
     @Getter private WrappedBlockData originData;
     @Getter private WrappedBlockData destData;
+    @Getter private int arrayIndex; // Index of this block in the portal's block array, see RenderConfig#getArrayIndex
 
-    public ViewableBlockInfo(BlockData originData, BlockData destData) {
+    public ViewableBlockInfo(BlockData originData, BlockData destData, int arrayIndex) {
         this.baseOriginData = originData;
         this.baseDestData = destData;
         this.originData = originData.toProtocolLib();
+        this.arrayIndex = arrayIndex;
     }
 
     // Test constructor
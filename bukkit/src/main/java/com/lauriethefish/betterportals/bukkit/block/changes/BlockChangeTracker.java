@@ -0,0 +1,77 @@
+package com.lauriethefish.betterportals.bukkit.block.changes;
+
+import com.google.inject.Singleton;
+import com.lauriethefish.betterportals.api.IntVector;
+import com.lauriethefish.betterportals.bukkit.chunk.chunkpos.ChunkSectionKey;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+import java.util.function.LongConsumer;
+
+@Singleton
+public class BlockChangeTracker implements IBlockChangeTracker {
+    // Areas are stored in every chunk section that they overlap, so that finding the areas containing a block is just a map lookup
+    private final Map<UUID, Map<Long, List<DirtyBlockArea>>> areasBySection = new HashMap<>();
+
+    @Override
+    public @NotNull DirtyBlockArea watch(@NotNull World world, @NotNull IntVector min, @NotNull IntVector max) {
+        DirtyBlockArea area = new DirtyBlockArea(world.getUID(), min, max);
+
+        Map<Long, List<DirtyBlockArea>> sections = areasBySection.computeIfAbsent(area.getWorldId(), key -> new HashMap<>());
+        forEachSection(area, sectionKey -> sections.computeIfAbsent(sectionKey, key -> new ArrayList<>()).add(area));
+
+        return area;
+    }
+
+    @Override
+    public void unwatch(@NotNull DirtyBlockArea area) {
+        Map<Long, List<DirtyBlockArea>> sections = areasBySection.get(area.getWorldId());
+        if(sections == null) {return;}
+
+        forEachSection(area, sectionKey -> {
+            List<DirtyBlockArea> areas = sections.get(sectionKey);
+            if(areas == null) {return;}
+
+            areas.remove(area);
+            if(areas.isEmpty()) {
+                sections.remove(sectionKey);
+            }
+        });
+
+        if(sections.isEmpty()) {
+            areasBySection.remove(area.getWorldId());
+        }
+    }
+
+    @Override
+    public void markChanged(@NotNull Block block) {
+        Map<Long, List<DirtyBlockArea>> sections = areasBySection.get(block.getWorld().getUID());
+        if(sections == null) {return;}
+
+        int x = block.getX();
+        int y = block.getY();
+        int z = block.getZ();
+
+        List<DirtyBlockArea> areas = sections.get(ChunkSectionKey.ofBlock(x, y, z));
+        if(areas == null) {return;}
+
+        for(DirtyBlockArea area : areas) {
+            area.markDirty(x, y, z);
+        }
+    }
+
+    private void forEachSection(DirtyBlockArea area, LongConsumer action) {
+        IntVector min = area.getMin();
+        IntVector max = area.getMax();
+
+        for(int x = min.getX() >> 4; x <= max.getX() >> 4; x++) {
+            for(int y = min.getY() >> 4; y <= max.getY() >> 4; y++) {
+                for(int z = min.getZ() >> 4; z <= max.getZ() >> 4; z++) {
+                    action.accept(ChunkSectionKey.of(x, y, z));
+                }
+            }
+        }
+    }
+}
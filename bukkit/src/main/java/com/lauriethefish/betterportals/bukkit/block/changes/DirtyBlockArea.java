@@ -0,0 +1,74 @@
+package com.lauriethefish.betterportals.bukkit.block.changes;
+
+import com.lauriethefish.betterportals.api.IntVector;
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Collects the positions of blocks that have changed inside a box in one world.
+ * Instances are created with {@link IBlockChangeTracker#watch(org.bukkit.World, IntVector, IntVector)}.
+ * <br>NOTE: This is only accessed on the main thread.
+ */
+public class DirtyBlockArea {
+    /**
+     * If more blocks than this change between checks (e.g. a large explosion), it's cheaper to just re-check the whole area
+     */
+    private static final int MAX_TRACKED_CHANGES = 4096;
+
+    @Getter private final UUID worldId;
+    @Getter private final IntVector min;
+    @Getter private final IntVector max;
+
+    private final Set<IntVector> dirtyPositions = new HashSet<>();
+    private boolean overflowed = false;
+
+    DirtyBlockArea(@NotNull UUID worldId, @NotNull IntVector min, @NotNull IntVector max) {
+        this.worldId = worldId;
+        this.min = min;
+        this.max = max;
+    }
+
+    public boolean contains(int x, int y, int z) {
+        return x >= min.getX() && x <= max.getX()
+                && y >= min.getY() && y <= max.getY()
+                && z >= min.getZ() && z <= max.getZ();
+    }
+
+    void markDirty(int x, int y, int z) {
+        if(overflowed || !contains(x, y, z)) {return;}
+
+        if(dirtyPositions.size() >= MAX_TRACKED_CHANGES) {
+            overflowed = true;
+            dirtyPositions.clear();
+            return;
+        }
+
+        dirtyPositions.add(new IntVector(x, y, z));
+    }
+
+    /**
+     * @return Whether too many blocks changed to track them individually, in which case the whole area must be re-checked.
+     */
+    public boolean hasOverflowed() {
+        return overflowed;
+    }
+
+    /**
+     * @return The absolute positions of the blocks that have changed since the last call to {@link DirtyBlockArea#clear()}.
+     */
+    public @NotNull Set<IntVector> getDirtyPositions() {
+        return dirtyPositions;
+    }
+
+    /**
+     * Clears the changed positions, should be called after they've been checked.
+     */
+    public void clear() {
+        dirtyPositions.clear();
+        overflowed = false;
+    }
+}
@@ -0,0 +1,34 @@
+package com.lauriethefish.betterportals.bukkit.block.changes;
+
+import com.lauriethefish.betterportals.api.IntVector;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Uses block events to find which blocks have changed around portals.
+ * This means that block arrays only have to re-check blocks that may have changed, instead of every block in the area.
+ * <br>NOTE: Plugins that change blocks without calling events won't be picked up, so a full re-check is still needed occasionally.
+ */
+public interface IBlockChangeTracker {
+    /**
+     * Starts tracking changes within a box.
+     * @param world The world the box is in
+     * @param min The minimum corner of the box, inclusive
+     * @param max The maximum corner of the box, inclusive
+     * @return The area that changed positions will be added to
+     */
+    @NotNull DirtyBlockArea watch(@NotNull World world, @NotNull IntVector min, @NotNull IntVector max);
+
+    /**
+     * Stops tracking changes for <code>area</code>.
+     * @param area The area to stop tracking
+     */
+    void unwatch(@NotNull DirtyBlockArea area);
+
+    /**
+     * Marks the given block as changed in any areas that contain it.
+     * @param block The block that changed, or is about to change
+     */
+    void markChanged(@NotNull Block block);
+}
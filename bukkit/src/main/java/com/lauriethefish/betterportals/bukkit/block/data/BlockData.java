@@ -2,6 +2,7 @@ package com.lauriethefish.betterportals.bukkit.block.data;
 
 import com.comphenix.protocol.wrappers.WrappedBlockData;
 import com.lauriethefish.betterportals.bukkit.util.VersionUtil;
+import org.bukkit.ChunkSnapshot;
 import org.bukkit.Material;
 import org.bukkit.block.Block;
 import org.jetbrains.annotations.NotNull;
@@ -24,6 +25,19 @@ public abstract class BlockData implements Cloneable   {
         return USE_MODERN ? new ModernBlockData(block) : new LegacyBlockData(block);
     }
 
+    /**
+     * Reads the block data from a {@link ChunkSnapshot}. Unlike reading from a {@link Block}, this is safe to do off of the main thread.
+     * @param snapshot The snapshot to read from
+     * @param x Chunk-relative X coordinate, 0-15
+     * @param y Y coordinate
+     * @param z Chunk-relative Z coordinate, 0-15
+     * @return The correct implementation
+     */
+    @NotNull
+    public static BlockData create(@NotNull ChunkSnapshot snapshot, int x, int y, int z) {
+        return USE_MODERN ? new ModernBlockData(snapshot.getBlockData(x, y, z)) : new LegacyBlockData(snapshot, x, y, z);
+    }
+
     /**
      * Loads the block data from the combined ID as fetched with {@link BlockData#getCombinedId()}
      * @param combinedId The ID to load from
@@ -2,6 +2,7 @@ package com.lauriethefish.betterportals.bukkit.block.data;
 
 import com.comphenix.protocol.wrappers.WrappedBlockData;
 import com.lauriethefish.betterportals.shared.util.ReflectionUtil;
+import org.bukkit.ChunkSnapshot;
 import org.bukkit.Material;
 import org.bukkit.block.Block;
 import org.bukkit.material.MaterialData;
@@ -15,8 +16,13 @@ public class LegacyBlockData extends BlockData  {
      * This exists on 1.12, but not on 1.16, so we access it using reflection to avoid compilation errors
      */
     private static final Method GET_FROM_ID;
+    /**
+     * On 1.12 this returns the data value as an int, but on 1.16 it returns the modern block data, so it is also accessed using reflection
+     */
+    private static final Method GET_SNAPSHOT_DATA;
     static {
         GET_FROM_ID = ReflectionUtil.findMethod(Material.class, "getMaterial", new Class[]{int.class});
+        GET_SNAPSHOT_DATA = ReflectionUtil.findMethod(ChunkSnapshot.class, "getBlockData", new Class[]{int.class, int.class, int.class});
     }
 
     private final MaterialData underlying;
@@ -30,6 +36,10 @@ public class LegacyBlockData extends BlockData  {
         this.underlying = underlying;
     }
 
+    public LegacyBlockData(@NotNull ChunkSnapshot snapshot, int x, int y, int z) {
+        this.underlying = new MaterialData(snapshot.getBlockType(x, y, z), getSnapshotData(snapshot, x, y, z));
+    }
+
     public LegacyBlockData(int combinedId) {
         byte data = (byte) (combinedId >> 12);
         int id = combinedId & 0x00000FFF;
@@ -45,6 +55,14 @@ public class LegacyBlockData extends BlockData  {
         }
     }
 
+    private static byte getSnapshotData(ChunkSnapshot snapshot, int x, int y, int z) {
+        try {
+            return (byte) (int) GET_SNAPSHOT_DATA.invoke(snapshot, x, y, z);
+        }   catch(ReflectiveOperationException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
     @Override
     public @NotNull Material getType() {
         return underlying.getItemType();
@@ -0,0 +1,227 @@
+package com.lauriethefish.betterportals.bukkit.block.external;
+
+import com.lauriethefish.betterportals.shared.net.encoding.WireFormat;
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compact set of block changes sent from the destination of a cross-server portal to the origin.
+ * Blocks are referred to by their index in the watched area, see {@link BlockChangeSet#getIndex(int, int, int, int, int)}.
+ * <br>Each different combined ID is stored once in a palette, and each change only stores its index in the palette, bit-packed using as few bits as possible.
+ * The first change set for an area is a snapshot, which contains every block in index order, so no positions need to be sent.
+ * After that, only the changed positions are sent, as the gaps between them. Since the gaps are usually small, they only take a byte or so each.
+ */
+public class BlockChangeSet {
+    // Stops a corrupt change set from allocating a huge array, since a snapshot with only one palette entry has no other data to check the length against
+    private static final int MAX_CHANGES = 1 << 24;
+
+    @FunctionalInterface
+    public interface ChangeConsumer {
+        /**
+         * @param index Index of the changed block in the watched area
+         * @param paletteIndex Index of the new data in {@link BlockChangeSet#getPalette()}
+         */
+        void accept(int index, int paletteIndex);
+    }
+
+    /**
+     * Combined IDs of each different block data in this change set
+     */
+    @Getter private final int[] palette;
+    /**
+     * Whether this change set contains every block in the area
+     */
+    @Getter private final boolean snapshot;
+
+    // Null if this is a snapshot
+    private final int[] positions;
+    private final int[] paletteIndices;
+
+    private BlockChangeSet(int[] palette, int[] positions, int[] paletteIndices) {
+        this.palette = palette;
+        this.snapshot = positions == null;
+        this.positions = positions;
+        this.paletteIndices = paletteIndices;
+    }
+
+    /**
+     * Creates a change set containing every block in an area.
+     * @param combinedIds Combined ID of each block, in index order
+     */
+    public static @NotNull BlockChangeSet createSnapshot(int[] combinedIds) {
+        return create(null, combinedIds, combinedIds.length);
+    }
+
+    /**
+     * Creates a change set containing some changed blocks.
+     * @param positions Indices of the changed blocks. Must be in ascending order
+     * @param combinedIds New combined ID of each changed block
+     * @param count Number of changes to use from the arrays
+     */
+    public static @NotNull BlockChangeSet createDelta(int[] positions, int[] combinedIds, int count) {
+        int[] usedPositions = new int[count];
+        System.arraycopy(positions, 0, usedPositions, 0, count);
+        return create(usedPositions, combinedIds, count);
+    }
+
+    private static BlockChangeSet create(int[] positions, int[] combinedIds, int count) {
+        Map<Integer, Integer> paletteLookup = new HashMap<>();
+        int[] paletteIndices = new int[count];
+        int lastId = 0;
+        int lastIndex = -1;
+        for(int i = 0; i < count; i++) {
+            int combinedId = combinedIds[i];
+            // Neighbouring blocks are very often the same, so this saves most of the lookups
+            if(combinedId != lastId || lastIndex == -1) {
+                lastId = combinedId;
+                lastIndex = paletteLookup.computeIfAbsent(combinedId, key -> paletteLookup.size());
+            }
+            paletteIndices[i] = lastIndex;
+        }
+
+        int[] palette = new int[paletteLookup.size()];
+        paletteLookup.forEach((combinedId, index) -> palette[index] = combinedId);
+        return new BlockChangeSet(palette, positions, paletteIndices);
+    }
+
+    /**
+     * Finds the index of a block in a watched area.
+     * Blocks are ordered along X, then Z, then Y, which matches the order that the watcher checks them in.
+     * @param x X coordinate relative to the center of the area
+     * @param y Y coordinate relative to the center of the area
+     * @param z Z coordinate relative to the center of the area
+     * @param xAndZRadius Radius of the area on the X and Z axes
+     * @param yRadius Radius of the area on the Y axis
+     * @return The index of the block
+     */
+    public static int getIndex(int x, int y, int z, int xAndZRadius, int yRadius) {
+        int width = xAndZRadius * 2 + 1;
+        return (x + xAndZRadius) + (z + xAndZRadius) * width + (y + yRadius) * width * width;
+    }
+
+    /**
+     * @return The number of changed blocks
+     */
+    public int size() {
+        return paletteIndices.length;
+    }
+
+    /**
+     * Calls <code>consumer</code> with each changed block, in index order.
+     * @param consumer Consumer to call
+     */
+    public void forEachChange(@NotNull ChangeConsumer consumer) {
+        for(int i = 0; i < paletteIndices.length; i++) {
+            consumer.accept(positions == null ? i : positions[i], paletteIndices[i]);
+        }
+    }
+
+    public void write(@NotNull DataOutputStream out) throws IOException {
+        out.writeBoolean(snapshot);
+        WireFormat.writeVarInt(out, palette.length);
+        for(int combinedId : palette) {
+            WireFormat.writeVarInt(out, combinedId);
+        }
+
+        WireFormat.writeVarInt(out, paletteIndices.length);
+        if(!snapshot) {
+            int previous = -1;
+            for(int position : positions) {
+                WireFormat.writeVarInt(out, position - previous);
+                previous = position;
+            }
+        }
+
+        // Pack the palette indices into longs, allowing them to span across two longs so that no bits are wasted
+        // If every change has the same data, no indices need to be sent at all
+        int bitsPerEntry = getBitsPerEntry(palette.length);
+        long[] packed = new long[getPackedLength(paletteIndices.length, bitsPerEntry)];
+        for(int i = 0; bitsPerEntry > 0 && i < paletteIndices.length; i++) {
+            long bitIndex = (long) i * bitsPerEntry;
+            int word = (int) (bitIndex >>> 6);
+            int offset = (int) (bitIndex & 63);
+
+            packed[word] |= (long) paletteIndices[i] << offset;
+            if(offset + bitsPerEntry > 64) {
+                packed[word + 1] |= (long) paletteIndices[i] >>> (64 - offset);
+            }
+        }
+
+        for(long value : packed) {
+            out.writeLong(value);
+        }
+    }
+
+    public static @NotNull BlockChangeSet read(@NotNull DataInputStream in) throws IOException {
+        boolean snapshot = in.readBoolean();
+        int paletteLength = WireFormat.readVarInt(in);
+        WireFormat.checkLength(in, paletteLength);
+        int[] palette = new int[paletteLength];
+        for(int i = 0; i < paletteLength; i++) {
+            palette[i] = WireFormat.readVarInt(in);
+        }
+
+        int count = WireFormat.readVarInt(in);
+        if(count < 0 || count > MAX_CHANGES) {
+            throw new IOException("Invalid block change count " + count);
+        }
+
+        int[] positions = null;
+        if(!snapshot) {
+            WireFormat.checkLength(in, count);
+            positions = new int[count];
+            int previous = -1;
+            for(int i = 0; i < count; i++) {
+                previous += WireFormat.readVarInt(in);
+                positions[i] = previous;
+            }
+        }
+
+        int bitsPerEntry = getBitsPerEntry(paletteLength);
+        int packedLength = getPackedLength(count, bitsPerEntry);
+        WireFormat.checkLength(in, packedLength * 8);
+        if(count > 0 && paletteLength == 0) {
+            throw new IOException("Block change set had changes, but no palette");
+        }
+        long[] packed = new long[packedLength];
+        for(int i = 0; i < packedLength; i++) {
+            packed[i] = in.readLong();
+        }
+
+        long mask = (1L << bitsPerEntry) - 1;
+        int[] paletteIndices = new int[count];
+        for(int i = 0; bitsPerEntry > 0 && i < count; i++) {
+            long bitIndex = (long) i * bitsPerEntry;
+            int word = (int) (bitIndex >>> 6);
+            int offset = (int) (bitIndex & 63);
+
+            long value = packed[word] >>> offset;
+            if(offset + bitsPerEntry > 64) {
+                value |= packed[word + 1] << (64 - offset);
+            }
+            paletteIndices[i] = (int) (value & mask);
+        }
+
+        for(int paletteIndex : paletteIndices) {
+            if(paletteIndex >= paletteLength) {
+                throw new IOException("Block change palette index " + paletteIndex + " was out of range");
+            }
+        }
+
+        return new BlockChangeSet(palette, positions, paletteIndices);
+    }
+
+    private static int getPackedLength(int count, int bitsPerEntry) {
+        return (int) (((long) count * bitsPerEntry + 63) >>> 6);
+    }
+
+    private static int getBitsPerEntry(int paletteLength) {
+        return paletteLength <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(paletteLength - 1);
+    }
+}
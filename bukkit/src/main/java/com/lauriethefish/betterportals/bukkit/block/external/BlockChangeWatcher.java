@@ -2,65 +2,142 @@ package com.lauriethefish.betterportals.bukkit.block.external;
 
 import com.google.inject.Inject;
 import com.google.inject.assistedinject.Assisted;
-import com.lauriethefish.betterportals.bukkit.block.data.BlockData;
 import com.lauriethefish.betterportals.api.IntVector;
-import com.lauriethefish.betterportals.bukkit.math.Matrix;
-import com.lauriethefish.betterportals.bukkit.net.requests.GetBlockDataChangesRequest;
+import com.lauriethefish.betterportals.bukkit.block.changes.DirtyBlockArea;
+import com.lauriethefish.betterportals.bukkit.block.changes.IBlockChangeTracker;
+import com.lauriethefish.betterportals.bukkit.block.data.BlockData;
+import com.lauriethefish.betterportals.bukkit.math.IntMatrix;
+import com.lauriethefish.betterportals.bukkit.net.requests.SubscribeBlockChangesRequest;
 import com.lauriethefish.betterportals.bukkit.util.performance.IPerformanceWatcher;
 import com.lauriethefish.betterportals.bukkit.util.performance.OperationTimer;
 import org.bukkit.Bukkit;
 import org.bukkit.World;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 public class BlockChangeWatcher implements IBlockChangeWatcher  {
     private final IPerformanceWatcher performanceWatcher;
-    private final IntVector center;
-    private final Matrix rotationMatrix;
+    private final IBlockChangeTracker changeTracker;
+    private final IntMatrix transform; // Rotates then translates to the center of the watched area
+    private final IntMatrix inverseTransform;
     private World world;
 
     private final int xAndZRadius;
     private final int yRadius;
 
-    private final Map<IntVector, BlockData> previousData = new HashMap<>();
+    // Combined ID of each block in the area by index, or null before the first check
+    private int[] previousIds = null;
+    private final int[] changedPositions;
+    private final int[] changedIds;
+
+    private final DirtyBlockArea dirtyArea;
 
     @Inject
-    public BlockChangeWatcher(@Assisted GetBlockDataChangesRequest request, IPerformanceWatcher performanceWatcher) {
+    public BlockChangeWatcher(@Assisted SubscribeBlockChangesRequest request, IPerformanceWatcher performanceWatcher, IBlockChangeTracker changeTracker) {
         this.performanceWatcher = performanceWatcher;
-        this.center = request.getPosition();
-        this.rotationMatrix = request.getRotateOriginToDest();
+        this.changeTracker = changeTracker;
+        this.transform = new IntMatrix(request.getRotateOriginToDest()).translate(request.getPosition());
+        this.inverseTransform = new IntMatrix(request.getRotateOriginToDest()).translate(request.getPosition()).inverse();
         this.xAndZRadius = request.getXAndZRadius();
         this.yRadius = request.getYRadius();
+
+        int width = xAndZRadius * 2 + 1;
+        int volume = width * width * (yRadius * 2 + 1);
+        this.changedPositions = new int[volume];
+        this.changedIds = new int[volume];
         this.world = Bukkit.getWorld(request.getWorldId());
         if(world == null) {
             this.world = Bukkit.getWorld(request.getWorldName());
         }
-    }
 
-    public @NotNull Map<IntVector, Integer> checkForChanges() {
-        Map<IntVector, Integer> result = new HashMap<>();
+        // The rotation may swap axes, so the opposite corners of the area aren't necessarily the minimum and maximum
+        IntVector cornerA = transform.transform(new IntVector(-xAndZRadius, -yRadius, -xAndZRadius));
+        IntVector cornerB = transform.transform(new IntVector(xAndZRadius, yRadius, xAndZRadius));
+        IntVector min = new IntVector(Math.min(cornerA.getX(), cornerB.getX()), Math.min(cornerA.getY(), cornerB.getY()), Math.min(cornerA.getZ(), cornerB.getZ()));
+        IntVector max = new IntVector(Math.max(cornerA.getX(), cornerB.getX()), Math.max(cornerA.getY(), cornerB.getY()), Math.max(cornerA.getZ(), cornerB.getZ()));
+        this.dirtyArea = changeTracker.watch(world, min, max);
+    }
 
+    @Override
+    public @NotNull BlockChangeSet checkForChanges(boolean checkAll) {
         OperationTimer timer = new OperationTimer();
-        for(int x = -xAndZRadius; x <= xAndZRadius ; x++) {
-            for(int z = -xAndZRadius; z <= xAndZRadius; z++) {
-                for(int y = -yRadius; y <= yRadius; y++) {
-                    IntVector blockPos = rotationMatrix.transform(new IntVector(x, y, z)).add(center);
+        boolean isSnapshot = previousIds == null;
 
-                    BlockData data = BlockData.create(blockPos.getBlock(world));
-                    BlockData oldData = previousData.get(blockPos);
+        BlockChangeSet result;
+        if(isSnapshot || checkAll || dirtyArea.hasOverflowed()) {
+            result = checkAllForChanges(isSnapshot);
+            performanceWatcher.putTimeTaken("Block change watcher update", timer);
+        }   else    {
+            result = checkDirtyForChanges();
+            performanceWatcher.putTimeTaken("Block change watcher incremental update", timer);
+        }
+        dirtyArea.clear();
+
+        return result;
+    }
+
+    private BlockChangeSet checkAllForChanges(boolean isSnapshot) {
+        if(isSnapshot) {
+            previousIds = new int[changedIds.length];
+        }
 
-                    if(!data.equals(oldData)) {
-                        result.put(blockPos, data.getCombinedId());
-                        previousData.put(blockPos, data);
+        // Iterate in index order, so that the changed positions are already sorted
+        int index = 0;
+        int changeCount = 0;
+        for(int y = -yRadius; y <= yRadius; y++) {
+            for(int z = -xAndZRadius; z <= xAndZRadius; z++) {
+                for(int x = -xAndZRadius; x <= xAndZRadius; x++) {
+                    int combinedId = BlockData.create(world.getBlockAt(transform.transformX(x, y, z), transform.transformY(x, y, z), transform.transformZ(x, y, z))).getCombinedId();
+
+                    if(isSnapshot || combinedId != previousIds[index]) {
+                        changedPositions[changeCount] = index;
+                        changedIds[changeCount] = combinedId;
+                        changeCount++;
+                        previousIds[index] = combinedId;
                     }
+                    index++;
                 }
             }
         }
 
-        performanceWatcher.putTimeTaken("Block change watcher update", timer);
+        return isSnapshot ? BlockChangeSet.createSnapshot(changedIds) : BlockChangeSet.createDelta(changedPositions, changedIds, changeCount);
+    }
+
+    /**
+     * Only re-checks the blocks that block events said may have changed.
+     */
+    private BlockChangeSet checkDirtyForChanges() {
+        int changeCount = 0;
+        for(IntVector position : dirtyArea.getDirtyPositions()) {
+            int x = position.getX();
+            int y = position.getY();
+            int z = position.getZ();
+            int areaX = inverseTransform.transformX(x, y, z);
+            int areaY = inverseTransform.transformY(x, y, z);
+            int areaZ = inverseTransform.transformZ(x, y, z);
+            if(Math.abs(areaX) > xAndZRadius || Math.abs(areaZ) > xAndZRadius || Math.abs(areaY) > yRadius) {continue;}
 
-        return result;
+            int index = BlockChangeSet.getIndex(areaX, areaY, areaZ, xAndZRadius, yRadius);
+            int combinedId = BlockData.create(world.getBlockAt(x, y, z)).getCombinedId();
+            if(combinedId != previousIds[index]) {
+                changedPositions[changeCount] = index;
+                changeCount++;
+                previousIds[index] = combinedId;
+            }
+        }
+
+        // Dirty positions aren't in any order, but the change set must be sorted by index
+        Arrays.sort(changedPositions, 0, changeCount);
+        for(int i = 0; i < changeCount; i++) {
+            changedIds[i] = previousIds[changedPositions[i]];
+        }
+
+        return BlockChangeSet.createDelta(changedPositions, changedIds, changeCount);
+    }
+
+    @Override
+    public void close() {
+        changeTracker.unwatch(dirtyArea);
     }
 }
@@ -0,0 +1,41 @@
+package com.lauriethefish.betterportals.bukkit.block.external;
+
+import com.google.inject.Singleton;
+import com.lauriethefish.betterportals.bukkit.net.requests.PushBlockChangesRequest;
+import com.lauriethefish.betterportals.shared.net.RequestException;
+import com.lauriethefish.betterportals.shared.net.Response;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+@Singleton
+public class ExternalBlockSubscriptionManager implements IExternalBlockSubscriptionManager {
+    private final Map<UUID, Consumer<BlockChangeSet>> subscriptions = new HashMap<>();
+
+    @Override
+    public void register(@NotNull UUID changeSetId, @NotNull Consumer<@Nullable BlockChangeSet> onChanges) {
+        subscriptions.put(changeSetId, onChanges);
+    }
+
+    @Override
+    public void unregister(@NotNull UUID changeSetId) {
+        subscriptions.remove(changeSetId);
+    }
+
+    @Override
+    public void onChangesPushed(@NotNull PushBlockChangesRequest request, @NotNull Consumer<Response> onFinish) {
+        Consumer<BlockChangeSet> subscription = subscriptions.get(request.getChangeSetId());
+
+        Response response = new Response();
+        if(subscription == null) {
+            response.setError(new RequestException("No block change subscription with ID " + request.getChangeSetId()));
+        }   else    {
+            subscription.accept(request.getChanges());
+        }
+        onFinish.accept(response);
+    }
+}
@@ -2,15 +2,17 @@ package com.lauriethefish.betterportals.bukkit.block.external;
 
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
-import com.lauriethefish.betterportals.api.IntVector;
-import com.lauriethefish.betterportals.bukkit.net.requests.GetBlockDataChangesRequest;
+import com.lauriethefish.betterportals.bukkit.config.RenderConfig;
+import com.lauriethefish.betterportals.bukkit.net.IPortalClient;
+import com.lauriethefish.betterportals.bukkit.net.requests.PushBlockChangesRequest;
+import com.lauriethefish.betterportals.bukkit.net.requests.SubscribeBlockChangesRequest;
 import com.lauriethefish.betterportals.shared.logging.Logger;
+import com.lauriethefish.betterportals.shared.net.RequestException;
 import com.lauriethefish.betterportals.shared.net.Response;
+import org.jetbrains.annotations.Nullable;
 
-import java.time.Duration;
-import java.time.Instant;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Map;
 import java.util.UUID;
 import java.util.function.Consumer;
@@ -18,50 +20,123 @@ import java.util.function.Consumer;
 @Singleton
 public class ExternalBlockWatcherManager implements IExternalBlockWatcherManager    {
     /**
-     * Number of seconds before clearing block watchers due to inactivity
+     * Number of milliseconds without any changes before sending a heartbeat, so that the origin knows that the subscription is still alive.
      */
-    private static final int BLOCK_WATCHER_CLEAR_DELAY = 5;
+    public static final long HEARTBEAT_INTERVAL = 5000;
+
+    /**
+     * Number of milliseconds without the origin acknowledging a push before releasing the subscription.
+     */
+    public static final long SUBSCRIPTION_TIMEOUT = 15000;
+
+    private static class Subscription {
+        private final UUID id;
+        private final String originServer;
+        private final IBlockChangeWatcher watcher;
+
+        private long lastAcknowledged = System.currentTimeMillis();
+        private long lastPushed = 0;
+        private int lastFullCheckTick;
+
+        // Only one push is sent at a time, so that they can't arrive out of order
+        private boolean awaitingAcknowledgement = false;
+
+        private Subscription(UUID id, String originServer, IBlockChangeWatcher watcher) {
+            this.id = id;
+            this.originServer = originServer;
+            this.watcher = watcher;
+        }
+    }
 
     private final Logger logger;
     private final IBlockChangeWatcher.Factory blockChangeWatcherFactory;
-    private final Map<UUID, IBlockChangeWatcher> watchers = new HashMap<>();
-    private final Map<UUID, Instant> lastRequested = new HashMap<>();
+    private final IPortalClient portalClient;
+    private final RenderConfig renderConfig;
+    private final Map<UUID, Subscription> subscriptions = new HashMap<>();
+
+    private int currentTick = 0;
 
     @Inject
-    public ExternalBlockWatcherManager(Logger logger, IBlockChangeWatcher.Factory blockChangeWatcherFactory) {
+    public ExternalBlockWatcherManager(Logger logger, IBlockChangeWatcher.Factory blockChangeWatcherFactory, IPortalClient portalClient, RenderConfig renderConfig) {
         this.logger = logger;
         this.blockChangeWatcherFactory = blockChangeWatcherFactory;
+        this.portalClient = portalClient;
+        this.renderConfig = renderConfig;
     }
 
     @Override
-    public void onRequestReceived(GetBlockDataChangesRequest request, Consumer<Response> onFinish) {
-        logger.finer("Processing block changes with ID %s", request.getChangeSetId());
-        UUID watcherId = request.getChangeSetId();
-        IBlockChangeWatcher watcher = watchers.computeIfAbsent(watcherId, key -> blockChangeWatcherFactory.create(request));
-        lastRequested.put(request.getChangeSetId(), Instant.now());
-
-        Response response = new Response();
-        Map<IntVector, Integer> changes = watcher.checkForChanges();
-        logger.finer("Change count: %d", changes.size());
-
-        response.setResult(changes);
-        onFinish.accept(response);
+    public void onSubscribeReceived(SubscribeBlockChangesRequest request, Consumer<Response> onFinish) {
+        logger.fine("Creating block change subscription with ID %s for server %s", request.getChangeSetId(), request.getOriginServer());
+
+        // Replace any existing subscription with this ID, in case the request was received twice
+        Subscription existing = subscriptions.remove(request.getChangeSetId());
+        if(existing != null) {
+            existing.watcher.close();
+        }
+
+        Subscription subscription = new Subscription(request.getChangeSetId(), request.getOriginServer(), blockChangeWatcherFactory.create(request));
+        subscription.lastFullCheckTick = currentTick;
+        subscriptions.put(subscription.id, subscription);
+        onFinish.accept(new Response());
+
+        push(subscription, subscription.watcher.checkForChanges(true));
     }
 
     @Override
     public void update() {
-        // Clear any watchers that are inactive
-        Instant now = Instant.now();
-        Iterator<Map.Entry<UUID, Instant>> iterator = lastRequested.entrySet().iterator();
-        while(iterator.hasNext()) {
-            Map.Entry<UUID, Instant> entry = iterator.next();
-            long secondsElapsed = Duration.between(entry.getValue(), now).getSeconds();
-            if(secondsElapsed > BLOCK_WATCHER_CLEAR_DELAY) {
-                logger.fine("Clearing external block watcher due to inactivity");
-                iterator.remove();
-
-                watchers.remove(entry.getKey());
+        currentTick++;
+        if(currentTick % renderConfig.getBlockUpdateInterval() != 0) {return;}
+
+        long now = System.currentTimeMillis();
+        for(Subscription subscription : new ArrayList<>(subscriptions.values())) {
+            if(now - subscription.lastAcknowledged > SUBSCRIPTION_TIMEOUT) {
+                logger.fine("Releasing block change subscription %s since the origin stopped responding", subscription.id);
+                release(subscription);
+                continue;
+            }
+
+            // Block events keep accumulating until the previous push is acknowledged, so no changes are missed
+            if(subscription.awaitingAcknowledgement) {continue;}
+
+            int fullUpdateInterval = renderConfig.getFullBlockUpdateInterval();
+            boolean checkAll = fullUpdateInterval <= 0 || currentTick - subscription.lastFullCheckTick >= fullUpdateInterval;
+            if(checkAll) {
+                subscription.lastFullCheckTick = currentTick;
             }
+
+            BlockChangeSet changes = subscription.watcher.checkForChanges(checkAll);
+            if(changes.size() > 0) {
+                logger.finer("Pushing %d block changes for subscription %s", changes.size(), subscription.id);
+                push(subscription, changes);
+            }   else if(now - subscription.lastPushed > HEARTBEAT_INTERVAL) {
+                push(subscription, null);
+            }
+        }
+    }
+
+    private void push(Subscription subscription, @Nullable BlockChangeSet changes) {
+        PushBlockChangesRequest request = new PushBlockChangesRequest();
+        request.setChangeSetId(subscription.id);
+        request.setChanges(changes);
+
+        subscription.awaitingAcknowledgement = true;
+        subscription.lastPushed = System.currentTimeMillis();
+        portalClient.sendRequestToServer(request, subscription.originServer, (response) -> {
+            subscription.awaitingAcknowledgement = false;
+            try {
+                response.checkForErrors();
+                subscription.lastAcknowledged = System.currentTimeMillis();
+            }   catch(RequestException ex) {
+                // The origin will resubscribe with a new snapshot if it still needs the changes
+                logger.fine("Releasing block change subscription %s since pushing failed: %s", subscription.id, ex.getMessage());
+                release(subscription);
+            }
+        });
+    }
+
+    private void release(Subscription subscription) {
+        if(subscriptions.remove(subscription.id, subscription)) {
+            subscription.watcher.close();
         }
     }
 }
@@ -1,11 +1,8 @@
 package com.lauriethefish.betterportals.bukkit.block.external;
 
-import com.lauriethefish.betterportals.api.IntVector;
-import com.lauriethefish.betterportals.bukkit.net.requests.GetBlockDataChangesRequest;
+import com.lauriethefish.betterportals.bukkit.net.requests.SubscribeBlockChangesRequest;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.Map;
-
 /**
  * Used to check for changes of blocks at the destination of an external portal, then relay the changes back to the origin.
  * This allows a block data array to be constructed at the origin of the portal, so that cross-server portals can work.
@@ -13,12 +10,18 @@ import java.util.Map;
 public interface IBlockChangeWatcher {
     /**
      * Checks for any changes in the configured area.
-     * This will return all blocks in the area the first time it is called on one instance.
-     * @return The new block data, as an integer.
+     * This will return a snapshot of all blocks in the area the first time it is called on one instance.
+     * @param checkAll Whether to re-check every block, instead of only those changed by block events
+     * @return The changed blocks, indexed relative to the center of the area
+     */
+    @NotNull BlockChangeSet checkForChanges(boolean checkAll);
+
+    /**
+     * Stops tracking block events for this watcher's area. Called when the subscription is released.
      */
-    @NotNull Map<IntVector, Integer> checkForChanges();
+    void close();
 
     interface Factory {
-        IBlockChangeWatcher create(GetBlockDataChangesRequest request);
+        IBlockChangeWatcher create(SubscribeBlockChangesRequest request);
     }
 }
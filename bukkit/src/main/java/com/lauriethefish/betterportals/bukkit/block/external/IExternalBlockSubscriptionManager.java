@@ -0,0 +1,35 @@
+package com.lauriethefish.betterportals.bukkit.block.external;
+
+import com.lauriethefish.betterportals.bukkit.net.requests.PushBlockChangesRequest;
+import com.lauriethefish.betterportals.shared.net.Response;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Passes the block changes pushed by the destination servers of cross-server portals to the fetcher that subscribed to them.
+ * This is the origin side of {@link IExternalBlockWatcherManager}.
+ */
+public interface IExternalBlockSubscriptionManager {
+    /**
+     * Starts accepting pushed changes for <code>changeSetId</code>.
+     * @param changeSetId ID of the subscription
+     * @param onChanges Called on the main thread with each change set, or null for heartbeats
+     */
+    void register(@NotNull UUID changeSetId, @NotNull Consumer<@Nullable BlockChangeSet> onChanges);
+
+    /**
+     * Stops accepting pushed changes for <code>changeSetId</code>. The destination releases the subscription once its next push is rejected.
+     * @param changeSetId ID of the subscription
+     */
+    void unregister(@NotNull UUID changeSetId);
+
+    /**
+     * Called on the main thread whenever changes are pushed by another server.
+     * @param request The pushed changes
+     * @param onFinish Given an error response if the subscription isn't registered
+     */
+    void onChangesPushed(@NotNull PushBlockChangesRequest request, @NotNull Consumer<Response> onFinish);
+}
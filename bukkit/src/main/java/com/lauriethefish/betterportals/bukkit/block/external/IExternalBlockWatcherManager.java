@@ -1,25 +1,26 @@
 package com.lauriethefish.betterportals.bukkit.block.external;
 
-import com.lauriethefish.betterportals.bukkit.net.requests.GetBlockDataChangesRequest;
+import com.lauriethefish.betterportals.bukkit.net.requests.SubscribeBlockChangesRequest;
 import com.lauriethefish.betterportals.shared.net.Response;
 
 import java.util.function.Consumer;
 
+/**
+ * Keeps track of the block change subscriptions from the origin servers of cross-server portals that have their destination on this server.
+ * Changes are pushed to the origin as they happen, instead of the origin polling for them.
+ */
 public interface IExternalBlockWatcherManager {
     /**
-     * The time of no requests for a particular data array before it gets cleared.
+     * Called whenever a subscription request is received (on the main thread) from an external server.
+     * A snapshot of the area is pushed to the origin straight after responding.
+     * @param request The subscription request
+     * @param onFinish Given the response when the subscription has been created
      */
-    double CLEAR_TIME = 10;
+    void onSubscribeReceived(SubscribeBlockChangesRequest request, Consumer<Response> onFinish);
 
     /**
-     * Called whenever a request to fetch the block data changes is received (on the main thread) from an external server.
-     * @param request The change request
-     * @param onFinish Given the response when responding is complete
-     */
-    void onRequestReceived(GetBlockDataChangesRequest request, Consumer<Response> onFinish);
-
-    /**
-     * Removes any external change watchers that are unused.
+     * Pushes any block changes to subscribed servers, sends heartbeats for idle subscriptions, and releases subscriptions that have timed out.
+     * Called every tick.
      */
     void update();
 }
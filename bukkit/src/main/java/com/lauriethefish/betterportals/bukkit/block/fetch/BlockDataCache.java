@@ -0,0 +1,130 @@
+package com.lauriethefish.betterportals.bukkit.block.fetch;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.lauriethefish.betterportals.api.IntVector;
+import com.lauriethefish.betterportals.bukkit.block.data.BlockData;
+import com.lauriethefish.betterportals.bukkit.chunk.chunkpos.ChunkSectionKey;
+import com.lauriethefish.betterportals.bukkit.config.RenderConfig;
+import com.lauriethefish.betterportals.shared.logging.Logger;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.LongConsumer;
+
+@Singleton
+public class BlockDataCache implements IBlockDataCache {
+    private static class CachedSection {
+        int referenceCount;
+        BlockData[] data; // Allocated on the first read, indexed by the position within the section
+        int loadedTick;
+    }
+
+    private final Logger logger;
+    private final RenderConfig renderConfig;
+    private final Map<UUID, Map<Long, CachedSection>> sections = new HashMap<>();
+    private int currentTick = 0;
+
+    @Inject
+    public BlockDataCache(Logger logger, RenderConfig renderConfig) {
+        this.logger = logger;
+        this.renderConfig = renderConfig;
+    }
+
+    @Override
+    public void acquire(@NotNull World world, @NotNull IntVector min, @NotNull IntVector max) {
+        Map<Long, CachedSection> worldSections = sections.computeIfAbsent(world.getUID(), key -> new HashMap<>());
+        forEachSection(min, max, sectionKey -> worldSections.computeIfAbsent(sectionKey, key -> new CachedSection()).referenceCount++);
+    }
+
+    @Override
+    public void release(@NotNull World world, @NotNull IntVector min, @NotNull IntVector max) {
+        Map<Long, CachedSection> worldSections = sections.get(world.getUID());
+        if(worldSections == null) {return;}
+
+        forEachSection(min, max, sectionKey -> {
+            CachedSection section = worldSections.get(sectionKey);
+            if(section == null) {return;}
+
+            section.referenceCount--;
+            if(section.referenceCount <= 0) {
+                worldSections.remove(sectionKey);
+            }
+        });
+
+        if(worldSections.isEmpty()) {
+            logger.finer("Block data cache for world %s is now empty", world.getName());
+            sections.remove(world.getUID());
+        }
+    }
+
+    @Override
+    public @NotNull BlockData getData(@NotNull World world, @NotNull IntVector position) {
+        int x = position.getX();
+        int y = position.getY();
+        int z = position.getZ();
+
+        CachedSection section = getSection(world, x, y, z);
+        // Blocks outside of acquired sections aren't cached
+        if(section == null) {
+            return BlockData.create(world.getBlockAt(x, y, z));
+        }
+
+        // Expire the section if it was loaded too long ago
+        if(section.data == null || currentTick - section.loadedTick >= renderConfig.getBlockUpdateInterval()) {
+            section.data = new BlockData[4096];
+            section.loadedTick = currentTick;
+        }
+
+        int index = getIndexInSection(x, y, z);
+        BlockData data = section.data[index];
+        if(data == null) {
+            data = BlockData.create(world.getBlockAt(x, y, z));
+            section.data[index] = data;
+        }
+
+        return data;
+    }
+
+    @Override
+    public void invalidate(@NotNull Block block) {
+        int x = block.getX();
+        int y = block.getY();
+        int z = block.getZ();
+
+        CachedSection section = getSection(block.getWorld(), x, y, z);
+        if(section == null || section.data == null) {return;}
+
+        section.data[getIndexInSection(x, y, z)] = null;
+    }
+
+    @Override
+    public void update() {
+        currentTick++;
+    }
+
+    private CachedSection getSection(World world, int x, int y, int z) {
+        Map<Long, CachedSection> worldSections = sections.get(world.getUID());
+        if(worldSections == null) {return null;}
+
+        return worldSections.get(ChunkSectionKey.ofBlock(x, y, z));
+    }
+
+    private int getIndexInSection(int x, int y, int z) {
+        return (x & 15) | ((z & 15) << 4) | ((y & 15) << 8);
+    }
+
+    private void forEachSection(IntVector min, IntVector max, LongConsumer action) {
+        for(int x = min.getX() >> 4; x <= max.getX() >> 4; x++) {
+            for(int y = min.getY() >> 4; y <= max.getY() >> 4; y++) {
+                for(int z = min.getZ() >> 4; z <= max.getZ() >> 4; z++) {
+                    action.accept(ChunkSectionKey.of(x, y, z));
+                }
+            }
+        }
+    }
+}
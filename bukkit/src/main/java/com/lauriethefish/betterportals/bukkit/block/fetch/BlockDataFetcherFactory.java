@@ -2,6 +2,7 @@ package com.lauriethefish.betterportals.bukkit.block.fetch;
 
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import com.lauriethefish.betterportals.bukkit.block.external.IExternalBlockSubscriptionManager;
 import com.lauriethefish.betterportals.bukkit.config.RenderConfig;
 import com.lauriethefish.betterportals.bukkit.net.IPortalClient;
 import com.lauriethefish.betterportals.bukkit.portal.IPortal;
@@ -14,20 +15,24 @@ public class BlockDataFetcherFactory {
     private final IPortalClient portalClient;
     private final RenderConfig renderConfig;
     private final IPerformanceWatcher performanceWatcher;
+    private final IBlockDataCache dataCache;
+    private final IExternalBlockSubscriptionManager subscriptionManager;
 
     @Inject
-    public BlockDataFetcherFactory(Logger logger, IPortalClient portalClient, RenderConfig renderConfig, IPerformanceWatcher performanceWatcher) {
+    public BlockDataFetcherFactory(Logger logger, IPortalClient portalClient, RenderConfig renderConfig, IPerformanceWatcher performanceWatcher, IBlockDataCache dataCache, IExternalBlockSubscriptionManager subscriptionManager) {
         this.logger = logger;
         this.portalClient = portalClient;
         this.renderConfig = renderConfig;
         this.performanceWatcher = performanceWatcher;
+        this.dataCache = dataCache;
+        this.subscriptionManager = subscriptionManager;
     }
 
     public IBlockDataFetcher create(IPortal portal) {
         if(portal.isCrossServer()) {
-            return new ExternalBlockDataFetcher(logger, portalClient, renderConfig, portal, performanceWatcher);
+            return new ExternalBlockDataFetcher(logger, portalClient, subscriptionManager, renderConfig, portal, performanceWatcher);
         }   else    {
-            return new LocalBlockDataFetcher(portal);
+            return new LocalBlockDataFetcher(portal, dataCache, renderConfig);
         }
     }
 }
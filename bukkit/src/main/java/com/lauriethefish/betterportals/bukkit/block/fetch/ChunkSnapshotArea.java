@@ -0,0 +1,64 @@
+package com.lauriethefish.betterportals.bukkit.block.fetch;
+
+import com.lauriethefish.betterportals.api.IntVector;
+import com.lauriethefish.betterportals.bukkit.block.data.BlockData;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.World;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Holds a {@link ChunkSnapshot} of every chunk covering an area of a world.
+ * The snapshots must be taken on the main thread, but can then be read from any thread, which lets the flood-fill run on a worker.
+ */
+public class ChunkSnapshotArea {
+    private final int minChunkX;
+    private final int minChunkZ;
+    private final int chunkCountX;
+    private final int maxHeight;
+    private final ChunkSnapshot[] snapshots;
+
+    // Blocks outside the world's height are always the same, so we just read one of them when taking the snapshots
+    private final BlockData outOfRangeData;
+
+    /**
+     * Takes snapshots of the chunks containing the area between <code>min</code> and <code>max</code>.
+     * This loads any chunks that aren't already, however the area is normally already loaded by the portal chunk loader.
+     * Must be called on the main thread.
+     * @param world The world to snapshot
+     * @param min Minimum corner of the area, inclusive
+     * @param max Maximum corner of the area, inclusive
+     */
+    public ChunkSnapshotArea(@NotNull World world, @NotNull IntVector min, @NotNull IntVector max) {
+        this.minChunkX = min.getX() >> 4;
+        this.minChunkZ = min.getZ() >> 4;
+        this.chunkCountX = (max.getX() >> 4) - minChunkX + 1;
+        int chunkCountZ = (max.getZ() >> 4) - minChunkZ + 1;
+        this.maxHeight = world.getMaxHeight();
+
+        snapshots = new ChunkSnapshot[chunkCountX * chunkCountZ];
+        for(int z = 0; z < chunkCountZ; z++) {
+            for(int x = 0; x < chunkCountX; x++) {
+                snapshots[x + z * chunkCountX] = world.getChunkAt(minChunkX + x, minChunkZ + z).getChunkSnapshot(false, false, false);
+            }
+        }
+
+        outOfRangeData = BlockData.create(world.getBlockAt(min.getX(), -1, min.getZ()));
+    }
+
+    /**
+     * Reads the data at <code>position</code> from the snapshots.
+     * @param position The position to read, which must be within the area this was created with
+     * @return The data of the block when the snapshots were taken
+     */
+    public @NotNull BlockData getData(@NotNull IntVector position) {
+        int y = position.getY();
+        if(y < 0 || y >= maxHeight) {
+            return outOfRangeData;
+        }
+
+        int x = position.getX();
+        int z = position.getZ();
+        ChunkSnapshot snapshot = snapshots[((x >> 4) - minChunkX) + ((z >> 4) - minChunkZ) * chunkCountX];
+        return BlockData.create(snapshot, x & 15, y, z & 15);
+    }
+}
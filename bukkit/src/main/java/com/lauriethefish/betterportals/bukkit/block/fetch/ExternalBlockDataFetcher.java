@@ -1,89 +1,164 @@
 package com.lauriethefish.betterportals.bukkit.block.fetch;
 
 import com.lauriethefish.betterportals.bukkit.block.data.BlockData;
+import com.lauriethefish.betterportals.bukkit.block.external.BlockChangeSet;
+import com.lauriethefish.betterportals.bukkit.block.external.ExternalBlockWatcherManager;
+import com.lauriethefish.betterportals.bukkit.block.external.IExternalBlockSubscriptionManager;
 import com.lauriethefish.betterportals.bukkit.config.RenderConfig;
 import com.lauriethefish.betterportals.api.IntVector;
+import com.lauriethefish.betterportals.bukkit.math.IntMatrix;
 import com.lauriethefish.betterportals.bukkit.net.IPortalClient;
-import com.lauriethefish.betterportals.bukkit.net.requests.GetBlockDataChangesRequest;
+import com.lauriethefish.betterportals.bukkit.net.requests.SubscribeBlockChangesRequest;
 import com.lauriethefish.betterportals.bukkit.portal.IPortal;
 import com.lauriethefish.betterportals.bukkit.util.performance.IPerformanceWatcher;
 import com.lauriethefish.betterportals.bukkit.util.performance.OperationTimer;
 import com.lauriethefish.betterportals.shared.logging.Logger;
 import com.lauriethefish.betterportals.shared.net.RequestException;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
-import java.util.HashMap;
-import java.util.Map;
 import java.util.UUID;
 
 /**
- * Fetches the block data for external portals by sending a request to the destination server.
+ * Fetches the block data for external portals by subscribing to the block changes at the destination server.
+ * The destination pushes a snapshot of the area, then any changes as they happen, so nothing is sent while the area is unchanged apart from heartbeats.
  */
 public class ExternalBlockDataFetcher implements IBlockDataFetcher  {
     private final Logger logger;
     private final IPortalClient portalClient;
+    private final IExternalBlockSubscriptionManager subscriptionManager;
     private final IPerformanceWatcher performanceWatcher;
-    private final GetBlockDataChangesRequest request;
+    private final SubscribeBlockChangesRequest request;
     private final String destServerName;
 
-    private final Map<IntVector, BlockData> currentStates = new HashMap<>();
-    private volatile boolean hasFirstRequestFinished = false;
-    private volatile boolean hasPreviousRequestFinished = true;
+    private final IntMatrix destToArea; // Finds the position relative to the center of the watched area from a destination position
+    private final int xAndZRadius;
+    private final int yRadius;
+    private final BlockData[] currentStates;
+    private boolean hasSnapshot = false;
+    private boolean isSubscribing = false;
+    private boolean isSubscribed = false;
+    private long lastReceived;
 
-    public ExternalBlockDataFetcher(Logger logger, IPortalClient portalClient, RenderConfig renderConfig, IPortal portal, IPerformanceWatcher performanceWatcher) {
+    public ExternalBlockDataFetcher(Logger logger, IPortalClient portalClient, IExternalBlockSubscriptionManager subscriptionManager, RenderConfig renderConfig, IPortal portal, IPerformanceWatcher performanceWatcher) {
         this.logger = logger;
         this.portalClient = portalClient;
+        this.subscriptionManager = subscriptionManager;
         this.performanceWatcher = performanceWatcher;
         this.destServerName = portal.getDestPos().getServerName();
 
-        this.request = new GetBlockDataChangesRequest();
+        this.request = new SubscribeBlockChangesRequest();
         request.setYRadius((int) renderConfig.getMaxY());
         request.setXAndZRadius((int) renderConfig.getMaxXZ());
-        request.setChangeSetId(UUID.randomUUID());
         request.setWorldName(portal.getDestPos().getWorldName());
         request.setWorldId(portal.getDestPos().getWorldId());
         request.setPosition(new IntVector(portal.getDestPos().getVector()));
         request.setRotateOriginToDest(portal.getTransformations().getRotateToDestination());
+
+        // The destination server sends positions relative to the watched area, using the same transformation as the request
+        this.destToArea = new IntMatrix(request.getRotateOriginToDest()).translate(request.getPosition()).inverse();
+        this.xAndZRadius = request.getXAndZRadius();
+        this.yRadius = request.getYRadius();
+        int width = xAndZRadius * 2 + 1;
+        this.currentStates = new BlockData[width * width * (yRadius * 2 + 1)];
     }
 
     @Override
-    @SuppressWarnings("unchecked")
     public void update() {
-        if(!hasPreviousRequestFinished) {
-            logger.fine("Still awaiting block data response");
-            return;
-        }
+        if(isSubscribing) {return;}
 
-        hasPreviousRequestFinished = false;
-        portalClient.sendRequestToServer(request, destServerName, (response) -> {
-            hasPreviousRequestFinished = true;
-            try {
-                OperationTimer timer = new OperationTimer();
+        // Changes are pushed by the destination, so there's nothing to do unless it stops sending heartbeats
+        if(isSubscribed) {
+            if(System.currentTimeMillis() - lastReceived <= ExternalBlockWatcherManager.SUBSCRIPTION_TIMEOUT) {return;}
 
-                logger.finer("Received response to get block data request");
-                Map<IntVector, Integer> serializedChanges = (Map<IntVector, Integer>) response.getResult();
+            logger.fine("Block change subscription %s timed out, resubscribing", request.getChangeSetId());
+            subscriptionManager.unregister(request.getChangeSetId());
+            isSubscribed = false;
+        }
 
-                serializedChanges.forEach((position, newValue) -> currentStates.put(position, BlockData.create(newValue)));
+        subscribe();
+    }
 
-                if(!hasFirstRequestFinished) {
-                    performanceWatcher.putTimeTaken("Initial external block data deserialization (int -> bukkit)", timer);
-                }
+    private void subscribe() {
+        String serverName = portalClient.getServerName();
+        if(serverName == null) {
+            logger.fine("Unable to subscribe to block changes, not connected to the proxy");
+            return;
+        }
+
+        // A new ID is used each time, so that pushes for old subscriptions are rejected
+        UUID changeSetId = UUID.randomUUID();
+        request.setChangeSetId(changeSetId);
+        request.setOriginServer(serverName);
+        subscriptionManager.register(changeSetId, this::onChangesPushed);
+        lastReceived = System.currentTimeMillis();
 
-                hasFirstRequestFinished = true;
+        isSubscribing = true;
+        portalClient.sendRequestToServer(request, destServerName, (response) -> {
+            isSubscribing = false;
+            try {
+                response.checkForErrors();
+                logger.finer("Subscribed to block changes with ID %s", changeSetId);
+                isSubscribed = true;
             }   catch(RequestException ex) {
-                logger.warning("Failed to fetch block changes for external portal: ");
+                logger.warning("Failed to subscribe to block changes for external portal: ");
                 ex.printStackTrace();
+                subscriptionManager.unregister(changeSetId);
             }
         });
     }
 
+    /**
+     * Applies changes pushed by the destination server. Called on the main thread.
+     * @param changes The changes, or null if this is a heartbeat
+     */
+    private void onChangesPushed(@Nullable BlockChangeSet changes) {
+        lastReceived = System.currentTimeMillis();
+        if(changes == null) {return;}
+
+        OperationTimer timer = new OperationTimer();
+        logger.finer("Received %d pushed block changes", changes.size());
+
+        // Each different combined ID only needs to be converted once
+        int[] palette = changes.getPalette();
+        BlockData[] paletteData = new BlockData[palette.length];
+        for(int i = 0; i < palette.length; i++) {
+            paletteData[i] = BlockData.create(palette[i]);
+        }
+        changes.forEachChange((index, paletteIndex) -> currentStates[index] = paletteData[paletteIndex]);
+
+        if(changes.isSnapshot()) {
+            performanceWatcher.putTimeTaken("Initial external block data deserialization (int -> bukkit)", timer);
+            hasSnapshot = true;
+        }
+    }
+
     @Override
     public boolean isReady() {
-        return hasFirstRequestFinished;
+        return hasSnapshot;
     }
 
     @Override
     public @NotNull BlockData getData(@NotNull IntVector position) {
-        return currentStates.get(position);
+        int x = position.getX();
+        int y = position.getY();
+        int z = position.getZ();
+        int areaX = destToArea.transformX(x, y, z);
+        int areaY = destToArea.transformY(x, y, z);
+        int areaZ = destToArea.transformZ(x, y, z);
+
+        if(Math.abs(areaX) > xAndZRadius || Math.abs(areaZ) > xAndZRadius || Math.abs(areaY) > yRadius) {
+            throw new IllegalArgumentException("Position " + position + " is outside the fetched area");
+        }
+        return currentStates[BlockChangeSet.getIndex(areaX, areaY, areaZ, xAndZRadius, yRadius)];
+    }
+
+    @Override
+    public void close() {
+        // The destination releases the subscription once its next push is rejected
+        if(request.getChangeSetId() != null) {
+            subscriptionManager.unregister(request.getChangeSetId());
+        }
+        isSubscribed = false;
     }
 }
@@ -0,0 +1,52 @@
+package com.lauriethefish.betterportals.bukkit.block.fetch;
+
+import com.lauriethefish.betterportals.api.IntVector;
+import com.lauriethefish.betterportals.bukkit.block.data.BlockData;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Caches the {@link BlockData} of blocks around portal destinations, split up by chunk section.
+ * Multiple portals often view the same area, e.g. clusters of nether portals, so this avoids each portal reading every block separately.
+ * Only sections that are acquired by at least one portal are cached, and they're evicted once no portals are using them.
+ * <br>NOTE: This is only accessed on the main thread.
+ */
+public interface IBlockDataCache {
+    /**
+     * Adds a reference to each chunk section that overlaps the box, so that reads inside it will be cached.
+     * @param world The world of the box
+     * @param min Minimum corner of the box, inclusive
+     * @param max Maximum corner of the box, inclusive
+     */
+    void acquire(@NotNull World world, @NotNull IntVector min, @NotNull IntVector max);
+
+    /**
+     * Removes a reference added by {@link IBlockDataCache#acquire(World, IntVector, IntVector)}.
+     * Any sections that are no longer referenced are evicted.
+     * @param world The world of the box
+     * @param min Minimum corner of the box, inclusive
+     * @param max Maximum corner of the box, inclusive
+     */
+    void release(@NotNull World world, @NotNull IntVector min, @NotNull IntVector max);
+
+    /**
+     * Reads the data at <code>position</code>, using the cached value if there is one.
+     * @param world The world to read from
+     * @param position The position of the block
+     * @return The data of the block
+     */
+    @NotNull BlockData getData(@NotNull World world, @NotNull IntVector position);
+
+    /**
+     * Removes the cached data for <code>block</code>, since it has changed.
+     * @param block The block that changed, or is about to change
+     */
+    void invalidate(@NotNull Block block);
+
+    /**
+     * Called every tick to expire old data.
+     * Not all block changes call events, so cached data is only reused for one block update interval.
+     */
+    void update();
+}
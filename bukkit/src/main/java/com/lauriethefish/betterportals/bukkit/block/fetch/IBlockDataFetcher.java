@@ -21,4 +21,10 @@ public interface IBlockDataFetcher {
      * @return The block data at that position
      */
     @NotNull BlockData getData(@NotNull IntVector position);
+
+    /**
+     * Called when the fetcher is no longer being used, e.g. when the portal is deactivated.
+     * Releases any cached data.
+     */
+    void close();
 }
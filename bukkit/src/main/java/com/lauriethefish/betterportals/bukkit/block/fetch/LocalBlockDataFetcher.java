@@ -2,24 +2,38 @@ package com.lauriethefish.betterportals.bukkit.block.fetch;
 
 import com.lauriethefish.betterportals.bukkit.block.data.BlockData;
 import com.lauriethefish.betterportals.api.IntVector;
+import com.lauriethefish.betterportals.bukkit.config.RenderConfig;
 import com.lauriethefish.betterportals.bukkit.portal.IPortal;
 import org.bukkit.World;
 import org.jetbrains.annotations.NotNull;
 
 /**
  * Local portals already have their blocks accessible.
- * This is a simple pass-through to Bukkit's API.
+ * This reads them through the {@link IBlockDataCache}, so that portals viewing the same area share the data.
  */
 public class LocalBlockDataFetcher implements IBlockDataFetcher {
+    private final IBlockDataCache dataCache;
     private final World destinationWorld;
+    private final IntVector cachedMin;
+    private final IntVector cachedMax;
 
-    public LocalBlockDataFetcher(IPortal portal) {
+    public LocalBlockDataFetcher(IPortal portal, IBlockDataCache dataCache, RenderConfig renderConfig) {
+        this.dataCache = dataCache;
         this.destinationWorld = portal.getDestPos().getWorld();
+
+        // The destination area may be rotated, so we use the largest radius on every axis.
+        // One extra block is added, since the destination position is rounded differently depending on the portal direction.
+        int radius = (int) Math.max(renderConfig.getMaxXZ(), renderConfig.getMaxY()) + 1;
+        IntVector destPos = new IntVector(portal.getDestPos().getVector());
+        this.cachedMin = destPos.subtract(radius, radius, radius);
+        this.cachedMax = destPos.add(radius, radius, radius);
+
+        dataCache.acquire(destinationWorld, cachedMin, cachedMax);
     }
 
     @Override
     public void update() {
-        // Do nothing, this is just a pass-through to Bukkit's API for local blocks.
+        // Do nothing, blocks are read through the cache when needed.
     }
 
     @Override
@@ -29,6 +43,11 @@ public class LocalBlockDataFetcher implements IBlockDataFetcher {
 
     @Override
     public @NotNull BlockData getData(@NotNull IntVector position) {
-        return BlockData.create(position.getBlock(destinationWorld));
+        return dataCache.getData(destinationWorld, position);
+    }
+
+    @Override
+    public void close() {
+        dataCache.release(destinationWorld, cachedMin, cachedMax);
     }
 }
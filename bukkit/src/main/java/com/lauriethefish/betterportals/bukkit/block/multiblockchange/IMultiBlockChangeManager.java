@@ -3,6 +3,7 @@ package com.lauriethefish.betterportals.bukkit.block.multiblockchange;
 import com.comphenix.protocol.wrappers.WrappedBlockData;
 import org.bukkit.entity.Player;
 import org.bukkit.util.Vector;
+import org.jetbrains.annotations.Nullable;
 
 /**
  * Abstracts the differences in sending multi block change packets in different versions.
@@ -21,6 +22,14 @@ public interface IMultiBlockChangeManager {
      */
     void sendChanges();
 
+    /**
+     * Sends all queued changes, sharing the packets with other players viewing the same portal if possible.
+     * Implementations that can't share packets just send them normally.
+     * Does <i>not</i> clear changes.
+     * @param cache The cache of the portal being viewed, or null to not share packets
+     */
+    void sendChanges(@Nullable MultiBlockChangeCache cache);
+
     interface Factory {
         IMultiBlockChangeManager create(Player player);
     }
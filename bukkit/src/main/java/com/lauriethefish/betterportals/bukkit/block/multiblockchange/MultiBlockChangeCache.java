@@ -0,0 +1,80 @@
+package com.lauriethefish.betterportals.bukkit.block.multiblockchange;
+
+import com.comphenix.protocol.events.PacketContainer;
+import com.comphenix.protocol.wrappers.WrappedBlockData;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Shares built multi block change packets between players viewing the same portal.
+ * Players looking through a portal from similar positions usually see the same changes in each chunk section, so they can be sent the same packet.
+ * <br>Packets are keyed by their section, and the positions and data of each change.
+ * The data is compared by identity, since each {@link WrappedBlockData} comes from a {@link com.lauriethefish.betterportals.bukkit.block.ViewableBlockInfo} that is shared between players.
+ * This means that the cache never needs to be invalidated when blocks change, since changed blocks have different data instances.
+ */
+public class MultiBlockChangeCache {
+    // The cache is just cleared when it gets too large, since old entries are unlikely to be sent again anyway
+    private static final int MAX_ENTRIES = 1024;
+
+    private static class SectionChanges {
+        private final long sectionKey;
+        private final short[] positions;
+        private final WrappedBlockData[] data;
+        private final int hashCode;
+
+        SectionChanges(long sectionKey, short[] positions, WrappedBlockData[] data) {
+            this.sectionKey = sectionKey;
+            this.positions = positions;
+            this.data = data;
+
+            int hash = Long.hashCode(sectionKey) * 31 + Arrays.hashCode(positions);
+            for(WrappedBlockData blockData : data) {
+                hash = hash * 31 + System.identityHashCode(blockData);
+            }
+            this.hashCode = hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if(!(obj instanceof SectionChanges)) {return false;}
+
+            SectionChanges other = (SectionChanges) obj;
+            if(sectionKey != other.sectionKey || !Arrays.equals(positions, other.positions)) {return false;}
+            for(int i = 0; i < data.length; i++) {
+                if(data[i] != other.data[i]) {return false;}
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    private final Map<SectionChanges, PacketContainer> packets = new ConcurrentHashMap<>();
+
+    /**
+     * Finds the packet for the changes in a section, building it if no other player has been sent the same changes.
+     * @param sectionKey Key of the chunk section, see {@link com.lauriethefish.betterportals.bukkit.chunk.chunkpos.ChunkSectionKey}
+     * @param positions Encoded positions of each change within the section. Must be in the same order for the same changes
+     * @param data New data of each change
+     * @param builder Used to build the packet if it isn't cached
+     * @return The cached or newly built packet. This may be sent to multiple players, so must not be modified
+     */
+    public @NotNull PacketContainer getPacket(long sectionKey, short[] positions, WrappedBlockData[] data, @NotNull Supplier<PacketContainer> builder) {
+        if(packets.size() >= MAX_ENTRIES) {
+            packets.clear();
+        }
+
+        return packets.computeIfAbsent(new SectionChanges(sectionKey, positions, data), key -> builder.get());
+    }
+
+    public void clear() {
+        packets.clear();
+    }
+}
@@ -7,17 +7,30 @@ import com.comphenix.protocol.wrappers.BlockPosition;
 import com.comphenix.protocol.wrappers.WrappedBlockData;
 import com.google.inject.Inject;
 import com.google.inject.assistedinject.Assisted;
+import com.lauriethefish.betterportals.bukkit.chunk.chunkpos.ChunkSectionKey;
 import org.bukkit.entity.Player;
 import org.bukkit.util.Vector;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.lang.reflect.InvocationTargetException;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 public class MultiBlockChangeManager_1_16_2 implements IMultiBlockChangeManager   {
+    private static class SectionChanges {
+        // Section positions have to be done with BlockPositions for now in ProtocolLib
+        final BlockPosition sectionPosition;
+        // Insertion order is kept so that the same changes always give the same arrays, which is required for caching
+        final Map<Short, WrappedBlockData> changes = new LinkedHashMap<>();
+
+        SectionChanges(BlockPosition sectionPosition) {
+            this.sectionPosition = sectionPosition;
+        }
+    }
+
     private final Player player;
-    // Section positions have to be done with BlockPositions for now in ProtocolLib
-    private final HashMap<BlockPosition, Map<Vector, WrappedBlockData>> changes = new HashMap<>();
+    private final Map<Long, SectionChanges> changes = new LinkedHashMap<>();
 
     @Inject
     public MultiBlockChangeManager_1_16_2(@Assisted Player player) {
@@ -26,46 +39,47 @@ public class MultiBlockChangeManager_1_16_2 implements IMultiBlockChangeManager
 
     @Override
     public void addChange(Vector position, WrappedBlockData newData) {
-        BlockPosition sectionPosition = new BlockPosition(
-                position.getBlockX() >> 4,
-                position.getBlockY() >> 4,
-                position.getBlockZ() >> 4
-        );
-
-        // Create/get the list for this chunk section
-        Map<Vector, WrappedBlockData> existingList = changes.computeIfAbsent(sectionPosition, k -> new HashMap<>());
-        existingList.put(position, newData);
-    }
+        int x = position.getBlockX();
+        int y = position.getBlockY();
+        int z = position.getBlockZ();
 
-    private short getShortLocation(Vector vec) {
-        int x = vec.getBlockX() & 0xF;
-        int y = vec.getBlockY() & 0xF;
-        int z = vec.getBlockZ() & 0xF;
+        // Create/get the changes for this chunk section
+        SectionChanges sectionChanges = changes.computeIfAbsent(ChunkSectionKey.ofBlock(x, y, z), k -> new SectionChanges(new BlockPosition(x >> 4, y >> 4, z >> 4)));
+        sectionChanges.changes.put(getShortLocation(x, y, z), newData);
+    }
 
-        return (short) (x << 8 | z << 4 | y);
+    private short getShortLocation(int x, int y, int z) {
+        return (short) ((x & 0xF) << 8 | (z & 0xF) << 4 | (y & 0xF));
     }
 
     @Override
     public void sendChanges() {
+        sendChanges(null);
+    }
+
+    @Override
+    public void sendChanges(@Nullable MultiBlockChangeCache cache) {
         // Each chunk position needs a different packet
-        for(Map.Entry<BlockPosition, Map<Vector, WrappedBlockData>> entry : changes.entrySet()) {
-            PacketContainer packet = new PacketContainer(PacketType.Play.Server.MULTI_BLOCK_CHANGE);
-            // Write the correct chunk section
-            packet.getSectionPositions().write(0, entry.getKey());
+        for(Map.Entry<Long, SectionChanges> entry : changes.entrySet()) {
+            SectionChanges sectionChanges = entry.getValue();
 
             // Add each changed block in the chunk
-            int blockCount = entry.getValue().size();
+            int blockCount = sectionChanges.changes.size();
             WrappedBlockData[] data = new WrappedBlockData[blockCount];
             short[] positions = new short[blockCount];
             int i = 0;
-            for(Map.Entry<Vector, WrappedBlockData> blockEntry : entry.getValue().entrySet()) {
-                positions[i] = getShortLocation(blockEntry.getKey());
+            for(Map.Entry<Short, WrappedBlockData> blockEntry : sectionChanges.changes.entrySet()) {
+                positions[i] = blockEntry.getKey();
                 data[i] = blockEntry.getValue();
                 i++;
             }
 
-            packet.getBlockDataArrays().writeSafely(0, data);
-            packet.getShortArrays().writeSafely(0, positions);
+            PacketContainer packet;
+            if(cache == null) {
+                packet = createPacket(sectionChanges.sectionPosition, positions, data);
+            }   else    {
+                packet = cache.getPacket(entry.getKey(), positions, data, () -> createPacket(sectionChanges.sectionPosition, positions, data));
+            }
 
             try {
                 ProtocolLibrary.getProtocolManager().sendServerPacket(player, packet);
@@ -74,4 +88,14 @@ public class MultiBlockChangeManager_1_16_2 implements IMultiBlockChangeManager
             }
         }
     }
+
+    private @NotNull PacketContainer createPacket(BlockPosition sectionPosition, short[] positions, WrappedBlockData[] data) {
+        PacketContainer packet = new PacketContainer(PacketType.Play.Server.MULTI_BLOCK_CHANGE);
+        // Write the correct chunk section
+        packet.getSectionPositions().write(0, sectionPosition);
+
+        packet.getBlockDataArrays().writeSafely(0, data);
+        packet.getShortArrays().writeSafely(0, positions);
+        return packet;
+    }
 }
@@ -11,6 +11,7 @@ import com.lauriethefish.betterportals.bukkit.chunk.chunkpos.ChunkPosition;
 import com.lauriethefish.betterportals.shared.logging.Logger;
 import org.bukkit.entity.Player;
 import org.bukkit.util.Vector;
+import org.jetbrains.annotations.Nullable;
 
 import java.lang.reflect.InvocationTargetException;
 import java.util.HashMap;
@@ -35,6 +36,12 @@ public class MultiBlockChangeManager_Old implements IMultiBlockChangeManager   {
         existingList.put(position, newData);
     }
 
+    @Override
+    public void sendChanges(@Nullable MultiBlockChangeCache cache) {
+        // Older versions send a packet per chunk rather than per section, so aren't cached
+        sendChanges();
+    }
+
     @Override
     public void sendChanges() {
         // Each chunk needs a different packet
@@ -0,0 +1,29 @@
+package com.lauriethefish.betterportals.bukkit.chunk.chunkpos;
+
+/**
+ * Packs the coordinates of chunk sections (16x16x16 areas of blocks) into a long.
+ * This lets them be used as map keys without creating a position object for every block.
+ */
+public class ChunkSectionKey {
+    /**
+     * Packs the given section coordinates into a key.
+     * @param sectionX Section X coordinate (block X divided by 16)
+     * @param sectionY Section Y coordinate (block Y divided by 16)
+     * @param sectionZ Section Z coordinate (block Z divided by 16)
+     * @return The packed key
+     */
+    public static long of(int sectionX, int sectionY, int sectionZ) {
+        return ((long) (sectionX & 0x3FFFFF) << 42) | ((long) (sectionZ & 0x3FFFFF) << 20) | (sectionY & 0xFFFFF);
+    }
+
+    /**
+     * Finds the key of the section containing the given block.
+     * @param x Block X coordinate
+     * @param y Block Y coordinate
+     * @param z Block Z coordinate
+     * @return The packed key
+     */
+    public static long ofBlock(int x, int y, int z) {
+        return of(x >> 4, y >> 4, z >> 4);
+    }
+}
@@ -13,6 +13,7 @@ import com.lauriethefish.betterportals.bukkit.net.IPortalClient;
 import com.lauriethefish.betterportals.bukkit.net.requests.TestForwardedRequest;
 import com.lauriethefish.betterportals.api.PortalDirection;
 import com.lauriethefish.betterportals.bukkit.portal.spawning.NewPortalChecker;
+import com.lauriethefish.betterportals.bukkit.tasks.BlockUpdateFinisher;
 import com.lauriethefish.betterportals.bukkit.util.MaterialUtil;
 import com.lauriethefish.betterportals.bukkit.util.performance.IPerformanceWatcher;
 import com.lauriethefish.betterportals.bukkit.util.performance.Operation;
@@ -35,11 +36,13 @@ public class TestingCommands {
     private final NewPortalChecker spawnChecker;
     private final IEntityPacketManipulator entityPacketManipulator;
     private final IPortalClient portalClient;
+    private final BlockUpdateFinisher blockUpdateFinisher;
     private List<Integer> storedData;
 
     @Inject
-    public TestingCommands(IPerformanceWatcher performanceWatcher, NewPortalChecker spawnChecker, IEntityPacketManipulator entityPacketManipulator, IPortalClient portalClient, MiscConfig miscConfig) {
+    public TestingCommands(IPerformanceWatcher performanceWatcher, NewPortalChecker spawnChecker, IEntityPacketManipulator entityPacketManipulator, IPortalClient portalClient, MiscConfig miscConfig, BlockUpdateFinisher blockUpdateFinisher) {
         this.performanceWatcher = performanceWatcher;
+        this.blockUpdateFinisher = blockUpdateFinisher;
         this.spawnChecker = spawnChecker;
         this.entityPacketManipulator = entityPacketManipulator;
         this.portalClient = portalClient;
@@ -61,6 +64,7 @@ public class TestingCommands {
                     operation.getLowestTime().getNano() / 1_000_000d
             ));
         }
+        sender.sendMessage(String.format("Block update queue depth: %d, Highest queue depth: %d", blockUpdateFinisher.getQueueDepth(), blockUpdateFinisher.getHighestQueueDepth()));
         return true;
     }
 
@@ -18,6 +18,9 @@ public class MiscConfig {
 
     @Getter private boolean entitySupportEnabled;
     @Getter private int entityCheckInterval;
+    @Getter private int maxReplicatedEntities;
+    @Getter private double reducedEntityDetailDistance;
+    @Getter private int reducedEntityUpdateInterval;
 
     @Getter private int teleportCooldown;
     @Getter private boolean updateCheckEnabled;
@@ -37,6 +40,9 @@ public class MiscConfig {
 
         boolean disableEntityCheckInterval = config.getBoolean("checkForEntitiesEveryTick");
         entityCheckInterval = disableEntityCheckInterval ? 1 : config.getInt("entityCheckInterval");
+        maxReplicatedEntities = config.getInt("maxReplicatedEntitiesPerPortal");
+        reducedEntityDetailDistance = config.getDouble("reducedEntityDetailDistance");
+        reducedEntityUpdateInterval = Math.max(config.getInt("reducedEntityUpdateInterval"), 1);
         updateCheckEnabled = config.getBoolean("enableUpdateCheck");
 
         Level logLevel;
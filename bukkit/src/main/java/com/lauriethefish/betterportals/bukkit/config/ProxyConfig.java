@@ -20,6 +20,8 @@ public class ProxyConfig {
     @Getter private InetSocketAddress address;
     @Getter private UUID encryptionKey; // Used so that portal data can't be intercepted on the network
     @Getter private int reconnectionDelay; // How long after being disconnected before attempting a reconnection (in ticks)
+    @Getter private int directConnectionPort; // Port to accept direct connections from other servers on, or -1 if disabled
+    @Getter private int compressionThreshold; // Messages larger than this many bytes are compressed, or -1 to disable compression
 
     @Inject
     public ProxyConfig(Logger logger) {
@@ -38,6 +40,8 @@ public class ProxyConfig {
         address = new InetSocketAddress(rawAddress, port);
 
         reconnectionDelay = section.getInt("reconnectionDelay");
+        directConnectionPort = section.getInt("directConnectionPort", -1);
+        compressionThreshold = section.getInt("compressionThreshold", 512);
 
         try {
             encryptionKey = UUID.fromString(Objects.requireNonNull(section.getString("key"), "Encryption key missing"));
@@ -43,6 +43,11 @@ public class RenderConfig {
 
     private Vector collisionBox;
     private int blockUpdateInterval;
+    private int fullBlockUpdateInterval;
+    private boolean asyncInitialUpdate;
+    private int workerThreadCount;
+    private int parallelSearchThreshold;
+    private int playerUpdateThreadCount;
 
     private int worldSwitchWaitTime;
 
@@ -82,6 +87,11 @@ public class RenderConfig {
         if(blockUpdateInterval <= 0) {
             throw new IllegalArgumentException("Block update interval must be at least 1");
         }
+        fullBlockUpdateInterval = file.getInt("portalFullBlockUpdateInterval");
+        asyncInitialUpdate = file.getBoolean("asyncInitialBlockUpdate");
+        workerThreadCount = file.getInt("blockUpdateWorkerThreads");
+        parallelSearchThreshold = file.getInt("parallelFloodFillThreshold");
+        playerUpdateThreadCount = file.getInt("playerBlockUpdateThreads");
 
         worldSwitchWaitTime = file.getInt("waitTimeAfterSwitchingWorlds"); // TODO: implement or yeet
         portalBlocksHidden = file.getBoolean("hidePortalBlocks");
@@ -109,4 +119,33 @@ public class RenderConfig {
     public boolean isOutsideBounds(IntVector vec) {
         return isOutsideBounds(vec.getX(), vec.getY(), vec.getZ());
     }
+
+    /**
+     * Finds the index of a portal-relative position within a flat array of length {@link RenderConfig#totalArrayLength}.
+     * The position must be within the portal effect size, including the edges.
+     * @param x Portal-relative X coordinate
+     * @param y Portal-relative Y coordinate
+     * @param z Portal-relative Z coordinate
+     * @return The array index
+     */
+    public int getArrayIndex(int x, int y, int z) {
+        return (x - (int) minXZ) + (z - (int) minXZ) * zMultip + (y - (int) minY) * yMultip;
+    }
+
+    public int getArrayIndex(IntVector relativePos) {
+        return getArrayIndex(relativePos.getX(), relativePos.getY(), relativePos.getZ());
+    }
+
+    /**
+     * Converts an index found with {@link RenderConfig#getArrayIndex(int, int, int)} back into the portal-relative position.
+     * @param index The array index
+     * @return A new vector with the portal-relative position
+     */
+    public IntVector getArrayPosition(int index) {
+        return new IntVector(
+                index % zMultip + (int) minXZ,
+                index / yMultip + (int) minY,
+                (index / zMultip) % zMultip + (int) minXZ
+        );
+    }
 }
@@ -0,0 +1,102 @@
+package com.lauriethefish.betterportals.bukkit.entity;
+
+import com.google.inject.Singleton;
+import com.lauriethefish.betterportals.bukkit.chunk.chunkpos.ChunkSectionKey;
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+import org.bukkit.util.BoundingBox;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+/**
+ * Chunks are scanned the first time that a query overlaps them in a tick, and their entities are sorted into sections.
+ * Overlapping portals, and portals with their origin and destination close together, then share the scan instead of each asking the world.
+ */
+@Singleton
+public class EntityGrid implements IEntityGrid {
+    // The bounding box is stored so that it isn't fetched again for every query
+    private static class Entry {
+        final Entity entity;
+        final BoundingBox boundingBox;
+
+        Entry(Entity entity) {
+            this.entity = entity;
+            this.boundingBox = entity.getBoundingBox();
+        }
+    }
+
+    private static class WorldGrid {
+        final Set<Long> scannedChunks = new HashSet<>(); // Keys of chunks with section Y 0
+        final Map<Long, List<Entry>> sections = new HashMap<>();
+    }
+
+    // Distance outside of the query box that sections are checked, the same as the margin used by World#getNearbyEntities
+    // Entities are sorted by their position, but their bounding box can overlap the query box from a neighbouring section
+    private static final double SECTION_MARGIN = 2.0;
+
+    private final Map<UUID, WorldGrid> worlds = new HashMap<>();
+    private final Location reusedLocation = new Location(null, 0, 0, 0);
+
+    @Override
+    public @NotNull Collection<Entity> getNearbyEntities(@NotNull Location center, double xzRadius, double yRadius) {
+        World world = Objects.requireNonNull(center.getWorld(), "Cannot find entities in a null world");
+        WorldGrid grid = worlds.computeIfAbsent(world.getUID(), key -> new WorldGrid());
+
+        BoundingBox queryBox = BoundingBox.of(center, xzRadius, yRadius, xzRadius);
+        int minChunkX = floorToSection(queryBox.getMinX() - SECTION_MARGIN);
+        int maxChunkX = floorToSection(queryBox.getMaxX() + SECTION_MARGIN);
+        int minChunkZ = floorToSection(queryBox.getMinZ() - SECTION_MARGIN);
+        int maxChunkZ = floorToSection(queryBox.getMaxZ() + SECTION_MARGIN);
+
+        // Entities are tested by bounding box, like World#getNearbyEntities, so large entities just outside the box are still found
+        List<Entity> result = new ArrayList<>();
+        for(int chunkX = minChunkX; chunkX <= maxChunkX; chunkX++) {
+            for(int chunkZ = minChunkZ; chunkZ <= maxChunkZ; chunkZ++) {
+                scanChunk(world, grid, chunkX, chunkZ);
+
+                for(int sectionY = floorToSection(queryBox.getMinY() - SECTION_MARGIN); sectionY <= floorToSection(queryBox.getMaxY() + SECTION_MARGIN); sectionY++) {
+                    List<Entry> section = grid.sections.get(ChunkSectionKey.of(chunkX, sectionY, chunkZ));
+                    if(section == null) {continue;}
+
+                    for(Entry entry : section) {
+                        if(entry.boundingBox.overlaps(queryBox)) {
+                            result.add(entry.entity);
+                        }
+                    }
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Sorts the entities of a chunk into sections, unless this has already happened this tick.
+     * Does nothing if the chunk isn't loaded.
+     */
+    private void scanChunk(World world, WorldGrid grid, int chunkX, int chunkZ) {
+        long chunkKey = ChunkSectionKey.of(chunkX, 0, chunkZ);
+        if(grid.scannedChunks.contains(chunkKey)) {return;}
+        if(!world.isChunkLoaded(chunkX, chunkZ)) {return;}
+
+        Chunk chunk = world.getChunkAt(chunkX, chunkZ);
+        for(Entity entity : chunk.getEntities()) {
+            Location location = entity.getLocation(reusedLocation);
+            long sectionKey = ChunkSectionKey.ofBlock(location.getBlockX(), location.getBlockY(), location.getBlockZ());
+            grid.sections.computeIfAbsent(sectionKey, key -> new ArrayList<>()).add(new Entry(entity));
+        }
+        grid.scannedChunks.add(chunkKey);
+    }
+
+    private static int floorToSection(double coordinate) {
+        return ((int) Math.floor(coordinate)) >> 4;
+    }
+
+    @Override
+    public void update() {
+        worlds.clear();
+    }
+}
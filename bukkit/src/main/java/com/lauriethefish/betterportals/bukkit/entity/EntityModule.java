@@ -14,5 +14,6 @@ public class EntityModule extends AbstractModule {
 
         bind(IEntityPacketManipulator.class).to(EntityPacketManipulator.class);
         bind(IEntityTrackingManager.class).to(EntityTrackingManager.class);
+        bind(IEntityGrid.class).to(EntityGrid.class);
     }
 }
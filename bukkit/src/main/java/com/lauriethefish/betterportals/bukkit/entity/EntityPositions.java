@@ -0,0 +1,73 @@
+package com.lauriethefish.betterportals.bukkit.entity;
+
+import com.lauriethefish.betterportals.bukkit.math.Matrix;
+import lombok.Getter;
+import org.bukkit.Location;
+import org.bukkit.entity.Entity;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collection;
+
+/**
+ * Stores the positions of a list of entities in one array, so that they can all be checked with {@link com.lauriethefish.betterportals.bukkit.math.PortalFrustum#findVisible(double[], int, boolean[])} in one pass.
+ * The arrays are reused between updates, and only grow when there are more entities than before.
+ */
+public class EntityPositions {
+    private Entity[] entities = new Entity[16];
+    @Getter private double[] coordinates = new double[48]; // X, Y and Z of each entity
+    @Getter private int size = 0;
+
+    private final Location reusedLocation = new Location(null, 0, 0, 0);
+
+    /**
+     * Replaces the stored positions with the current positions of <code>newEntities</code>.
+     * @param newEntities The entities to store, or null for none
+     * @param transform Applied to each position, or null to store the positions as they are
+     */
+    public void update(@Nullable Collection<Entity> newEntities, @Nullable Matrix transform) {
+        int oldSize = size;
+        size = 0;
+        if(newEntities != null) {
+            if(entities.length < newEntities.size()) {
+                entities = new Entity[newEntities.size() * 2];
+                coordinates = new double[entities.length * 3];
+            }
+
+            for(Entity entity : newEntities) {
+                Location location = entity.getLocation(reusedLocation);
+                double x = location.getX();
+                double y = location.getY();
+                double z = location.getZ();
+
+                int offset = size * 3;
+                if(transform == null) {
+                    coordinates[offset] = x;
+                    coordinates[offset + 1] = y;
+                    coordinates[offset + 2] = z;
+                }   else    {
+                    // Same as Matrix#transform, without creating a vector for each entity
+                    double[][] m = transform.m;
+                    coordinates[offset] = x * m[0][0] + y * m[0][1] + z * m[0][2] + m[0][3];
+                    coordinates[offset + 1] = x * m[1][0] + y * m[1][1] + z * m[1][2] + m[1][3];
+                    coordinates[offset + 2] = x * m[2][0] + y * m[2][1] + z * m[2][2] + m[2][3];
+                }
+                entities[size] = entity;
+                size++;
+            }
+        }
+
+        // Don't keep hold of entities that are no longer in the list
+        for(int i = size; i < oldSize; i++) {
+            entities[i] = null;
+        }
+    }
+
+    /**
+     * @param index Index of the entity, less than {@link EntityPositions#getSize()}
+     * @return The entity at that index
+     */
+    public @NotNull Entity getEntity(int index) {
+        return entities[index];
+    }
+}
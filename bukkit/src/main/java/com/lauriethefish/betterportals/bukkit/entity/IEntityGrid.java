@@ -0,0 +1,28 @@
+package com.lauriethefish.betterportals.bukkit.entity;
+
+import org.bukkit.Location;
+import org.bukkit.entity.Entity;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collection;
+
+/**
+ * Finds the entities around portals from a cache of the entities in each chunk section.
+ * Each chunk is only scanned once per tick, however many portals look at it.
+ */
+public interface IEntityGrid {
+    /**
+     * Finds the entities whose bounding box overlaps the box around <code>center</code>.
+     * Like {@link org.bukkit.World#getNearbyEntities(Location, double, double, double)}, this never loads chunks.
+     * @param center Center of the box
+     * @param xzRadius Half of the size of the box on the X and Z axes
+     * @param yRadius Half of the size of the box on the Y axis
+     * @return A new collection of the entities in the box
+     */
+    @NotNull Collection<Entity> getNearbyEntities(@NotNull Location center, double xzRadius, double yRadius);
+
+    /**
+     * Called at the end of every tick to forget the cached entities, since they will have moved.
+     */
+    void update();
+}
@@ -11,6 +11,18 @@ public interface IPortalEntityList {
     Collection<Entity> getOriginEntities();
     Collection<Entity> getDestinationEntities();
 
+    /**
+     * Gets the current positions of the origin entities, updated at most once per tick so that they can be shared between all viewers of the portal.
+     * @return The positions of {@link IPortalEntityList#getOriginEntities()}
+     */
+    EntityPositions getOriginPositions();
+
+    /**
+     * Gets the current positions of the destination entities, moved to the origin of the portal.
+     * @return The positions of {@link IPortalEntityList#getDestinationEntities()}, in origin coordinates
+     */
+    EntityPositions getDestinationPositions();
+
     /**
      * Updates the current entities around the portal
      * @param ticksSinceActivated Ticks since the parent {@link com.lauriethefish.betterportals.bukkit.portal.Portal} was activated, since this can be configured to not happen every tick.
@@ -8,7 +8,6 @@ import com.lauriethefish.betterportals.api.PortalPosition;
 import com.lauriethefish.betterportals.bukkit.util.performance.IPerformanceWatcher;
 import com.lauriethefish.betterportals.bukkit.util.performance.OperationTimer;
 import lombok.Getter;
-import org.bukkit.World;
 import org.bukkit.entity.Entity;
 
 import javax.inject.Inject;
@@ -21,23 +20,34 @@ public class PortalEntityList implements IPortalEntityList {
     private final MiscConfig miscConfig;
     private final RenderConfig renderConfig;
     private final IPerformanceWatcher performanceWatcher;
+    private final IEntityGrid entityGrid;
 
     private final boolean requireDestination;
 
     @Getter private Collection<Entity> originEntities = null;
     @Getter private Collection<Entity> destinationEntities = null;
 
+    private final EntityPositions originPositions = new EntityPositions();
+    private final EntityPositions destinationPositions = new EntityPositions();
+    // Entities move every tick, even if the lists aren't updated, so the positions are found again the first time they're needed each tick
+    private boolean originPositionsStale = true;
+    private boolean destinationPositionsStale = true;
+
     @Inject
-    public PortalEntityList(@Assisted IPortal portal, @Assisted boolean requireDestination, MiscConfig miscConfig, RenderConfig renderConfig, IPerformanceWatcher performanceWatcher) {
+    public PortalEntityList(@Assisted IPortal portal, @Assisted boolean requireDestination, MiscConfig miscConfig, RenderConfig renderConfig, IPerformanceWatcher performanceWatcher, IEntityGrid entityGrid) {
         this.portal = portal;
         this.requireDestination = requireDestination;
         this.miscConfig = miscConfig;
         this.renderConfig = renderConfig;
         this.performanceWatcher = performanceWatcher;
+        this.entityGrid = entityGrid;
     }
 
     @Override
     public void update(int ticksSinceActivated) {
+        originPositionsStale = true;
+        destinationPositionsStale = true;
+
         // Only update the entity lists when it's time to via the entity check interval
         if(ticksSinceActivated % miscConfig.getEntityCheckInterval() != 0) {return;}
 
@@ -51,8 +61,25 @@ public class PortalEntityList implements IPortalEntityList {
         performanceWatcher.putTimeTaken("Portal entity list update", timer);
     }
 
+    @Override
+    public EntityPositions getOriginPositions() {
+        if(originPositionsStale) {
+            originPositions.update(originEntities, null);
+            originPositionsStale = false;
+        }
+        return originPositions;
+    }
+
+    @Override
+    public EntityPositions getDestinationPositions() {
+        if(destinationPositionsStale) {
+            destinationPositions.update(destinationEntities, portal.getTransformations().getDestinationToOrigin());
+            destinationPositionsStale = false;
+        }
+        return destinationPositions;
+    }
+
     private Collection<Entity> getNearbyEntities(PortalPosition position) {
-        World world = position.getWorld();
-        return world.getNearbyEntities(position.getLocation(), renderConfig.getMaxXZ(), renderConfig.getMaxY(), renderConfig.getMaxXZ());
+        return entityGrid.getNearbyEntities(position.getLocation(), renderConfig.getMaxXZ(), renderConfig.getMaxY());
     }
 }
@@ -0,0 +1,16 @@
+package com.lauriethefish.betterportals.bukkit.entity.faking;
+
+/**
+ * How much of a replicated entity's state is sent to a player, based on how far away the entity appears through the portal.
+ */
+public enum EntityDetail {
+    /**
+     * Movement every tick, as well as equipment, metadata, velocity and animations.
+     */
+    FULL,
+    /**
+     * Only a teleport every few ticks, as set in the config.
+     * Equipment and metadata are sent again when the entity returns to {@link EntityDetail#FULL}.
+     */
+    REDUCED
+}
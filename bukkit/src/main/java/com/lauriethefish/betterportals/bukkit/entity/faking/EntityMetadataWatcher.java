@@ -0,0 +1,67 @@
+package com.lauriethefish.betterportals.bukkit.entity.faking;
+
+import com.comphenix.protocol.utility.MinecraftReflection;
+import com.comphenix.protocol.wrappers.WrappedDataWatcher;
+import com.comphenix.protocol.wrappers.WrappedWatchableObject;
+import com.comphenix.protocol.wrappers.nbt.NbtFactory;
+import com.comphenix.protocol.wrappers.nbt.NbtWrapper;
+import com.lauriethefish.betterportals.bukkit.util.nms.EntityUtil;
+import org.bukkit.entity.Entity;
+import org.bukkit.inventory.ItemStack;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The NMS DataWatcher's dirty flags are cleared by the vanilla entity tracker, so we can't use them to find which metadata has changed.
+ * Instead, this keeps the last value of each item, and compares them in the same way that the DataWatcher does.
+ * Item stacks and NBT tags may be modified without being replaced (e.g. when dropped items merge), so a copy of them is kept instead.
+ */
+public class EntityMetadataWatcher {
+    private final WrappedDataWatcher dataWatcher;
+    private final Map<Integer, Object> lastValues = new HashMap<>();
+
+    public EntityMetadataWatcher(Entity entity) {
+        // The entity keeps the same DataWatcher, so this is only looked up once
+        this.dataWatcher = EntityUtil.getActualDataWatcher(entity);
+    }
+
+    /**
+     * Checks for any changed metadata items and returns them
+     * Will return every item the first time
+     * @return The items that changed since the last call
+     */
+    public List<WrappedWatchableObject> checkForChanges() {
+        List<WrappedWatchableObject> result = new ArrayList<>();
+
+        for(WrappedWatchableObject item : dataWatcher.getWatchableObjects()) {
+            // The raw value is compared, since the wrapped value may be a new wrapper each time
+            Object value = getComparableValue(item.getRawValue());
+            if(!lastValues.containsKey(item.getIndex()) || !Objects.equals(lastValues.get(item.getIndex()), value)) {
+                lastValues.put(item.getIndex(), copyIfMutable(value));
+                result.add(item);
+            }
+        }
+
+        return result;
+    }
+
+    // NMS item stacks are compared by reference, so they're wrapped in a Bukkit ItemStack, which compares the type, amount and tag
+    private static Object getComparableValue(Object rawValue) {
+        return MinecraftReflection.isItemStack(rawValue) ? MinecraftReflection.getBukkitItemStack(rawValue) : rawValue;
+    }
+
+    private static Object copyIfMutable(Object value) {
+        if(value instanceof ItemStack) {
+            return ((ItemStack) value).clone();
+        }   else if(MinecraftReflection.getNBTCompoundClass().isInstance(value)) {
+            NbtWrapper<?> copy = (NbtWrapper<?>) NbtFactory.fromNMSCompound(value).deepClone();
+            return copy.getHandle();
+        }   else    {
+            return value;
+        }
+    }
+}
@@ -1,20 +1,20 @@
 package com.lauriethefish.betterportals.bukkit.entity.faking;
 
 import com.comphenix.protocol.PacketType;
-import com.comphenix.protocol.ProtocolLibrary;
-import com.comphenix.protocol.ProtocolManager;
 import com.comphenix.protocol.events.PacketContainer;
 import com.comphenix.protocol.reflect.StructureModifier;
 import com.comphenix.protocol.wrappers.BlockPosition;
 import com.comphenix.protocol.wrappers.EnumWrappers;
 import com.comphenix.protocol.wrappers.Pair;
 import com.comphenix.protocol.wrappers.WrappedDataWatcher;
+import com.comphenix.protocol.wrappers.WrappedWatchableObject;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.lauriethefish.betterportals.bukkit.math.MathUtil;
 import com.lauriethefish.betterportals.bukkit.util.VersionUtil;
 import com.lauriethefish.betterportals.bukkit.util.nms.AnimationType;
 import com.lauriethefish.betterportals.bukkit.util.nms.EntityUtil;
+import com.lauriethefish.betterportals.bukkit.util.nms.PacketUtil;
 import com.lauriethefish.betterportals.bukkit.util.nms.RotationUtil;
 import com.lauriethefish.betterportals.shared.logging.Logger;
 import org.bukkit.Location;
@@ -26,21 +26,24 @@ import org.bukkit.entity.Player;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.util.Vector;
 
-import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 
 /**
  * Deals with sending all of the packets for entity processing
+ * Packets are queued for each player until {@link EntityPacketManipulator#flush()}, so that each player's packets for the tick are written together.
  * Warning: a fair bit of this class is me complaining about mojang
  */
 @Singleton
 public class EntityPacketManipulator implements IEntityPacketManipulator {
     private final Logger logger;
 
+    private final Map<Player, List<PacketContainer>> queuedPackets = new HashMap<>();
+
     @Inject
     public EntityPacketManipulator(Logger logger) {
         this.logger = logger;
@@ -311,12 +314,16 @@ public class EntityPacketManipulator implements IEntityPacketManipulator {
 
     @Override
     public void sendMetadata(EntityInfo tracker, Collection<Player> players) {
+        WrappedDataWatcher dataWatcher = EntityUtil.getActualDataWatcher(tracker.getEntity()); // Use the Entity's actual data watcher, not ProtocolLib's method which gives us a dummy
+        sendMetadata(tracker, dataWatcher.getWatchableObjects(), players);
+    }
+
+    @Override
+    public void sendMetadata(EntityInfo tracker, List<WrappedWatchableObject> changes, Collection<Player> players) {
         PacketContainer packet = new PacketContainer(PacketType.Play.Server.ENTITY_METADATA);
 
         packet.getIntegers().write(0, tracker.getEntityId());
-
-        WrappedDataWatcher dataWatcher = EntityUtil.getActualDataWatcher(tracker.getEntity()); // Use the Entity's actual data watcher, not ProtocolLib's method which gives us a dummy
-        packet.getWatchableCollectionModifier().write(0, dataWatcher.getWatchableObjects());
+        packet.getWatchableCollectionModifier().write(0, changes);
 
         sendPacket(packet, players);
     }
@@ -364,14 +371,20 @@ public class EntityPacketManipulator implements IEntityPacketManipulator {
         sendPacket(packet, players);
     }
 
+    // Each packet is only created once, then queued for every player it's sent to
     private void sendPacket(PacketContainer packet, Collection<Player> players) {
-        ProtocolManager protocolManager = ProtocolLibrary.getProtocolManager();
-        try {
-            for (Player player : players) {
-                protocolManager.sendServerPacket(player, packet);
-            }
-        }   catch(InvocationTargetException ex) {
-            throw new RuntimeException("Failed to send packet", ex);
+        for(Player player : players) {
+            queuedPackets.computeIfAbsent(player, k -> new ArrayList<>()).add(packet);
         }
     }
+
+    @Override
+    public void flush() {
+        queuedPackets.forEach((player, packets) -> {
+            if(player.isOnline()) {
+                PacketUtil.sendPackets(player, packets);
+            }
+        });
+        queuedPackets.clear();
+    }
 }
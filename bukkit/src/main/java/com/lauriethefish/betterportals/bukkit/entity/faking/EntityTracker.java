@@ -1,8 +1,10 @@
 package com.lauriethefish.betterportals.bukkit.entity.faking;
 
 import com.comphenix.protocol.wrappers.EnumWrappers;
+import com.comphenix.protocol.wrappers.WrappedWatchableObject;
 import com.google.inject.Inject;
 import com.google.inject.assistedinject.Assisted;
+import com.lauriethefish.betterportals.bukkit.config.MiscConfig;
 import com.lauriethefish.betterportals.bukkit.portal.IPortal;
 import com.lauriethefish.betterportals.bukkit.util.nms.AnimationType;
 import com.lauriethefish.betterportals.bukkit.util.nms.EntityUtil;
@@ -24,36 +26,57 @@ public class EntityTracker implements IEntityTracker    {
     @Getter private final IPortal portal;
     private final IEntityPacketManipulator packetManipulator;
     private final IEntityTrackingManager entityTrackingManager;
+    private final MiscConfig miscConfig;
 
     private final Set<Player> trackingPlayers = new HashSet<>();
+    // Each tracking player is in exactly one of these, depending on their current EntityDetail
+    private final Set<Player> fullDetailPlayers = new HashSet<>();
+    private final Set<Player> reducedDetailPlayers = new HashSet<>();
 
     private final EntityEquipmentWatcher equipmentWatcher;
+    private final EntityMetadataWatcher metadataWatcher;
     private Vector lastPosition;
     private Vector lastDirection;
     private Vector lastVelocity;
     private float lastHeadRotation;
     private List<Entity> lastMounts;
 
+    private int ticksSinceCreated = 0;
+    private boolean movedSinceReducedUpdate = false;
+
     @Inject
-    public EntityTracker(@Assisted Entity entity, @Assisted IPortal portal, IEntityPacketManipulator packetManipulator, Logger logger, IEntityTrackingManager entityTrackingManager) {
+    public EntityTracker(@Assisted Entity entity, @Assisted IPortal portal, IEntityPacketManipulator packetManipulator, Logger logger, IEntityTrackingManager entityTrackingManager, MiscConfig miscConfig) {
         // Non-living entities don't have equipment
         this.equipmentWatcher = entity instanceof LivingEntity ? new EntityEquipmentWatcher((LivingEntity) entity) : null;
+        this.metadataWatcher = new EntityMetadataWatcher(entity);
+        metadataWatcher.checkForChanges(); // Viewers are sent the full metadata when the entity is shown, so only later changes are needed
         this.entity = entity;
         this.entityTrackingManager = entityTrackingManager;
         this.portal = portal;
         this.entityInfo = new EntityInfo(portal.getTransformations(), entity);
         this.packetManipulator = packetManipulator;
         this.logger = logger;
+        this.miscConfig = miscConfig;
     }
 
     public void update() {
         sendMovementUpdates();
 
+        // Players with reduced detail only get a teleport every few ticks
+        ticksSinceCreated++;
+        if(ticksSinceCreated % miscConfig.getReducedEntityUpdateInterval() == 0) {
+            if(movedSinceReducedUpdate && reducedDetailPlayers.size() > 0) {
+                packetManipulator.sendEntityTeleport(entityInfo, reducedDetailPlayers);
+                packetManipulator.sendEntityHeadRotation(entityInfo, reducedDetailPlayers);
+            }
+            movedSinceReducedUpdate = false;
+        }
+
         // Equipment is disabled for living entities
         if(equipmentWatcher != null) {
             Map<EnumWrappers.ItemSlot, ItemStack> equipmentChanges = equipmentWatcher.checkForChanges();
-            if(equipmentChanges.size() > 0) {
-                packetManipulator.sendEntityEquipment(entityInfo, equipmentChanges, trackingPlayers);
+            if(equipmentChanges.size() > 0 && fullDetailPlayers.size() > 0) {
+                packetManipulator.sendEntityEquipment(entityInfo, equipmentChanges, fullDetailPlayers);
             }
         }
 
@@ -74,25 +97,27 @@ public class EntityTracker implements IEntityTracker    {
         }
 
         // The metadata packet contains tons of stuff, e.g. sneaking and beds on newer versions
-        packetManipulator.sendMetadata(entityInfo, trackingPlayers);
-
-        packetManipulator.sendEntityHeadRotation(entityInfo, trackingPlayers);
+        // Only the changed items are sent, like the vanilla entity tracker
+        List<WrappedWatchableObject> metadataChanges = metadataWatcher.checkForChanges();
+        if(metadataChanges.size() > 0 && fullDetailPlayers.size() > 0) {
+            packetManipulator.sendMetadata(entityInfo, metadataChanges, fullDetailPlayers);
+        }
 
         Vector velocity = entity.getVelocity();
         if(lastVelocity != null && !velocity.equals(lastVelocity)) {
-            packetManipulator.sendEntityVelocity(entityInfo, velocity, trackingPlayers);
+            packetManipulator.sendEntityVelocity(entityInfo, velocity, fullDetailPlayers);
             lastVelocity = velocity;
         }
     }
 
     @Override
     public void onAnimation(@NotNull AnimationType animationType) {
-        packetManipulator.sendEntityAnimation(entityInfo, trackingPlayers, animationType);
+        packetManipulator.sendEntityAnimation(entityInfo, fullDetailPlayers, animationType);
     }
 
     @Override
     public void onPickup(@NotNull EntityInfo pickedUp) {
-        packetManipulator.sendEntityPickupItem(entityInfo, pickedUp, trackingPlayers);
+        packetManipulator.sendEntityPickupItem(entityInfo, pickedUp, fullDetailPlayers);
     }
 
     // Handles sending all movement and looking packets
@@ -106,25 +131,29 @@ public class EntityTracker implements IEntityTracker    {
 
         lastPosition = currentPosition;
         lastDirection = currentDirection;
+        if(positionChanged || rotationChanged) {
+            movedSinceReducedUpdate = true;
+        }
 
         // Relative move packets have a limit of 8 blocks before we have to just send a teleport packet
         boolean canUseRelativeMove = posOffset.getX() < 8 && posOffset.getY() < 8 && posOffset.getZ() < 8;
         // We must combine the move and look to avoid issues on newer versions
         if (positionChanged && !canUseRelativeMove) {
-            packetManipulator.sendEntityTeleport(entityInfo, trackingPlayers);
+            packetManipulator.sendEntityTeleport(entityInfo, fullDetailPlayers);
         } else if (positionChanged && rotationChanged) {
-            packetManipulator.sendEntityMoveLook(entityInfo, posOffset, trackingPlayers);
+            packetManipulator.sendEntityMoveLook(entityInfo, posOffset, fullDetailPlayers);
         } else if (positionChanged) {
-            packetManipulator.sendEntityMove(entityInfo, posOffset, trackingPlayers);
+            packetManipulator.sendEntityMove(entityInfo, posOffset, fullDetailPlayers);
         } else if (rotationChanged) {
-            packetManipulator.sendEntityLook(entityInfo, trackingPlayers);
+            packetManipulator.sendEntityLook(entityInfo, fullDetailPlayers);
         }
 
         // Bukkit uses the yaw as the head rotation for some reason, so we do it with that
         float headRotation = entity.getLocation().getYaw();
         if(lastHeadRotation != headRotation) {
             lastHeadRotation = headRotation;
-            packetManipulator.sendEntityHeadRotation(entityInfo, trackingPlayers);
+            movedSinceReducedUpdate = true;
+            packetManipulator.sendEntityHeadRotation(entityInfo, fullDetailPlayers);
         }
     }
 
@@ -132,6 +161,7 @@ public class EntityTracker implements IEntityTracker    {
         if(trackingPlayers.contains(player)) {throw new IllegalArgumentException("Player is already tracking this entity");}
 
         trackingPlayers.add(player);
+        fullDetailPlayers.add(player);
         packetManipulator.showEntity(entityInfo, player);
     }
 
@@ -139,11 +169,38 @@ public class EntityTracker implements IEntityTracker    {
         if(!trackingPlayers.contains(player)) {throw new IllegalArgumentException("Cannot stop player from tracking entity, they weren't viewing in the first place");}
 
         trackingPlayers.remove(player);
+        fullDetailPlayers.remove(player);
+        reducedDetailPlayers.remove(player);
         if(sendPackets) {
             packetManipulator.hideEntity(entityInfo, player);
         }
     }
 
+    @Override
+    public void setDetail(@NotNull Player player, @NotNull EntityDetail detail) {
+        if(!trackingPlayers.contains(player)) {throw new IllegalArgumentException("Cannot set the detail for a player that isn't tracking this entity");}
+
+        if(detail == EntityDetail.REDUCED) {
+            fullDetailPlayers.remove(player);
+            reducedDetailPlayers.add(player);
+            return;
+        }
+        if(!reducedDetailPlayers.remove(player)) {return;}
+        fullDetailPlayers.add(player);
+
+        // The player may have missed movement, equipment and metadata changes while at reduced detail
+        Collection<Player> players = Collections.singletonList(player);
+        packetManipulator.sendEntityTeleport(entityInfo, players);
+        packetManipulator.sendEntityHeadRotation(entityInfo, players);
+        if(entity instanceof LivingEntity) {
+            Map<EnumWrappers.ItemSlot, ItemStack> equipment = new EntityEquipmentWatcher((LivingEntity) entity).checkForChanges();
+            if(equipment.size() > 0) {
+                packetManipulator.sendEntityEquipment(entityInfo, equipment, players);
+            }
+        }
+        packetManipulator.sendMetadata(entityInfo, players);
+    }
+
     public int getTrackingPlayerCount() {
         return trackingPlayers.size();
     }
@@ -84,6 +84,16 @@ public class EntityTrackingManager implements IEntityTrackingManager, Listener {
         }
     }
 
+    @Override
+    public void setDetail(Entity entity, IPortal portal, Player player, EntityDetail detail) {
+        IEntityTracker tracker = getTracker(portal, entity);
+        if(tracker == null) {
+            logger.fine("Attempted to set the detail of an entity tracker that didn't exist. This should never happen!");
+            return;
+        }
+        tracker.setDetail(player, detail);
+    }
+
     /**
      * Performs <code>action</code> to each tracker of <code>entity</code>.
      * @param entity Entity to check for trackers
@@ -1,6 +1,7 @@
 package com.lauriethefish.betterportals.bukkit.entity.faking;
 
 import com.comphenix.protocol.wrappers.EnumWrappers;
+import com.comphenix.protocol.wrappers.WrappedWatchableObject;
 import com.lauriethefish.betterportals.bukkit.util.nms.AnimationType;
 import org.bukkit.entity.Player;
 import org.bukkit.inventory.ItemStack;
@@ -8,11 +9,13 @@ import org.bukkit.util.Vector;
 
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 /**
  * Deals with sending all of the packets for entity processing
  * Doesn't handle any of the updating/logic of when the packets are sent
+ * Packets aren't sent until {@link IEntityPacketManipulator#flush()} is called
  * NOTE: Whenever you see movement offsets/positions in this class, this class will automatically transform them by the entity tracker's matrix
  * They must be in the destination "coordinate space"
  */
@@ -97,16 +100,22 @@ public interface IEntityPacketManipulator {
     void sendEntityEquipment(EntityInfo tracker, Map<EnumWrappers.ItemSlot, ItemStack> changes, Collection<Player> players);
 
     /**
-     * Sends a metadata packet for <code>tracker</code>.
+     * Sends a metadata packet for <code>tracker</code> with all of its metadata.
      * This packet stores whether a mob is burning, dropped item type/count, item frame type, painting type, etc..
-     * Unfortunately we're forced to do a full entity metadata update every time
-     * The problem is that NMS's DataWatcher may have already been updated for players already viewing the entity on the other side
-     * This means that we can't use the method of only sending the changed data :/
      * @param tracker Entity to update the metadata of
      * @param players Players to send the update to
      */
     void sendMetadata(EntityInfo tracker, Collection<Player> players);
 
+    /**
+     * Sends a metadata packet for <code>tracker</code> with only the given items.
+     * NMS's DataWatcher may have already been updated for players viewing the entity on the other side, so the changes must be found with an {@link EntityMetadataWatcher}.
+     * @param tracker Entity to update the metadata of
+     * @param changes The metadata items that changed
+     * @param players Players to send the update to
+     */
+    void sendMetadata(EntityInfo tracker, List<WrappedWatchableObject> changes, Collection<Player> players);
+
     /**
      * Sends an entity velocity update packet for <code>tracker</code> to <code>players</code>.
      * This automatically rotates the entity velocity based on the matrices in {@link EntityInfo}.
@@ -132,4 +141,10 @@ public interface IEntityPacketManipulator {
      * @param players Players to send the packet to
      */
     void sendEntityPickupItem(EntityInfo tracker, EntityInfo pickedUp, Collection<Player> players);
+
+    /**
+     * Sends all packets queued since the last flush, flushing each player's connection once.
+     * This is called at the end of every tick.
+     */
+    void flush();
 }
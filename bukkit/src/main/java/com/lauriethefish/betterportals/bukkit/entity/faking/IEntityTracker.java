@@ -33,6 +33,14 @@ public interface IEntityTracker {
      */
     void removeTracking(@NotNull Player player, boolean sendPackets);
 
+    /**
+     * Changes how much of the entity's state is sent to <code>player</code>.
+     * When returning to {@link EntityDetail#FULL}, the player is sent the current position, equipment and metadata so that they are up to date.
+     * @param player The player to change the detail for. This must already be tracking the entity
+     * @param detail The new detail
+     */
+    void setDetail(@NotNull Player player, @NotNull EntityDetail detail);
+
     /**
      * @return The number of players currently tracking this entity.
      */
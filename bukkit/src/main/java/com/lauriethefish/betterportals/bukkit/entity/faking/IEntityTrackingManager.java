@@ -26,6 +26,15 @@ public interface IEntityTrackingManager {
      */
     void setNoLongerTracking(Entity entity, IPortal portal, Player player, boolean sendPackets);
 
+    /**
+     * Changes how much of the state of a replicated entity is sent to <code>player</code>.
+     * @param entity Entity that is replicated
+     * @param portal Portal that the entity is replicated through
+     * @param player Player that the entity is replicated to
+     * @param detail The new detail
+     */
+    void setDetail(Entity entity, IPortal portal, Player player, EntityDetail detail);
+
     /**
      * Updates all currently replicated entities
      */
@@ -0,0 +1,141 @@
+package com.lauriethefish.betterportals.bukkit.events;
+
+import com.google.inject.Inject;
+import com.lauriethefish.betterportals.bukkit.block.changes.IBlockChangeTracker;
+import com.lauriethefish.betterportals.bukkit.block.fetch.IBlockDataCache;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.block.*;
+import org.bukkit.event.entity.EntityChangeBlockEvent;
+import org.bukkit.event.entity.EntityExplodeEvent;
+import org.bukkit.event.player.PlayerBucketEmptyEvent;
+import org.bukkit.event.player.PlayerBucketFillEvent;
+
+import java.util.List;
+
+/**
+ * Forwards any events that change blocks to the {@link IBlockChangeTracker} and {@link IBlockDataCache}.
+ * These are all at the monitor priority, since we only care about the change if it actually happens.
+ */
+public class BlockChangeEvents implements Listener {
+    private final IBlockChangeTracker changeTracker;
+    private final IBlockDataCache dataCache;
+
+    @Inject
+    public BlockChangeEvents(IEventRegistrar eventRegistrar, IBlockChangeTracker changeTracker, IBlockDataCache dataCache) {
+        this.changeTracker = changeTracker;
+        this.dataCache = dataCache;
+
+        eventRegistrar.register(this);
+    }
+
+    private void onBlockChange(Block block) {
+        changeTracker.markChanged(block);
+        dataCache.invalidate(block);
+    }
+
+    private void markAll(List<Block> blocks) {
+        for(Block block : blocks) {
+            onBlockChange(block);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockPlace(BlockPlaceEvent event) {
+        onBlockChange(event.getBlockPlaced());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockBreak(BlockBreakEvent event) {
+        onBlockChange(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockPhysics(BlockPhysicsEvent event) {
+        onBlockChange(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockExplode(BlockExplodeEvent event) {
+        markAll(event.blockList());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onEntityExplode(EntityExplodeEvent event) {
+        markAll(event.blockList());
+    }
+
+    // Pistons change the blocks that they move, the position that each block is moved to, and the piston itself
+    private void markPistonChange(Block piston, List<Block> movedBlocks, BlockFace direction) {
+        onBlockChange(piston);
+        onBlockChange(piston.getRelative(direction));
+        for(Block block : movedBlocks) {
+            onBlockChange(block);
+            onBlockChange(block.getRelative(direction));
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPistonExtend(BlockPistonExtendEvent event) {
+        markPistonChange(event.getBlock(), event.getBlocks(), event.getDirection());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPistonRetract(BlockPistonRetractEvent event) {
+        markPistonChange(event.getBlock(), event.getBlocks(), event.getDirection());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onFluidFlow(BlockFromToEvent event) {
+        onBlockChange(event.getToBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBucketEmpty(PlayerBucketEmptyEvent event) {
+        onBlockChange(event.getBlockClicked().getRelative(event.getBlockFace()));
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBucketFill(PlayerBucketFillEvent event) {
+        onBlockChange(event.getBlockClicked());
+    }
+
+    // Also handles BlockSpreadEvent, since it extends BlockFormEvent
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockForm(BlockFormEvent event) {
+        onBlockChange(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockFade(BlockFadeEvent event) {
+        onBlockChange(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockGrow(BlockGrowEvent event) {
+        onBlockChange(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockBurn(BlockBurnEvent event) {
+        onBlockChange(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockIgnite(BlockIgniteEvent event) {
+        onBlockChange(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onLeavesDecay(LeavesDecayEvent event) {
+        onBlockChange(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onEntityChangeBlock(EntityChangeBlockEvent event) {
+        onBlockChange(event.getBlock());
+    }
+}
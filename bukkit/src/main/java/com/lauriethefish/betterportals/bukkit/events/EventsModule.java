@@ -10,5 +10,6 @@ public class EventsModule extends AbstractModule {
         bind(PortalTeleportationEvents.class).asEagerSingleton();
         bind(SelectionEvents.class).asEagerSingleton();
         bind(SpawningEvents.class).asEagerSingleton();
+        bind(BlockChangeEvents.class).asEagerSingleton();
     }
 }
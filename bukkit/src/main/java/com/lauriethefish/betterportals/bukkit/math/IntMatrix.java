@@ -0,0 +1,101 @@
+package com.lauriethefish.betterportals.bukkit.math;
+
+import com.lauriethefish.betterportals.api.IntVector;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Integer version of a {@link Matrix}, used for efficiently transforming block coordinates.
+ * Portal rotations are always multiples of 90 degrees, so every element of the rotation is -1, 0 or 1.
+ * This means that no floating point maths (and no rounding) is required, and transforming each coordinate doesn't allocate anything.
+ */
+public class IntMatrix {
+    private final int m00, m01, m02;
+    private final int m10, m11, m12;
+    private final int m20, m21, m22;
+
+    private final int offsetX;
+    private final int offsetY;
+    private final int offsetZ;
+
+    private IntMatrix(int[] rotation, int offsetX, int offsetY, int offsetZ) {
+        this.m00 = rotation[0]; this.m01 = rotation[1]; this.m02 = rotation[2];
+        this.m10 = rotation[3]; this.m11 = rotation[4]; this.m12 = rotation[5];
+        this.m20 = rotation[6]; this.m21 = rotation[7]; this.m22 = rotation[8];
+        this.offsetX = offsetX;
+        this.offsetY = offsetY;
+        this.offsetZ = offsetZ;
+    }
+
+    /**
+     * Creates an integer matrix with the same transformation as <code>matrix</code>.
+     * @param matrix The matrix to convert. Its rotation must be a multiple of 90 degrees, and its translation must be a whole number of blocks.
+     * @throws IllegalArgumentException If <code>matrix</code> can't be represented using integers.
+     */
+    public IntMatrix(@NotNull Matrix matrix) {
+        this(new int[]{
+                toInt(matrix, 0, 0), toInt(matrix, 0, 1), toInt(matrix, 0, 2),
+                toInt(matrix, 1, 0), toInt(matrix, 1, 1), toInt(matrix, 1, 2),
+                toInt(matrix, 2, 0), toInt(matrix, 2, 1), toInt(matrix, 2, 2)
+        }, toInt(matrix, 0, 3), toInt(matrix, 1, 3), toInt(matrix, 2, 3));
+    }
+
+    private static int toInt(Matrix matrix, int row, int column) {
+        double value = matrix.m[row][column];
+        long rounded = Math.round(value);
+        if(Math.abs(value - rounded) > MathUtil.EPSILON) {
+            throw new IllegalArgumentException("Matrix element " + value + " is not an integer");
+        }
+
+        return (int) rounded;
+    }
+
+    /**
+     * Creates a new matrix that performs this transformation, then moves coordinates by <code>offset</code>.
+     * @param offset The offset to add after transforming
+     * @return A new matrix with the translation applied
+     */
+    public @NotNull IntMatrix translate(@NotNull IntVector offset) {
+        return new IntMatrix(new int[]{m00, m01, m02, m10, m11, m12, m20, m21, m22},
+                offsetX + offset.getX(), offsetY + offset.getY(), offsetZ + offset.getZ());
+    }
+
+    /**
+     * Finds the matrix that undoes this transformation.
+     * Since the rotation only contains multiples of 90 degrees, its inverse is just the transpose.
+     * @return A new matrix with the inverse transformation
+     */
+    public @NotNull IntMatrix inverse() {
+        IntMatrix rotation = new IntMatrix(new int[]{m00, m10, m20, m01, m11, m21, m02, m12, m22}, 0, 0, 0);
+        return new IntMatrix(new int[]{m00, m10, m20, m01, m11, m21, m02, m12, m22},
+                -rotation.transformX(offsetX, offsetY, offsetZ),
+                -rotation.transformY(offsetX, offsetY, offsetZ),
+                -rotation.transformZ(offsetX, offsetY, offsetZ)
+        );
+    }
+
+    public int transformX(int x, int y, int z) {
+        return m00 * x + m01 * y + m02 * z + offsetX;
+    }
+
+    public int transformY(int x, int y, int z) {
+        return m10 * x + m11 * y + m12 * z + offsetY;
+    }
+
+    public int transformZ(int x, int y, int z) {
+        return m20 * x + m21 * y + m22 * z + offsetZ;
+    }
+
+    /**
+     * Transforms <code>in</code> by this matrix.
+     * Prefer the per-coordinate methods in hot loops, since this allocates a new vector.
+     * @param in Vector to transform
+     * @return A new transformed vector
+     */
+    public @NotNull IntVector transform(@NotNull IntVector in) {
+        int x = in.getX();
+        int y = in.getY();
+        int z = in.getZ();
+
+        return new IntVector(transformX(x, y, z), transformY(x, y, z), transformZ(x, y, z));
+    }
+}
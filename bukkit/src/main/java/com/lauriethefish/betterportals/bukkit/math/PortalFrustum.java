@@ -0,0 +1,160 @@
+package com.lauriethefish.betterportals.bukkit.math;
+
+import org.bukkit.util.Vector;
+
+import java.util.Arrays;
+
+/**
+ * Finds which positions can be seen through a portal window from a viewer's eye.
+ * <br>This gives the same result as {@link PlaneIntersectionChecker}, but instead of casting a ray to each position, the four planes that go through the eye and each edge of the window are found once.
+ * A position is then visible if it's on the inside of each of these planes, and on the other side of the window to the eye.
+ * Checking a position only takes a few dot products, and doesn't allocate anything, so this is used for checking every block around a portal.
+ */
+public class PortalFrustum {
+    private final double eyeX;
+    private final double eyeY;
+    private final double eyeZ;
+
+    // Inward facing normals of the planes through the eye and each window edge, 3 elements per plane
+    private final double[] edgeNormals = new double[12];
+
+    // Used to check that positions are on the other side of the window
+    private final double centerX;
+    private final double centerY;
+    private final double centerZ;
+    private final double normalX;
+    private final double normalY;
+    private final double normalZ;
+    private final double eyeSide;
+
+    /**
+     * Creates a new frustum, taking the same options as {@link PlaneIntersectionChecker}.
+     * @param planeCenter The center position of the portal window
+     * @param planeNormal The direction of the window. This must be along one of the axes
+     * @param eye Position of the viewer's eye
+     * @param maxDev Represents the size of the window. This can be treated like a radius
+     */
+    public PortalFrustum(Vector planeCenter, Vector planeNormal, Vector eye, Vector maxDev) {
+        this.eyeX = eye.getX();
+        this.eyeY = eye.getY();
+        this.eyeZ = eye.getZ();
+        this.centerX = planeCenter.getX();
+        this.centerY = planeCenter.getY();
+        this.centerZ = planeCenter.getZ();
+        this.normalX = planeNormal.getX();
+        this.normalY = planeNormal.getY();
+        this.normalZ = planeNormal.getZ();
+        this.eyeSide = (eyeX - centerX) * normalX + (eyeY - centerY) * normalY + (eyeZ - centerZ) * normalZ;
+
+        // The window lies along the two axes that the normal doesn't
+        double[] normal = new double[]{normalX, normalY, normalZ};
+        int normalAxis = 0;
+        for(int axis = 1; axis < 3; axis++) {
+            if(Math.abs(normal[axis]) > Math.abs(normal[normalAxis])) {
+                normalAxis = axis;
+            }
+        }
+        int axisU = (normalAxis + 1) % 3;
+        int axisV = (normalAxis + 2) % 3;
+
+        double[] center = new double[]{centerX, centerY, centerZ};
+        double[] size = new double[]{Math.abs(maxDev.getX()), Math.abs(maxDev.getY()), Math.abs(maxDev.getZ())};
+        addEdgePlane(0, center, axisU, size[axisU], axisV);
+        addEdgePlane(1, center, axisU, -size[axisU], axisV);
+        addEdgePlane(2, center, axisV, size[axisV], axisU);
+        addEdgePlane(3, center, axisV, -size[axisV], axisU);
+    }
+
+    /**
+     * Finds the plane through the eye and the window edge that is <code>offset</code> from the center on <code>offsetAxis</code>.
+     * The edge runs along <code>edgeAxis</code>.
+     */
+    private void addEdgePlane(int plane, double[] center, int offsetAxis, double offset, int edgeAxis) {
+        double[] toEdge = new double[]{center[0] - eyeX, center[1] - eyeY, center[2] - eyeZ};
+        toEdge[offsetAxis] += offset;
+
+        // Cross product of the direction to the edge and the direction of the edge, which is a unit vector on edgeAxis
+        double[] edgeDir = new double[3];
+        edgeDir[edgeAxis] = 1.0;
+        double nx = toEdge[1] * edgeDir[2] - toEdge[2] * edgeDir[1];
+        double ny = toEdge[2] * edgeDir[0] - toEdge[0] * edgeDir[2];
+        double nz = toEdge[0] * edgeDir[1] - toEdge[1] * edgeDir[0];
+
+        // Flip the normal if necessary so that the center of the window is on the inside
+        double centerDot = nx * (center[0] - eyeX) + ny * (center[1] - eyeY) + nz * (center[2] - eyeZ);
+        if(centerDot < 0) {
+            nx = -nx;
+            ny = -ny;
+            nz = -nz;
+        }
+
+        edgeNormals[plane * 3] = nx;
+        edgeNormals[plane * 3 + 1] = ny;
+        edgeNormals[plane * 3 + 2] = nz;
+    }
+
+    /**
+     * Finds if the position can be seen through the portal window from the eye.
+     * @return Whether the line from the eye to the position goes through the window, and the position is behind the window
+     */
+    public boolean isVisible(double x, double y, double z) {
+        // Nothing is visible if the eye is in line with the window
+        if(Math.abs(eyeSide) <= MathUtil.EPSILON) {return false;}
+
+        // Positions on the same side of the window as the eye are in front of the portal
+        double side = (x - centerX) * normalX + (y - centerY) * normalY + (z - centerZ) * normalZ;
+        if(eyeSide > 0 ? side > 0 : side < 0) {return false;}
+
+        double relX = x - eyeX;
+        double relY = y - eyeY;
+        double relZ = z - eyeZ;
+        for(int i = 0; i < 12; i += 3) {
+            if(edgeNormals[i] * relX + edgeNormals[i + 1] * relY + edgeNormals[i + 2] * relZ < 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Checks many positions in one pass, giving the same results as {@link PortalFrustum#isVisible(double, double, double)} for each.
+     * @param coordinates X, Y and Z of each position
+     * @param count Number of positions to check
+     * @param result Set to whether each position is visible. This must have room for at least <code>count</code> elements
+     */
+    public void findVisible(double[] coordinates, int count, boolean[] result) {
+        if(Math.abs(eyeSide) <= MathUtil.EPSILON) {
+            Arrays.fill(result, 0, count, false);
+            return;
+        }
+
+        // Copied into locals so that they aren't read from the fields for every position
+        double[] n = edgeNormals;
+        double n0x = n[0], n0y = n[1], n0z = n[2];
+        double n1x = n[3], n1y = n[4], n1z = n[5];
+        double n2x = n[6], n2y = n[7], n2z = n[8];
+        double n3x = n[9], n3y = n[10], n3z = n[11];
+        double eyeSideSign = Math.signum(eyeSide);
+        double cx = centerX, cy = centerY, cz = centerZ;
+        double nx = normalX, ny = normalY, nz = normalZ;
+        double ex = eyeX, ey = eyeY, ez = eyeZ;
+
+        for(int i = 0; i < count; i++) {
+            double x = coordinates[i * 3];
+            double y = coordinates[i * 3 + 1];
+            double z = coordinates[i * 3 + 2];
+
+            double side = (x - cx) * nx + (y - cy) * ny + (z - cz) * nz;
+            double relX = x - ex;
+            double relY = y - ey;
+            double relZ = z - ez;
+
+            result[i] = side * eyeSideSign <= 0
+                    && n0x * relX + n0y * relY + n0z * relZ >= 0
+                    && n1x * relX + n1y * relY + n1z * relZ >= 0
+                    && n2x * relX + n2y * relY + n2z * relZ >= 0
+                    && n3x * relX + n3y * relY + n3z * relZ >= 0;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.lauriethefish.betterportals.bukkit.net;
+
+import com.google.inject.Singleton;
+import com.lauriethefish.betterportals.api.IntVector;
+import com.lauriethefish.betterportals.bukkit.block.external.BlockChangeSet;
+import com.lauriethefish.betterportals.bukkit.math.Matrix;
+import com.lauriethefish.betterportals.bukkit.net.requests.CheckDestinationValidityRequest;
+import com.lauriethefish.betterportals.bukkit.net.requests.GetSelectionRequest;
+import com.lauriethefish.betterportals.bukkit.net.requests.PushBlockChangesRequest;
+import com.lauriethefish.betterportals.bukkit.net.requests.SubscribeBlockChangesRequest;
+import com.lauriethefish.betterportals.bukkit.net.requests.TestForwardedRequest;
+import com.lauriethefish.betterportals.shared.net.encoding.MessageRegistry;
+import com.lauriethefish.betterportals.shared.net.encoding.WireFormat;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Adds the encoders for messages that only exist on bukkit.
+ * These are only sent between client servers, so the proxy doesn't need to know about them.
+ */
+@Singleton
+public class ClientMessageRegistry extends MessageRegistry {
+    public ClientMessageRegistry() {
+        register(64, IntVector.class, ClientMessageRegistry::writeIntVector, ClientMessageRegistry::readIntVector);
+
+        register(65, SubscribeBlockChangesRequest.class, this::writeSubscribeBlockChangesRequest, this::readSubscribeBlockChangesRequest);
+        register(66, CheckDestinationValidityRequest.class, this::writeCheckDestinationValidityRequest, this::readCheckDestinationValidityRequest);
+        register(67, GetSelectionRequest.class, this::writeGetSelectionRequest, this::readGetSelectionRequest);
+        register(68, TestForwardedRequest.class, this::writeTestForwardedRequest, this::readTestForwardedRequest);
+        register(69, PushBlockChangesRequest.class, this::writePushBlockChangesRequest, this::readPushBlockChangesRequest);
+
+        register(80, BlockChangeSet.class, (value, out) -> value.write(out), BlockChangeSet::read);
+    }
+
+    private static void writeIntVector(IntVector vector, DataOutputStream out) throws IOException {
+        WireFormat.writeSignedVarInt(out, vector.getX());
+        WireFormat.writeSignedVarInt(out, vector.getY());
+        WireFormat.writeSignedVarInt(out, vector.getZ());
+    }
+
+    private static IntVector readIntVector(DataInputStream in) throws IOException {
+        return new IntVector(WireFormat.readSignedVarInt(in), WireFormat.readSignedVarInt(in), WireFormat.readSignedVarInt(in));
+    }
+
+    private void writeSubscribeBlockChangesRequest(SubscribeBlockChangesRequest request, DataOutputStream out) throws IOException {
+        WireFormat.writeVarInt(out, request.getId());
+        WireFormat.writeUUID(out, request.getChangeSetId());
+        WireFormat.writeString(out, request.getOriginServer());
+        writeIntVector(request.getPosition(), out);
+        for(double[] row : request.getRotateOriginToDest().m) {
+            for(double value : row) {
+                out.writeDouble(value);
+            }
+        }
+        WireFormat.writeUUID(out, request.getWorldId());
+        WireFormat.writeString(out, request.getWorldName());
+        WireFormat.writeVarInt(out, request.getXAndZRadius());
+        WireFormat.writeVarInt(out, request.getYRadius());
+    }
+
+    private SubscribeBlockChangesRequest readSubscribeBlockChangesRequest(DataInputStream in) throws IOException {
+        SubscribeBlockChangesRequest request = new SubscribeBlockChangesRequest();
+        request.setId(WireFormat.readVarInt(in));
+        request.setChangeSetId(WireFormat.readUUID(in));
+        request.setOriginServer(WireFormat.readString(in));
+        request.setPosition(readIntVector(in));
+
+        double[][] matrix = new double[4][4];
+        for(double[] row : matrix) {
+            for(int i = 0; i < row.length; i++) {
+                row[i] = in.readDouble();
+            }
+        }
+        request.setRotateOriginToDest(new Matrix(matrix));
+
+        request.setWorldId(WireFormat.readUUID(in));
+        request.setWorldName(WireFormat.readString(in));
+        request.setXAndZRadius(WireFormat.readVarInt(in));
+        request.setYRadius(WireFormat.readVarInt(in));
+        return request;
+    }
+
+    private void writePushBlockChangesRequest(PushBlockChangesRequest request, DataOutputStream out) throws IOException {
+        WireFormat.writeVarInt(out, request.getId());
+        WireFormat.writeUUID(out, request.getChangeSetId());
+        out.writeBoolean(request.getChanges() != null);
+        if(request.getChanges() != null) {
+            request.getChanges().write(out);
+        }
+    }
+
+    private PushBlockChangesRequest readPushBlockChangesRequest(DataInputStream in) throws IOException {
+        PushBlockChangesRequest request = new PushBlockChangesRequest();
+        request.setId(WireFormat.readVarInt(in));
+        request.setChangeSetId(WireFormat.readUUID(in));
+        if(in.readBoolean()) {
+            request.setChanges(BlockChangeSet.read(in));
+        }
+        return request;
+    }
+
+    private void writeCheckDestinationValidityRequest(CheckDestinationValidityRequest request, DataOutputStream out) throws IOException {
+        WireFormat.writeVarInt(out, request.getId());
+        WireFormat.writeString(out, request.getDestinationWorldName());
+        WireFormat.writeUUID(out, request.getDestinationWorldId());
+        WireFormat.writeString(out, request.getOriginGameVersion());
+    }
+
+    private CheckDestinationValidityRequest readCheckDestinationValidityRequest(DataInputStream in) throws IOException {
+        CheckDestinationValidityRequest request = new CheckDestinationValidityRequest();
+        request.setId(WireFormat.readVarInt(in));
+        request.setDestinationWorldName(WireFormat.readString(in));
+        request.setDestinationWorldId(WireFormat.readUUID(in));
+        request.setOriginGameVersion(WireFormat.readString(in));
+        return request;
+    }
+
+    private void writeGetSelectionRequest(GetSelectionRequest request, DataOutputStream out) throws IOException {
+        WireFormat.writeVarInt(out, request.getId());
+        WireFormat.writeUUID(out, request.getPlayerId());
+    }
+
+    private GetSelectionRequest readGetSelectionRequest(DataInputStream in) throws IOException {
+        GetSelectionRequest request = new GetSelectionRequest();
+        request.setId(WireFormat.readVarInt(in));
+        request.setPlayerId(WireFormat.readUUID(in));
+        return request;
+    }
+
+    private void writeTestForwardedRequest(TestForwardedRequest request, DataOutputStream out) throws IOException {
+        WireFormat.writeVarInt(out, request.getId());
+        writeValue(out, request.getTestField());
+    }
+
+    private TestForwardedRequest readTestForwardedRequest(DataInputStream in) throws IOException, ClassNotFoundException {
+        TestForwardedRequest request = new TestForwardedRequest();
+        request.setId(WireFormat.readVarInt(in));
+        request.setTestField((IntVector) readValue(in));
+        return request;
+    }
+}
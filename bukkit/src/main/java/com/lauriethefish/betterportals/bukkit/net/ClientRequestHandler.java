@@ -3,11 +3,14 @@ package com.lauriethefish.betterportals.bukkit.net;
 import com.comphenix.protocol.wrappers.Pair;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import com.lauriethefish.betterportals.bukkit.block.external.IExternalBlockSubscriptionManager;
 import com.lauriethefish.betterportals.bukkit.block.external.IExternalBlockWatcherManager;
+import com.lauriethefish.betterportals.bukkit.config.ProxyConfig;
 import com.lauriethefish.betterportals.api.IntVector;
 import com.lauriethefish.betterportals.bukkit.net.requests.CheckDestinationValidityRequest;
-import com.lauriethefish.betterportals.bukkit.net.requests.GetBlockDataChangesRequest;
+import com.lauriethefish.betterportals.bukkit.net.requests.SubscribeBlockChangesRequest;
 import com.lauriethefish.betterportals.bukkit.net.requests.GetSelectionRequest;
+import com.lauriethefish.betterportals.bukkit.net.requests.PushBlockChangesRequest;
 import com.lauriethefish.betterportals.bukkit.net.requests.TestForwardedRequest;
 import com.lauriethefish.betterportals.bukkit.player.IPlayerDataManager;
 import com.lauriethefish.betterportals.bukkit.player.selection.IPortalSelection;
@@ -16,6 +19,8 @@ import com.lauriethefish.betterportals.shared.logging.Logger;
 import com.lauriethefish.betterportals.shared.net.IRequestHandler;
 import com.lauriethefish.betterportals.shared.net.RequestException;
 import com.lauriethefish.betterportals.shared.net.Response;
+import com.lauriethefish.betterportals.shared.net.encoding.MessageRegistry;
+import com.lauriethefish.betterportals.shared.net.encoding.OpaquePayload;
 import com.lauriethefish.betterportals.shared.net.requests.PreviousServerPutRequest;
 import com.lauriethefish.betterportals.shared.net.requests.RelayRequest;
 import com.lauriethefish.betterportals.shared.net.requests.Request;
@@ -23,9 +28,7 @@ import com.lauriethefish.betterportals.shared.net.requests.TeleportRequest;
 import org.bukkit.Bukkit;
 import org.jetbrains.annotations.NotNull;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.function.Consumer;
 
@@ -33,16 +36,22 @@ import java.util.function.Consumer;
 public class ClientRequestHandler implements IRequestHandler {
     private final Logger logger;
     private final IExternalBlockWatcherManager blockWatcherManager;
+    private final IExternalBlockSubscriptionManager blockSubscriptionManager;
     private final IPlayerDataManager playerDataManager;
     private final IPortalClient portalClient;
+    private final MessageRegistry messageRegistry;
+    private final ProxyConfig proxyConfig;
     private final ConcurrentLinkedQueue<Pair<Request, Consumer<Response>>> awaitingHandling = new ConcurrentLinkedQueue<>();
 
     @Inject
-    public ClientRequestHandler(Logger logger, IExternalBlockWatcherManager blockWatcherManager, IPlayerDataManager playerDataManager, IPortalClient portalClient) {
+    public ClientRequestHandler(Logger logger, IExternalBlockWatcherManager blockWatcherManager, IExternalBlockSubscriptionManager blockSubscriptionManager, IPlayerDataManager playerDataManager, IPortalClient portalClient, MessageRegistry messageRegistry, ProxyConfig proxyConfig) {
         this.logger = logger;
         this.blockWatcherManager = blockWatcherManager;
+        this.blockSubscriptionManager = blockSubscriptionManager;
         this.playerDataManager = playerDataManager;
         this.portalClient = portalClient;
+        this.messageRegistry = messageRegistry;
+        this.proxyConfig = proxyConfig;
     }
 
     /**
@@ -67,8 +76,10 @@ public class ClientRequestHandler implements IRequestHandler {
         try {
             if(request instanceof RelayRequest) {
                 handleRelayedRequest((RelayRequest) request, onFinish);
-            }   else if(request instanceof GetBlockDataChangesRequest) {
-                handleGetBlockDataChangesRequest((GetBlockDataChangesRequest) request, onFinish);
+            }   else if(request instanceof SubscribeBlockChangesRequest) {
+                handleSubscribeBlockChangesRequest((SubscribeBlockChangesRequest) request, onFinish);
+            }   else if(request instanceof PushBlockChangesRequest) {
+                handlePushBlockChangesRequest((PushBlockChangesRequest) request, onFinish);
             }   else if(request instanceof TestForwardedRequest) {
                 handleTestForwardedRequest((TestForwardedRequest) request, onFinish);
             }   else if(request instanceof CheckDestinationValidityRequest) {
@@ -94,24 +105,25 @@ public class ClientRequestHandler implements IRequestHandler {
     }
 
     private void handleRelayedRequest(RelayRequest request, Consumer<Response> onFinish) throws IOException, ClassNotFoundException {
-        Request innerRequest = request.getInnerRequest();
+        Request innerRequest = (Request) request.getInnerRequest().decode(messageRegistry);
         handleRequest(innerRequest, (response) -> {
-            ByteArrayOutputStream byteOutputStream = new ByteArrayOutputStream();
+            // Wrap the response as a payload to avoid the proxy trying to decode a type that doesn't exist on bungeecord
+            Response wrappedResponse = new Response();
             try {
-                new ObjectOutputStream(byteOutputStream).writeObject(response);
+                wrappedResponse.setResult(OpaquePayload.encode(messageRegistry, response, proxyConfig.getCompressionThreshold()));
             } catch (IOException ex) {
-                // This should never happen
+                wrappedResponse.setError(new RequestException(ex, "Failed to encode relayed response"));
             }
-
-            // Wrap the response as a byte array to avoid the proxy trying to deserialize a type that doesn't exist on bungeecord
-            Response wrappedResponse = new Response();
-            wrappedResponse.setResult(byteOutputStream.toByteArray());
             onFinish.accept(wrappedResponse);
         });
     }
 
-    private void handleGetBlockDataChangesRequest(@NotNull GetBlockDataChangesRequest request, @NotNull Consumer<Response> onFinish) {
-        blockWatcherManager.onRequestReceived(request, onFinish);
+    private void handleSubscribeBlockChangesRequest(@NotNull SubscribeBlockChangesRequest request, @NotNull Consumer<Response> onFinish) {
+        blockWatcherManager.onSubscribeReceived(request, onFinish);
+    }
+
+    private void handlePushBlockChangesRequest(@NotNull PushBlockChangesRequest request, @NotNull Consumer<Response> onFinish) {
+        blockSubscriptionManager.onChangesPushed(request, onFinish);
     }
 
     private void handleTestForwardedRequest(@NotNull TestForwardedRequest request, @NotNull Consumer<Response> onFinish) throws RequestException  {
@@ -4,6 +4,7 @@ import com.lauriethefish.betterportals.bukkit.config.ProxyConfig;
 import com.lauriethefish.betterportals.shared.net.Response;
 import com.lauriethefish.betterportals.shared.net.requests.Request;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.function.Consumer;
 
@@ -40,6 +41,11 @@ public interface IPortalClient {
      */
     boolean isConnectionOpen();
 
+    /**
+     * @return The name that the proxy knows this server by, or null if no handshake has finished yet.
+     */
+    @Nullable String getServerName();
+
     /**
      * @return Whether or not the handshake failed in the last connection attempt. (false if merely an IO error)
      */
@@ -56,11 +62,18 @@ public interface IPortalClient {
 
 
     /**
-     * Forwards <code>request</code> to one of the servers connected to the proxy, and calls <code>onReceive</code> once a response is read.
+     * Sends <code>request</code> to one of the servers connected to the proxy, and calls <code>onReceive</code> once a response is read.
+     * The request is sent directly if there is a direct connection to the server, otherwise it is relayed through the proxy.
      * @param request The request to forward
      * @param destinationServer The server to forward to
      * @param onReceive Called with the response on the main thread once the client thread receives it.
      * @throws IllegalStateException If the client is not connected to the proxy
      */
     void sendRequestToServer(Request request, String destinationServer, Consumer<Response> onReceive);
+
+    /**
+     * Sends all messages queued on the main thread this tick.
+     * Called at the end of each tick, so that the messages are sent in one frame instead of one each.
+     */
+    void flush();
 }
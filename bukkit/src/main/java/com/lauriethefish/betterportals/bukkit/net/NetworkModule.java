@@ -2,21 +2,30 @@ package com.lauriethefish.betterportals.bukkit.net;
 
 import com.google.inject.AbstractModule;
 import com.google.inject.assistedinject.FactoryModuleBuilder;
+import com.lauriethefish.betterportals.bukkit.net.direct.DirectConnection;
+import com.lauriethefish.betterportals.bukkit.net.direct.DirectConnectionManager;
+import com.lauriethefish.betterportals.bukkit.net.direct.DirectServerHandler;
+import com.lauriethefish.betterportals.bukkit.net.direct.IDirectConnectionManager;
 import com.lauriethefish.betterportals.shared.net.IRequestHandler;
-import com.lauriethefish.betterportals.shared.net.encryption.EncryptedObjectStream;
-import com.lauriethefish.betterportals.shared.net.encryption.EncryptedObjectStreamFactory;
-import com.lauriethefish.betterportals.shared.net.encryption.IEncryptedObjectStream;
+import com.lauriethefish.betterportals.shared.net.encoding.MessageRegistry;
+import com.lauriethefish.betterportals.shared.net.encryption.EncryptedMessageCodec;
+import com.lauriethefish.betterportals.shared.net.encryption.IMessageCodec;
+import com.lauriethefish.betterportals.shared.net.encryption.MessageCodecFactory;
 
 public class NetworkModule extends AbstractModule {
     @Override
     public void configure() {
         install(new FactoryModuleBuilder()
-                .implement(IEncryptedObjectStream.class, EncryptedObjectStream.class)
-                .build(EncryptedObjectStreamFactory.class)
+                .implement(IMessageCodec.class, EncryptedMessageCodec.class)
+                .build(MessageCodecFactory.class)
         );
+        install(new FactoryModuleBuilder().build(DirectConnection.Factory.class));
+        install(new FactoryModuleBuilder().build(DirectServerHandler.Factory.class));
 
+        bind(MessageRegistry.class).to(ClientMessageRegistry.class);
         bind(IPortalClient.class).to(PortalClient.class);
         bind(IRequestHandler.class).to(ClientRequestHandler.class);
         bind(IClientReconnectHandler.class).to(ClientReconnectHandler.class);
+        bind(IDirectConnectionManager.class).to(DirectConnectionManager.class);
     }
 }
@@ -3,23 +3,31 @@ package com.lauriethefish.betterportals.bukkit.net;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.lauriethefish.betterportals.bukkit.config.ProxyConfig;
+import com.lauriethefish.betterportals.bukkit.net.direct.IDirectConnectionManager;
 import com.lauriethefish.betterportals.bukkit.util.VersionUtil;
 import com.lauriethefish.betterportals.shared.logging.Logger;
 import com.lauriethefish.betterportals.shared.net.*;
+import com.lauriethefish.betterportals.shared.net.encoding.MessageRegistry;
+import com.lauriethefish.betterportals.shared.net.encoding.OpaquePayload;
 import com.lauriethefish.betterportals.shared.net.encryption.CipherManager;
-import com.lauriethefish.betterportals.shared.net.encryption.EncryptedObjectStreamFactory;
-import com.lauriethefish.betterportals.shared.net.encryption.IEncryptedObjectStream;
+import com.lauriethefish.betterportals.shared.net.encryption.IMessageCodec;
+import com.lauriethefish.betterportals.shared.net.encryption.MessageCodecFactory;
+import com.lauriethefish.betterportals.shared.net.encryption.SessionKeys;
 import com.lauriethefish.betterportals.shared.net.requests.RelayRequest;
 import com.lauriethefish.betterportals.shared.net.requests.Request;
+import com.lauriethefish.betterportals.shared.net.transport.Connection;
+import com.lauriethefish.betterportals.shared.net.transport.IConnectionHandler;
+import com.lauriethefish.betterportals.shared.net.transport.Lane;
+import com.lauriethefish.betterportals.shared.net.transport.MessageBatcher;
+import com.lauriethefish.betterportals.shared.net.transport.NetworkEventLoop;
 import org.bukkit.Bukkit;
 import org.bukkit.plugin.java.JavaPlugin;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import javax.crypto.AEADBadTagException;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.net.Socket;
+import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
 import java.security.NoSuchAlgorithmException;
 import java.util.concurrent.ConcurrentHashMap;
@@ -27,43 +35,57 @@ import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 
+/**
+ * Connection to the proxy. Frames are read on the {@link NetworkEventLoop} thread, and responses are passed back to the main thread.
+ */
 @Singleton
-public class PortalClient implements IPortalClient {
+public class PortalClient implements IPortalClient, IConnectionHandler {
     private final JavaPlugin pl;
     private final ProxyConfig proxyConfig;
     private final Logger logger;
-    private final EncryptedObjectStreamFactory encryptedObjectStreamFactory;
+    private final MessageCodecFactory messageCodecFactory;
     private final IRequestHandler requestHandler;
     private final IClientReconnectHandler reconnectHandler;
     private final CipherManager cipherManager;
+    private final MessageRegistry messageRegistry;
+    private final NetworkEventLoop eventLoop;
+    private final IDirectConnectionManager directConnectionManager;
 
-    private Socket socket;
+    private volatile Connection connection;
+    private volatile MessageBatcher messageBatcher;
     private volatile boolean isRunning = false;
     private volatile boolean hasHandshakeFinished = false;
 
     private volatile boolean shouldReconnectIfFailed;
+    private volatile boolean printErrors;
+    private volatile String serverName;
 
-    private IEncryptedObjectStream objectStream;
+    private volatile IMessageCodec messageCodec;
+    private byte[] sessionNonce;
 
     private final AtomicInteger currentRequestId = new AtomicInteger();
     private final ConcurrentMap<Integer, Consumer<Response>> waitingRequests = new ConcurrentHashMap<>();
 
     @Inject
-    public PortalClient(JavaPlugin pl, ProxyConfig proxyConfig, Logger logger, CipherManager cipherManager, EncryptedObjectStreamFactory encryptedObjectStreamFactory, IRequestHandler requestHandler, IClientReconnectHandler reconnectHandler) {
+    public PortalClient(JavaPlugin pl, ProxyConfig proxyConfig, Logger logger, CipherManager cipherManager, MessageCodecFactory messageCodecFactory, IRequestHandler requestHandler, IClientReconnectHandler reconnectHandler, MessageRegistry messageRegistry, NetworkEventLoop eventLoop, IDirectConnectionManager directConnectionManager) {
         this.pl = pl;
         this.proxyConfig = proxyConfig;
         this.logger = logger;
-        this.encryptedObjectStreamFactory = encryptedObjectStreamFactory;
+        this.messageCodecFactory = messageCodecFactory;
         this.requestHandler = requestHandler;
         this.reconnectHandler = reconnectHandler;
         this.cipherManager = cipherManager;
+        this.messageRegistry = messageRegistry;
+        this.eventLoop = eventLoop;
+        this.directConnectionManager = directConnectionManager;
     }
 
     @Override
-    public void connect(boolean printErrors) {
+    public synchronized void connect(boolean printErrors) {
         if(isRunning) {throw new IllegalStateException("Attempted to start connection when was was already established");}
         isRunning = true;
         shouldReconnectIfFailed = true;
+        this.printErrors = printErrors;
 
         try {
             cipherManager.init(proxyConfig.getEncryptionKey());
@@ -72,62 +94,92 @@ public class PortalClient implements IPortalClient {
             ex.printStackTrace();
         }
 
-        new Thread(() -> {
-            try {
-                run();
-            }   catch(IOException ex) {
-                // An IOException gets thrown if another thread shuts down this connection
-                if (!isRunning) {
-                    return;
-                }
-                if(printErrors) {
-                    logger.warning("An IO error occurred while connected to the proxy");
-                    logger.warning("%s: %s", ex.getClass().getName(), ex.getMessage()); // Don't print the full stack trace - it's pretty long
-                }
-            }   catch(AEADBadTagException ex) {
-                shouldReconnectIfFailed = false;
-                if(printErrors) {
-                    logger.warning("Failed to initialise encryption with the proxy");
-                    logger.warning("Please make sure that your encryption key is valid!");
-                    ex.printStackTrace();
-                }
-            }   catch(Exception ex) {
-                if(printErrors) {
-                    logger.warning("An error occurred while connected to the proxy");
-                    ex.printStackTrace();
-                }
-            }   finally     {
-                disconnect();
+        // This must be listening before the handshake, since the port is sent in it
+        directConnectionManager.start();
+
+        messageCodec = messageCodecFactory.create();
+        messageBatcher = null; // Created once connected, so that nothing is sent on the previous connection
+        try {
+            connection = eventLoop.connect(proxyConfig.getAddress(), this);
+        }   catch(IOException ex) {
+            if(printErrors) {
+                logger.warning("An IO error occurred while connecting to the proxy");
+                logger.warning("%s: %s", ex.getClass().getName(), ex.getMessage());
             }
-        }).start();
+            disconnect();
+        }
     }
 
-    private void run() throws IOException, GeneralSecurityException, ClassNotFoundException {
-        socket = new Socket();
-        socket.connect(proxyConfig.getAddress());
+    @Override
+    public void onConnected(@NotNull Connection connection) throws IOException {
+        // Waits for connect to return, so that the connection field is set
+        synchronized(this) {
+            if(this.connection != connection) {return;} // Replaced after reconnecting
+            messageBatcher = new MessageBatcher(eventLoop, connection, messageCodec);
+        }
 
+        logger.fine("Connected to the proxy");
+        sendHandshake();
+    }
 
-        logger.fine("Hello from client thread");
-        objectStream = encryptedObjectStreamFactory.create(socket.getInputStream(), socket.getOutputStream());
+    @Override
+    public void onFrame(@NotNull Connection connection, @NotNull Lane lane, @NotNull ByteBuffer frame) throws GeneralSecurityException, IOException, ClassNotFoundException {
+        Object next = messageCodec.decode(frame, lane);
+        if(next instanceof MessageBatch) {
+            for(Object message : ((MessageBatch) next).getMessages()) {
+                if(!connection.isOpen()) {break;} // Ignore anything after a disconnection notice
+                handleMessage(connection, message);
+            }
+        }   else    {
+            handleMessage(connection, next);
+        }
+    }
 
-        if(!runHandshake()) {
-            shouldReconnectIfFailed = false; // The handshake will just fail again if reconnecting, so don't
+    private void handleMessage(Connection connection, Object next) throws GeneralSecurityException {
+        if(!hasHandshakeFinished) {
+            if(!processHandshakeResponse((HandshakeResponse) next)) {
+                shouldReconnectIfFailed = false; // The handshake will just fail again if reconnecting, so don't
+                connection.close();
+            }
             return;
         }
 
-        logger.info("Successfully connected to the proxy");
-
-        while(true) {
-            Object next = objectStream.readObject();
-            if (next instanceof DisconnectNotice) {
-                logger.fine("Received disconnection notice, shutting down!");
-                return;
-            } else if (next instanceof Response) {
-                processResponse((Response) next);
-            } else if (next instanceof Request) {
-                processRequest((Request) next);
+        if (next instanceof DisconnectNotice) {
+            logger.fine("Received disconnection notice, shutting down!");
+            connection.close();
+        } else if (next instanceof Response) {
+            processResponse((Response) next);
+        } else if (next instanceof Request) {
+            processRequest((Request) next);
+        }
+    }
+
+    @Override
+    public void onDisconnected(@NotNull Connection connection, @Nullable Throwable cause) {
+        // Ignore connections that were replaced after reconnecting
+        synchronized(this) {
+            if(this.connection != connection) {return;}
+        }
+
+        if(cause instanceof IOException) {
+            // An IOException gets thrown if another thread shuts down this connection
+            if(isRunning && printErrors) {
+                logger.warning("An IO error occurred while connected to the proxy");
+                logger.warning("%s: %s", cause.getClass().getName(), cause.getMessage()); // Don't print the full stack trace - it's pretty long
+            }
+        }   else if(cause instanceof AEADBadTagException) {
+            shouldReconnectIfFailed = false;
+            if(printErrors) {
+                logger.warning("Failed to initialise encryption with the proxy");
+                logger.warning("Please make sure that your encryption key is valid!");
+                cause.printStackTrace();
             }
+        }   else if(cause != null && printErrors) {
+            logger.warning("An error occurred while connected to the proxy");
+            cause.printStackTrace();
         }
+
+        disconnect();
     }
 
     /**
@@ -136,16 +188,16 @@ public class PortalClient implements IPortalClient {
      */
     private void processRequest(Request request) {
         // We don't just send the response directly, since it may take some time to process the request, and we need to be ready for more requests.
-        requestHandler.handleRequest(request, (response) -> Bukkit.getScheduler().runTaskAsynchronously(pl, () -> {
+        requestHandler.handleRequest(request, (response) -> {
             response.setId((request).getId()); // Assign the correct request ID so that the proxy knows which request this response is for
             try {
                 send(response);
-            } catch (IOException | GeneralSecurityException ex) {
+            } catch (IOException ex) {
                 logger.warning("IO Error occurred while sending a response to a request");
                 ex.printStackTrace();
                 disconnect();
             }
-        }));
+        });
     }
 
     /**
@@ -164,21 +216,35 @@ public class PortalClient implements IPortalClient {
 
     /**
      * Sends a {@link Handshake} to the proxy to verify the plugin version, and to tell the proxy our game version.
-     * @return Whether or not the handshake was successful.
      */
-    private boolean runHandshake() throws IOException, GeneralSecurityException, ClassNotFoundException {
+    private void sendHandshake() throws IOException {
         logger.fine("Running handshake . . .");
         Handshake handshake = new Handshake();
         handshake.setPluginVersion(pl.getDescription().getVersion());
         handshake.setServerPort(Bukkit.getPort());
         handshake.setGameVersion(VersionUtil.getCurrentVersion());
-        objectStream.writeObject(handshake);
-
-        HandshakeResponse response = (HandshakeResponse) objectStream.readObject();
+        handshake.setDirectPort(directConnectionManager.getListeningPort());
+        sessionNonce = cipherManager.createSessionNonce();
+        handshake.setSessionNonce(sessionNonce);
+        handshake.setCompressionThreshold(proxyConfig.getCompressionThreshold());
+        send(handshake);
+    }
 
+    /**
+     * Checks the {@link HandshakeResponse} sent back by the proxy, and switches to the session keys if it was successful.
+     * @return Whether or not the handshake was successful.
+     */
+    private boolean processHandshakeResponse(HandshakeResponse response) throws GeneralSecurityException {
         switch(response.getStatus()) {
             case SUCCESS:
-                logger.fine("Handshake was successful");
+                SessionKeys sessionKeys = cipherManager.deriveSessionKeys(sessionNonce, response.getSessionNonce());
+                messageCodec.startDecryptSession(sessionKeys.getServerKey());
+                messageBatcher.startEncryptSession(sessionKeys.getClientKey());
+                messageCodec.setCompressionThreshold(response.getCompressionThreshold());
+
+                logger.fine("Handshake was successful. Registered as server %s", response.getServerName());
+                serverName = response.getServerName();
+                logger.info("Successfully connected to the proxy");
                 hasHandshakeFinished = true;
                 return true;
             case PLUGIN_VERSION_MISMATCH:
@@ -199,14 +265,15 @@ public class PortalClient implements IPortalClient {
         shouldReconnectIfFailed = false;
 
         try {
-            if(objectStream != null) {
+            if(connection != null && connection.isOpen()) {
                 send(new DisconnectNotice());
             }
-        }   catch(IOException | GeneralSecurityException ex) {
+        }   catch(IOException ex) {
             logger.warning("Error occurred while sending disconnection notice to proxy");
             ex.printStackTrace();
         }
 
+        directConnectionManager.shutDown();
         disconnect(true); // Force it since we've set isRunning to false
     }
 
@@ -220,6 +287,11 @@ public class PortalClient implements IPortalClient {
         return isRunning;
     }
 
+    @Override
+    public @Nullable String getServerName() {
+        return serverName;
+    }
+
     @Override
     public boolean getShouldReconnect() {
         return shouldReconnectIfFailed;
@@ -230,7 +302,7 @@ public class PortalClient implements IPortalClient {
     }
 
     /**
-     * Closest the socket, and sets {@link PortalClient#isRunning} to false.
+     * Closes the connection once any queued frames are written, and sets {@link PortalClient#isRunning} to false.
      * Does nothing if already disconnected.
      * All waiting requests will receive an error.
      */
@@ -243,13 +315,13 @@ public class PortalClient implements IPortalClient {
         isRunning = false;
         hasHandshakeFinished = false;
 
-        try {
-            if(socket != null) {
-                socket.close();
+        Connection connection = this.connection;
+        if(connection != null) {
+            MessageBatcher messageBatcher = this.messageBatcher;
+            if(messageBatcher != null) {
+                messageBatcher.flush(); // Make sure that the disconnection notice is written before closing
             }
-        }   catch(IOException ex) {
-            logger.warning("Error occurred while closing proxy connection socket");
-            ex.printStackTrace();
+            connection.close();
         }
 
         Response disconnectResponse = new Response();
@@ -276,42 +348,77 @@ public class PortalClient implements IPortalClient {
             return;
         }
 
-        // Avoid blocking the main thread
-        Bukkit.getScheduler().runTaskAsynchronously(pl, () -> {
-            try {
-                send(request);
-            } catch (IOException | GeneralSecurityException ex) {
-                logger.warning("Disconnected from proxy while sending request");
-                disconnect();
-            }
-        });
+        // Sending only queues the frame, so this doesn't block the main thread
+        try {
+            send(request);
+        } catch (IOException ex) {
+            logger.warning("Disconnected from proxy while sending request");
+            disconnect();
+        }
     }
 
     @Override
     public void sendRequestToServer(@NotNull Request request, @NotNull String destinationServer, @NotNull Consumer<Response> onFinish) {
+        // Avoid the extra hop through the proxy if possible
+        if(directConnectionManager.sendRequest(request, destinationServer, onFinish)) {
+            return;
+        }
+
         // Tell the proxy to send the request to the correct server
         RelayRequest relayRequest = new RelayRequest();
-        relayRequest.setInnerRequest(request);
+        try {
+            relayRequest.setInnerRequest(OpaquePayload.encode(messageRegistry, request, proxyConfig.getCompressionThreshold()));
+        }   catch(IOException ex) {
+            throw new IllegalStateException("Failed to encode relayed request", ex);
+        }
         relayRequest.setDestination(destinationServer);
 
         // Relayed responses are wrapped so that they can be treated as opaque on the proxy side
         sendRequestToProxy(relayRequest, (response) -> {
             try {
-                byte[] responseData = (byte[]) response.getResult();
-                Object deserializedResponse = new ObjectInputStream(new ByteArrayInputStream(responseData)).readObject();
-                onFinish.accept((Response) deserializedResponse);
+                OpaquePayload responseData = (OpaquePayload) response.getResult();
+                onFinish.accept((Response) responseData.decode(messageRegistry));
 
             }   catch(RequestException ex) { // This is thrown if there is an error while forwarding the request, not in its processing at the destination
                 Response eResponse = new Response();
                 eResponse.setError(ex);
                 onFinish.accept(eResponse);
             }   catch(IOException | ClassNotFoundException ex) {
-                disconnect();
+                // The payload was encoded by the destination server, so the proxy connection itself is still fine
+                logger.warning("Failed to decode relayed response from %s: %s: %s", destinationServer, ex.getClass().getName(), ex.getMessage());
+                Response eResponse = new Response();
+                eResponse.setError(new RequestException(ex, "Failed to decode relayed response"));
+                onFinish.accept(eResponse);
             }
         });
     }
 
-    public synchronized void send(Object obj) throws GeneralSecurityException, IOException {
-        objectStream.writeObject(obj);
+    /**
+     * Queues <code>obj</code> to be sent to the proxy.
+     * Messages sent on the main thread are batched until the end of the tick, see {@link PortalClient#flush()}.
+     * Otherwise, they are sent as soon as the network thread is free.
+     * @param obj The message to send
+     * @throws IOException If not connected to the proxy
+     */
+    public void send(Object obj) throws IOException {
+        MessageBatcher messageBatcher = this.messageBatcher;
+        if(messageBatcher == null) {
+            throw new IOException("Not connected to the proxy");
+        }
+
+        if(Bukkit.isPrimaryThread()) {
+            messageBatcher.add(obj);
+        }   else    {
+            messageBatcher.addAndFlushSoon(obj);
+        }
+    }
+
+    @Override
+    public void flush() {
+        MessageBatcher messageBatcher = this.messageBatcher;
+        if(messageBatcher != null) {
+            messageBatcher.flush();
+        }
+        directConnectionManager.flush();
     }
 }
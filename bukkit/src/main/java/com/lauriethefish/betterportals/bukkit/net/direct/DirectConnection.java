@@ -0,0 +1,229 @@
+package com.lauriethefish.betterportals.bukkit.net.direct;
+
+import com.google.inject.Inject;
+import com.google.inject.assistedinject.Assisted;
+import com.lauriethefish.betterportals.bukkit.config.ProxyConfig;
+import com.lauriethefish.betterportals.bukkit.util.VersionUtil;
+import com.lauriethefish.betterportals.shared.logging.Logger;
+import com.lauriethefish.betterportals.shared.net.*;
+import com.lauriethefish.betterportals.shared.net.encryption.CipherManager;
+import com.lauriethefish.betterportals.shared.net.encryption.IMessageCodec;
+import com.lauriethefish.betterportals.shared.net.encryption.MessageCodecFactory;
+import com.lauriethefish.betterportals.shared.net.encryption.SessionKeys;
+import com.lauriethefish.betterportals.shared.net.requests.Request;
+import com.lauriethefish.betterportals.shared.net.transport.Connection;
+import com.lauriethefish.betterportals.shared.net.transport.IConnectionHandler;
+import com.lauriethefish.betterportals.shared.net.transport.Lane;
+import com.lauriethefish.betterportals.shared.net.transport.MessageBatcher;
+import com.lauriethefish.betterportals.shared.net.transport.NetworkEventLoop;
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * A connection made from this server directly to another server.
+ * Messages are encrypted with the same key as the proxy connection, so only servers with the key can connect to each other.
+ */
+public class DirectConnection implements IConnectionHandler {
+    public interface Factory {
+        DirectConnection create(@Assisted String serverName);
+    }
+
+    private final JavaPlugin pl;
+    private final Logger logger;
+    private final ProxyConfig proxyConfig;
+    private final NetworkEventLoop eventLoop;
+    private final CipherManager cipherManager;
+    private final IMessageCodec messageCodec;
+    private final String serverName;
+
+    private volatile Connection connection;
+    private volatile MessageBatcher messageBatcher;
+    private volatile boolean hasHandshakeFinished = false;
+    private volatile boolean isClosed = false;
+    private byte[] sessionNonce;
+
+    private final AtomicInteger currentRequestId = new AtomicInteger();
+    private final ConcurrentMap<Integer, Consumer<Response>> waitingRequests = new ConcurrentHashMap<>();
+
+    @Inject
+    public DirectConnection(@Assisted String serverName, JavaPlugin pl, Logger logger, ProxyConfig proxyConfig, NetworkEventLoop eventLoop, CipherManager cipherManager, MessageCodecFactory messageCodecFactory) {
+        this.serverName = serverName;
+        this.pl = pl;
+        this.logger = logger;
+        this.proxyConfig = proxyConfig;
+        this.eventLoop = eventLoop;
+        this.cipherManager = cipherManager;
+        this.messageCodec = messageCodecFactory.create();
+    }
+
+    /**
+     * Starts connecting to the other server. This doesn't block.
+     * @param address Resolved address of the server
+     */
+    public synchronized void connect(@NotNull InetSocketAddress address) throws IOException {
+        logger.fine("Connecting directly to server %s at %s", serverName, address);
+        connection = eventLoop.connect(address, this);
+    }
+
+    /**
+     * @return Whether the handshake has finished, so requests can be sent
+     */
+    public boolean isReady() {
+        return hasHandshakeFinished && !isClosed;
+    }
+
+    public boolean isClosed() {
+        return isClosed;
+    }
+
+    @Override
+    public void onConnected(@NotNull Connection connection) throws IOException {
+        // Waits for connect to return, so that the connection field is set
+        synchronized(this) {
+            if(this.connection != connection) {return;}
+            messageBatcher = new MessageBatcher(eventLoop, connection, messageCodec);
+        }
+
+        Handshake handshake = new Handshake();
+        handshake.setPluginVersion(pl.getDescription().getVersion());
+        handshake.setServerPort(Bukkit.getPort());
+        handshake.setGameVersion(VersionUtil.getCurrentVersion());
+        sessionNonce = cipherManager.createSessionNonce();
+        handshake.setSessionNonce(sessionNonce);
+        handshake.setCompressionThreshold(proxyConfig.getCompressionThreshold());
+        send(handshake);
+    }
+
+    @Override
+    public void onFrame(@NotNull Connection connection, @NotNull Lane lane, @NotNull ByteBuffer frame) throws GeneralSecurityException, IOException, ClassNotFoundException {
+        Object next = messageCodec.decode(frame, lane);
+        if(next instanceof MessageBatch) {
+            for(Object message : ((MessageBatch) next).getMessages()) {
+                if(!connection.isOpen()) {break;} // Ignore anything after a disconnection notice
+                handleMessage(connection, message);
+            }
+        }   else    {
+            handleMessage(connection, next);
+        }
+    }
+
+    private void handleMessage(Connection connection, Object next) throws GeneralSecurityException {
+        if(!hasHandshakeFinished) {
+            HandshakeResponse response = (HandshakeResponse) next;
+            if(response.getStatus() != HandshakeResponse.Result.SUCCESS) {
+                logger.warning("Direct connection to server %s failed: %s", serverName, response.getStatus());
+                connection.close();
+                return;
+            }
+
+            SessionKeys sessionKeys = cipherManager.deriveSessionKeys(sessionNonce, response.getSessionNonce());
+            messageCodec.startDecryptSession(sessionKeys.getServerKey());
+            messageBatcher.startEncryptSession(sessionKeys.getClientKey());
+            messageCodec.setCompressionThreshold(response.getCompressionThreshold());
+
+            logger.fine("Direct connection to server %s is ready", serverName);
+            hasHandshakeFinished = true;
+            return;
+        }
+
+        if(next instanceof DisconnectNotice) {
+            connection.close();
+        }   else if(next instanceof Response) {
+            Response response = (Response) next;
+            Consumer<Response> waiter = waitingRequests.remove(response.getId());
+            if(waiter == null) {
+                throw new IllegalStateException("Received response for request that didn't exist");
+            }
+
+            Bukkit.getScheduler().runTask(pl, () -> waiter.accept(response));
+        }
+    }
+
+    @Override
+    public void onDisconnected(@NotNull Connection connection, @Nullable Throwable cause) {
+        if(cause != null) {
+            logger.fine("Direct connection to server %s closed: %s: %s", serverName, cause.getClass().getName(), cause.getMessage());
+        }   else    {
+            logger.fine("Direct connection to server %s closed", serverName);
+        }
+        isClosed = true;
+
+        Response disconnectResponse = new Response();
+        disconnectResponse.setError(new RequestException("Direct connection closed while sending the request"));
+        for(Consumer<Response> waiter : waitingRequests.values()) {
+            Bukkit.getScheduler().runTask(pl, () -> waiter.accept(disconnectResponse));
+        }
+        waitingRequests.clear();
+    }
+
+    /**
+     * Sends <code>request</code> and calls <code>onFinish</code> on the main thread with the response.
+     */
+    public void sendRequest(@NotNull Request request, @NotNull Consumer<Response> onFinish) {
+        int requestId = currentRequestId.getAndIncrement();
+        request.setId(requestId);
+        waitingRequests.put(requestId, onFinish);
+
+        try {
+            send(request);
+        }   catch(IOException ex) {
+            logger.fine("Failed to send request on direct connection to %s", serverName);
+            waitingRequests.remove(requestId);
+
+            Response response = new Response();
+            response.setError(new RequestException(ex, "Failed to send request on direct connection"));
+            onFinish.accept(response);
+        }
+    }
+
+    /**
+     * Sends a disconnection notice, then closes the connection once it is written.
+     */
+    public void close() {
+        Connection connection = this.connection;
+        if(connection == null || isClosed) {return;}
+
+        try {
+            send(new DisconnectNotice());
+        }   catch(IOException ex) {
+            logger.fine("Failed to send disconnection notice to %s", serverName);
+        }
+        flush();
+        connection.close();
+    }
+
+    /**
+     * Sends all messages queued on the main thread in one frame.
+     */
+    public void flush() {
+        MessageBatcher messageBatcher = this.messageBatcher;
+        if(messageBatcher != null) {
+            messageBatcher.flush();
+        }
+    }
+
+    // Messages sent on the main thread wait for the end of the tick, see IPortalClient#flush
+    private void send(Object obj) throws IOException {
+        MessageBatcher messageBatcher = this.messageBatcher;
+        if(messageBatcher == null) {
+            throw new IOException("Not connected to server " + serverName);
+        }
+
+        if(Bukkit.isPrimaryThread()) {
+            messageBatcher.add(obj);
+        }   else    {
+            messageBatcher.addAndFlushSoon(obj);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.lauriethefish.betterportals.bukkit.net.direct;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.lauriethefish.betterportals.bukkit.config.ProxyConfig;
+import com.lauriethefish.betterportals.bukkit.net.IPortalClient;
+import com.lauriethefish.betterportals.shared.logging.Logger;
+import com.lauriethefish.betterportals.shared.net.RequestException;
+import com.lauriethefish.betterportals.shared.net.Response;
+import com.lauriethefish.betterportals.shared.net.requests.GetDirectAddressRequest;
+import com.lauriethefish.betterportals.shared.net.requests.Request;
+import com.lauriethefish.betterportals.shared.net.transport.NetworkEventLoop;
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+@Singleton
+public class DirectConnectionManager implements IDirectConnectionManager {
+    // How long to relay requests through the proxy for after failing to connect to a server directly
+    private static final long RETRY_DELAY_MILLIS = 30_000;
+
+    private final JavaPlugin pl;
+    private final Logger logger;
+    private final ProxyConfig proxyConfig;
+    private final IPortalClient portalClient;
+    private final NetworkEventLoop eventLoop;
+    private final DirectConnection.Factory connectionFactory;
+    private final DirectServerHandler.Factory serverHandlerFactory;
+
+    private final Map<String, DirectConnection> connections = new ConcurrentHashMap<>();
+    private final Set<DirectServerHandler> serverHandlers = ConcurrentHashMap.newKeySet();
+    private final Set<String> pendingAddressLookups = ConcurrentHashMap.newKeySet();
+    private final Map<String, Long> nextAttemptTimes = new ConcurrentHashMap<>();
+
+    private Closeable listener;
+    private int listeningPort = -1;
+
+    @Inject
+    public DirectConnectionManager(JavaPlugin pl, Logger logger, ProxyConfig proxyConfig, IPortalClient portalClient, NetworkEventLoop eventLoop, DirectConnection.Factory connectionFactory, DirectServerHandler.Factory serverHandlerFactory) {
+        this.pl = pl;
+        this.logger = logger;
+        this.proxyConfig = proxyConfig;
+        this.portalClient = portalClient;
+        this.eventLoop = eventLoop;
+        this.connectionFactory = connectionFactory;
+        this.serverHandlerFactory = serverHandlerFactory;
+    }
+
+    @Override
+    public synchronized void start() {
+        int port = proxyConfig.getDirectConnectionPort();
+        if(listener != null || port < 0) {return;}
+
+        try {
+            listener = eventLoop.listen(new InetSocketAddress(port), () -> {
+                DirectServerHandler serverHandler = serverHandlerFactory.create();
+                serverHandlers.add(serverHandler);
+                return serverHandler;
+            });
+            listeningPort = port;
+            logger.fine("Accepting direct connections on port %d", port);
+        }   catch(IOException ex) {
+            logger.warning("Failed to accept direct connections on port %d, requests will be relayed through the proxy instead", port);
+            logger.warning("%s: %s", ex.getClass().getName(), ex.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized void shutDown() {
+        if(listener != null) {
+            try {
+                listener.close();
+            }   catch(IOException ex) {
+                logger.warning("Error occurred while closing direct connection listener");
+                ex.printStackTrace();
+            }
+            listener = null;
+            listeningPort = -1;
+        }
+
+        for(DirectConnection connection : connections.values()) {
+            connection.close();
+        }
+        connections.clear();
+        serverHandlers.clear();
+        pendingAddressLookups.clear();
+        nextAttemptTimes.clear();
+    }
+
+    @Override
+    public int getListeningPort() {
+        return listeningPort;
+    }
+
+    @Override
+    public void flush() {
+        for(DirectConnection connection : connections.values()) {
+            connection.flush();
+        }
+
+        serverHandlers.removeIf(DirectServerHandler::isClosed);
+        for(DirectServerHandler serverHandler : serverHandlers) {
+            serverHandler.flush();
+        }
+    }
+
+    @Override
+    public boolean sendRequest(@NotNull Request request, @NotNull String destinationServer, @NotNull Consumer<Response> onReceive) {
+        DirectConnection connection = connections.get(destinationServer);
+        if(connection == null) {
+            tryConnect(destinationServer);
+            return false;
+        }
+
+        if(connection.isReady()) {
+            connection.sendRequest(request, onReceive);
+            return true;
+        }
+
+        // Relay requests for a while if the connection was lost, instead of reconnecting straight away
+        if(connection.isClosed()) {
+            connections.remove(destinationServer, connection);
+            nextAttemptTimes.put(destinationServer, System.currentTimeMillis() + RETRY_DELAY_MILLIS);
+        }
+        return false;
+    }
+
+    /**
+     * Asks the proxy for the direct address of <code>serverName</code>, then starts connecting to it.
+     * Does nothing if already connecting, or if the last attempt failed recently.
+     */
+    private void tryConnect(String serverName) {
+        Long nextAttemptTime = nextAttemptTimes.get(serverName);
+        if(nextAttemptTime != null && System.currentTimeMillis() < nextAttemptTime) {return;}
+        if(!pendingAddressLookups.add(serverName)) {return;}
+
+        GetDirectAddressRequest request = new GetDirectAddressRequest();
+        request.setServerName(serverName);
+        portalClient.sendRequestToProxy(request, (response) -> {
+            InetSocketAddress unresolved;
+            try {
+                unresolved = (InetSocketAddress) response.getResult();
+            }   catch(RequestException ex) {
+                onConnectFailed(serverName, ex);
+                return;
+            }
+
+            // Resolving the address may block, so it is done asynchronously instead of on the main thread or the network thread
+            Bukkit.getScheduler().runTaskAsynchronously(pl, () -> {
+                InetSocketAddress address = new InetSocketAddress(unresolved.getHostString(), unresolved.getPort());
+                if(!pl.isEnabled()) {return;}
+
+                Bukkit.getScheduler().runTask(pl, () -> connect(serverName, address));
+            });
+        });
+    }
+
+    private void connect(String serverName, InetSocketAddress address) {
+        // Lookups are cleared when shutting down, so don't connect if this one was cancelled
+        if(!pendingAddressLookups.remove(serverName)) {return;}
+
+        try {
+            if(address.isUnresolved()) {
+                throw new IOException("Unable to resolve " + address.getHostString());
+            }
+
+            DirectConnection connection = connectionFactory.create(serverName);
+            connection.connect(address);
+            connections.put(serverName, connection);
+        }   catch(IOException ex) {
+            onConnectFailed(serverName, ex);
+        }
+    }
+
+    private void onConnectFailed(String serverName, Exception ex) {
+        logger.fine("Unable to connect directly to server %s, relaying requests through the proxy: %s", serverName, ex.getMessage());
+        nextAttemptTimes.put(serverName, System.currentTimeMillis() + RETRY_DELAY_MILLIS);
+        pendingAddressLookups.remove(serverName);
+    }
+}
@@ -0,0 +1,163 @@
+package com.lauriethefish.betterportals.bukkit.net.direct;
+
+import com.google.inject.Inject;
+import com.lauriethefish.betterportals.bukkit.config.ProxyConfig;
+import com.lauriethefish.betterportals.shared.logging.Logger;
+import com.lauriethefish.betterportals.shared.net.*;
+import com.lauriethefish.betterportals.shared.net.encoding.ICompressor;
+import com.lauriethefish.betterportals.shared.net.encryption.CipherManager;
+import com.lauriethefish.betterportals.shared.net.encryption.IMessageCodec;
+import com.lauriethefish.betterportals.shared.net.encryption.MessageCodecFactory;
+import com.lauriethefish.betterportals.shared.net.encryption.SessionKeys;
+import com.lauriethefish.betterportals.shared.net.requests.Request;
+import com.lauriethefish.betterportals.shared.net.transport.Connection;
+import com.lauriethefish.betterportals.shared.net.transport.IConnectionHandler;
+import com.lauriethefish.betterportals.shared.net.transport.Lane;
+import com.lauriethefish.betterportals.shared.net.transport.MessageBatcher;
+import com.lauriethefish.betterportals.shared.net.transport.NetworkEventLoop;
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+
+/**
+ * Handles a direct connection made to this server by another server.
+ * Requests are processed by the same {@link IRequestHandler} as requests relayed through the proxy.
+ */
+public class DirectServerHandler implements IConnectionHandler {
+    public interface Factory {
+        DirectServerHandler create();
+    }
+
+    private final JavaPlugin pl;
+    private final Logger logger;
+    private final ProxyConfig proxyConfig;
+    private final NetworkEventLoop eventLoop;
+    private final CipherManager cipherManager;
+    private final IMessageCodec messageCodec;
+    private final IRequestHandler requestHandler;
+
+    private volatile Connection connection;
+    private volatile MessageBatcher messageBatcher;
+    private SocketAddress remoteAddress;
+    private boolean hasHandshakeFinished = false;
+    private volatile boolean isClosed = false;
+
+    @Inject
+    public DirectServerHandler(JavaPlugin pl, Logger logger, ProxyConfig proxyConfig, NetworkEventLoop eventLoop, CipherManager cipherManager, MessageCodecFactory messageCodecFactory, IRequestHandler requestHandler) {
+        this.pl = pl;
+        this.logger = logger;
+        this.proxyConfig = proxyConfig;
+        this.eventLoop = eventLoop;
+        this.cipherManager = cipherManager;
+        this.messageCodec = messageCodecFactory.create();
+        this.requestHandler = requestHandler;
+    }
+
+    @Override
+    public void onConnected(@NotNull Connection connection) {
+        this.connection = connection;
+        this.messageBatcher = new MessageBatcher(eventLoop, connection, messageCodec);
+        this.remoteAddress = connection.getRemoteAddress();
+        logger.fine("Received direct connection from %s", remoteAddress);
+    }
+
+    @Override
+    public void onFrame(@NotNull Connection connection, @NotNull Lane lane, @NotNull ByteBuffer frame) throws GeneralSecurityException, IOException, ClassNotFoundException {
+        Object next = messageCodec.decode(frame, lane);
+        if(next instanceof MessageBatch) {
+            for(Object message : ((MessageBatch) next).getMessages()) {
+                if(!connection.isOpen()) {break;} // Ignore anything after a disconnection notice
+                handleMessage(connection, message);
+            }
+        }   else    {
+            handleMessage(connection, next);
+        }
+    }
+
+    private void handleMessage(Connection connection, Object next) throws IOException, GeneralSecurityException {
+        if(!hasHandshakeFinished) {
+            Handshake handshake = (Handshake) next;
+
+            HandshakeResponse response = new HandshakeResponse();
+            if(!pl.getDescription().getVersion().equals(handshake.getPluginVersion())) {
+                logger.warning("A server tried to connect directly with a different plugin version (%s)", handshake.getPluginVersion());
+                response.setStatus(HandshakeResponse.Result.PLUGIN_VERSION_MISMATCH);
+                send(response);
+                messageBatcher.flush();
+                connection.close();
+                return;
+            }
+
+            response.setStatus(HandshakeResponse.Result.SUCCESS);
+            response.setSessionNonce(cipherManager.createSessionNonce());
+            response.setCompressionThreshold(ICompressor.negotiateThreshold(proxyConfig.getCompressionThreshold(), handshake.getCompressionThreshold()));
+            SessionKeys sessionKeys = cipherManager.deriveSessionKeys(handshake.getSessionNonce(), response.getSessionNonce());
+            send(response);
+
+            // The response itself is still encrypted with the config key
+            messageCodec.startDecryptSession(sessionKeys.getClientKey());
+            messageBatcher.startEncryptSession(sessionKeys.getServerKey());
+            messageCodec.setCompressionThreshold(response.getCompressionThreshold());
+            hasHandshakeFinished = true;
+            return;
+        }
+
+        if(next instanceof DisconnectNotice) {
+            connection.close();
+        }   else if(next instanceof Request) {
+            processRequest((Request) next);
+        }
+    }
+
+    @Override
+    public void onDisconnected(@NotNull Connection connection, @Nullable Throwable cause) {
+        if(cause != null) {
+            logger.fine("Direct connection from %s closed: %s: %s", remoteAddress, cause.getClass().getName(), cause.getMessage());
+        }   else    {
+            logger.fine("Direct connection from %s closed", remoteAddress);
+        }
+        isClosed = true;
+    }
+
+    public boolean isClosed() {
+        return isClosed;
+    }
+
+    /**
+     * Sends all responses queued on the main thread in one frame.
+     */
+    public void flush() {
+        MessageBatcher messageBatcher = this.messageBatcher;
+        if(messageBatcher != null) {
+            messageBatcher.flush();
+        }
+    }
+
+    private void processRequest(Request request) {
+        int requestId = request.getId();
+        requestHandler.handleRequest(request, (response) -> {
+            response.setId(requestId);
+            try {
+                send(response);
+            }   catch(IOException ex) {
+                logger.fine("Failed to send response on direct connection from %s", remoteAddress);
+                connection.close();
+            }
+        });
+    }
+
+    // Responses sent on the main thread wait for the end of the tick, see IPortalClient#flush
+    private void send(Object obj) throws IOException {
+        if(Bukkit.isPrimaryThread()) {
+            messageBatcher.add(obj);
+        }   else    {
+            messageBatcher.addAndFlushSoon(obj);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.lauriethefish.betterportals.bukkit.net.direct;
+
+import com.lauriethefish.betterportals.shared.net.Response;
+import com.lauriethefish.betterportals.shared.net.requests.Request;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.function.Consumer;
+
+/**
+ * Manages connections made directly between servers, without going through the proxy.
+ * The proxy is only used to find the address of each server, which is advertised in the {@link com.lauriethefish.betterportals.shared.net.Handshake}.
+ * Requests are relayed through the proxy until a direct connection is ready, or if one can't be made.
+ */
+public interface IDirectConnectionManager {
+    /**
+     * Starts accepting direct connections, if enabled in the config.
+     * Does nothing if already started.
+     */
+    void start();
+
+    /**
+     * Stops accepting direct connections and closes any open ones.
+     */
+    void shutDown();
+
+    /**
+     * @return The port that direct connections are accepted on, or -1 if they aren't accepted.
+     */
+    int getListeningPort();
+
+    /**
+     * Sends <code>request</code> directly to <code>destinationServer</code> if there is a direct connection ready to it.
+     * Otherwise, this starts connecting in the background for next time.
+     * @param request The request to send
+     * @param destinationServer The server to send to
+     * @param onReceive Called with the response on the main thread
+     * @return Whether the request was sent. If false, it should be relayed through the proxy instead
+     */
+    boolean sendRequest(@NotNull Request request, @NotNull String destinationServer, @NotNull Consumer<Response> onReceive);
+
+    /**
+     * Sends the messages queued on the main thread this tick for each direct connection.
+     */
+    void flush();
+}
@@ -0,0 +1,27 @@
+package com.lauriethefish.betterportals.bukkit.net.requests;
+
+import com.lauriethefish.betterportals.bukkit.block.external.BlockChangeSet;
+import com.lauriethefish.betterportals.shared.net.requests.Request;
+import lombok.Getter;
+import lombok.Setter;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.UUID;
+
+/**
+ * Sent by the destination of a cross-server portal to the origin whenever blocks in a subscribed area change.
+ * The origin responds with an error if it no longer has the subscription, which tells the destination to release it.
+ * <br>Only one of these is sent at a time for each subscription, so they are always applied in order.
+ */
+@Getter
+@Setter
+public class PushBlockChangesRequest extends Request {
+    private static final long serialVersionUID = 1L;
+
+    private UUID changeSetId;
+
+    /**
+     * The changed blocks, or null if this is a heartbeat sent because nothing changed for a while.
+     */
+    private @Nullable BlockChangeSet changes;
+}
@@ -9,15 +9,18 @@ import lombok.Setter;
 import java.util.UUID;
 
 /**
- * Used to request a set of block data changes from the destination of a cross-server portal.
- * This will send all of the blocks within the portal area the first time it's sent with a particular {@link GetBlockDataChangesRequest#changeSetId}.
+ * Subscribes to the block changes around the destination of a cross-server portal.
+ * The destination then sends each {@link com.lauriethefish.betterportals.bukkit.block.external.BlockChangeSet} to the origin in a {@link PushBlockChangesRequest}, starting with a snapshot of the whole area.
+ *
+ * The response to this is empty, and is sent once the subscription has been created.
  */
 @Getter
 @Setter
-public class GetBlockDataChangesRequest extends Request {
+public class SubscribeBlockChangesRequest extends Request {
     private static final long serialVersionUID = 1L;
 
     private UUID changeSetId;
+    private String originServer; // Name of the server that changes are pushed to
     private IntVector position;
     private Matrix rotateOriginToDest;
     private UUID worldId;
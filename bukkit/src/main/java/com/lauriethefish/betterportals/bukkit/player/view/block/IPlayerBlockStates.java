@@ -1,24 +1,30 @@
 package com.lauriethefish.betterportals.bukkit.player.view.block;
 
-import com.lauriethefish.betterportals.bukkit.block.ViewableBlockInfo;
+import com.comphenix.protocol.wrappers.WrappedBlockData;
+import com.lauriethefish.betterportals.bukkit.portal.IPortal;
 import org.bukkit.entity.Player;
-import org.bukkit.util.Vector;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.BitSet;
 
 // Implementors of this class must make sure that it is thread safe
 // Manages the current blocks that the player can see
+// Blocks are stored using their index in the portal's block array, see ViewableBlockInfo#getArrayIndex
 public interface IPlayerBlockStates {
     // Should be called when moving a short distance in the same dimension
     // Actually changes the blocks back to what they should be
     void resetAndUpdate();
 
-    // Note: these methods just update the array, they won't actually send any packets
-    // Returns if the block was not viewable last tick, AKA whether or not an update packet is needed
-    boolean setViewable(Vector position, ViewableBlockInfo block);
+    // Note: this just updates the viewed blocks, it won't actually send any packets
+    // Sets the viewed blocks to the indices in visible, and returns the indices of the blocks that became viewable or non-viewable, AKA the ones that need an update packet
+    BitSet updateViewable(BitSet visible);
 
-    // Returns if the block was viewable last tick, AKA whether or not an update packet is needed
-    boolean setNonViewable(Vector position, ViewableBlockInfo block);
+    // Gets the data to send for the block at index when it is no longer viewed through the portal
+    // If the block array no longer has the block (e.g. its destination now matches its origin) the actual block is read instead, since the player may still be viewing a fake block there
+    // Returns null if the block's chunk isn't loaded
+    @Nullable WrappedBlockData getOriginData(int index);
 
     interface Factory {
-        IPlayerBlockStates create(Player player);
+        IPlayerBlockStates create(Player player, IPortal portal);
     }
 }
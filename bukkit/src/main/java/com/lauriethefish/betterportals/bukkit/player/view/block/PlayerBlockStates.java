@@ -1,26 +1,34 @@
 package com.lauriethefish.betterportals.bukkit.player.view.block;
 
+import com.comphenix.protocol.wrappers.WrappedBlockData;
 import com.google.inject.Inject;
 import com.google.inject.assistedinject.Assisted;
+import com.lauriethefish.betterportals.api.IntVector;
+import com.lauriethefish.betterportals.bukkit.block.IViewableBlockArray;
 import com.lauriethefish.betterportals.bukkit.block.ViewableBlockInfo;
+import com.lauriethefish.betterportals.bukkit.block.data.BlockData;
 import com.lauriethefish.betterportals.bukkit.block.multiblockchange.IMultiBlockChangeManager;
+import com.lauriethefish.betterportals.bukkit.portal.IPortal;
 import com.lauriethefish.betterportals.shared.logging.Logger;
+import org.bukkit.World;
 import org.bukkit.entity.Player;
-import org.bukkit.util.Vector;
+import org.jetbrains.annotations.Nullable;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.BitSet;
 
 public class PlayerBlockStates implements IPlayerBlockStates {
     private final Player player;
+    private final IPortal portal;
     private final IMultiBlockChangeManager.Factory multiBlockChangeManagerFactory;
     private final Logger logger;
 
-    private final Map<Vector, ViewableBlockInfo> viewedStates = new HashMap<>();
+    // Much smaller than storing the viewed positions, and finding which blocks changed is just an XOR of each word
+    private final BitSet viewedBlocks = new BitSet();
 
     @Inject
-    public PlayerBlockStates(@Assisted Player player, IMultiBlockChangeManager.Factory multiBlockChangeManagerFactory, Logger logger) {
+    public PlayerBlockStates(@Assisted Player player, @Assisted IPortal portal, IMultiBlockChangeManager.Factory multiBlockChangeManagerFactory, Logger logger) {
         this.player = player;
+        this.portal = portal;
         this.multiBlockChangeManagerFactory = multiBlockChangeManagerFactory;
         this.logger = logger;
     }
@@ -30,22 +38,50 @@ public class PlayerBlockStates implements IPlayerBlockStates {
         // Use a MultiBlockChangeManager to actually send the changes
         IMultiBlockChangeManager multiBlockChangeManager = multiBlockChangeManagerFactory.create(player);
 
-        logger.finer("Resetting %d blocks", viewedStates.size());
-        for(Map.Entry<Vector, ViewableBlockInfo> entry : viewedStates.entrySet()) {
-            multiBlockChangeManager.addChange(entry.getKey(), entry.getValue().getOriginData());
+        IViewableBlockArray blockArray = portal.getViewableBlocks();
+
+        logger.finer("Resetting %d blocks", viewedBlocks.cardinality());
+        for(int index = viewedBlocks.nextSetBit(0); index >= 0; index = viewedBlocks.nextSetBit(index + 1)) {
+            WrappedBlockData originData = getOriginData(index);
+            if(originData == null) {continue;}
+
+            multiBlockChangeManager.addChange(blockArray.getArrayPosition(index).getCenterPos(), originData);
         }
         multiBlockChangeManager.sendChanges();
 
-        viewedStates.clear();
+        viewedBlocks.clear();
     }
 
     @Override
-    public boolean setViewable(Vector position, ViewableBlockInfo block) {
-        return viewedStates.put(position, block) == null;
+    public @Nullable WrappedBlockData getOriginData(int index) {
+        IViewableBlockArray blockArray = portal.getViewableBlocks();
+        IntVector position = blockArray.getArrayPosition(index);
+
+        // The block array may have already been reset, or may no longer have this block, in which case we just read the actual block
+        ViewableBlockInfo blockInfo = blockArray.getViewableStates().get(position);
+        return blockInfo == null ? readOriginBlock(position) : blockInfo.getOriginData();
+    }
+
+    /**
+     * Reads the actual block at the origin of the portal.
+     * This may be called from a block update thread, so blocks in unloaded chunks aren't read, since that would load the chunk.
+     * @param position The position of the block
+     * @return The block data, or null if the chunk isn't loaded
+     */
+    protected @Nullable WrappedBlockData readOriginBlock(IntVector position) {
+        World originWorld = portal.getOriginPos().getWorld();
+        if(originWorld == null || !originWorld.isChunkLoaded(position.getX() >> 4, position.getZ() >> 4)) {return null;}
+
+        return BlockData.create(position.getBlock(originWorld)).toProtocolLib();
     }
 
     @Override
-    public boolean setNonViewable(Vector position, ViewableBlockInfo block) {
-        return viewedStates.remove(position, block);
+    public BitSet updateViewable(BitSet visible) {
+        BitSet changed = (BitSet) viewedBlocks.clone();
+        changed.xor(visible);
+
+        viewedBlocks.clear();
+        viewedBlocks.or(visible);
+        return changed;
     }
 }
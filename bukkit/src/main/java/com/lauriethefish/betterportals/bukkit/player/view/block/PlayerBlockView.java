@@ -10,7 +10,7 @@ import com.lauriethefish.betterportals.bukkit.block.ViewableBlockInfo;
 import com.lauriethefish.betterportals.bukkit.block.multiblockchange.IMultiBlockChangeManager;
 import com.lauriethefish.betterportals.bukkit.config.RenderConfig;
 import com.lauriethefish.betterportals.api.IntVector;
-import com.lauriethefish.betterportals.bukkit.math.PlaneIntersectionChecker;
+import com.lauriethefish.betterportals.bukkit.math.PortalFrustum;
 import com.lauriethefish.betterportals.bukkit.portal.IPortal;
 import com.lauriethefish.betterportals.api.PortalDirection;
 import com.lauriethefish.betterportals.bukkit.tasks.BlockUpdateFinisher;
@@ -24,8 +24,10 @@ import org.bukkit.util.Vector;
 
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantLock;
 
 public class PlayerBlockView implements IPlayerBlockView   {
@@ -41,12 +43,20 @@ public class PlayerBlockView implements IPlayerBlockView   {
     private final IPerformanceWatcher performanceWatcher;
     private final boolean shouldHidePortalBlocks;
 
+    // Array indices of the blocks that are visible through the portal, see ViewableBlockInfo#getArrayIndex.
+    // Reused between updates to avoid reallocating it, which is fine since it's only used while holding statesLock
+    private final BitSet visibleBlocks;
+
     // Stored here since we can't access the Bukkit API from another thread
     private volatile Vector playerPosition;
 
     // Used to avoid a situation where the portal is no longer viewable and the blocks were reset, then an async update comes in and resends them
     private volatile boolean didDeactivate = false;
 
+    // Set while an update is queued, so that each view is only queued once, however often the player moves
+    private final AtomicBoolean updatePending = new AtomicBoolean();
+    private final AtomicBoolean refreshPending = new AtomicBoolean();
+
     @Inject
     public PlayerBlockView(@Assisted Player player, @Assisted IPortal portal,
                            IMultiBlockChangeManager.Factory multiBlockChangeManagerFactory, IPlayerBlockStates.Factory blockStatesFactory,
@@ -54,11 +64,12 @@ public class PlayerBlockView implements IPlayerBlockView   {
         this.player = player;
         this.portal = portal;
         this.multiBlockChangeManagerFactory = multiBlockChangeManagerFactory;
-        this.blockStates = blockStatesFactory.create(player);
+        this.blockStates = blockStatesFactory.create(player, portal);
         this.logger = logger;
         this.updateFinisher = updateFinisher;
         this.performanceWatcher = performanceWatcher;
         this.shouldHidePortalBlocks = portal.isNetherPortal() && renderConfig.isPortalBlocksHidden();
+        this.visibleBlocks = new BitSet(renderConfig.getTotalArrayLength());
     }
 
     // Called whenever the player moves
@@ -93,7 +104,29 @@ public class PlayerBlockView implements IPlayerBlockView   {
         }
     }
 
-    public void finishUpdate(boolean refresh) {
+    /**
+     * Marks that this view needs to be updated on another thread.
+     * @param refresh Whether the update should resend all block states
+     * @return true if no update was already pending, in which case one should be queued
+     */
+    public boolean markUpdatePending(boolean refresh) {
+        // If an update is already queued, it will pick up the refresh
+        if(refresh) {
+            refreshPending.set(true);
+        }
+        return updatePending.compareAndSet(false, true);
+    }
+
+    /**
+     * Finishes the pending update, called on another thread.
+     */
+    public void finishUpdate() {
+        // Clear the flag first, so that an update scheduled while this one is running isn't lost
+        updatePending.set(false);
+        finishUpdate(refreshPending.getAndSet(false));
+    }
+
+    private void finishUpdate(boolean refresh) {
         if(didDeactivate) {return;} // Avoid resetting block states while they're being updated asynchronously
         if(refresh) {
             logger.finer("Refreshing already sent blocks!");
@@ -104,45 +137,57 @@ public class PlayerBlockView implements IPlayerBlockView   {
             IMultiBlockChangeManager multiBlockChangeManager = multiBlockChangeManagerFactory.create(player);
             List<PacketContainer> queuedTileEntityUpdates = new ArrayList<>();
 
-            PlaneIntersectionChecker intersectionChecker = portal.getTransformations().createIntersectionChecker(playerPosition);
+            PortalFrustum frustum = portal.getTransformations().createFrustum(playerPosition);
 
             OperationTimer timer = new OperationTimer();
 
             IViewableBlockArray viewableBlockArray = portal.getViewableBlocks();
-            for (Map.Entry<IntVector, ViewableBlockInfo> entry : viewableBlockArray.getViewableStates().entrySet()) {
-                Vector position = entry.getKey().getCenterPos();
-
-                ViewableBlockInfo block = entry.getValue();
-                boolean visible = intersectionChecker.checkIfIntersects(position);
-
-                // If visible/non-visible, change to the new state
-                // However, don't bother resending the packet again if the block has already been changed
-                // (unless we're refreshing the sent blocks)
-                if (visible) {
-                    if (blockStates.setViewable(position, block) || refresh) {
-                        multiBlockChangeManager.addChange(position, block.getDestData());
-
-                        PacketContainer nbtUpdatePacket = viewableBlockArray.getDestinationTileEntityPacket(entry.getKey());
-                        if (nbtUpdatePacket != null) {
-                            queuedTileEntityUpdates.add(nbtUpdatePacket);
-                            logger.fine("Queueing tile state update at destination");
-                        }
+            Map<IntVector, ViewableBlockInfo> viewableStates = viewableBlockArray.getViewableStates();
+
+            // Finding the visible blocks doesn't require allocating anything for each block
+            visibleBlocks.clear();
+            for (Map.Entry<IntVector, ViewableBlockInfo> entry : viewableStates.entrySet()) {
+                IntVector position = entry.getKey();
+                if (frustum.isVisible(position.getX() + 0.5, position.getY() + 0.5, position.getZ() + 0.5)) {
+                    visibleBlocks.set(entry.getValue().getArrayIndex());
+                }
+            }
+
+            // Only the blocks that changed visibility need to be sent, unless we're refreshing the sent blocks
+            BitSet changedBlocks = blockStates.updateViewable(visibleBlocks);
+            if (refresh) {
+                changedBlocks.or(visibleBlocks);
+            }
+
+            for (int index = changedBlocks.nextSetBit(0); index >= 0; index = changedBlocks.nextSetBit(index + 1)) {
+                IntVector blockPos = viewableBlockArray.getArrayPosition(index);
+                Vector position = blockPos.getCenterPos();
+                if (visibleBlocks.get(index)) {
+                    ViewableBlockInfo block = viewableStates.get(blockPos);
+                    if (block == null) {continue;}
+                    multiBlockChangeManager.addChange(position, block.getDestData());
+
+                    PacketContainer nbtUpdatePacket = viewableBlockArray.getDestinationTileEntityPacket(blockPos);
+                    if (nbtUpdatePacket != null) {
+                        queuedTileEntityUpdates.add(nbtUpdatePacket);
+                        logger.fine("Queueing tile state update at destination");
                     }
                 } else {
-                    if (blockStates.setNonViewable(position, block)) {
-                        multiBlockChangeManager.addChange(position, block.getOriginData());
-
-                        PacketContainer nbtUpdatePacket = viewableBlockArray.getOriginTileEntityPacket(entry.getKey());
-                        if (nbtUpdatePacket != null) {
-                            queuedTileEntityUpdates.add(nbtUpdatePacket);
-                            logger.fine("Queueing tile state update at origin");
-                        }
+                    // The viewed bit has already been cleared, so this must be sent even if the block array no longer has the block, otherwise the fake block would never be reverted
+                    WrappedBlockData originData = blockStates.getOriginData(index);
+                    if (originData == null) {continue;}
+                    multiBlockChangeManager.addChange(position, originData);
+
+                    PacketContainer nbtUpdatePacket = viewableBlockArray.getOriginTileEntityPacket(blockPos);
+                    if (nbtUpdatePacket != null) {
+                        queuedTileEntityUpdates.add(nbtUpdatePacket);
+                        logger.fine("Queueing tile state update at origin");
                     }
                 }
             }
 
             // Show the player the changed states
-            multiBlockChangeManager.sendChanges();
+            multiBlockChangeManager.sendChanges(viewableBlockArray.getPacketCache());
             try {
                 for (PacketContainer packet : queuedTileEntityUpdates) {
                     ProtocolLibrary.getProtocolManager().sendServerPacket(player, packet);
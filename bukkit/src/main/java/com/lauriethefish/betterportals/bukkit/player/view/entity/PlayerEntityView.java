@@ -2,16 +2,20 @@ package com.lauriethefish.betterportals.bukkit.player.view.entity;
 
 import com.google.inject.Inject;
 import com.google.inject.assistedinject.Assisted;
+import com.lauriethefish.betterportals.bukkit.config.MiscConfig;
+import com.lauriethefish.betterportals.bukkit.entity.faking.EntityDetail;
 import com.lauriethefish.betterportals.bukkit.entity.faking.EntityInfo;
 import com.lauriethefish.betterportals.bukkit.entity.faking.IEntityPacketManipulator;
 import com.lauriethefish.betterportals.bukkit.entity.faking.IEntityTrackingManager;
-import com.lauriethefish.betterportals.bukkit.math.PlaneIntersectionChecker;
+import com.lauriethefish.betterportals.bukkit.entity.EntityPositions;
+import com.lauriethefish.betterportals.bukkit.math.PortalFrustum;
 import com.lauriethefish.betterportals.bukkit.portal.IPortal;
 import com.lauriethefish.betterportals.shared.logging.Logger;
-import org.bukkit.Location;
 import org.bukkit.entity.Entity;
 import org.bukkit.entity.Player;
+import org.bukkit.util.Vector;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -23,38 +27,64 @@ public class PlayerEntityView implements IPlayerEntityView  {
     private final Player player;
     private final IEntityPacketManipulator packetManipulator;
     private final IEntityTrackingManager trackingManager;
+    private final MiscConfig miscConfig;
     private final Map<Entity, EntityInfo> hiddenEntities = new HashMap<>();
-    private final Set<Entity> replicatedEntities = new HashSet<>();
+    private final Map<Entity, EntityDetail> replicatedEntities = new HashMap<>();
+
+    // Reused each tick to avoid allocating while checking visibility
+    private final Set<Entity> nowHidden = new HashSet<>();
+    private final Set<Entity> nowReplicated = new HashSet<>();
+    private boolean[] visible = new boolean[16];
+    private int[] candidates = new int[16];
+    private double[] distances = new double[16];
+    private double[] sortedDistances = new double[16];
 
     @Inject
-    public PlayerEntityView(@Assisted IPortal portal, @Assisted Player player, IEntityPacketManipulator packetManipulator, Logger logger, IEntityTrackingManager trackingManager) {
+    public PlayerEntityView(@Assisted IPortal portal, @Assisted Player player, IEntityPacketManipulator packetManipulator, Logger logger, IEntityTrackingManager trackingManager, MiscConfig miscConfig) {
         this.portal = portal;
         this.player = player;
         this.packetManipulator = packetManipulator;
         this.logger = logger;
         this.trackingManager = trackingManager;
+        this.miscConfig = miscConfig;
     }
 
     @Override
     public void update() {
-        updateHiddenEntities();
+        // The frustum is shared between both checks, since they're from the same eye position
+        Vector eye = player.getEyeLocation().toVector();
+        PortalFrustum frustum = portal.getTransformations().createFrustum(eye);
+
+        updateHiddenEntities(frustum);
         if(!portal.isCrossServer()) {
-            updateReplicatedEntities();
+            updateReplicatedEntities(frustum, eye);
+        }
+    }
+
+    /**
+     * Checks all of <code>positions</code> against the frustum in one pass.
+     * @return Whether each entity is visible through the portal, indexed the same as <code>positions</code>
+     */
+    private boolean[] findVisible(PortalFrustum frustum, EntityPositions positions) {
+        if(visible.length < positions.getSize()) {
+            visible = new boolean[positions.getSize() * 2];
         }
+        frustum.findVisible(positions.getCoordinates(), positions.getSize(), visible);
+        return visible;
     }
 
-    private void updateHiddenEntities() {
-        PlaneIntersectionChecker intersectionChecker = portal.getTransformations().createIntersectionChecker(player.getEyeLocation().toVector());
+    private void updateHiddenEntities(PortalFrustum frustum) {
+        EntityPositions positions = portal.getEntityList().getOriginPositions();
+        // If the line from the player's position to the entity intersects the portal, then hide it since it'll spoil the effect by appearing in front of the blocks
+        boolean[] shouldBeHidden = findVisible(frustum, positions);
 
-        Set<Entity> nowHidden = new HashSet<>();
+        nowHidden.clear();
+        for(int i = 0; i < positions.getSize(); i++) {
+            if(!shouldBeHidden[i]) {continue;}
 
-        for(Entity entity : portal.getEntityList().getOriginEntities()) {
+            Entity entity = positions.getEntity(i);
             if(entity == player) {continue;}
 
-            // If the line from the player's position to the entity intersects the portal, then hide it since it'll spoil the effect by appearing in front of the blocks
-            boolean shouldBeHidden = intersectionChecker.checkIfIntersects(entity.getLocation().toVector());
-            if(!shouldBeHidden) {continue;}
-
             nowHidden.add(entity);
             if(!hiddenEntities.containsKey(entity)) {
                 hide(entity);
@@ -71,27 +101,58 @@ public class PlayerEntityView implements IPlayerEntityView  {
         });
     }
 
-    private void updateReplicatedEntities() {
-        PlaneIntersectionChecker intersectionChecker = portal.getTransformations().createIntersectionChecker(player.getEyeLocation().toVector());
+    private void updateReplicatedEntities(PortalFrustum frustum, Vector eye) {
+        // These positions have already been moved to the origin of the portal
+        EntityPositions positions = portal.getEntityList().getDestinationPositions();
+        boolean[] shouldBeReplicated = findVisible(frustum, positions);
+        int count = findCandidateDistances(positions, shouldBeReplicated, eye);
+
+        // If there are too many entities to replicate, only the closest ones are shown
+        double maxDistance = Double.POSITIVE_INFINITY;
+        int allowedAtMaxDistance = Integer.MAX_VALUE;
+        int limit = miscConfig.getMaxReplicatedEntities();
+        if(limit >= 0 && count > limit) {
+            System.arraycopy(distances, 0, sortedDistances, 0, count);
+            Arrays.sort(sortedDistances, 0, count);
+
+            maxDistance = limit == 0 ? -1.0 : sortedDistances[limit - 1];
+            allowedAtMaxDistance = limit;
+            for(int i = 0; i < limit; i++) {
+                if(sortedDistances[i] < maxDistance) {allowedAtMaxDistance--;}
+            }
+        }
+
+        double reducedDetailDistance = miscConfig.getReducedEntityDetailDistance();
+        double reducedDetailDistanceSq = reducedDetailDistance * reducedDetailDistance;
 
         // Start tracking newly replicated entities
-        Set<Entity> nowReplicated = new HashSet<>();
-        for(Entity entity : portal.getEntityList().getDestinationEntities()) {
-            Location originPos = portal.getTransformations().moveToOrigin(entity.getLocation());
+        nowReplicated.clear();
+        for(int i = 0; i < count; i++) {
+            double distanceSq = distances[i];
+            if(distanceSq > maxDistance) {continue;}
+            if(distanceSq == maxDistance) {
+                if(allowedAtMaxDistance == 0) {continue;}
+                allowedAtMaxDistance--;
+            }
 
-            boolean shouldBeReplicated = intersectionChecker.checkIfIntersects(originPos.toVector());
-            if(!shouldBeReplicated) {continue;}
+            Entity entity = positions.getEntity(candidates[i]);
             nowReplicated.add(entity);
 
-            // Only set it to be tracking if it wasn't previously
-            if(!replicatedEntities.contains(entity)) {
-                replicatedEntities.add(entity);
+            // Only set it to be tracking if it wasn't previously, and only change the detail if it's different
+            EntityDetail detail = distanceSq > reducedDetailDistanceSq ? EntityDetail.REDUCED : EntityDetail.FULL;
+            EntityDetail previousDetail = replicatedEntities.put(entity, detail);
+            if(previousDetail == null) {
                 trackingManager.setTracking(entity, portal, player);
+                if(detail != EntityDetail.FULL) {
+                    trackingManager.setDetail(entity, portal, player, detail);
+                }
+            }   else if(previousDetail != detail) {
+                trackingManager.setDetail(entity, portal, player, detail);
             }
         }
 
         // Stop tracking entities that are no longer visible through the portal
-        replicatedEntities.removeIf(entity -> {
+        replicatedEntities.keySet().removeIf(entity -> {
             boolean isReplicated = nowReplicated.contains(entity);
 
             if(!isReplicated) {
@@ -101,6 +162,37 @@ public class PlayerEntityView implements IPlayerEntityView  {
         });
     }
 
+    /**
+     * Finds the squared distance from the eye to each visible entity, as it appears through the portal.
+     * The indices of the visible entities are stored in {@link PlayerEntityView#candidates}, and their distances in {@link PlayerEntityView#distances}.
+     * @return The number of visible entities
+     */
+    private int findCandidateDistances(EntityPositions positions, boolean[] visible, Vector eye) {
+        if(candidates.length < positions.getSize()) {
+            candidates = new int[positions.getSize() * 2];
+            distances = new double[candidates.length];
+            sortedDistances = new double[candidates.length];
+        }
+
+        double[] coordinates = positions.getCoordinates();
+        double eyeX = eye.getX();
+        double eyeY = eye.getY();
+        double eyeZ = eye.getZ();
+
+        int count = 0;
+        for(int i = 0; i < positions.getSize(); i++) {
+            if(!visible[i]) {continue;}
+
+            double relX = coordinates[i * 3] - eyeX;
+            double relY = coordinates[i * 3 + 1] - eyeY;
+            double relZ = coordinates[i * 3 + 2] - eyeZ;
+            candidates[count] = i;
+            distances[count] = relX * relX + relY * relY + relZ * relZ;
+            count++;
+        }
+        return count;
+    }
+
     // Send packets to remove the entity from the player's view
     private void hide(Entity entity) {
         EntityInfo entityInfo = new EntityInfo(entity);
@@ -113,6 +205,6 @@ public class PlayerEntityView implements IPlayerEntityView  {
         if(shouldResetEntities) {
             hiddenEntities.forEach((entity, entityInfo) -> packetManipulator.showEntity(entityInfo, player));
         }
-        replicatedEntities.forEach(entity -> trackingManager.setNoLongerTracking(entity, portal, player, shouldResetEntities));
+        replicatedEntities.keySet().forEach(entity -> trackingManager.setNoLongerTracking(entity, portal, player, shouldResetEntities));
     }
 }
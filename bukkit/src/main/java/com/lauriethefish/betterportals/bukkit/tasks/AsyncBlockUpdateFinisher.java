@@ -2,9 +2,14 @@ package com.lauriethefish.betterportals.bukkit.tasks;
 
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import com.lauriethefish.betterportals.bukkit.util.performance.IPerformanceWatcher;
 import com.lauriethefish.betterportals.shared.logging.Logger;
 import org.bukkit.Bukkit;
 import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
  * Uses an asynchronous Bukkit task to implement BlockViewUpdateFinisher
@@ -14,21 +19,42 @@ import org.bukkit.plugin.java.JavaPlugin;
 @Singleton
 public class AsyncBlockUpdateFinisher extends BlockUpdateFinisher implements Runnable    {
     private final JavaPlugin pl;
+    private final Queue<QueuedUpdate> updateQueue = new ConcurrentLinkedQueue<>();
+    private BukkitTask task;
 
     @Inject
-    public AsyncBlockUpdateFinisher(JavaPlugin pl, Logger logger) {
-        super(logger);
+    public AsyncBlockUpdateFinisher(JavaPlugin pl, Logger logger, IPerformanceWatcher performanceWatcher) {
+        super(logger, performanceWatcher);
 
         this.pl = pl;
     }
 
     @Override
     public void start() {
-        Bukkit.getScheduler().runTaskTimerAsynchronously(pl, this, 0, 1);
+        task = Bukkit.getScheduler().runTaskTimerAsynchronously(pl, this, 0, 1);
+    }
+
+    @Override
+    public void shutDown() {
+        if(task != null) {
+            task.cancel();
+            task = null;
+        }
+        updateQueue.clear();
+    }
+
+    @Override
+    protected void queueUpdate(QueuedUpdate update) {
+        updateQueue.add(update);
     }
 
     @Override
     public void run() {
-        super.finishPendingUpdates();
+        while(true) {
+            QueuedUpdate next = updateQueue.poll();
+            if(next == null) {return;}
+
+            finishUpdate(next);
+        }
     }
 }
@@ -0,0 +1,104 @@
+package com.lauriethefish.betterportals.bukkit.tasks;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.lauriethefish.betterportals.bukkit.config.RenderConfig;
+import com.lauriethefish.betterportals.shared.logging.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pool of worker threads used for the expensive parts of updating viewable block arrays, e.g. the initial flood-fill.
+ * The pool is only created when first used, and is shut down when the plugin is disabled.
+ */
+@Singleton
+public class BlockArrayWorkerPool {
+    // How long to wait for running tasks when shutting down. The threads are daemons, so anything still running after this doesn't stop the server shutting down
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 5;
+
+    private final Logger logger;
+    private final RenderConfig renderConfig;
+
+    private ForkJoinPool pool;
+    private boolean isShutDown = false;
+
+    @Inject
+    public BlockArrayWorkerPool(Logger logger, RenderConfig renderConfig) {
+        this.logger = logger;
+        this.renderConfig = renderConfig;
+    }
+
+    /**
+     * Allows the pool to be used again after {@link BlockArrayWorkerPool#shutDown()}.
+     */
+    public synchronized void start() {
+        isShutDown = false;
+    }
+
+    /**
+     * Stops accepting new tasks, then waits up to {@link BlockArrayWorkerPool#SHUTDOWN_TIMEOUT_SECONDS} for the submitted tasks to finish.
+     * Submitted tasks are still run, so that nothing waits forever for their results.
+     */
+    public void shutDown() {
+        ForkJoinPool pool;
+        synchronized(this) {
+            isShutDown = true;
+            pool = this.pool;
+            this.pool = null;
+        }
+        if(pool == null) {return;}
+
+        logger.fine("Shutting down block array worker pool");
+        pool.shutdown();
+        try {
+            if(!pool.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                logger.warning("Block array worker threads did not finish within %d seconds", SHUTDOWN_TIMEOUT_SECONDS);
+            }
+        }   catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return The pool, creating it with the thread count in the config if it doesn't exist yet
+     * @throws RejectedExecutionException If the pool has been shut down
+     */
+    public synchronized @NotNull ForkJoinPool getPool() {
+        if(isShutDown) {
+            throw new RejectedExecutionException("The block array worker pool has been shut down");
+        }
+
+        if(pool == null) {
+            int threadCount = renderConfig.getWorkerThreadCount();
+            if(threadCount <= 0) {
+                // Leave one processor for the main thread
+                threadCount = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+            }
+
+            logger.fine("Creating block array worker pool with %d threads", threadCount);
+            pool = new ForkJoinPool(threadCount);
+        }
+
+        return pool;
+    }
+
+    /**
+     * Runs <code>task</code> on one of the worker threads.
+     * Any exceptions thrown by the task are logged, since they would otherwise be silently discarded.
+     * @param task The task to run
+     * @throws RejectedExecutionException If the pool has been shut down
+     */
+    public void execute(@NotNull Runnable task) {
+        getPool().execute(() -> {
+            try {
+                task.run();
+            }   catch(RuntimeException ex) {
+                logger.warning("An error occurred while updating a viewable block array");
+                ex.printStackTrace();
+            }
+        });
+    }
+}
@@ -1,47 +1,35 @@
 package com.lauriethefish.betterportals.bukkit.tasks;
 
 import com.lauriethefish.betterportals.bukkit.player.view.block.PlayerBlockView;
+import com.lauriethefish.betterportals.bukkit.util.performance.IPerformanceWatcher;
 import com.lauriethefish.betterportals.shared.logging.Logger;
 
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Handles doing the final processing for portal block updates on another thread
  * Doing tons of raycasts to find which blocks are visible is moderately expensive, so happens on another thread
  */
 public abstract class BlockUpdateFinisher {
-    private static class BlockViewUpdateInfo {
-        PlayerBlockView blockView;
-        boolean refresh;
-        public BlockViewUpdateInfo(PlayerBlockView blockView, boolean refresh) {
-            this.blockView = blockView;
-            this.refresh = refresh;
-        }
+    protected static class QueuedUpdate {
+        final PlayerBlockView blockView;
+        final long queuedTime = System.nanoTime();
 
-        // Equals only requires the BlockViewUpdateInfo to be equal - used to check if an update is already pending
-        @Override
-        public boolean equals(Object other) {
-            if(!(other instanceof BlockViewUpdateInfo)) {return false;}
-
-            return blockView == ((BlockViewUpdateInfo) other).blockView;
+        QueuedUpdate(PlayerBlockView blockView) {
+            this.blockView = blockView;
         }
     }
 
-    private final BlockingQueue<BlockViewUpdateInfo> updateQueue = new LinkedBlockingQueue<>();
     protected final Logger logger;
+    private final IPerformanceWatcher performanceWatcher;
 
-    protected BlockUpdateFinisher(Logger logger) {
-        this.logger = logger;
-    }
-
-    protected void finishPendingUpdates() {
-        while(true) {
-            BlockViewUpdateInfo next = updateQueue.poll();
-            if(next == null) {return;}
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final AtomicInteger highestQueueDepth = new AtomicInteger();
 
-            next.blockView.finishUpdate(next.refresh);
-        }
+    protected BlockUpdateFinisher(Logger logger, IPerformanceWatcher performanceWatcher) {
+        this.logger = logger;
+        this.performanceWatcher = performanceWatcher;
     }
 
     /**
@@ -49,23 +37,53 @@ public abstract class BlockUpdateFinisher {
      */
     public abstract void start();
 
+    /**
+     * Stops the task/threads being used, waiting a limited time for queued updates to finish.
+     * Updates scheduled afterwards are dropped until {@link BlockUpdateFinisher#start()} is called again.
+     */
+    public abstract void shutDown();
+
+    /**
+     * Queues <code>update</code> to be finished with {@link BlockUpdateFinisher#finishUpdate(QueuedUpdate)}.
+     * @param update The update to queue
+     */
+    protected abstract void queueUpdate(QueuedUpdate update);
+
+    protected void finishUpdate(QueuedUpdate update) {
+        queueDepth.decrementAndGet();
+        performanceWatcher.putTimeTaken("Block update queue lag", Duration.ofNanos(System.nanoTime() - update.queuedTime));
+
+        update.blockView.finishUpdate();
+    }
+
     /**
      * Schedules the update for <code>blockView</code> to happen on another thread.
+     * If an update is already queued for <code>blockView</code>, this is merged into it instead of queueing another.
      * @param blockView The block view to be updated
      * @param refresh Whether to resend all block states regardless of if they were already sent
      */
     public void scheduleUpdate(PlayerBlockView blockView, boolean refresh) {
-        BlockViewUpdateInfo updateInfo = new BlockViewUpdateInfo(blockView, refresh);
-
-        if(updateQueue.contains(updateInfo)) {
-            logger.fine("Block update was scheduled when previous update had not finished. Server is running behind!");
+        if(!blockView.markUpdatePending(refresh)) {
+            logger.finer("Block update was scheduled when previous update had not finished. Server is running behind!");
             return;
         }
 
-        try {
-            updateQueue.put(updateInfo);
-        }   catch(InterruptedException ex) {
-            ex.printStackTrace();
-        }
+        int depth = queueDepth.incrementAndGet();
+        highestQueueDepth.accumulateAndGet(depth, Math::max);
+        queueUpdate(new QueuedUpdate(blockView));
+    }
+
+    /**
+     * @return The number of block views currently waiting to be updated
+     */
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    /**
+     * @return The highest number of block views that have been waiting to be updated at once
+     */
+    public int getHighestQueueDepth() {
+        return highestQueueDepth.get();
     }
 }
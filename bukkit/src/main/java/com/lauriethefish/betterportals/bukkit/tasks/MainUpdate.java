@@ -4,8 +4,12 @@ import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.lauriethefish.betterportals.bukkit.ICrashHandler;
 import com.lauriethefish.betterportals.bukkit.block.external.IExternalBlockWatcherManager;
+import com.lauriethefish.betterportals.bukkit.block.fetch.IBlockDataCache;
+import com.lauriethefish.betterportals.bukkit.entity.IEntityGrid;
+import com.lauriethefish.betterportals.bukkit.entity.faking.IEntityPacketManipulator;
 import com.lauriethefish.betterportals.bukkit.entity.faking.IEntityTrackingManager;
 import com.lauriethefish.betterportals.bukkit.net.ClientRequestHandler;
+import com.lauriethefish.betterportals.bukkit.net.IPortalClient;
 import com.lauriethefish.betterportals.bukkit.player.IPlayerData;
 import com.lauriethefish.betterportals.bukkit.player.PlayerDataManager;
 import com.lauriethefish.betterportals.bukkit.portal.IPortalActivityManager;
@@ -27,9 +31,13 @@ public class MainUpdate implements Runnable {
     private final ICrashHandler errorHandler;
     private final ClientRequestHandler requestHandler;
     private final IExternalBlockWatcherManager blockWatcherManager;
+    private final IBlockDataCache blockDataCache;
+    private final IPortalClient portalClient;
+    private final IEntityPacketManipulator entityPacketManipulator;
+    private final IEntityGrid entityGrid;
 
     @Inject
-    public MainUpdate(JavaPlugin pl, PlayerDataManager playerDataManager, IPortalActivityManager activityManager, IPerformanceWatcher performanceWatcher, IEntityTrackingManager entityTrackingManager, ICrashHandler errorHandler, ClientRequestHandler requestHandler, IExternalBlockWatcherManager blockWatcherManager) {
+    public MainUpdate(JavaPlugin pl, PlayerDataManager playerDataManager, IPortalActivityManager activityManager, IPerformanceWatcher performanceWatcher, IEntityTrackingManager entityTrackingManager, ICrashHandler errorHandler, ClientRequestHandler requestHandler, IExternalBlockWatcherManager blockWatcherManager, IBlockDataCache blockDataCache, IPortalClient portalClient, IEntityPacketManipulator entityPacketManipulator, IEntityGrid entityGrid) {
         this.pl = pl;
         this.playerDataManager = playerDataManager;
         this.activityManager = activityManager;
@@ -38,6 +46,10 @@ public class MainUpdate implements Runnable {
         this.errorHandler = errorHandler;
         this.requestHandler = requestHandler;
         this.blockWatcherManager = blockWatcherManager;
+        this.blockDataCache = blockDataCache;
+        this.portalClient = portalClient;
+        this.entityPacketManipulator = entityPacketManipulator;
+        this.entityGrid = entityGrid;
     }
 
     public void start() {
@@ -60,6 +72,11 @@ public class MainUpdate implements Runnable {
             // Deactivates and view-deactivates any unused portals that were active last tick
             activityManager.postUpdate();
 
+            // Sends the entity packets from this tick, including those for entities reshown when deactivating
+            OperationTimer entityPacketTimer = new OperationTimer();
+            entityPacketManipulator.flush();
+            performanceWatcher.putTimeTaken("Entity packet sending", entityPacketTimer);
+
             OperationTimer handlingTimer = new OperationTimer();
             requestHandler.handlePendingRequests();
             performanceWatcher.putTimeTaken("Cross-server request handling", handlingTimer);
@@ -67,11 +84,19 @@ public class MainUpdate implements Runnable {
             performanceWatcher.putTimeTaken("Main update", timer);
 
             blockWatcherManager.update();
+            blockDataCache.update();
+            entityGrid.update();
+
+            // Send everything queued for other servers this tick in one frame
+            portalClient.flush();
 
         }   catch(RuntimeException ex) {
             // An error during main update is bad news.
             // Things are probably now in an invalid state, so we exit the plugin now.
             errorHandler.processCriticalError(ex);
+        }   finally     {
+            // Entity packets queued before an error still need to be sent. This does nothing if they were sent above
+            entityPacketManipulator.flush();
         }
     }
 }
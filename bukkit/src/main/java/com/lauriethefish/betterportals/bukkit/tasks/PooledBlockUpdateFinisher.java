@@ -0,0 +1,97 @@
+package com.lauriethefish.betterportals.bukkit.tasks;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.lauriethefish.betterportals.bukkit.config.RenderConfig;
+import com.lauriethefish.betterportals.bukkit.util.performance.IPerformanceWatcher;
+import com.lauriethefish.betterportals.shared.logging.Logger;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Finishes block view updates on a fixed size pool of threads, which wait on the queue instead of polling it.
+ * The queue doesn't need a size limit, since each block view is only ever queued once at a time.
+ */
+@Singleton
+public class PooledBlockUpdateFinisher extends BlockUpdateFinisher {
+    // Idle threads are stopped after this long, so that threads aren't kept for a pool size that is no longer needed
+    private static final long THREAD_KEEP_ALIVE_SECONDS = 30;
+    // How long to wait for queued updates when shutting down, after which they are dropped
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 5;
+
+    private final RenderConfig renderConfig;
+    private final AtomicInteger threadCount = new AtomicInteger();
+    private ThreadPoolExecutor executor;
+
+    @Inject
+    public PooledBlockUpdateFinisher(Logger logger, IPerformanceWatcher performanceWatcher, RenderConfig renderConfig) {
+        super(logger, performanceWatcher);
+        this.renderConfig = renderConfig;
+    }
+
+    @Override
+    public synchronized void start() {
+        int poolSize = renderConfig.getPlayerUpdateThreadCount();
+        if(poolSize <= 0) {
+            poolSize = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        }
+
+        // The executor is kept if the config is reloaded, but the config may have changed the pool size
+        if(executor == null || executor.isShutdown()) {
+            executor = new ThreadPoolExecutor(poolSize, poolSize, THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, "BetterPortals block update thread #" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.allowCoreThreadTimeOut(true);
+        }   else if(poolSize > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(poolSize);
+            executor.setCorePoolSize(poolSize);
+        }   else    {
+            executor.setCorePoolSize(poolSize);
+            executor.setMaximumPoolSize(poolSize);
+        }
+        logger.fine("Using %d threads for block view updates", poolSize);
+    }
+
+    @Override
+    public void shutDown() {
+        ThreadPoolExecutor executor;
+        synchronized(this) {
+            executor = this.executor;
+        }
+        if(executor == null) {return;}
+
+        logger.fine("Shutting down block update threads");
+        executor.shutdown();
+        try {
+            if(!executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                logger.warning("Block update threads did not finish within %d seconds", SHUTDOWN_TIMEOUT_SECONDS);
+                executor.shutdownNow();
+            }
+        }   catch(InterruptedException ex) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    protected synchronized void queueUpdate(QueuedUpdate update) {
+        try {
+            executor.execute(() -> {
+                try {
+                    finishUpdate(update);
+                }   catch(RuntimeException ex) {
+                    logger.warning("An error occurred while updating the blocks viewed through a portal");
+                    ex.printStackTrace();
+                }
+            });
+        }   catch(RejectedExecutionException ex) {
+            logger.finer("Dropped block update, since the block update threads have been shut down");
+        }
+    }
+}
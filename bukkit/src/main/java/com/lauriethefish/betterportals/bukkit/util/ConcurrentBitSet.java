@@ -0,0 +1,57 @@
+package com.lauriethefish.betterportals.bukkit.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed size set of bits that can be safely set by multiple threads at once.
+ * Used by the parallel flood-fill to make sure that each block is only visited by one thread.
+ */
+public class ConcurrentBitSet {
+    private final AtomicLongArray words;
+    private final int size;
+
+    public ConcurrentBitSet(int size) {
+        this.size = size;
+        this.words = new AtomicLongArray((size + 63) >>> 6);
+    }
+
+    /**
+     * Sets the bit at <code>index</code>, if it isn't already.
+     * @param index Index of the bit to set
+     * @return Whether this call changed the bit. Only one thread will ever get true for the same index
+     * @throws IndexOutOfBoundsException If the index is negative or not less than the size
+     */
+    public boolean trySet(int index) {
+        checkIndex(index);
+
+        int wordIndex = index >>> 6;
+        long mask = 1L << index;
+        while(true) {
+            long current = words.get(wordIndex);
+            if((current & mask) != 0) {return false;}
+
+            if(words.compareAndSet(wordIndex, current, current | mask)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @param index Index of the bit to get
+     * @return Whether the bit at <code>index</code> is set
+     */
+    public boolean get(int index) {
+        checkIndex(index);
+        return (words.get(index >>> 6) & (1L << index)) != 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void checkIndex(int index) {
+        if(index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Bit index " + index + " out of bounds for size " + size);
+        }
+    }
+}
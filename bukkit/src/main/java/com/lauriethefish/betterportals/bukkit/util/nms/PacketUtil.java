@@ -0,0 +1,57 @@
+package com.lauriethefish.betterportals.bukkit.util.nms;
+
+import com.comphenix.protocol.events.PacketContainer;
+import com.lauriethefish.betterportals.shared.util.ReflectionUtil;
+import org.bukkit.entity.Player;
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.List;
+
+/**
+ * ProtocolLib writes and flushes each packet on its own, which is a separate system call for every packet sent to every player.
+ * This writes a group of packets to the player's channel, then flushes it once.
+ * The packets still go through the whole pipeline, so they are encoded and seen by packet listeners as usual.
+ */
+public class PacketUtil {
+    private static final Method GET_HANDLE;
+    private static final Field PLAYER_CONNECTION;
+    private static final Field NETWORK_MANAGER;
+    private static final Field CHANNEL;
+    private static final Method CHANNEL_WRITE;
+    private static final Method CHANNEL_FLUSH;
+
+    static {
+        GET_HANDLE = ReflectionUtil.findMethod(MinecraftReflectionUtil.findCraftBukkitClass("entity.CraftPlayer"), "getHandle");
+        PLAYER_CONNECTION = ReflectionUtil.findField(MinecraftReflectionUtil.findNMSClass("EntityPlayer"), "playerConnection");
+        NETWORK_MANAGER = ReflectionUtil.findField(MinecraftReflectionUtil.findNMSClass("PlayerConnection"), "networkManager");
+        CHANNEL = ReflectionUtil.findField(MinecraftReflectionUtil.findNMSClass("NetworkManager"), "channel");
+
+        // Netty isn't on the compile classpath, so the channel is also used with reflection
+        Class<?> nettyChannel = ReflectionUtil.findClass("io.netty.channel.Channel");
+        CHANNEL_WRITE = ReflectionUtil.findMethod(nettyChannel, "write", new Class[]{Object.class});
+        CHANNEL_FLUSH = ReflectionUtil.findMethod(nettyChannel, "flush");
+    }
+
+    /**
+     * Sends <code>packets</code> to <code>player</code> in order, flushing once at the end.
+     * The same packets can be sent to several players, since they are only read while encoding.
+     * @param player The player to send the packets to
+     * @param packets The packets to send
+     */
+    public static void sendPackets(@NotNull Player player, @NotNull List<PacketContainer> packets) {
+        try {
+            Object playerConnection = PLAYER_CONNECTION.get(GET_HANDLE.invoke(player));
+            if(playerConnection == null) {return;} // The player is still logging in, or has disconnected
+
+            Object channel = CHANNEL.get(NETWORK_MANAGER.get(playerConnection));
+            for(PacketContainer packet : packets) {
+                CHANNEL_WRITE.invoke(channel, packet.getHandle());
+            }
+            CHANNEL_FLUSH.invoke(channel);
+        }   catch(ReflectiveOperationException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+}
@@ -1,12 +1,11 @@
 package com.lauriethefish.betterportals.bukkit.util.performance;
 
-import lombok.Getter;
-
 import java.time.Duration;
 
+// Synchronized, since some operations are timed on the block update threads
 public class Operation {
-    @Getter private Duration totalTime = Duration.ZERO;
-    @Getter private long invocationTimes;
+    private Duration totalTime = Duration.ZERO;
+    private long invocationTimes;
 
     private Duration highestTime = null;
     private Duration lowestTime = null;
@@ -16,7 +15,7 @@ public class Operation {
         this.invocationsUntilStart = invocationsUntilStart;
     }
 
-    void update(Duration duration) {
+    synchronized void update(Duration duration) {
         if(invocationsUntilStart > 0) {
             invocationsUntilStart--;
             return;
@@ -36,18 +35,26 @@ public class Operation {
         }
     }
 
-    public Duration getAverageTime() {
+    public synchronized Duration getTotalTime() {
+        return totalTime;
+    }
+
+    public synchronized long getInvocationTimes() {
+        return invocationTimes;
+    }
+
+    public synchronized Duration getAverageTime() {
         // Avoid dividing by zero exceptions
         if(invocationTimes == 0) {return Duration.ZERO;}
 
         return totalTime.dividedBy(invocationTimes);
     }
 
-    public Duration getHighestTime() {
+    public synchronized Duration getHighestTime() {
         return highestTime == null ? Duration.ZERO : highestTime;
     }
 
-    public Duration getLowestTime() {
+    public synchronized Duration getLowestTime() {
         return lowestTime == null ? Duration.ZERO : lowestTime;
     }
 }
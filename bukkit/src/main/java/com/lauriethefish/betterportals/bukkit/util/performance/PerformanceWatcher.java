@@ -21,12 +21,8 @@ public class PerformanceWatcher implements IPerformanceWatcher  {
             return;
         }
 
-        Operation timer = timedOperations.get(label);
-        if(timer == null) {
-            timer = new Operation(invocationsUntilStart);
-            timedOperations.put(label, timer);
-        }
-
+        // Operations may be timed on multiple threads at once, so this must not replace an operation that another thread just added
+        Operation timer = timedOperations.computeIfAbsent(label, (key) -> new Operation(invocationsUntilStart));
         timer.update(duration);
     }
 }
@@ -0,0 +1,72 @@
+import com.lauriethefish.betterportals.bukkit.block.external.BlockChangeSet;
+import org.junit.Test;
+
+import java.io.*;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BlockChangeSetTests {
+    private BlockChangeSet roundTrip(BlockChangeSet changes) throws IOException {
+        ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+        changes.write(new DataOutputStream(byteStream));
+
+        return BlockChangeSet.read(new DataInputStream(new ByteArrayInputStream(byteStream.toByteArray())));
+    }
+
+    private int[] getCombinedIds(BlockChangeSet changes, int length) {
+        int[] result = new int[length];
+        changes.forEachChange((index, paletteIndex) -> result[index] = changes.getPalette()[paletteIndex]);
+        return result;
+    }
+
+    @Test
+    public void testSnapshot() throws IOException {
+        // Use enough different IDs that the palette indices span across longs
+        Random random = new Random(0);
+        int[] combinedIds = new int[10935];
+        for(int i = 0; i < combinedIds.length; i++) {
+            combinedIds[i] = random.nextInt(10) == 0 ? random.nextInt(1000) : 0;
+        }
+
+        BlockChangeSet result = roundTrip(BlockChangeSet.createSnapshot(combinedIds));
+        assertTrue(result.isSnapshot());
+        assertEquals(combinedIds.length, result.size());
+        assertArrayEquals(combinedIds, getCombinedIds(result, combinedIds.length));
+    }
+
+    @Test
+    public void testSinglePaletteEntry() throws IOException {
+        int[] combinedIds = new int[500];
+
+        BlockChangeSet result = roundTrip(BlockChangeSet.createSnapshot(combinedIds));
+        assertEquals(1, result.getPalette().length);
+        assertArrayEquals(combinedIds, getCombinedIds(result, combinedIds.length));
+    }
+
+    @Test
+    public void testDelta() throws IOException {
+        int[] positions = new int[]{3, 4, 100, 9000, 0};
+        int[] combinedIds = new int[]{16, 32, 16, 48, 0};
+
+        BlockChangeSet result = roundTrip(BlockChangeSet.createDelta(positions, combinedIds, 4));
+        assertFalse(result.isSnapshot());
+        assertEquals(4, result.size());
+
+        int[] expected = new int[10000];
+        expected[3] = 16;
+        expected[4] = 32;
+        expected[100] = 16;
+        expected[9000] = 48;
+        assertArrayEquals(expected, getCombinedIds(result, expected.length));
+    }
+
+    @Test
+    public void testGetIndex() {
+        assertEquals(0, BlockChangeSet.getIndex(-2, -1, -2, 2, 1));
+        assertEquals(1, BlockChangeSet.getIndex(-1, -1, -2, 2, 1));
+        assertEquals(5, BlockChangeSet.getIndex(-2, -1, -1, 2, 1));
+        assertEquals(25, BlockChangeSet.getIndex(-2, 0, -2, 2, 1));
+        assertEquals(74, BlockChangeSet.getIndex(2, 1, 2, 2, 1));
+    }
+}
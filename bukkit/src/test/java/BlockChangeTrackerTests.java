@@ -0,0 +1,63 @@
+import be.seeseemelk.mockbukkit.MockBukkit;
+import be.seeseemelk.mockbukkit.ServerMock;
+import be.seeseemelk.mockbukkit.WorldMock;
+import com.lauriethefish.betterportals.api.IntVector;
+import com.lauriethefish.betterportals.bukkit.block.changes.BlockChangeTracker;
+import com.lauriethefish.betterportals.bukkit.block.changes.DirtyBlockArea;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BlockChangeTrackerTests {
+    private BlockChangeTracker changeTracker;
+    private WorldMock world;
+    private WorldMock otherWorld;
+
+    @Before
+    public void setUp() {
+        ServerMock server = MockBukkit.mock();
+        world = server.addSimpleWorld("world");
+        otherWorld = server.addSimpleWorld("world_nether");
+
+        changeTracker = new BlockChangeTracker();
+    }
+
+    @After
+    public void tearDown() {
+        MockBukkit.unmock();
+    }
+
+    @Test
+    public void testChangeInsideArea() {
+        DirtyBlockArea area = changeTracker.watch(world, new IntVector(-10, 50, -10), new IntVector(10, 70, 10));
+
+        changeTracker.markChanged(world.getBlockAt(5, 60, -3));
+        assertTrue(area.getDirtyPositions().contains(new IntVector(5, 60, -3)));
+
+        area.clear();
+        assertTrue(area.getDirtyPositions().isEmpty());
+    }
+
+    @Test
+    public void testChangeOutsideArea() {
+        DirtyBlockArea area = changeTracker.watch(world, new IntVector(-10, 50, -10), new IntVector(10, 70, 10));
+
+        // Same chunk section, but outside of the box
+        changeTracker.markChanged(world.getBlockAt(11, 60, 0));
+        // Inside the box, but in a different world
+        changeTracker.markChanged(otherWorld.getBlockAt(0, 60, 0));
+
+        assertTrue(area.getDirtyPositions().isEmpty());
+    }
+
+    @Test
+    public void testUnwatch() {
+        DirtyBlockArea area = changeTracker.watch(world, new IntVector(-10, 50, -10), new IntVector(10, 70, 10));
+        changeTracker.unwatch(area);
+
+        changeTracker.markChanged(world.getBlockAt(0, 60, 0));
+        assertTrue(area.getDirtyPositions().isEmpty());
+    }
+}
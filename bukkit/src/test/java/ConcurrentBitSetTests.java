@@ -0,0 +1,43 @@
+import com.lauriethefish.betterportals.bukkit.util.ConcurrentBitSet;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConcurrentBitSetTests {
+    @Test
+    public void testTrySet() {
+        ConcurrentBitSet bitSet = new ConcurrentBitSet(130);
+
+        assertFalse(bitSet.get(65));
+        assertTrue(bitSet.trySet(65));
+        assertFalse(bitSet.trySet(65));
+        assertTrue(bitSet.get(65));
+
+        // Bits in the same word shouldn't affect each other
+        assertFalse(bitSet.get(64));
+        assertTrue(bitSet.trySet(129));
+    }
+
+    // Each bit should only be successfully set once, even if many threads try at the same time
+    @Test
+    public void testConcurrentTrySet() {
+        ConcurrentBitSet bitSet = new ConcurrentBitSet(1000);
+        AtomicInteger successCount = new AtomicInteger();
+
+        IntStream.range(0, 8000).parallel().forEach(i -> {
+            if(bitSet.trySet(i % 1000)) {
+                successCount.incrementAndGet();
+            }
+        });
+
+        assertEquals(1000, successCount.get());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testOutOfBounds() {
+        new ConcurrentBitSet(64).trySet(64);
+    }
+}
@@ -0,0 +1,62 @@
+import com.lauriethefish.betterportals.bukkit.block.external.BlockChangeSet;
+import com.lauriethefish.betterportals.bukkit.block.external.ExternalBlockSubscriptionManager;
+import com.lauriethefish.betterportals.bukkit.net.requests.PushBlockChangesRequest;
+import com.lauriethefish.betterportals.shared.net.RequestException;
+import com.lauriethefish.betterportals.shared.net.Response;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ExternalBlockSubscriptionManagerTests {
+    private ExternalBlockSubscriptionManager subscriptionManager;
+
+    @Before
+    public void setUp() {
+        subscriptionManager = new ExternalBlockSubscriptionManager();
+    }
+
+    private Response push(UUID changeSetId, BlockChangeSet changes) {
+        PushBlockChangesRequest request = new PushBlockChangesRequest();
+        request.setChangeSetId(changeSetId);
+        request.setChanges(changes);
+
+        List<Response> responses = new ArrayList<>();
+        subscriptionManager.onChangesPushed(request, responses::add);
+        assertEquals(1, responses.size());
+        return responses.get(0);
+    }
+
+    @Test
+    public void testPushedChangesAreReceived() throws RequestException {
+        UUID changeSetId = UUID.randomUUID();
+        List<BlockChangeSet> received = new ArrayList<>();
+        subscriptionManager.register(changeSetId, received::add);
+
+        BlockChangeSet changes = BlockChangeSet.createSnapshot(new int[]{1, 2, 3});
+        push(changeSetId, changes).checkForErrors();
+        push(changeSetId, null).checkForErrors(); // Heartbeat
+
+        assertEquals(2, received.size());
+        assertSame(changes, received.get(0));
+        assertNull(received.get(1));
+    }
+
+    @Test
+    public void testUnknownSubscriptionIsRejected() {
+        assertThrows(RequestException.class, () -> push(UUID.randomUUID(), null).checkForErrors());
+    }
+
+    @Test
+    public void testUnregisteredSubscriptionIsRejected() {
+        UUID changeSetId = UUID.randomUUID();
+        subscriptionManager.register(changeSetId, changes -> fail("Changes were received after unregistering"));
+        subscriptionManager.unregister(changeSetId);
+
+        assertThrows(RequestException.class, () -> push(changeSetId, null).checkForErrors());
+    }
+}
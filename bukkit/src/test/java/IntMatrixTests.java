@@ -0,0 +1,46 @@
+import com.lauriethefish.betterportals.api.IntVector;
+import com.lauriethefish.betterportals.api.PortalDirection;
+import com.lauriethefish.betterportals.bukkit.math.IntMatrix;
+import com.lauriethefish.betterportals.bukkit.math.Matrix;
+import org.bukkit.util.Vector;
+import org.junit.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class IntMatrixTests {
+    private final IntVector testPos = new IntVector(3, -7, 11);
+
+    // The integer matrix should give the same result as the floating point one for every portal rotation
+    @Test
+    public void testMatchesMatrix() {
+        for(PortalDirection from : PortalDirection.values()) {
+            for(PortalDirection to : PortalDirection.values()) {
+                Matrix matrix = Matrix.makeRotation(from, to);
+                IntMatrix intMatrix = new IntMatrix(matrix);
+
+                assertEquals(matrix.transform(testPos), intMatrix.transform(testPos), "Rotation from " + from + " to " + to);
+            }
+        }
+    }
+
+    @Test
+    public void testTranslate() {
+        IntMatrix matrix = new IntMatrix(Matrix.makeRotation(PortalDirection.NORTH, PortalDirection.EAST)).translate(new IntVector(100, 64, -20));
+        IntVector expected = Matrix.makeRotation(PortalDirection.NORTH, PortalDirection.EAST).transform(testPos).add(100, 64, -20);
+
+        assertEquals(expected, matrix.transform(testPos));
+        assertEquals(expected.getX(), matrix.transformX(testPos.getX(), testPos.getY(), testPos.getZ()));
+    }
+
+    @Test
+    public void testInverse() {
+        IntMatrix matrix = new IntMatrix(Matrix.makeRotation(PortalDirection.UP, PortalDirection.WEST)).translate(new IntVector(-50, 12, 7));
+
+        assertEquals(testPos, matrix.inverse().transform(matrix.transform(testPos)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNonIntegerRotation() {
+        new IntMatrix(Matrix.makeRotation(new Vector(0.0, 1.0, 0.0), Math.PI / 4));
+    }
+}
@@ -1,33 +1,46 @@
 import be.seeseemelk.mockbukkit.MockBukkit;
 import be.seeseemelk.mockbukkit.ServerMock;
+import be.seeseemelk.mockbukkit.WorldMock;
 import be.seeseemelk.mockbukkit.entity.PlayerMock;
+import com.comphenix.protocol.wrappers.WrappedBlockData;
 import com.google.inject.AbstractModule;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
 import com.google.inject.assistedinject.FactoryModuleBuilder;
-import com.lauriethefish.betterportals.bukkit.block.ViewableBlockInfo;
+import com.lauriethefish.betterportals.api.PortalDirection;
+import com.lauriethefish.betterportals.api.IntVector;
+import com.lauriethefish.betterportals.api.PortalPosition;
 import com.lauriethefish.betterportals.bukkit.block.multiblockchange.IMultiBlockChangeManager;
 import com.lauriethefish.betterportals.bukkit.player.view.block.IPlayerBlockStates;
 import com.lauriethefish.betterportals.bukkit.player.view.block.PlayerBlockStates;
+import com.lauriethefish.betterportals.shared.logging.Logger;
 import com.lauriethefish.betterportals.shared.util.ReflectionUtil;
 import implementations.TestLoggerModule;
 import implementations.TestMultiBlockChangeManager;
+import implementations.TestPortal;
+import implementations.TestViewableBlockArray;
+import org.bukkit.Location;
 import org.bukkit.util.Vector;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.UUID;
 
 import static org.junit.jupiter.api.Assertions.*;
 
 public class PlayerBlockStatesTests {
     private IPlayerBlockStates blockView;
-    private final Vector position = new Vector(0.0, 1.0, 0.0);
+    private Injector injector;
+    private PlayerMock player;
+    private TestPortal portal;
 
     @Before
     public void setUp() {
-        Injector injector = Guice.createInjector(new AbstractModule() {
+        injector = Guice.createInjector(new AbstractModule() {
             @Override
             protected void configure() {
                 install(new FactoryModuleBuilder().implement(
@@ -42,9 +55,13 @@ public class PlayerBlockStatesTests {
         });
 
         ServerMock server = MockBukkit.mock();
-        PlayerMock player = server.addPlayer();
+        player = server.addPlayer();
+        WorldMock world = server.addSimpleWorld("world");
 
-        blockView = injector.getInstance(IPlayerBlockStates.Factory.class).create(player);
+        PortalPosition portalPos = new PortalPosition(new Location(world, 0, 64, 0), PortalDirection.NORTH);
+        portal = new TestPortal(portalPos, portalPos, new Vector(3.0, 3.0, 0.0), true, UUID.randomUUID(), null, null);
+
+        blockView = injector.getInstance(IPlayerBlockStates.Factory.class).create(player, portal);
     }
 
     @After
@@ -53,32 +70,64 @@ public class PlayerBlockStatesTests {
     }
 
     @Test
-    @SuppressWarnings("unchecked")
-    public void setViewableTest() {
-        ViewableBlockInfo blockInfo = new ViewableBlockInfo();
+    public void updateViewableTest() {
+        BitSet visible = new BitSet();
+        visible.set(3);
+        visible.set(70);
+
+        // Every newly visible block should need an update
+        assertEquals(visible, blockView.updateViewable(visible));
 
-        assertTrue(blockView.setViewable(position, blockInfo));
+        BitSet viewedBlocks = (BitSet) ReflectionUtil.getField(blockView, "viewedBlocks");
+        assertEquals(visible, viewedBlocks);
 
-        Map<Vector, ViewableBlockInfo> viewedStates = (Map<Vector, ViewableBlockInfo>) ReflectionUtil.getField(blockView, "viewedStates");
-        assertEquals(viewedStates.get(position), blockInfo);
+        // Setting them to viewable twice shouldn't return them again
+        assertTrue(blockView.updateViewable(visible).isEmpty());
+    }
 
-        // Setting it to viewable twice shouldn't return true multiple times
-        assertFalse(blockView.setViewable(position, blockInfo));
+    @Test
+    public void updateNonViewableTest() {
+        BitSet visible = new BitSet();
+        visible.set(3);
+        visible.set(70);
+        blockView.updateViewable(visible);
+
+        // Make one block non-viewable, and another viewable. Both need an update
+        BitSet newVisible = new BitSet();
+        newVisible.set(70);
+        newVisible.set(100);
+
+        BitSet expectedChanges = new BitSet();
+        expectedChanges.set(3);
+        expectedChanges.set(100);
+        assertEquals(expectedChanges, blockView.updateViewable(newVisible));
+
+        BitSet viewedBlocks = (BitSet) ReflectionUtil.getField(blockView, "viewedBlocks");
+        assertEquals(newVisible, viewedBlocks);
     }
 
     @Test
-    @SuppressWarnings("unchecked")
-    public void setNotViewableTest() {
-        ViewableBlockInfo blockInfo = new ViewableBlockInfo();
+    public void missingBlockInfoReadsActualBlockTest() {
+        TestViewableBlockArray blockArray = new TestViewableBlockArray();
+        portal.setViewableBlocks(blockArray);
 
-        // Make it viewable, and then non-viewable again to test that it is removed from the map correctly
-        assertTrue(blockView.setViewable(position, blockInfo));
-        assertTrue(blockView.setNonViewable(position, blockInfo));
+        List<IntVector> readPositions = new ArrayList<>();
+        IPlayerBlockStates blockStates = new PlayerBlockStates(player, portal, injector.getInstance(IMultiBlockChangeManager.Factory.class), injector.getInstance(Logger.class)) {
+            @Override
+            protected WrappedBlockData readOriginBlock(IntVector position) {
+                readPositions.add(position);
+                return null;
+            }
+        };
 
-        Map<Vector, ViewableBlockInfo> viewedStates = (Map<Vector, ViewableBlockInfo>) ReflectionUtil.getField(blockView, "viewedStates");
-        assertNull(viewedStates.get(position));
+        BitSet visible = new BitSet();
+        visible.set(3);
+        blockStates.updateViewable(visible);
 
-        // Setting it not viewable twice shouldn't return true multiple times
-        assertFalse(blockView.setNonViewable(position, blockInfo));
+        // The block is no longer viewed, but the block array no longer has it, so the actual block must be read to revert the fake block
+        assertEquals(visible, blockStates.updateViewable(new BitSet()));
+        blockStates.getOriginData(3);
+        assertEquals(1, readPositions.size());
+        assertEquals(blockArray.getArrayPosition(3), readPositions.get(0));
     }
 }
@@ -0,0 +1,77 @@
+import com.lauriethefish.betterportals.bukkit.math.PlaneIntersectionChecker;
+import com.lauriethefish.betterportals.bukkit.math.PortalFrustum;
+import org.bukkit.util.Vector;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PortalFrustumTests {
+    private static final Vector MAX_DEV = new Vector(1.5, 2.5, 0.5);
+    private static final Vector PLANE_CENTER = new Vector(0.5, 64.0, 0.5);
+
+    @Test
+    public void testVisible() {
+        PortalFrustum frustum = new PortalFrustum(new Vector(0.0, 0.0, 0.0), new Vector(1.0, 0.0, 0.0), new Vector(10.0, 0.0, 0.0), MAX_DEV);
+
+        assertTrue(frustum.isVisible(-5.0, 0.0, 0.0), "Block returned as not visible when it was");
+        assertFalse(frustum.isVisible(5.0, 0.0, 0.0), "Block in front of the portal returned as visible");
+        assertFalse(frustum.isVisible(-5.0, 0.0, 20.0), "Block returned as visible when it wasn't");
+    }
+
+    // The frustum should give the same results as casting a ray to each position
+    @Test
+    public void testMatchesIntersectionChecker() {
+        Random random = new Random(12345);
+        Vector[] normals = new Vector[]{new Vector(1.0, 0.0, 0.0), new Vector(0.0, 0.0, -1.0), new Vector(0.0, 1.0, 0.0)};
+
+        for(Vector normal : normals) {
+            for(int eyeNum = 0; eyeNum < 50; eyeNum++) {
+                Vector eye = PLANE_CENTER.clone().add(randomOffset(random, 8.0));
+                PlaneIntersectionChecker checker = new PlaneIntersectionChecker(PLANE_CENTER, normal, eye, MAX_DEV);
+                PortalFrustum frustum = new PortalFrustum(PLANE_CENTER, normal, eye, MAX_DEV);
+
+                for(int posNum = 0; posNum < 200; posNum++) {
+                    Vector position = PLANE_CENTER.clone().add(randomOffset(random, 15.0));
+                    assertEquals(checker.checkIfIntersects(position), frustum.isVisible(position.getX(), position.getY(), position.getZ()),
+                            "Eye " + eye + ", position " + position + ", normal " + normal);
+                }
+            }
+        }
+    }
+
+    // Checking many positions at once should give the same result as checking each one separately
+    @Test
+    public void testFindVisibleMatchesIsVisible() {
+        Random random = new Random(54321);
+        int count = 500;
+        double[] coordinates = new double[count * 3];
+        boolean[] result = new boolean[count];
+
+        for(int eyeNum = 0; eyeNum < 50; eyeNum++) {
+            Vector eye = PLANE_CENTER.clone().add(randomOffset(random, 8.0));
+            PortalFrustum frustum = new PortalFrustum(PLANE_CENTER, new Vector(0.0, 0.0, 1.0), eye, MAX_DEV);
+
+            for(int i = 0; i < count; i++) {
+                Vector position = PLANE_CENTER.clone().add(randomOffset(random, 15.0));
+                coordinates[i * 3] = position.getX();
+                coordinates[i * 3 + 1] = position.getY();
+                coordinates[i * 3 + 2] = position.getZ();
+            }
+            frustum.findVisible(coordinates, count, result);
+
+            for(int i = 0; i < count; i++) {
+                assertEquals(frustum.isVisible(coordinates[i * 3], coordinates[i * 3 + 1], coordinates[i * 3 + 2]), result[i], "Eye " + eye + ", index " + i);
+            }
+        }
+    }
+
+    private Vector randomOffset(Random random, double range) {
+        return new Vector(
+                (random.nextDouble() * 2.0 - 1.0) * range,
+                (random.nextDouble() * 2.0 - 1.0) * range,
+                (random.nextDouble() * 2.0 - 1.0) * range
+        );
+    }
+}
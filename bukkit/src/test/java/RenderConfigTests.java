@@ -0,0 +1,58 @@
+import be.seeseemelk.mockbukkit.MockBukkit;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.lauriethefish.betterportals.api.IntVector;
+import com.lauriethefish.betterportals.bukkit.config.RenderConfig;
+import implementations.TestConfigHandler;
+import implementations.TestLoggerModule;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RenderConfigTests {
+    private RenderConfig renderConfig;
+
+    @Before
+    public void setUp() {
+        MockBukkit.mock();
+
+        Injector injector = Guice.createInjector(new TestLoggerModule());
+        TestConfigHandler.prepareConfig(injector);
+
+        renderConfig = injector.getInstance(RenderConfig.class);
+    }
+
+    @After
+    public void tearDown() {
+        MockBukkit.unmock();
+    }
+
+    // Every position within the portal effect, including the edges, must map to a unique index in the array
+    @Test
+    public void testArrayIndexUnique() {
+        boolean[] used = new boolean[renderConfig.getTotalArrayLength()];
+
+        for(int x = (int) renderConfig.getMinXZ(); x <= renderConfig.getMaxXZ(); x++) {
+            for(int y = (int) renderConfig.getMinY(); y <= renderConfig.getMaxY(); y++) {
+                for(int z = (int) renderConfig.getMinXZ(); z <= renderConfig.getMaxXZ(); z++) {
+                    int index = renderConfig.getArrayIndex(x, y, z);
+                    assertTrue(index >= 0 && index < used.length, "Array index out of bounds");
+                    assertFalse(used[index], "Array index used twice");
+
+                    used[index] = true;
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testArrayPositionRoundTrip() {
+        IntVector position = new IntVector(-3, 5, 12);
+        int index = renderConfig.getArrayIndex(position);
+
+        assertEquals(position, renderConfig.getArrayPosition(index));
+        assertEquals(renderConfig.getArrayIndex(new IntVector(0, 0, 0)), renderConfig.getArrayIndex(0, 0, 0));
+    }
+}
@@ -4,6 +4,7 @@ import com.comphenix.protocol.wrappers.WrappedBlockData;
 import com.google.inject.Inject;
 import com.google.inject.assistedinject.Assisted;
 import com.lauriethefish.betterportals.bukkit.block.multiblockchange.IMultiBlockChangeManager;
+import com.lauriethefish.betterportals.bukkit.block.multiblockchange.MultiBlockChangeCache;
 import lombok.Getter;
 import org.bukkit.entity.Player;
 import org.bukkit.util.Vector;
@@ -30,4 +31,9 @@ public class TestMultiBlockChangeManager implements IMultiBlockChangeManager {
     public void sendChanges() {
         wereChangesSent = true;
     }
+
+    @Override
+    public void sendChanges(MultiBlockChangeCache cache) {
+        sendChanges();
+    }
 }
@@ -8,6 +8,7 @@ import com.lauriethefish.betterportals.bukkit.math.PortalTransformations;
 import com.lauriethefish.betterportals.bukkit.portal.IPortal;
 import com.lauriethefish.betterportals.api.PortalPosition;
 import lombok.Getter;
+import lombok.Setter;
 import org.bukkit.util.Vector;
 import org.jetbrains.annotations.NotNull;
 
@@ -28,6 +29,8 @@ public class TestPortal implements IPortal {
     @Getter private int viewDeactivateCallCount;
     @Getter private int viewUpdateCallCount;
 
+    @Setter private IViewableBlockArray viewableBlocks;
+
     @Inject
     public TestPortal(@Assisted("originPos") @NotNull PortalPosition originPos,
                       @Assisted("destPos") @NotNull PortalPosition destPos,
@@ -103,7 +106,7 @@ public class TestPortal implements IPortal {
 
     @Override
     public @NotNull IViewableBlockArray getViewableBlocks() {
-        return null;
+        return viewableBlocks;
     }
 
     @Override
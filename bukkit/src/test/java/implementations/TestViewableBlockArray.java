@@ -0,0 +1,44 @@
+package implementations;
+
+import com.comphenix.protocol.events.PacketContainer;
+import com.lauriethefish.betterportals.api.IntVector;
+import com.lauriethefish.betterportals.bukkit.block.IViewableBlockArray;
+import com.lauriethefish.betterportals.bukkit.block.ViewableBlockInfo;
+import com.lauriethefish.betterportals.bukkit.block.multiblockchange.MultiBlockChangeCache;
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+// Places each index along the X axis, and has no viewable states unless they are added by the test
+public class TestViewableBlockArray implements IViewableBlockArray {
+    @Getter private final ConcurrentMap<IntVector, ViewableBlockInfo> viewableStates = new ConcurrentHashMap<>();
+    @Getter private final MultiBlockChangeCache packetCache = new MultiBlockChangeCache();
+
+    @Override
+    public void update(int ticksSinceActivated) {
+
+    }
+
+    @Override
+    public @Nullable PacketContainer getOriginTileEntityPacket(@NotNull IntVector position) {
+        return null;
+    }
+
+    @Override
+    public @Nullable PacketContainer getDestinationTileEntityPacket(@NotNull IntVector position) {
+        return null;
+    }
+
+    @Override
+    public @NotNull IntVector getArrayPosition(int index) {
+        return new IntVector(index, 64, 0);
+    }
+
+    @Override
+    public void reset() {
+        viewableStates.clear();
+    }
+}
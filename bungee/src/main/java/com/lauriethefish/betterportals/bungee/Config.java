@@ -29,6 +29,7 @@ public class Config {
 
     @Getter private InetSocketAddress bindAddress;
     @Getter private UUID key;
+    @Getter private int compressionThreshold;
 
     @Inject
     public Config(Plugin pl, Logger logger) {
@@ -90,6 +91,12 @@ public class Config {
             wasModified = true;
         }
 
+        if(!config.contains("compressionThreshold")) {
+            config.set("compressionThreshold", 512);
+            wasModified = true;
+        }
+        compressionThreshold = config.getInt("compressionThreshold");
+
         bindAddress = new InetSocketAddress(addressStr, port);
 
         if(wasModified) {
@@ -6,9 +6,9 @@ import com.lauriethefish.betterportals.bungee.net.*;
 import com.lauriethefish.betterportals.shared.logging.Logger;
 import com.lauriethefish.betterportals.shared.logging.OverrideLogger;
 import com.lauriethefish.betterportals.shared.net.IRequestHandler;
-import com.lauriethefish.betterportals.shared.net.encryption.EncryptedObjectStream;
-import com.lauriethefish.betterportals.shared.net.encryption.EncryptedObjectStreamFactory;
-import com.lauriethefish.betterportals.shared.net.encryption.IEncryptedObjectStream;
+import com.lauriethefish.betterportals.shared.net.encryption.EncryptedMessageCodec;
+import com.lauriethefish.betterportals.shared.net.encryption.IMessageCodec;
+import com.lauriethefish.betterportals.shared.net.encryption.MessageCodecFactory;
 import net.md_5.bungee.api.plugin.Plugin;
 
 public class MainModule extends AbstractModule {
@@ -25,6 +25,6 @@ public class MainModule extends AbstractModule {
         bind(IPortalServer.class).to(PortalServer.class);
         bind(IRequestHandler.class).to(ProxyRequestHandler.class);
         install(new FactoryModuleBuilder().implement(IClientHandler.class, ClientHandler.class).build(ServerHandlerFactory.class));
-        install(new FactoryModuleBuilder().implement(IEncryptedObjectStream.class, EncryptedObjectStream.class).build(EncryptedObjectStreamFactory.class));
+        install(new FactoryModuleBuilder().implement(IMessageCodec.class, EncryptedMessageCodec.class).build(MessageCodecFactory.class));
     }
 }
@@ -1,12 +1,20 @@
 package com.lauriethefish.betterportals.bungee.net;
 
 import com.google.inject.Inject;
-import com.google.inject.assistedinject.Assisted;
+import com.lauriethefish.betterportals.bungee.Config;
 import com.lauriethefish.betterportals.shared.logging.Logger;
 import com.lauriethefish.betterportals.shared.net.*;
-import com.lauriethefish.betterportals.shared.net.encryption.EncryptedObjectStreamFactory;
-import com.lauriethefish.betterportals.shared.net.encryption.IEncryptedObjectStream;
+import com.lauriethefish.betterportals.shared.net.encoding.ICompressor;
+import com.lauriethefish.betterportals.shared.net.encryption.CipherManager;
+import com.lauriethefish.betterportals.shared.net.encryption.IMessageCodec;
+import com.lauriethefish.betterportals.shared.net.encryption.MessageCodecFactory;
+import com.lauriethefish.betterportals.shared.net.encryption.SessionKeys;
 import com.lauriethefish.betterportals.shared.net.requests.Request;
+import com.lauriethefish.betterportals.shared.net.transport.Connection;
+import com.lauriethefish.betterportals.shared.net.transport.IConnectionHandler;
+import com.lauriethefish.betterportals.shared.net.transport.Lane;
+import com.lauriethefish.betterportals.shared.net.transport.MessageBatcher;
+import com.lauriethefish.betterportals.shared.net.transport.NetworkEventLoop;
 import lombok.Getter;
 import net.md_5.bungee.api.config.ServerInfo;
 import net.md_5.bungee.api.plugin.Plugin;
@@ -16,70 +24,118 @@ import org.jetbrains.annotations.Nullable;
 import javax.crypto.AEADBadTagException;
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 
-public class ClientHandler implements IClientHandler {
+/**
+ * Handles the connection to one server. All received messages are processed on the {@link com.lauriethefish.betterportals.shared.net.transport.NetworkEventLoop} thread.
+ */
+public class ClientHandler implements IClientHandler, IConnectionHandler {
     private final IPortalServer portalServer;
     private final Logger logger;
     private final Plugin pl;
-    private final EncryptedObjectStreamFactory encryptedObjectStreamFactory;
+    private final Config config;
+    private final CipherManager cipherManager;
+    private final IMessageCodec messageCodec;
     private final IRequestHandler requestHandler;
+    private final NetworkEventLoop eventLoop;
 
-    private final Socket socket;
-    private IEncryptedObjectStream objectStream;
+    private Connection connection;
+    private MessageBatcher messageBatcher;
+    private SocketAddress remoteAddress;
 
     @Getter private ServerInfo serverInfo = null;
     @Getter private String gameVersion;
+    @Getter private InetSocketAddress directAddress = null;
 
     private volatile boolean isRunning = true;
+    private boolean hasHandshakeFinished = false;
 
     private final AtomicInteger currentRequestId = new AtomicInteger();
     private final ConcurrentMap<Integer, Consumer<Response>> waitingRequests = new ConcurrentHashMap<>();
 
     @Inject
-    public ClientHandler(@Assisted Socket socket, IPortalServer portalServer, Logger logger, Plugin pl, EncryptedObjectStreamFactory encryptedObjectStreamFactory, IRequestHandler requestHandler) {
-        this.socket = socket;
+    public ClientHandler(IPortalServer portalServer, Logger logger, Plugin pl, Config config, CipherManager cipherManager, MessageCodecFactory messageCodecFactory, IRequestHandler requestHandler, NetworkEventLoop eventLoop) {
         this.portalServer = portalServer;
         this.logger = logger;
         this.pl = pl;
-        this.encryptedObjectStreamFactory = encryptedObjectStreamFactory;
+        this.config = config;
+        this.cipherManager = cipherManager;
+        this.messageCodec = messageCodecFactory.create();
         this.requestHandler = requestHandler;
+        this.eventLoop = eventLoop;
+    }
 
-        new Thread(() -> {
-            try {
-                run();
-            }   catch(IOException ex) {
-                if (!isRunning) {
-                    return;
-                } // An IOException gets thrown if another thread shuts down this connection
+    @Override
+    public void onConnected(@NotNull Connection connection) {
+        this.connection = connection;
+        this.messageBatcher = new MessageBatcher(eventLoop, connection, messageCodec);
+        this.remoteAddress = connection.getRemoteAddress();
+        logger.fine("Received connection from %s", remoteAddress);
+    }
 
-                logger.warning("An IO error occurred while connected to %s", socket.getRemoteSocketAddress());
-                ex.printStackTrace();
-            }   catch(AEADBadTagException ex) {
-                logger.warning("Failed to initialise encryption with %s", socket.getRemoteSocketAddress());
-                logger.warning("Please make sure that your encryption key is valid!");
-                ex.printStackTrace();
-            }   catch(Exception ex) {
-                logger.warning("An error occurred while connected to %s", socket.getRemoteSocketAddress());
-                ex.printStackTrace();
-            }   finally     {
-                disconnect();
+    @Override
+    public void onFrame(@NotNull Connection connection, @NotNull Lane lane, @NotNull ByteBuffer frame) throws GeneralSecurityException, IOException, ClassNotFoundException {
+        Object next = messageCodec.decode(frame, lane);
+        if(next instanceof MessageBatch) {
+            for(Object message : ((MessageBatch) next).getMessages()) {
+                if(!connection.isOpen()) {break;} // Ignore anything after a disconnection notice
+                handleMessage(message);
+            }
+        }   else    {
+            handleMessage(next);
+        }
+    }
+
+    private void handleMessage(Object next) throws IOException, GeneralSecurityException {
+        if(!hasHandshakeFinished) {
+            if(!performHandshake((Handshake) next)) {
+                connection.close();
+            }
+            return;
+        }
+
+        if (next instanceof DisconnectNotice) {
+            logger.fine("Received disconnection notice, shutting down!");
+            connection.close();
+        } else if (next instanceof Response) {
+            processResponse((Response) next);
+        } else if (next instanceof Request) {
+            processRequest((Request) next);
+        }
+    }
+
+    @Override
+    public void onDisconnected(@NotNull Connection connection, @Nullable Throwable cause) {
+        if(cause instanceof AEADBadTagException) {
+            logger.warning("Failed to initialise encryption with %s", remoteAddress);
+            logger.warning("Please make sure that your encryption key is valid!");
+            cause.printStackTrace();
+        }   else if(cause instanceof IOException) {
+            // An IOException gets thrown if another thread shuts down this connection
+            if(isRunning) {
+                logger.warning("An IO error occurred while connected to %s", remoteAddress);
+                cause.printStackTrace();
             }
-        }).start();
+        }   else if(cause != null) {
+            logger.warning("An error occurred while connected to %s", remoteAddress);
+            cause.printStackTrace();
+        }
+
+        disconnect();
     }
 
     /**
      * Reads a {@link Handshake} to get info about the server that is connecting, then sends a {@link HandshakeResponse} to tell the connecting server if the connection was successful.
+     * If successful, the connection switches to the session keys after the response.
      * @return If the handshake was successful
      */
-    private boolean performHandshake() throws IOException, ClassNotFoundException, GeneralSecurityException {
-        logger.fine("Reading handshake . . .");
-        Handshake handshake = (Handshake) objectStream.readObject();
+    private boolean performHandshake(Handshake handshake) throws IOException, GeneralSecurityException {
         logger.fine("Handshake plugin version: %s. Handshake game version: %s", handshake.getPluginVersion(), handshake.getGameVersion());
 
         // The plugin version needs to be the same, since the protocol may have changed
@@ -89,7 +145,7 @@ public class ClientHandler implements IClientHandler {
             result = HandshakeResponse.Result.PLUGIN_VERSION_MISMATCH;
         }
 
-        InetSocketAddress statedServerAddress = new InetSocketAddress(socket.getInetAddress(), handshake.getServerPort());
+        InetSocketAddress statedServerAddress = new InetSocketAddress(((InetSocketAddress) remoteAddress).getAddress(), handshake.getServerPort());
 
         // Find the bungeecord server that the connector is
         ServerInfo serverInfo = findServer(statedServerAddress);
@@ -100,14 +156,32 @@ public class ClientHandler implements IClientHandler {
 
         HandshakeResponse response = new HandshakeResponse();
         response.setStatus(result);
+        SessionKeys sessionKeys = null;
+        if(result == HandshakeResponse.Result.SUCCESS) {
+            response.setServerName(serverInfo.getName());
+            response.setSessionNonce(cipherManager.createSessionNonce());
+            response.setCompressionThreshold(ICompressor.negotiateThreshold(config.getCompressionThreshold(), handshake.getCompressionThreshold()));
+            sessionKeys = cipherManager.deriveSessionKeys(handshake.getSessionNonce(), response.getSessionNonce());
+        }
         send(response);
 
         if(result == HandshakeResponse.Result.SUCCESS) {
+            // The response itself is still encrypted with the config key
+            messageCodec.startDecryptSession(sessionKeys.getClientKey());
+            messageBatcher.startEncryptSession(sessionKeys.getServerKey());
+            messageCodec.setCompressionThreshold(response.getCompressionThreshold());
+
             logger.fine("Successfully registered with server %s", serverInfo);
             logger.fine("Plugin version: %s. Game version: %s.", handshake.getPluginVersion(), handshake.getGameVersion());
             portalServer.registerServer(this, serverInfo);
             this.serverInfo = serverInfo;
             this.gameVersion = handshake.getGameVersion();
+            if(handshake.getDirectPort() >= 0) {
+                // Other servers reach this one on the same host that it connected to us from
+                this.directAddress = InetSocketAddress.createUnresolved(statedServerAddress.getHostString(), handshake.getDirectPort());
+                logger.fine("Server accepts direct connections on %s", directAddress);
+            }
+            hasHandshakeFinished = true;
             return true;
         }   else    {
             return false;
@@ -131,26 +205,6 @@ public class ClientHandler implements IClientHandler {
         return null;
     }
 
-    private void run() throws IOException, ClassNotFoundException, GeneralSecurityException    {
-        objectStream = encryptedObjectStreamFactory.create(socket.getInputStream(), socket.getOutputStream());
-
-        if(!performHandshake()) {
-            return;
-        }
-
-        while(true) {
-            Object next = objectStream.readObject();
-            if (next instanceof DisconnectNotice) {
-                logger.fine("Received disconnection notice, shutting down!");
-                return;
-            } else if (next instanceof Response) {
-                processResponse((Response) next);
-            } else if (next instanceof Request) {
-                processRequest((Request) next);
-            }
-        }
-    }
-
     /**
      * Sends <code>request</code> to the request handler and then sends the response with the correct ID.
      * @param request The request to process
@@ -162,7 +216,7 @@ public class ClientHandler implements IClientHandler {
             response.setId(requestId); // Assign the correct request ID so that the client knows which request this response is for
             try {
                 send(response);
-            } catch (IOException | GeneralSecurityException ex) {
+            } catch (IOException ex) {
                 logger.warning("IO Error occurred while sending a response to a request");
                 ex.printStackTrace();
                 disconnect();
@@ -189,14 +243,14 @@ public class ClientHandler implements IClientHandler {
 
         try {
             send(new DisconnectNotice());
-        }   catch(IOException | GeneralSecurityException ex)   {
-            logger.warning("Error occurred while sending disconnection notice to %s", socket.getRemoteSocketAddress());
+        }   catch(IOException ex)   {
+            logger.warning("Error occurred while sending disconnection notice to %s", remoteAddress);
         }
         disconnect();
     }
 
     /**
-     * Closes the socket and unregisters this handler in this {@link IPortalServer}
+     * Closes the connection once any queued messages are written, and unregisters this handler in this {@link IPortalServer}
      * Any waiting requests will receive a response with an error.
      */
     private void disconnect() {
@@ -204,11 +258,9 @@ public class ClientHandler implements IClientHandler {
         isRunning = false;
 
         portalServer.onServerDisconnect(this);
-        try {
-            socket.close();
-        }   catch (IOException ex) {
-            logger.warning("Error occurred while disconnecting from %s", socket.getRemoteSocketAddress());
-            ex.printStackTrace();
+        if(connection != null) {
+            messageBatcher.flush(); // Make sure that the disconnection notice is written before closing
+            connection.close();
         }
 
         // Send an error to all waiting requests
@@ -219,8 +271,9 @@ public class ClientHandler implements IClientHandler {
         }
     }
 
-    private synchronized void send(Object obj) throws IOException, GeneralSecurityException {
-        objectStream.writeObject(obj);
+    // Messages sent while handling the same frames are batched together
+    private void send(Object obj) throws IOException {
+        messageBatcher.addAndFlushSoon(obj);
     }
 
     private void verifyCanSendRequests() {
@@ -239,7 +292,7 @@ public class ClientHandler implements IClientHandler {
 
         try {
             send(request);
-        }   catch(IOException | GeneralSecurityException ex)     {
+        }   catch(IOException ex)     {
             logger.warning("Client server connection disconnected while sending the request");
 
             disconnect();
@@ -2,16 +2,18 @@ package com.lauriethefish.betterportals.bungee.net;
 
 import com.lauriethefish.betterportals.shared.net.Response;
 import com.lauriethefish.betterportals.shared.net.requests.Request;
+import com.lauriethefish.betterportals.shared.net.transport.IConnectionHandler;
 import net.md_5.bungee.api.config.ServerInfo;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.net.InetSocketAddress;
 import java.util.function.Consumer;
 
 /**
  * Represents each sub-server connected to the proxy that is registered with the plugin
  */
-public interface IClientHandler {
+public interface IClientHandler extends IConnectionHandler {
     /**
      * @return The game version of the connected server, or null if the server hasn't completed the handshake.
      */
@@ -22,6 +24,11 @@ public interface IClientHandler {
      */
     @Nullable ServerInfo getServerInfo();
 
+    /**
+     * @return The unresolved address that other servers can connect to this server directly on, or null if it doesn't accept direct connections
+     */
+    @Nullable InetSocketAddress getDirectAddress();
+
     /**
      * Safely shuts down the connection to the server by sending a disconnection notice. Called on portal server shutdown.
      * Does nothing if already disconnected
@@ -5,14 +5,13 @@ import com.google.inject.Singleton;
 import com.lauriethefish.betterportals.bungee.Config;
 import com.lauriethefish.betterportals.shared.logging.Logger;
 import com.lauriethefish.betterportals.shared.net.encryption.CipherManager;
+import com.lauriethefish.betterportals.shared.net.transport.NetworkEventLoop;
 import net.md_5.bungee.api.config.ServerInfo;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.Closeable;
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -22,18 +21,20 @@ public class PortalServer implements IPortalServer {
     private final Logger logger;
     private final Config config;
     private final ServerHandlerFactory serverHandlerFactory;
+    private final NetworkEventLoop eventLoop;
 
-    private final Set<IClientHandler> connectedServers = new HashSet<>();
+    private final Set<IClientHandler> connectedServers = ConcurrentHashMap.newKeySet();
     private final Map<String, IClientHandler> registeredServers = new ConcurrentHashMap<>();
 
-    private ServerSocket serverSocket;
+    private Closeable serverSocket;
     private volatile boolean isRunning = false;
 
     @Inject
-    public PortalServer(Logger logger, CipherManager cipherManager, Config config, ServerHandlerFactory serverHandlerFactory) throws Exception    {
+    public PortalServer(Logger logger, CipherManager cipherManager, Config config, ServerHandlerFactory serverHandlerFactory, NetworkEventLoop eventLoop) throws Exception    {
         this.logger = logger;
         this.config = config;
         this.serverHandlerFactory = serverHandlerFactory;
+        this.eventLoop = eventLoop;
         cipherManager.init(config.getKey());
     }
 
@@ -45,37 +46,18 @@ public class PortalServer implements IPortalServer {
         isRunning = true;
 
         logger.info("Starting up portal server");
-        new Thread(() -> {
-            logger.fine("Hello from server thread");
-            try {
-                runServer();
-            }   catch(IOException ex)   {
-                logger.fine("Caught IO Error on server thread");
-                // An IOException is thrown if another thread shuts down the connection, e.g. on plugin unload
-                if(!isRunning) {return;}
-
-                logger.warning("An IO error occurred while running the portal server");
-                ex.printStackTrace();
-            }   catch(Exception ex) {
-                logger.warning("An error occurred while running the portal server");
-                ex.printStackTrace();
-            }   finally     {
-                shutDown();
-            }
-        }).start();
-    }
-
-    private void runServer() throws IOException {
-        serverSocket = new ServerSocket();
-        serverSocket.bind(config.getBindAddress());
-
-        while(isRunning) {
+        try {
+            // All servers are handled on the event loop thread, so no threads are needed per server
+            serverSocket = eventLoop.listen(config.getBindAddress(), () -> {
+                IClientHandler handler = serverHandlerFactory.create();
+                connectedServers.add(handler);
+                return handler;
+            });
             logger.fine("Awaiting new connections");
-            Socket next = serverSocket.accept();
-            logger.fine("Received connection from %s", next.getRemoteSocketAddress());
-
-            IClientHandler handler = serverHandlerFactory.create(next);
-            connectedServers.add(handler);
+        }   catch(IOException ex) {
+            logger.warning("An IO error occurred while starting the portal server");
+            ex.printStackTrace();
+            shutDown();
         }
     }
 
@@ -86,15 +68,19 @@ public class PortalServer implements IPortalServer {
         logger.info("Shutting down portal server");
         isRunning = false;
         try {
-            // The socket close error will be caught since we set hasShutDown to true.
-            serverSocket.close();
-            for(IClientHandler serverHandler : registeredServers.values()) {
-                serverHandler.shutDown();
+            if(serverSocket != null) {
+                serverSocket.close();
             }
         }   catch(IOException ex) {
             logger.warning("An IO error occurred while shutting down the portal server");
             ex.printStackTrace();
         }
+
+        for(IClientHandler serverHandler : registeredServers.values()) {
+            serverHandler.shutDown();
+        }
+        // Waits for the disconnection notices to be written
+        eventLoop.shutDown();
     }
 
     @Override
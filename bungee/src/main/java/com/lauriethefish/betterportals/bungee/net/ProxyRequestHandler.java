@@ -7,6 +7,7 @@ import com.lauriethefish.betterportals.shared.net.IRequestHandler;
 import com.lauriethefish.betterportals.shared.net.RequestException;
 import com.lauriethefish.betterportals.shared.net.Response;
 import com.lauriethefish.betterportals.shared.net.ServerNotFoundException;
+import com.lauriethefish.betterportals.shared.net.requests.GetDirectAddressRequest;
 import com.lauriethefish.betterportals.shared.net.requests.RelayRequest;
 import com.lauriethefish.betterportals.shared.net.requests.Request;
 import com.lauriethefish.betterportals.shared.net.requests.TeleportRequest;
@@ -14,6 +15,7 @@ import net.md_5.bungee.api.ProxyServer;
 import net.md_5.bungee.api.connection.ProxiedPlayer;
 import org.jetbrains.annotations.NotNull;
 
+import java.net.InetSocketAddress;
 import java.util.function.Consumer;
 
 @Singleton
@@ -36,6 +38,8 @@ public class ProxyRequestHandler implements IRequestHandler {
                 handleRelayRequest((RelayRequest) request, onFinish);
             }   else if(request instanceof TeleportRequest) {
                 handleTeleportRequest((TeleportRequest) request, onFinish);
+            }   else if(request instanceof GetDirectAddressRequest) {
+                handleGetDirectAddressRequest((GetDirectAddressRequest) request, onFinish);
             }   else    {
                 throw new IllegalStateException("Unknown request type " + request.getClass().getName());
             }
@@ -69,6 +73,18 @@ public class ProxyRequestHandler implements IRequestHandler {
         clientHandler.sendRequest(request, onFinish);
     }
 
+    private void handleGetDirectAddressRequest(GetDirectAddressRequest request, Consumer<Response> onFinish) throws RequestException {
+        IClientHandler clientHandler = checkExists(request.getServerName());
+        InetSocketAddress directAddress = clientHandler.getDirectAddress();
+        if(directAddress == null) {
+            throw new RequestException(String.format("Server %s does not accept direct connections", request.getServerName()));
+        }
+
+        Response response = new Response();
+        response.setResult(directAddress);
+        onFinish.accept(response);
+    }
+
     private void handleTeleportRequest(TeleportRequest request, Consumer<Response> onFinish) throws RequestException {
         IClientHandler clientHandler = checkExists(request.getDestServer());
 
@@ -17,4 +17,20 @@ public class Handshake implements Serializable {
     private String pluginVersion;
     private String gameVersion;
     private int serverPort;
+
+    /**
+     * Port that this server accepts direct connections from other servers on, or -1 if direct connections are disabled.
+     * The proxy gives this to other servers so that they can send high volume requests without relaying them.
+     */
+    private int directPort = -1;
+
+    /**
+     * Random bytes used to create the keys for this connection, see {@link com.lauriethefish.betterportals.shared.net.encryption.CipherManager#deriveSessionKeys(byte[], byte[])}.
+     */
+    private byte[] sessionNonce;
+
+    /**
+     * Size in bytes that this server wants messages to be compressed above, or -1 if it doesn't want compression.
+     */
+    private int compressionThreshold = -1;
 }
@@ -26,4 +26,21 @@ public class HandshakeResponse implements Serializable {
     }
 
     private Result status;
+
+    /**
+     * Name that the proxy registered the server as, or null if the handshake failed.
+     * Servers include this in requests that other servers need to reply to later, e.g. block change subscriptions.
+     */
+    private String serverName;
+
+    /**
+     * The accepting side's half of the session keys, or null if the handshake failed.
+     * All messages after this one are encrypted with the session keys.
+     */
+    private byte[] sessionNonce;
+
+    /**
+     * Compression threshold that both sides use, see {@link com.lauriethefish.betterportals.shared.net.encoding.ICompressor#negotiateThreshold(int, int)}.
+     */
+    private int compressionThreshold = -1;
 }
@@ -0,0 +1,21 @@
+package com.lauriethefish.betterportals.shared.net;
+
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Several messages sent together in one frame, so that they only need to be encrypted and written once.
+ * Receivers handle each message in order, as if they were sent separately.
+ */
+public class MessageBatch implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    @Getter private final List<Object> messages;
+
+    public MessageBatch(@NotNull List<Object> messages) {
+        this.messages = messages;
+    }
+}
@@ -0,0 +1,59 @@
+package com.lauriethefish.betterportals.shared.net.encoding;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses messages as one continuous deflate stream, flushed after each message.
+ * Since the stream isn't restarted, repeated data from earlier messages (e.g. the block states in snapshots) compresses down to a reference.
+ * The {@link Deflater} and {@link Inflater} are created once and reused, which avoids the cost of allocating them for every message.
+ */
+public class DeflateCompressor implements ICompressor {
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+    private final Inflater inflater = new Inflater(true);
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+
+    @Override
+    public void compress(byte[] data, int offset, int length, @NotNull OutputStream out) throws IOException {
+        deflater.setInput(data, offset, length);
+
+        // Sync flushing writes everything for this message, without ending the stream
+        int written;
+        do {
+            written = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+            out.write(buffer, 0, written);
+        }   while(written == buffer.length);
+    }
+
+    @Override
+    public void decompress(byte[] data, int offset, int length, @NotNull OutputStream out, int maxLength) throws IOException {
+        inflater.setInput(data, offset, length);
+
+        int total = 0;
+        try {
+            // All of the input must be used, otherwise the end of this message would be read as the start of the next one
+            while(!inflater.needsInput()) {
+                // Never inflate more than one byte past the maximum, so that going over it is found straight away
+                int read = inflater.inflate(buffer, 0, (int) Math.min(buffer.length, (long) maxLength - total + 1));
+                if(read == 0 && (inflater.finished() || inflater.needsDictionary())) {
+                    throw new IOException("Compressed message was corrupt");
+                }
+
+                total += read;
+                if(total > maxLength) {
+                    throw new IOException(String.format("Compressed message was larger than the maximum of %d bytes", maxLength));
+                }
+                out.write(buffer, 0, read);
+            }
+        }   catch(DataFormatException ex) {
+            throw new IOException("Compressed message was corrupt", ex);
+        }
+    }
+}
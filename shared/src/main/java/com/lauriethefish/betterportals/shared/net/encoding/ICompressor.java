@@ -0,0 +1,39 @@
+package com.lauriethefish.betterportals.shared.net.encoding;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Compresses messages that are larger than the threshold agreed in the handshake.
+ * Implementations may keep state between messages, so each connection needs its own instance, and messages must be decompressed in the order that they were compressed.
+ */
+public interface ICompressor {
+    /**
+     * Compresses <code>length</code> bytes of <code>data</code>.
+     * @param out Stream to write the compressed bytes to
+     */
+    void compress(byte[] data, int offset, int length, @NotNull OutputStream out) throws IOException;
+
+    /**
+     * Decompresses <code>length</code> bytes of <code>data</code>, which were written by {@link ICompressor#compress(byte[], int, int, OutputStream)}.
+     * @param out Stream to write the decompressed bytes to
+     * @param maxLength Maximum number of bytes that can be decompressed, to stop small messages filling up our memory
+     * @throws IOException If the data is corrupt, or decompresses to more than <code>maxLength</code> bytes
+     */
+    void decompress(byte[] data, int offset, int length, @NotNull OutputStream out, int maxLength) throws IOException;
+
+    /**
+     * Finds the threshold to use for a connection from the threshold configured on each side.
+     * @param ours Our configured threshold, or -1 if we don't want compression
+     * @param theirs The threshold sent in the other side's handshake
+     * @return The threshold that both sides use, or -1 if either side disabled compression
+     */
+    static int negotiateThreshold(int ours, int theirs) {
+        if(ours < 0 || theirs < 0) {
+            return -1;
+        }
+        return Math.max(ours, theirs);
+    }
+}
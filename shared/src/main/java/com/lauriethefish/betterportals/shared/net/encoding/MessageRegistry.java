@@ -0,0 +1,393 @@
+package com.lauriethefish.betterportals.shared.net.encoding;
+
+import com.google.inject.Singleton;
+import com.lauriethefish.betterportals.shared.net.DisconnectNotice;
+import com.lauriethefish.betterportals.shared.net.Handshake;
+import com.lauriethefish.betterportals.shared.net.HandshakeResponse;
+import com.lauriethefish.betterportals.shared.net.MessageBatch;
+import com.lauriethefish.betterportals.shared.net.RequestException;
+import com.lauriethefish.betterportals.shared.net.Response;
+import com.lauriethefish.betterportals.shared.net.requests.GetDirectAddressRequest;
+import com.lauriethefish.betterportals.shared.net.requests.PreviousServerPutRequest;
+import com.lauriethefish.betterportals.shared.net.requests.RelayRequest;
+import com.lauriethefish.betterportals.shared.net.requests.TeleportRequest;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Converts messages sent between servers and the proxy to and from bytes.
+ * Each message type has an ID and a hand-written encoder, which is much smaller and faster than Java serialization since no class descriptors or boxed objects are written.
+ * Types without an encoder are still sent with Java serialization, which is fine for rarely sent values like errors.
+ * <br>Bukkit specific messages are registered by the bukkit plugin, since the proxy doesn't have their classes. The proxy only ever needs to forward these as bytes inside a {@link RelayRequest}.
+ */
+@Singleton
+public class MessageRegistry {
+    /**
+     * Written at the start of each message. This must be incremented whenever the format of any message changes.
+     */
+    public static final int PROTOCOL_VERSION = 9;
+
+    // IDs 0 and 1 are reserved for null and values sent with Java serialization
+    private static final int NULL_ID = 0;
+    private static final int SERIALIZED_ID = 1;
+
+    @FunctionalInterface
+    public interface Writer<T> {
+        void write(@NotNull T value, @NotNull DataOutputStream out) throws IOException;
+    }
+
+    @FunctionalInterface
+    public interface Reader<T> {
+        @NotNull T read(@NotNull DataInputStream in) throws IOException, ClassNotFoundException;
+    }
+
+    private static class Encoder<T> {
+        private final int id;
+        private final Writer<T> writer;
+        private final Reader<T> reader;
+
+        Encoder(int id, Writer<T> writer, Reader<T> reader) {
+            this.id = id;
+            this.writer = writer;
+            this.reader = reader;
+        }
+    }
+
+    private final Map<Class<?>, Encoder<?>> encodersByType = new HashMap<>();
+    private final Map<Integer, Encoder<?>> encodersById = new HashMap<>();
+
+    public MessageRegistry() {
+        register(2, Boolean.class, (value, out) -> out.writeBoolean(value), DataInputStream::readBoolean);
+        register(3, Integer.class, (value, out) -> WireFormat.writeSignedVarInt(out, value), WireFormat::readSignedVarInt);
+        register(4, String.class, (value, out) -> WireFormat.writeString(out, value), WireFormat::readString);
+        register(5, byte[].class, (value, out) -> WireFormat.writeByteArray(out, value), WireFormat::readByteArray);
+        register(6, UUID.class, (value, out) -> WireFormat.writeUUID(out, value), WireFormat::readUUID);
+        register(7, HashMap.class, this::writeMap, this::readMap);
+        register(8, InetSocketAddress.class, MessageRegistry::writeAddress, MessageRegistry::readAddress);
+        register(9, OpaquePayload.class, MessageRegistry::writePayload, in -> new OpaquePayload(WireFormat.readByteArray(in)));
+
+        register(16, Response.class, this::writeResponse, this::readResponse);
+        register(17, Handshake.class, this::writeHandshake, this::readHandshake);
+        register(18, HandshakeResponse.class, this::writeHandshakeResponse, this::readHandshakeResponse);
+        register(19, DisconnectNotice.class, (value, out) -> {}, in -> new DisconnectNotice());
+        register(20, MessageBatch.class, this::writeMessageBatch, this::readMessageBatch);
+
+        register(32, RelayRequest.class, this::writeRelayRequest, this::readRelayRequest);
+        register(33, TeleportRequest.class, this::writeTeleportRequest, this::readTeleportRequest);
+        register(34, PreviousServerPutRequest.class, this::writePreviousServerPutRequest, this::readPreviousServerPutRequest);
+        register(35, GetDirectAddressRequest.class, this::writeGetDirectAddressRequest, this::readGetDirectAddressRequest);
+    }
+
+    /**
+     * Registers an encoder for messages or values of exactly <code>type</code>.
+     * @param id ID written before values of this type. Must be the same on every server
+     * @param type Class of the values
+     * @param writer Writes the content of a value
+     * @param reader Reads back a value written by <code>writer</code>
+     * @throws IllegalArgumentException If the ID or type is already registered
+     */
+    public <T> void register(int id, @NotNull Class<T> type, @NotNull Writer<T> writer, @NotNull Reader<T> reader) {
+        if(encodersById.containsKey(id) || id == NULL_ID || id == SERIALIZED_ID) {
+            throw new IllegalArgumentException("Message ID " + id + " is already registered");
+        }
+        if(encodersByType.containsKey(type)) {
+            throw new IllegalArgumentException("Message type " + type.getName() + " is already registered");
+        }
+
+        Encoder<T> encoder = new Encoder<>(id, writer, reader);
+        encodersById.put(id, encoder);
+        encodersByType.put(type, encoder);
+    }
+
+    /**
+     * Writes the protocol version, then <code>message</code>.
+     * @param out Stream to write to
+     * @param message The message to write
+     */
+    public void writeMessage(@NotNull DataOutputStream out, @NotNull Object message) throws IOException {
+        out.writeByte(PROTOCOL_VERSION);
+        writeValue(out, message);
+    }
+
+    /**
+     * Reads a message written by {@link MessageRegistry#writeMessage(DataOutputStream, Object)}.
+     * @param in Stream to read from
+     * @return The read message
+     * @throws IOException If the message is on a different protocol version or is corrupt
+     * @throws ClassNotFoundException If the message was sent with Java serialization, and its class doesn't exist here
+     */
+    public @Nullable Object readMessage(@NotNull DataInputStream in) throws IOException, ClassNotFoundException {
+        int version = in.readUnsignedByte();
+        if(version != PROTOCOL_VERSION) {
+            throw new IOException(String.format("Received message with protocol version %d, but this server is on version %d. Please make sure that all servers have the same plugin version", version, PROTOCOL_VERSION));
+        }
+
+        return readValue(in);
+    }
+
+    /**
+     * Encodes <code>message</code> into a new array. Used for messages that are relayed through the proxy as bytes.
+     */
+    public byte[] encode(@NotNull Object message) throws IOException {
+        ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+        writeMessage(new DataOutputStream(byteStream), message);
+        return byteStream.toByteArray();
+    }
+
+    public @Nullable Object decode(byte[] data) throws IOException, ClassNotFoundException {
+        return readMessage(new DataInputStream(new ByteArrayInputStream(data)));
+    }
+
+    /**
+     * Writes the ID of <code>value</code>'s type, then its content.
+     * Values of unregistered types are written with Java serialization.
+     * @param out Stream to write to
+     * @param value Value to write, may be null
+     */
+    @SuppressWarnings("unchecked")
+    public void writeValue(@NotNull DataOutputStream out, @Nullable Object value) throws IOException {
+        if(value == null) {
+            WireFormat.writeVarInt(out, NULL_ID);
+            return;
+        }
+
+        Encoder<Object> encoder = (Encoder<Object>) encodersByType.get(value.getClass());
+        if(encoder == null) {
+            WireFormat.writeVarInt(out, SERIALIZED_ID);
+            ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+            new ObjectOutputStream(byteStream).writeObject(value);
+            WireFormat.writeByteArray(out, byteStream.toByteArray());
+            return;
+        }
+
+        WireFormat.writeVarInt(out, encoder.id);
+        encoder.writer.write(value, out);
+    }
+
+    public @Nullable Object readValue(@NotNull DataInputStream in) throws IOException, ClassNotFoundException {
+        int id = WireFormat.readVarInt(in);
+        if(id == NULL_ID) {return null;}
+
+        if(id == SERIALIZED_ID) {
+            byte[] data = WireFormat.readByteArray(in);
+            return new ObjectInputStream(new ByteArrayInputStream(data)).readObject();
+        }
+
+        Encoder<?> encoder = encodersById.get(id);
+        if(encoder == null) {
+            throw new IOException("Received message with unknown ID " + id);
+        }
+        return encoder.reader.read(in);
+    }
+
+    private void writeMap(HashMap<?, ?> map, DataOutputStream out) throws IOException {
+        WireFormat.writeVarInt(out, map.size());
+        for(Map.Entry<?, ?> entry : map.entrySet()) {
+            writeValue(out, entry.getKey());
+            writeValue(out, entry.getValue());
+        }
+    }
+
+    private HashMap<?, ?> readMap(DataInputStream in) throws IOException, ClassNotFoundException {
+        int size = WireFormat.readVarInt(in);
+        WireFormat.checkLength(in, size);
+
+        HashMap<Object, Object> result = new HashMap<>(size * 4 / 3 + 1);
+        for(int i = 0; i < size; i++) {
+            result.put(readValue(in), readValue(in));
+        }
+        return result;
+    }
+
+    // Addresses are read back unresolved, so that no DNS lookups are done while decoding
+    private static void writeAddress(InetSocketAddress address, DataOutputStream out) throws IOException {
+        WireFormat.writeString(out, address.getHostString());
+        WireFormat.writeVarInt(out, address.getPort());
+    }
+
+    private static InetSocketAddress readAddress(DataInputStream in) throws IOException {
+        String host = WireFormat.readString(in);
+        int port = WireFormat.readVarInt(in);
+        if(host == null || port > 65535) {
+            throw new IOException("Invalid address");
+        }
+        return InetSocketAddress.createUnresolved(host, port);
+    }
+
+    private static void writePayload(OpaquePayload payload, DataOutputStream out) throws IOException {
+        WireFormat.writeVarInt(out, payload.getLength());
+        out.write(payload.getData(), payload.getOffset(), payload.getLength());
+    }
+
+    private void writeMessageBatch(MessageBatch batch, DataOutputStream out) throws IOException {
+        WireFormat.writeVarInt(out, batch.getMessages().size());
+        for(Object message : batch.getMessages()) {
+            writeValue(out, message);
+        }
+    }
+
+    private MessageBatch readMessageBatch(DataInputStream in) throws IOException, ClassNotFoundException {
+        int size = WireFormat.readVarInt(in);
+        WireFormat.checkLength(in, size);
+
+        List<Object> messages = new ArrayList<>(size);
+        for(int i = 0; i < size; i++) {
+            messages.add(readValue(in));
+        }
+        return new MessageBatch(messages);
+    }
+
+    private void writeResponse(Response response, DataOutputStream out) throws IOException {
+        WireFormat.writeVarInt(out, response.getId());
+        writeValue(out, response.getRawResult());
+        writeValue(out, response.getError());
+    }
+
+    private Response readResponse(DataInputStream in) throws IOException, ClassNotFoundException {
+        Response response = new Response();
+        response.setId(WireFormat.readVarInt(in));
+        response.setResult(readValue(in));
+        response.setError((RequestException) readValue(in));
+        return response;
+    }
+
+    private void writeHandshake(Handshake handshake, DataOutputStream out) throws IOException {
+        WireFormat.writeString(out, handshake.getPluginVersion());
+        WireFormat.writeString(out, handshake.getGameVersion());
+        WireFormat.writeVarInt(out, handshake.getServerPort());
+        WireFormat.writeSignedVarInt(out, handshake.getDirectPort());
+        WireFormat.writeSignedVarInt(out, handshake.getCompressionThreshold());
+        out.writeBoolean(handshake.getSessionNonce() != null);
+        if(handshake.getSessionNonce() != null) {
+            WireFormat.writeByteArray(out, handshake.getSessionNonce());
+        }
+    }
+
+    private Handshake readHandshake(DataInputStream in) throws IOException {
+        Handshake handshake = new Handshake();
+        handshake.setPluginVersion(WireFormat.readString(in));
+        handshake.setGameVersion(WireFormat.readString(in));
+        handshake.setServerPort(WireFormat.readVarInt(in));
+        handshake.setDirectPort(WireFormat.readSignedVarInt(in));
+        handshake.setCompressionThreshold(WireFormat.readSignedVarInt(in));
+        if(in.readBoolean()) {
+            handshake.setSessionNonce(WireFormat.readByteArray(in));
+        }
+        return handshake;
+    }
+
+    private void writeHandshakeResponse(HandshakeResponse response, DataOutputStream out) throws IOException {
+        out.writeByte(response.getStatus().ordinal());
+        WireFormat.writeString(out, response.getServerName());
+        WireFormat.writeSignedVarInt(out, response.getCompressionThreshold());
+        out.writeBoolean(response.getSessionNonce() != null);
+        if(response.getSessionNonce() != null) {
+            WireFormat.writeByteArray(out, response.getSessionNonce());
+        }
+    }
+
+    private HandshakeResponse readHandshakeResponse(DataInputStream in) throws IOException {
+        int ordinal = in.readUnsignedByte();
+        HandshakeResponse.Result[] results = HandshakeResponse.Result.values();
+        if(ordinal >= results.length) {
+            throw new IOException("Invalid handshake result " + ordinal);
+        }
+
+        HandshakeResponse response = new HandshakeResponse();
+        response.setStatus(results[ordinal]);
+        response.setServerName(WireFormat.readString(in));
+        response.setCompressionThreshold(WireFormat.readSignedVarInt(in));
+        if(in.readBoolean()) {
+            response.setSessionNonce(WireFormat.readByteArray(in));
+        }
+        return response;
+    }
+
+    private void writeRelayRequest(RelayRequest request, DataOutputStream out) throws IOException {
+        WireFormat.writeVarInt(out, request.getId());
+        WireFormat.writeString(out, request.getDestination());
+        writePayload(request.getInnerRequest(), out);
+    }
+
+    private RelayRequest readRelayRequest(DataInputStream in) throws IOException {
+        RelayRequest request = new RelayRequest();
+        request.setId(WireFormat.readVarInt(in));
+        request.setDestination(WireFormat.readString(in));
+        request.setInnerRequest(new OpaquePayload(WireFormat.readByteArray(in)));
+        return request;
+    }
+
+    private void writeTeleportRequest(TeleportRequest request, DataOutputStream out) throws IOException {
+        WireFormat.writeVarInt(out, request.getId());
+        WireFormat.writeUUID(out, request.getPlayerId());
+        WireFormat.writeString(out, request.getDestServer());
+        WireFormat.writeUUID(out, request.getDestWorldId());
+        WireFormat.writeString(out, request.getDestWorldName());
+
+        out.writeDouble(request.getDestX());
+        out.writeDouble(request.getDestY());
+        out.writeDouble(request.getDestZ());
+        out.writeFloat(request.getDestPitch());
+        out.writeFloat(request.getDestYaw());
+        out.writeBoolean(request.isFlying());
+        out.writeBoolean(request.isGliding());
+        out.writeDouble(request.getDestVelX());
+        out.writeDouble(request.getDestVelY());
+        out.writeDouble(request.getDestVelZ());
+    }
+
+    private TeleportRequest readTeleportRequest(DataInputStream in) throws IOException {
+        TeleportRequest request = new TeleportRequest();
+        request.setId(WireFormat.readVarInt(in));
+        request.setPlayerId(WireFormat.readUUID(in));
+        request.setDestServer(WireFormat.readString(in));
+        request.setDestWorldId(WireFormat.readUUID(in));
+        request.setDestWorldName(WireFormat.readString(in));
+
+        request.setDestX(in.readDouble());
+        request.setDestY(in.readDouble());
+        request.setDestZ(in.readDouble());
+        request.setDestPitch(in.readFloat());
+        request.setDestYaw(in.readFloat());
+        request.setFlying(in.readBoolean());
+        request.setGliding(in.readBoolean());
+        request.setDestVelX(in.readDouble());
+        request.setDestVelY(in.readDouble());
+        request.setDestVelZ(in.readDouble());
+        return request;
+    }
+
+    private void writePreviousServerPutRequest(PreviousServerPutRequest request, DataOutputStream out) throws IOException {
+        WireFormat.writeVarInt(out, request.getId());
+        WireFormat.writeUUID(out, request.getPlayerId());
+        WireFormat.writeString(out, request.getPreviousServer());
+    }
+
+    private PreviousServerPutRequest readPreviousServerPutRequest(DataInputStream in) throws IOException {
+        PreviousServerPutRequest request = new PreviousServerPutRequest();
+        request.setId(WireFormat.readVarInt(in));
+        request.setPlayerId(WireFormat.readUUID(in));
+        request.setPreviousServer(WireFormat.readString(in));
+        return request;
+    }
+
+    private void writeGetDirectAddressRequest(GetDirectAddressRequest request, DataOutputStream out) throws IOException {
+        WireFormat.writeVarInt(out, request.getId());
+        WireFormat.writeString(out, request.getServerName());
+    }
+
+    private GetDirectAddressRequest readGetDirectAddressRequest(DataInputStream in) throws IOException {
+        GetDirectAddressRequest request = new GetDirectAddressRequest();
+        request.setId(WireFormat.readVarInt(in));
+        request.setServerName(WireFormat.readString(in));
+        return request;
+    }
+}
@@ -0,0 +1,107 @@
+package com.lauriethefish.betterportals.shared.net.encoding;
+
+import com.lauriethefish.betterportals.shared.net.transport.Connection;
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.*;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * An encoded message that is forwarded without being decoded, e.g. by the proxy when relaying requests between servers.
+ * This refers to part of an existing array, so that it can be forwarded without copying it.
+ * <br>Large payloads are compressed by the sender, since the proxy forwards them as they are instead of compressing them on each connection.
+ */
+@Getter
+public class OpaquePayload {
+    private static final int UNCOMPRESSED = 0;
+    private static final int COMPRESSED = 1;
+
+    private final byte[] data;
+    private final int offset;
+    private final int length;
+
+    public OpaquePayload(byte[] data, int offset, int length) {
+        this.data = data;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public OpaquePayload(byte[] data) {
+        this(data, 0, data.length);
+    }
+
+    /**
+     * Encodes <code>message</code> into a new payload.
+     * @param registry Registry to encode the message with
+     * @param message The message to encode
+     * @param compressionThreshold Messages at least this many bytes long are compressed, or -1 to never compress
+     * @return The encoded payload
+     */
+    public static @NotNull OpaquePayload encode(@NotNull MessageRegistry registry, @NotNull Object message, int compressionThreshold) throws IOException {
+        byte[] encoded = registry.encode(message);
+
+        ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+        if(compressionThreshold < 0 || encoded.length < compressionThreshold) {
+            byteStream.write(UNCOMPRESSED);
+            byteStream.write(encoded);
+            return new OpaquePayload(byteStream.toByteArray());
+        }
+
+        byteStream.write(COMPRESSED);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try(DeflaterOutputStream out = new DeflaterOutputStream(byteStream, deflater)) {
+            out.write(encoded);
+        }   finally     {
+            deflater.end();
+        }
+        return new OpaquePayload(byteStream.toByteArray());
+    }
+
+    /**
+     * Decodes the message in this payload.
+     * @param registry Registry to decode the message with, which must know the message's type
+     * @return The decoded message
+     * @throws IOException If the payload is corrupt, or inflates to more than {@link Connection#MAX_FRAME_SIZE} bytes
+     */
+    public Object decode(@NotNull MessageRegistry registry) throws IOException, ClassNotFoundException {
+        return decode(registry, Connection.MAX_FRAME_SIZE);
+    }
+
+    /**
+     * Decodes the message in this payload.
+     * @param registry Registry to decode the message with, which must know the message's type
+     * @param maxLength Maximum number of bytes that a compressed payload can inflate to, to stop small payloads filling up our memory
+     * @return The decoded message
+     * @throws IOException If the payload is corrupt, or inflates to more than <code>maxLength</code> bytes
+     */
+    public Object decode(@NotNull MessageRegistry registry, int maxLength) throws IOException, ClassNotFoundException {
+        if(length == 0) {
+            throw new IOException("Received empty payload");
+        }
+
+        InputStream in = new ByteArrayInputStream(data, offset + 1, length - 1);
+        switch(data[offset]) {
+            case UNCOMPRESSED:
+                return registry.readMessage(new DataInputStream(in));
+            case COMPRESSED:
+                // The whole message is inflated first, since the length checks when reading rely on available() returning the remaining bytes
+                ByteArrayOutputStream inflated = new ByteArrayOutputStream(Math.min(length * 2, maxLength));
+                try(InflaterInputStream inflaterStream = new InflaterInputStream(in)) {
+                    byte[] buffer = new byte[4096];
+                    int read;
+                    while((read = inflaterStream.read(buffer)) != -1) {
+                        if(inflated.size() + read > maxLength) {
+                            throw new IOException(String.format("Compressed payload was larger than the maximum of %d bytes", maxLength));
+                        }
+                        inflated.write(buffer, 0, read);
+                    }
+                }
+                return registry.readMessage(new DataInputStream(new ByteArrayInputStream(inflated.toByteArray())));
+            default:
+                throw new IOException("Invalid payload compression type " + data[offset]);
+        }
+    }
+}
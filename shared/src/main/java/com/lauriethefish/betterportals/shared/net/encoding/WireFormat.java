@@ -0,0 +1,115 @@
+package com.lauriethefish.betterportals.shared.net.encoding;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * Helpers for writing the primitive types used by message encoders.
+ * Integers are written as variable length, so that small values like request IDs and block positions only take a byte or two.
+ */
+public class WireFormat {
+    /**
+     * Writes <code>value</code> using 7 bits per byte, with the top bit set if there are more bytes.
+     * Negative values always take 5 bytes, so use {@link WireFormat#writeSignedVarInt(DataOutputStream, int)} for values that are often negative.
+     */
+    public static void writeVarInt(@NotNull DataOutputStream out, int value) throws IOException {
+        while((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    public static int readVarInt(@NotNull DataInputStream in) throws IOException {
+        int result = 0;
+        for(int shift = 0; shift < 35; shift += 7) {
+            int next = in.readUnsignedByte();
+            result |= (next & 0x7F) << shift;
+            if((next & 0x80) == 0) {
+                return result;
+            }
+        }
+
+        throw new IOException("Variable length integer was too long");
+    }
+
+    /**
+     * Zig-zag encodes <code>value</code> first, so that small negative numbers are also short.
+     */
+    public static void writeSignedVarInt(@NotNull DataOutputStream out, int value) throws IOException {
+        writeVarInt(out, (value << 1) ^ (value >> 31));
+    }
+
+    public static int readSignedVarInt(@NotNull DataInputStream in) throws IOException {
+        int encoded = readVarInt(in);
+        return (encoded >>> 1) ^ -(encoded & 1);
+    }
+
+    /**
+     * Writes the UTF-8 bytes of <code>value</code> with a length prefix, or a length of 0 if it's null.
+     * Non-null lengths are offset by 1 to tell them apart from null.
+     */
+    public static void writeString(@NotNull DataOutputStream out, @Nullable String value) throws IOException {
+        if(value == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length + 1);
+        out.write(bytes);
+    }
+
+    public static @Nullable String readString(@NotNull DataInputStream in) throws IOException {
+        int length = readVarInt(in) - 1;
+        if(length == -1) {return null;}
+        checkLength(in, length);
+
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public static void writeUUID(@NotNull DataOutputStream out, @Nullable UUID value) throws IOException {
+        out.writeBoolean(value != null);
+        if(value != null) {
+            out.writeLong(value.getMostSignificantBits());
+            out.writeLong(value.getLeastSignificantBits());
+        }
+    }
+
+    public static @Nullable UUID readUUID(@NotNull DataInputStream in) throws IOException {
+        if(!in.readBoolean()) {return null;}
+
+        return new UUID(in.readLong(), in.readLong());
+    }
+
+    public static void writeByteArray(@NotNull DataOutputStream out, byte[] value) throws IOException {
+        writeVarInt(out, value.length);
+        out.write(value);
+    }
+
+    public static byte[] readByteArray(@NotNull DataInputStream in) throws IOException {
+        int length = readVarInt(in);
+        checkLength(in, length);
+
+        byte[] result = new byte[length];
+        in.readFully(result);
+        return result;
+    }
+
+    /**
+     * Checks a length read from the stream before allocating an array for it, since a corrupt length could otherwise allocate a huge array.
+     */
+    public static void checkLength(@NotNull DataInputStream in, int length) throws IOException {
+        if(length < 0 || length > in.available()) {
+            throw new IOException(String.format("Invalid length %d in message with %d bytes remaining", length, in.available()));
+        }
+    }
+}
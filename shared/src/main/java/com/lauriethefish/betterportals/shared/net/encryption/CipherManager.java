@@ -1,30 +1,35 @@
 package com.lauriethefish.betterportals.shared.net.encryption;
 
 import com.google.inject.Singleton;
+import org.jetbrains.annotations.NotNull;
 
-import javax.crypto.Cipher;
 import javax.crypto.KeyGenerator;
+import javax.crypto.Mac;
 import javax.crypto.SecretKey;
-import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.security.GeneralSecurityException;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.util.UUID;
 
 /**
- * Utility to creating a cipher based on a {@link UUID}. This is convenient for configuration, although it's not great practise.
+ * Utility to creating a key based on a {@link UUID}. This is convenient for configuration, although it's not great practise.
  * This is symmetric encryption.
+ * <br>The key from the config is only used directly for the handshake. Each connection then uses its own {@link SessionKeys}, see {@link CipherManager#deriveSessionKeys(byte[], byte[])}.
  */
 @Singleton
 public class CipherManager {
     private static final int AES_KEY_SIZE = 256; // Bits
-    private static final int GCM_NONCE_LENGTH = 12; // Bytes
-    private static final int GCM_TAG_LENGTH = 16; // Bytes
+    private static final int SESSION_NONCE_LENGTH = 16; // Bytes
 
-    private SecretKey secretKey;
+    private static final byte[] CLIENT_KEY_LABEL = "BetterPortals client key".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SERVER_KEY_LABEL = "BetterPortals server key".getBytes(StandardCharsets.UTF_8);
+
+    private final SecureRandom secureRandom = new SecureRandom();
 
-    private GCMParameterSpec spec;
+    private SecretKey secretKey;
 
     /**
      * Initialises the secret key based on <code>key</code>.
@@ -35,11 +40,6 @@ public class CipherManager {
         SecureRandom random = SecureRandom.getInstance("SHA1PRNG");
         random.setSeed(uuidToBytes(key));
 
-        // Create our IV from random bytes with the correct block size
-        byte[] nonce = new byte[GCM_NONCE_LENGTH];
-        random.nextBytes(nonce);
-        spec = new GCMParameterSpec(GCM_TAG_LENGTH * 8, nonce);
-
         // Generate a new 256 bit AES key from our UUID
         KeyGenerator keyGenerator = KeyGenerator.getInstance("AES");
         keyGenerator.init(AES_KEY_SIZE, random);
@@ -53,17 +53,58 @@ public class CipherManager {
         return buffer.array();
     }
 
-    public Cipher createEncrypt() throws GeneralSecurityException {
-        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
-        cipher.init(Cipher.ENCRYPT_MODE, secretKey, spec);
+    /**
+     * Creates a cipher for the handshake, using the key from the config.
+     * A random nonce is sent with each frame, since there is no session to count messages in yet.
+     */
+    public @NotNull FrameCipher createHandshakeCipher() throws GeneralSecurityException {
+        return new FrameCipher(secretKey, secureRandom, 0);
+    }
 
-        return cipher;
+    /**
+     * Creates a cipher for one stream in one direction of a session. Nonces are counted rather than sent, so each key must only be used by one sender.
+     * @param key One of the keys from {@link SessionKeys}
+     * @param streamId Separates the nonces of streams using the same key. Each stream must have a different ID
+     */
+    public @NotNull FrameCipher createSessionCipher(@NotNull SecretKey key, int streamId) throws GeneralSecurityException {
+        return new FrameCipher(key, null, streamId);
     }
 
-    public Cipher createDecrypt() throws GeneralSecurityException  {
-        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
-        cipher.init(Cipher.DECRYPT_MODE, secretKey, spec);
+    /**
+     * @return Random bytes that each side of a connection sends in the handshake to create the session keys
+     */
+    public byte[] createSessionNonce() {
+        byte[] nonce = new byte[SESSION_NONCE_LENGTH];
+        secureRandom.nextBytes(nonce);
+        return nonce;
+    }
+
+    /**
+     * Derives the keys for a connection from the config key and the nonces sent by each side.
+     * Both sides get the same keys, but nobody without the config key can.
+     * A new session is used for every connection, so frames from one connection can't be replayed on another.
+     * @param clientNonce Nonce sent in the {@link com.lauriethefish.betterportals.shared.net.Handshake}
+     * @param serverNonce Nonce sent in the {@link com.lauriethefish.betterportals.shared.net.HandshakeResponse}
+     * @return The key for each direction
+     * @throws GeneralSecurityException If either nonce is invalid
+     */
+    public @NotNull SessionKeys deriveSessionKeys(byte[] clientNonce, byte[] serverNonce) throws GeneralSecurityException {
+        if(clientNonce == null || serverNonce == null || clientNonce.length != SESSION_NONCE_LENGTH || serverNonce.length != SESSION_NONCE_LENGTH) {
+            throw new GeneralSecurityException("Invalid session nonce");
+        }
+
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(secretKey);
+        return new SessionKeys(
+                deriveKey(mac, CLIENT_KEY_LABEL, clientNonce, serverNonce),
+                deriveKey(mac, SERVER_KEY_LABEL, clientNonce, serverNonce)
+        );
+    }
 
-        return cipher;
+    private SecretKey deriveKey(Mac mac, byte[] label, byte[] clientNonce, byte[] serverNonce) {
+        mac.update(label);
+        mac.update(clientNonce);
+        mac.update(serverNonce);
+        return new SecretKeySpec(mac.doFinal(), "AES");
     }
 }
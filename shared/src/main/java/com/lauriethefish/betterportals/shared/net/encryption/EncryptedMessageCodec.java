@@ -0,0 +1,221 @@
+package com.lauriethefish.betterportals.shared.net.encryption;
+
+import com.google.inject.Inject;
+import com.lauriethefish.betterportals.shared.net.Response;
+import com.lauriethefish.betterportals.shared.net.encoding.DeflateCompressor;
+import com.lauriethefish.betterportals.shared.net.encoding.ICompressor;
+import com.lauriethefish.betterportals.shared.net.encoding.MessageRegistry;
+import com.lauriethefish.betterportals.shared.net.encoding.OpaquePayload;
+import com.lauriethefish.betterportals.shared.net.encoding.WireFormat;
+import com.lauriethefish.betterportals.shared.net.requests.RelayRequest;
+import com.lauriethefish.betterportals.shared.net.transport.Connection;
+import com.lauriethefish.betterportals.shared.net.transport.Lane;
+import org.jetbrains.annotations.NotNull;
+
+import javax.crypto.SecretKey;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+
+/**
+ * Each frame starts with a byte saying whether the message is compressed, followed by the message.
+ * Messages below the compression threshold are sent as they are, since compressing them would only add overhead.
+ * <br>Relayed requests and responses have their own frame types: a small header with the request ID (and destination for requests), followed by the {@link OpaquePayload}.
+ * The payload is never compressed or decoded here, so the proxy can forward it with a single pass of encryption.
+ * <br>Each {@link Lane} has its own ciphers and compression stream, since frames in different lanes may arrive in a different order to how they were encoded.
+ */
+public class EncryptedMessageCodec implements IMessageCodec    {
+    private static final int UNCOMPRESSED = 0;
+    private static final int COMPRESSED = 1;
+    private static final int RELAY_REQUEST = 2;
+    private static final int RELAYED_RESPONSE = 3;
+
+    /**
+     * Allows encrypting the written message directly from the buffer, without copying it first.
+     */
+    private static class MessageBuffer extends ByteArrayOutputStream {
+        byte[] getBuffer() {
+            return buf;
+        }
+    }
+
+    private final CipherManager cipherManager;
+    private final MessageRegistry messageRegistry;
+
+    // Reused between messages, since it'd otherwise be reallocated for every message
+    private final MessageBuffer writeBuffer = new MessageBuffer();
+    private final DataOutputStream writeBufferStream = new DataOutputStream(writeBuffer);
+    private final MessageBuffer compressBuffer = new MessageBuffer();
+    private final MessageBuffer decompressBuffer = new MessageBuffer();
+
+    /**
+     * The state that depends on the order of frames within a lane.
+     */
+    private static class LaneState {
+        ICompressor compressor; // Created once needed, since not every connection uses compression
+
+        // Both start with the key from the config, then are replaced once the handshake creates a session
+        FrameCipher encryptCipher;
+        FrameCipher decryptCipher;
+    }
+
+    private final LaneState[] lanes = new LaneState[Lane.values().length];
+    private int compressionThreshold = -1;
+
+    @Inject
+    public EncryptedMessageCodec(CipherManager cipherManager, MessageRegistry messageRegistry) {
+        this.cipherManager = cipherManager;
+        this.messageRegistry = messageRegistry;
+        for(int i = 0; i < lanes.length; i++) {
+            lanes[i] = new LaneState();
+        }
+    }
+
+    private static ICompressor getCompressor(LaneState state) {
+        if(state.compressor == null) {
+            state.compressor = new DeflateCompressor();
+        }
+        return state.compressor;
+    }
+
+    @Override
+    public Object decode(@NotNull ByteBuffer frame, @NotNull Lane lane) throws GeneralSecurityException, IOException, ClassNotFoundException {
+        LaneState state = lanes[lane.getId()];
+        if(state.decryptCipher == null) {
+            state.decryptCipher = cipherManager.createHandshakeCipher();
+        }
+
+        byte[] data = state.decryptCipher.decrypt(frame);
+        if(data.length == 0) {
+            throw new IOException("Received empty frame");
+        }
+
+        InputStream in;
+        switch(data[0]) {
+            case UNCOMPRESSED:
+                in = new ByteArrayInputStream(data, 1, data.length - 1);
+                break;
+            case COMPRESSED:
+                decompressBuffer.reset();
+                getCompressor(state).decompress(data, 1, data.length - 1, decompressBuffer, Connection.MAX_FRAME_SIZE);
+                in = new ByteArrayInputStream(decompressBuffer.getBuffer(), 0, decompressBuffer.size());
+                break;
+            case RELAY_REQUEST:
+                return decodeRelayRequest(data);
+            case RELAYED_RESPONSE:
+                return decodeRelayedResponse(data);
+            default:
+                throw new IOException("Invalid frame type " + data[0]);
+        }
+
+        return messageRegistry.readMessage(new DataInputStream(in));
+    }
+
+    @Override
+    public @NotNull ByteBuffer encode(@NotNull Object obj, @NotNull Lane lane) throws GeneralSecurityException, IOException {
+        LaneState state = lanes[lane.getId()];
+        if(state.encryptCipher == null) {
+            state.encryptCipher = cipherManager.createHandshakeCipher();
+        }
+        FrameCipher encryptCipher = state.encryptCipher;
+
+        if(obj instanceof RelayRequest) {
+            return encodeRelayRequest((RelayRequest) obj, encryptCipher);
+        }   else if(isRelayedResponse(obj)) {
+            return encodeRelayedResponse((Response) obj, encryptCipher);
+        }
+
+        writeBuffer.reset();
+        writeBufferStream.writeByte(UNCOMPRESSED);
+        messageRegistry.writeMessage(writeBufferStream, obj);
+
+        int length = writeBuffer.size() - 1;
+        if(compressionThreshold < 0 || length < compressionThreshold) {
+            return encryptCipher.encrypt(writeBuffer.getBuffer(), 0, writeBuffer.size());
+        }
+
+        compressBuffer.reset();
+        compressBuffer.write(COMPRESSED);
+        getCompressor(state).compress(writeBuffer.getBuffer(), 1, length, compressBuffer);
+        return encryptCipher.encrypt(compressBuffer.getBuffer(), 0, compressBuffer.size());
+    }
+
+    private static boolean isRelayedResponse(Object obj) {
+        return obj instanceof Response && ((Response) obj).getError() == null && ((Response) obj).getRawResult() instanceof OpaquePayload;
+    }
+
+    @Override
+    public boolean requiresOwnFrame(@NotNull Object obj) {
+        return obj instanceof RelayRequest || isRelayedResponse(obj);
+    }
+
+    @Override
+    public @NotNull Lane getLane(@NotNull Object obj) {
+        // Relayed payloads include block data, which can be megabytes
+        return requiresOwnFrame(obj) ? Lane.BULK : Lane.CONTROL;
+    }
+
+    private ByteBuffer encodeRelayRequest(RelayRequest request, FrameCipher encryptCipher) throws GeneralSecurityException, IOException {
+        writeBuffer.reset();
+        writeBufferStream.writeByte(RELAY_REQUEST);
+        WireFormat.writeVarInt(writeBufferStream, request.getId());
+        WireFormat.writeString(writeBufferStream, request.getDestination());
+        return encryptWithPayload(request.getInnerRequest(), encryptCipher);
+    }
+
+    private ByteBuffer encodeRelayedResponse(Response response, FrameCipher encryptCipher) throws GeneralSecurityException, IOException {
+        writeBuffer.reset();
+        writeBufferStream.writeByte(RELAYED_RESPONSE);
+        WireFormat.writeVarInt(writeBufferStream, response.getId());
+        return encryptWithPayload((OpaquePayload) response.getRawResult(), encryptCipher);
+    }
+
+    private ByteBuffer encryptWithPayload(OpaquePayload payload, FrameCipher encryptCipher) throws GeneralSecurityException {
+        return encryptCipher.encrypt(writeBuffer.getBuffer(), 0, writeBuffer.size(), payload.getData(), payload.getOffset(), payload.getLength());
+    }
+
+    private RelayRequest decodeRelayRequest(byte[] data) throws IOException {
+        ByteArrayInputStream byteStream = new ByteArrayInputStream(data, 1, data.length - 1);
+        DataInputStream in = new DataInputStream(byteStream);
+
+        RelayRequest request = new RelayRequest();
+        request.setId(WireFormat.readVarInt(in));
+        request.setDestination(WireFormat.readString(in));
+        request.setInnerRequest(remainingPayload(data, byteStream));
+        return request;
+    }
+
+    private Response decodeRelayedResponse(byte[] data) throws IOException {
+        ByteArrayInputStream byteStream = new ByteArrayInputStream(data, 1, data.length - 1);
+
+        Response response = new Response();
+        response.setId(WireFormat.readVarInt(new DataInputStream(byteStream)));
+        response.setResult(remainingPayload(data, byteStream));
+        return response;
+    }
+
+    // The payload refers to the decrypted array instead of being copied out of it
+    private static OpaquePayload remainingPayload(byte[] data, ByteArrayInputStream byteStream) {
+        int remaining = byteStream.available();
+        return new OpaquePayload(data, data.length - remaining, remaining);
+    }
+
+    @Override
+    public void setCompressionThreshold(int threshold) {
+        this.compressionThreshold = threshold;
+    }
+
+    @Override
+    public void startEncryptSession(@NotNull SecretKey key) throws GeneralSecurityException {
+        for(Lane lane : Lane.values()) {
+            lanes[lane.getId()].encryptCipher = cipherManager.createSessionCipher(key, lane.getId());
+        }
+    }
+
+    @Override
+    public void startDecryptSession(@NotNull SecretKey key) throws GeneralSecurityException {
+        for(Lane lane : Lane.values()) {
+            lanes[lane.getId()].decryptCipher = cipherManager.createSessionCipher(key, lane.getId());
+        }
+    }
+}
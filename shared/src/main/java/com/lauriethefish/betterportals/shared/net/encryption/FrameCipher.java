@@ -0,0 +1,111 @@
+package com.lauriethefish.betterportals.shared.net.encryption;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+
+/**
+ * Encrypts or decrypts frames with AES-GCM, using a new nonce for every frame.
+ * Counted nonces start with a stream ID, so that several streams (e.g. the lanes of a connection) can share a key without ever reusing a nonce.
+ * The {@link Cipher} is created once and reused, since creating one for each frame is slow.
+ * <br>This is not thread safe - each connection uses its own instances on the {@link com.lauriethefish.betterportals.shared.net.transport.NetworkEventLoop} thread.
+ */
+public class FrameCipher {
+    private static final int GCM_NONCE_LENGTH = 12; // Bytes
+    private static final int GCM_TAG_LENGTH = 16; // Bytes
+
+    private final Cipher cipher;
+    private final SecretKey key;
+
+    // If this is null, nonces are counted instead of being sent with each frame
+    private final SecureRandom nonceRandom;
+    private final byte[] nonce = new byte[GCM_NONCE_LENGTH];
+    private long counter = 0;
+
+    FrameCipher(@NotNull SecretKey key, @Nullable SecureRandom nonceRandom, int streamId) throws GeneralSecurityException {
+        this.cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        this.key = key;
+        this.nonceRandom = nonceRandom;
+        ByteBuffer.wrap(nonce).putInt(0, streamId);
+    }
+
+    private int getNonceOverhead() {
+        return nonceRandom == null ? 0 : GCM_NONCE_LENGTH;
+    }
+
+    private void nextCountedNonce() throws GeneralSecurityException {
+        if(counter == -1) {
+            throw new GeneralSecurityException("Ran out of nonces");
+        }
+
+        ByteBuffer.wrap(nonce).putLong(GCM_NONCE_LENGTH - 8, counter);
+        counter++;
+    }
+
+    /**
+     * Encrypts <code>length</code> bytes of <code>data</code> into a new frame.
+     * @return The frame, including the nonce if it isn't counted
+     */
+    public @NotNull ByteBuffer encrypt(byte[] data, int offset, int length) throws GeneralSecurityException {
+        return encrypt(data, offset, length, data, offset + length, 0);
+    }
+
+    /**
+     * Encrypts a header followed by a payload into a new frame, without copying them together first.
+     * @return The frame, including the nonce if it isn't counted
+     */
+    public @NotNull ByteBuffer encrypt(byte[] header, int headerOffset, int headerLength, byte[] payload, int payloadOffset, int payloadLength) throws GeneralSecurityException {
+        if(nonceRandom == null) {
+            nextCountedNonce();
+        }   else    {
+            nonceRandom.nextBytes(nonce);
+        }
+        cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(GCM_TAG_LENGTH * 8, nonce));
+
+        int nonceOverhead = getNonceOverhead();
+        byte[] result = new byte[nonceOverhead + headerLength + payloadLength + GCM_TAG_LENGTH];
+        System.arraycopy(nonce, 0, result, 0, nonceOverhead);
+        int written = cipher.update(header, headerOffset, headerLength, result, nonceOverhead);
+        cipher.doFinal(payload, payloadOffset, payloadLength, result, nonceOverhead + written);
+        return ByteBuffer.wrap(result);
+    }
+
+    /**
+     * Decrypts and authenticates <code>frame</code>. Frames must be decrypted in the order that they were encrypted.
+     * @return The decrypted data
+     * @throws javax.crypto.AEADBadTagException If the frame was encrypted with a different key or stream, or is out of order
+     */
+    public byte[] decrypt(@NotNull ByteBuffer frame) throws GeneralSecurityException {
+        byte[] data;
+        int offset;
+        int length = frame.remaining();
+        if(frame.hasArray()) {
+            data = frame.array();
+            offset = frame.arrayOffset() + frame.position();
+        }   else    {
+            data = new byte[length];
+            frame.get(data);
+            offset = 0;
+        }
+
+        int nonceOverhead = getNonceOverhead();
+        if(length < nonceOverhead + GCM_TAG_LENGTH) {
+            throw new GeneralSecurityException("Frame was too short to be encrypted");
+        }
+
+        if(nonceRandom == null) {
+            nextCountedNonce();
+        }   else    {
+            System.arraycopy(data, offset, nonce, 0, nonceOverhead);
+        }
+        cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(GCM_TAG_LENGTH * 8, nonce));
+
+        return cipher.doFinal(data, offset + nonceOverhead, length - nonceOverhead);
+    }
+}
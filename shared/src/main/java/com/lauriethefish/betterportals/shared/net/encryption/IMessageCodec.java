@@ -0,0 +1,92 @@
+package com.lauriethefish.betterportals.shared.net.encryption;
+
+import com.lauriethefish.betterportals.shared.net.transport.Lane;
+import org.jetbrains.annotations.NotNull;
+
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+
+/**
+ * Converts objects to and from the encrypted frames sent over a {@link com.lauriethefish.betterportals.shared.net.transport.Connection}.
+ * Each object is encrypted individually to avoid issues with block size.
+ *
+ * Objects are encoded with {@link com.lauriethefish.betterportals.shared.net.encoding.MessageRegistry}, so only registered types are sent efficiently.
+ * <br>Each connection has its own codec, since the nonces depend on the order of the frames. A codec must only be used on the {@link com.lauriethefish.betterportals.shared.net.transport.NetworkEventLoop} thread.
+ */
+public interface IMessageCodec {
+    /**
+     * Decrypts and decodes the object in <code>frame</code>.
+     * @param frame Content of the frame
+     * @param lane The lane that the frame was received on
+     * @return The decoded object
+     * @throws GeneralSecurityException If an error occurred during decryption
+     * @throws IOException If the frame was corrupt
+     * @throws ClassNotFoundException If the frame contains an object that is not loaded on the JVM.
+     */
+    Object decode(@NotNull ByteBuffer frame, @NotNull Lane lane) throws GeneralSecurityException, IOException, ClassNotFoundException;
+
+    /**
+     * Decrypts and decodes the object in <code>frame</code>, which was received on {@link Lane#CONTROL}.
+     * @see IMessageCodec#decode(ByteBuffer, Lane)
+     */
+    default Object decode(@NotNull ByteBuffer frame) throws GeneralSecurityException, IOException, ClassNotFoundException {
+        return decode(frame, Lane.CONTROL);
+    }
+
+    /**
+     * Encodes and encrypts <code>obj</code> into a new frame. Frames must be sent on <code>lane</code>, in the order that they were encoded.
+     * @param obj The object to write
+     * @param lane The lane that the frame will be sent on
+     * @return The frame content, ready to be sent
+     * @throws GeneralSecurityException Any encryption errors
+     * @throws IOException If encoding the object failed
+     */
+    @NotNull ByteBuffer encode(@NotNull Object obj, @NotNull Lane lane) throws GeneralSecurityException, IOException;
+
+    /**
+     * Encodes and encrypts <code>obj</code> into a new frame, to be sent on {@link Lane#CONTROL}.
+     * @see IMessageCodec#encode(Object, Lane)
+     */
+    default @NotNull ByteBuffer encode(@NotNull Object obj) throws GeneralSecurityException, IOException {
+        return encode(obj, Lane.CONTROL);
+    }
+
+    /**
+     * Starts encrypting frames with a session key instead of the key from the config.
+     * This must be called after encoding the last handshake frame, and before encoding any others.
+     * @param key Key for this side of the session, see {@link SessionKeys}
+     */
+    void startEncryptSession(@NotNull SecretKey key) throws GeneralSecurityException;
+
+    /**
+     * Starts decrypting frames with a session key instead of the key from the config.
+     * This must be called after decoding the last handshake frame, and before decoding any others.
+     * @param key Key for the other side of the session, see {@link SessionKeys}
+     */
+    void startDecryptSession(@NotNull SecretKey key) throws GeneralSecurityException;
+
+    /**
+     * Sets the size that messages are compressed above, agreed in the handshake.
+     * Compressed messages can always be decoded, so this only affects encoding.
+     * @param threshold Minimum size in bytes of compressed messages, or -1 to disable compression
+     */
+    void setCompressionThreshold(int threshold);
+
+    /**
+     * Checks if <code>obj</code> must be encoded in a frame by itself, instead of as part of a {@link com.lauriethefish.betterportals.shared.net.MessageBatch}.
+     * This is used for relayed payloads, which are forwarded by the proxy without decoding them.
+     * @param obj The message to check
+     * @return Whether the message needs its own frame
+     */
+    boolean requiresOwnFrame(@NotNull Object obj);
+
+    /**
+     * Finds the lane that <code>obj</code> should be sent on.
+     * Messages whose order matters to each other must always be given the same lane.
+     * @param obj The message to check
+     * @return The lane for the message
+     */
+    @NotNull Lane getLane(@NotNull Object obj);
+}
@@ -0,0 +1,5 @@
+package com.lauriethefish.betterportals.shared.net.encryption;
+
+public interface MessageCodecFactory {
+    IMessageCodec create();
+}
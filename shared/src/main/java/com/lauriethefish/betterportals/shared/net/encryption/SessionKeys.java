@@ -0,0 +1,28 @@
+package com.lauriethefish.betterportals.shared.net.encryption;
+
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+
+import javax.crypto.SecretKey;
+
+/**
+ * The keys used by a connection after the handshake.
+ * Each direction has its own key, so that both sides can count their nonces from zero.
+ */
+@Getter
+public class SessionKeys {
+    /**
+     * Encrypts messages sent by the connecting side.
+     */
+    private final SecretKey clientKey;
+
+    /**
+     * Encrypts messages sent by the accepting side.
+     */
+    private final SecretKey serverKey;
+
+    public SessionKeys(@NotNull SecretKey clientKey, @NotNull SecretKey serverKey) {
+        this.clientKey = clientKey;
+        this.serverKey = serverKey;
+    }
+}
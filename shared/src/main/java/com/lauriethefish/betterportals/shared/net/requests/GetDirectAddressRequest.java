@@ -0,0 +1,16 @@
+package com.lauriethefish.betterportals.shared.net.requests;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Sent to the proxy to find the address that a server accepts direct connections on.
+ * The result is an unresolved {@link java.net.InetSocketAddress}, or an error if the server doesn't accept direct connections.
+ */
+@Getter
+@Setter
+public class GetDirectAddressRequest extends Request {
+    private static final long serialVersionUID = 1L;
+
+    private String serverName;
+}
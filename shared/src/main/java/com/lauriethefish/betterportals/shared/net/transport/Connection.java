@@ -0,0 +1,392 @@
+package com.lauriethefish.betterportals.shared.net.transport;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A non-blocking connection that sends and receives frames on several {@link Lane}s.
+ * Each frame is split into fragments of at most {@link Connection#FRAGMENT_SIZE} bytes, prefixed by a 4 byte length and a header byte with the lane ID and whether it is the last fragment.
+ * Fragments from higher priority lanes are written first, so a small control frame only waits for the fragments already being written, not for the whole of a large frame.
+ * Reading and writing is done by the {@link NetworkEventLoop} thread, but frames can be sent from any thread.
+ * <br>Sent frames are queued until the socket can take them. If the queue gets too large, the connection stops reading until it drains, since the other side is likely sending requests faster than their responses can be written.
+ * If the queue keeps growing past {@link Connection#MAX_QUEUED_BYTES}, the connection is closed.
+ */
+public class Connection {
+    /**
+     * Used to prevent a bad actor setting the frame size to a very large number and filling up our memory.
+     */
+    public static final int MAX_FRAME_SIZE = 31_457_280;
+
+    /**
+     * Maximum number of frame bytes in one fragment.
+     */
+    public static final int FRAGMENT_SIZE = 16 * 1024;
+    private static final int FRAGMENT_HEADER_SIZE = 5; // Length and lane/final byte
+    private static final int FINAL_FRAGMENT = 0x80;
+    private static final int LANE_MASK = 0x7F;
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_BUFFERS_PER_WRITE = 64;
+    // Fragments are taken from the lanes in small groups, so that frames sent later can still go ahead of lower priority ones
+    private static final int MAX_STAGED_BYTES = 64 * 1024;
+    private static final int INITIAL_REASSEMBLY_SIZE = 4 * FRAGMENT_SIZE;
+
+    // Reading is paused above the high water mark, and resumed below the low water mark
+    private static final long HIGH_WATER_MARK = 8 * 1024 * 1024;
+    private static final long LOW_WATER_MARK = 2 * 1024 * 1024;
+    public static final long MAX_QUEUED_BYTES = 4L * MAX_FRAME_SIZE;
+
+    private final NetworkEventLoop eventLoop;
+    private final SocketChannel channel;
+    private final IConnectionHandler handler;
+    private SelectionKey key;
+
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    private final ByteBuffer[] reassemblyBuffers = new ByteBuffer[Lane.values().length]; // Partially received frame of each lane, or null
+    private boolean readPaused = false;
+
+    private final Queue<ByteBuffer>[] laneQueues; // Frames waiting to be fragmented, indexed by lane ID
+    private final Deque<ByteBuffer> stagedBuffers = new ArrayDeque<>(); // Fragment headers and content being written, only used on the event loop thread
+    private final ByteBuffer[] writeBatch = new ByteBuffer[MAX_BUFFERS_PER_WRITE];
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    private volatile boolean closeRequested = false;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    @SuppressWarnings("unchecked")
+    Connection(@NotNull NetworkEventLoop eventLoop, @NotNull SocketChannel channel, @NotNull IConnectionHandler handler) {
+        this.eventLoop = eventLoop;
+        this.channel = channel;
+        this.handler = handler;
+
+        laneQueues = new Queue[Lane.values().length];
+        for(int i = 0; i < laneQueues.length; i++) {
+            laneQueues[i] = new ConcurrentLinkedQueue<>();
+        }
+    }
+
+    void setKey(@NotNull SelectionKey key) {
+        this.key = key;
+    }
+
+    @NotNull IConnectionHandler getHandler() {
+        return handler;
+    }
+
+    public @Nullable SocketAddress getRemoteAddress() {
+        try {
+            return channel.getRemoteAddress();
+        }   catch(IOException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * @return Whether this connection is open and hasn't been asked to close
+     */
+    public boolean isOpen() {
+        return !closed.get() && !closeRequested;
+    }
+
+    /**
+     * @return The number of bytes waiting to be written to the socket
+     */
+    public long getQueuedBytes() {
+        return queuedBytes.get();
+    }
+
+    /**
+     * Queues <code>frame</code> to be written on {@link Lane#CONTROL}.
+     * @param frame The frame content. This must not be modified after it is sent
+     * @throws IOException If the connection is closed, the frame is too large, or too many bytes are already queued
+     * @see Connection#send(ByteBuffer, Lane)
+     */
+    public void send(@NotNull ByteBuffer frame) throws IOException {
+        send(frame, Lane.CONTROL);
+    }
+
+    /**
+     * Queues <code>frame</code> to be written on <code>lane</code>.
+     * This never blocks, and may be called from any thread.
+     * @param frame The frame content. This must not be modified after it is sent
+     * @param lane The lane to send the frame on
+     * @throws IOException If the connection is closed, the frame is too large, or too many bytes are already queued
+     */
+    public void send(@NotNull ByteBuffer frame, @NotNull Lane lane) throws IOException {
+        int length = frame.remaining();
+        if(length > MAX_FRAME_SIZE) {
+            throw new IOException(String.format("Size of frame (%d bytes) was greater than the maximum frame size of %d bytes", length, MAX_FRAME_SIZE));
+        }
+        if(!isOpen()) {
+            throw new IOException("Attempted to send a frame on a closed connection");
+        }
+
+        // Duplicated so that fragmenting it doesn't change the position of the sender's buffer
+        laneQueues[lane.getId()].add(frame.duplicate());
+
+        int fragments = Math.max(1, (length + FRAGMENT_SIZE - 1) / FRAGMENT_SIZE);
+        long queued = queuedBytes.addAndGet(length + (long) fragments * FRAGMENT_HEADER_SIZE);
+        if(queued > MAX_QUEUED_BYTES) {
+            eventLoop.execute(() -> closeNow(new IOException(String.format("Too many bytes (%d) were queued to be written. Is the other side reading?", queued))));
+            throw new IOException("Write queue is full");
+        }
+
+        if(flushScheduled.compareAndSet(false, true)) {
+            eventLoop.execute(this::flush);
+        }
+    }
+
+    /**
+     * Closes this connection once all queued frames have been written.
+     */
+    public void close() {
+        closeRequested = true;
+        eventLoop.execute(() -> {
+            if(!hasQueuedFrames()) {
+                closeNow(null);
+            }   else    {
+                flush();
+            }
+        });
+    }
+
+    /**
+     * Reads any available data, then passes complete frames to the handler.
+     * Frames that fit in one fragment are passed straight from the read buffer, others are reassembled first.
+     * Called on the event loop thread when the socket is readable.
+     */
+    void handleRead() throws Exception {
+        int read = channel.read(readBuffer);
+        if(read == -1) {
+            closeNow(null);
+            return;
+        }
+
+        readBuffer.flip();
+        while(readBuffer.remaining() >= FRAGMENT_HEADER_SIZE && !closed.get()) {
+            int length = readBuffer.getInt(readBuffer.position()) - 1;
+            if(length < 0 || length > FRAGMENT_SIZE) {
+                throw new IOException(String.format("Requested fragment length (%d bytes) was greater than the max fragment size of %d bytes", length, FRAGMENT_SIZE));
+            }
+            if(readBuffer.remaining() < length + FRAGMENT_HEADER_SIZE) {
+                break;
+            }
+
+            int header = readBuffer.get(readBuffer.position() + 4);
+            Lane lane = Lane.fromId(header & LANE_MASK);
+            if(lane == null) {
+                throw new IOException("Received fragment with invalid lane " + (header & LANE_MASK));
+            }
+
+            int fragmentStart = readBuffer.position() + FRAGMENT_HEADER_SIZE;
+            int fragmentEnd = fragmentStart + length;
+            ByteBuffer fragment = readBuffer.duplicate();
+            fragment.position(fragmentStart);
+            fragment.limit(fragmentEnd);
+            readBuffer.position(fragmentEnd);
+
+            handleFragment(lane, fragment.slice(), (header & FINAL_FRAGMENT) != 0);
+        }
+
+        // Every fragment fits in the buffer, so there is always room for the rest of the next one
+        readBuffer.compact();
+    }
+
+    private void handleFragment(Lane lane, ByteBuffer fragment, boolean isFinal) throws Exception {
+        ByteBuffer partial = reassemblyBuffers[lane.getId()];
+        if(partial == null && isFinal) {
+            handler.onFrame(this, lane, fragment);
+            return;
+        }
+
+        if(partial == null) {
+            partial = ByteBuffer.allocate(INITIAL_REASSEMBLY_SIZE);
+        }
+        if(partial.remaining() < fragment.remaining()) {
+            int required = partial.position() + fragment.remaining();
+            if(required > MAX_FRAME_SIZE) {
+                throw new IOException(String.format("Reassembled frame was greater than the max frame size of %d bytes", MAX_FRAME_SIZE));
+            }
+
+            ByteBuffer newBuffer = ByteBuffer.allocate(Math.min(MAX_FRAME_SIZE, Math.max(required, partial.capacity() * 2)));
+            partial.flip();
+            newBuffer.put(partial);
+            partial = newBuffer;
+        }
+        partial.put(fragment);
+
+        if(isFinal) {
+            // Not kept after the frame is handled, so that large frames aren't held onto forever
+            reassemblyBuffers[lane.getId()] = null;
+            partial.flip();
+            handler.onFrame(this, lane, partial);
+        }   else    {
+            reassemblyBuffers[lane.getId()] = partial;
+        }
+    }
+
+    /**
+     * Writes as many queued frames as the socket will take.
+     * Called on the event loop thread.
+     */
+    void flush() {
+        if(closed.get()) {return;}
+        // Queued frames are written once the connection finishes, see NetworkEventLoop#finishConnect
+        if(!channel.isConnected()) {
+            flushScheduled.set(false);
+            return;
+        }
+
+        try {
+            while(true) {
+                if(stagedBuffers.isEmpty()) {
+                    stageFragments();
+                }
+
+                int count = 0;
+                Iterator<ByteBuffer> iterator = stagedBuffers.iterator();
+                while(count < MAX_BUFFERS_PER_WRITE && iterator.hasNext()) {
+                    writeBatch[count] = iterator.next();
+                    count++;
+                }
+                if(count == 0) {break;}
+
+                long written = channel.write(writeBatch, 0, count);
+                queuedBytes.addAndGet(-written);
+
+                // Remove the fully written buffers from the queue
+                boolean writtenAll = true;
+                for(int i = 0; i < count; i++) {
+                    if(writeBatch[i].hasRemaining()) {
+                        writtenAll = false;
+                        break;
+                    }
+                    stagedBuffers.poll();
+                }
+                Arrays.fill(writeBatch, 0, count, null);
+
+                if(!writtenAll) {break;}
+            }
+
+            flushScheduled.set(false);
+            // Another thread may have queued a frame after we finished, but before the flag was cleared
+            if(hasQueuedFrames() && flushScheduled.compareAndSet(false, true)) {
+                eventLoop.execute(this::flush);
+            }
+
+            if(closeRequested && !hasQueuedFrames()) {
+                closeNow(null);
+                return;
+            }
+            updateInterestOps();
+        }   catch(IOException ex) {
+            closeNow(ex);
+        }
+    }
+
+    /**
+     * Splits the next frames into fragments ready to be written, always taking from the highest priority lane with frames waiting.
+     */
+    private void stageFragments() {
+        int stagedBytes = 0;
+        while(stagedBytes < MAX_STAGED_BYTES && stagedBuffers.size() + 2 <= MAX_BUFFERS_PER_WRITE) {
+            Lane lane = null;
+            ByteBuffer frame = null;
+            for(Lane candidate : Lane.values()) {
+                frame = laneQueues[candidate.getId()].peek();
+                if(frame != null) {
+                    lane = candidate;
+                    break;
+                }
+            }
+            if(frame == null) {break;}
+
+            int length = Math.min(frame.remaining(), FRAGMENT_SIZE);
+            boolean isFinal = length == frame.remaining();
+
+            ByteBuffer header = ByteBuffer.allocate(FRAGMENT_HEADER_SIZE);
+            header.putInt(0, length + 1);
+            header.put(4, (byte) (lane.getId() | (isFinal ? FINAL_FRAGMENT : 0)));
+
+            ByteBuffer fragment = frame.duplicate();
+            fragment.limit(fragment.position() + length);
+            frame.position(frame.position() + length);
+
+            stagedBuffers.add(header);
+            stagedBuffers.add(fragment);
+            stagedBytes += length + FRAGMENT_HEADER_SIZE;
+            if(isFinal) {
+                laneQueues[lane.getId()].poll();
+            }
+        }
+    }
+
+    private boolean hasQueuedFrames() {
+        if(!stagedBuffers.isEmpty()) {return true;}
+        for(Queue<ByteBuffer> queue : laneQueues) {
+            if(!queue.isEmpty()) {return true;}
+        }
+        return false;
+    }
+
+    /**
+     * Pauses or resumes reading depending on the size of the write queue, and waits for the socket to be writable if there are frames left.
+     */
+    void updateInterestOps() {
+        if(key == null || !key.isValid()) {return;}
+
+        long queued = queuedBytes.get();
+        if(!readPaused && queued > HIGH_WATER_MARK) {
+            readPaused = true;
+        }   else if(readPaused && queued < LOW_WATER_MARK) {
+            readPaused = false;
+        }
+
+        int ops = readPaused || closeRequested ? 0 : SelectionKey.OP_READ;
+        if(hasQueuedFrames()) {
+            ops |= SelectionKey.OP_WRITE;
+        }
+        key.interestOps(ops);
+    }
+
+    /**
+     * Closes the socket immediately and tells the handler. Does nothing if already closed.
+     * @param cause The error that caused the connection to close, or null if it was closed normally
+     */
+    void closeNow(@Nullable Throwable cause) {
+        if(!closed.compareAndSet(false, true)) {return;}
+
+        if(key != null) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+        }   catch(IOException ex) {
+            // The handler is still told about the original cause
+        }
+
+        for(Queue<ByteBuffer> queue : laneQueues) {
+            queue.clear();
+        }
+        stagedBuffers.clear();
+        Arrays.fill(reassemblyBuffers, null);
+        queuedBytes.set(0);
+        eventLoop.onConnectionClosed(this);
+        handler.onDisconnected(this, cause);
+    }
+}
@@ -0,0 +1,33 @@
+package com.lauriethefish.betterportals.shared.net.transport;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Receives the events of a {@link Connection}.
+ * All of these are called on the {@link NetworkEventLoop} thread, so they must not block.
+ */
+public interface IConnectionHandler {
+    /**
+     * Called once the connection has been accepted or established, before any frames are received.
+     * @param connection The new connection
+     */
+    void onConnected(@NotNull Connection connection) throws Exception;
+
+    /**
+     * Called for each complete frame read from the connection.
+     * @param connection The connection that the frame was read from
+     * @param lane The lane that the frame was sent on
+     * @param frame Content of the frame, after reassembling its fragments. This is only valid until this method returns
+     */
+    void onFrame(@NotNull Connection connection, @NotNull Lane lane, @NotNull ByteBuffer frame) throws Exception;
+
+    /**
+     * Called once when the connection is closed, or if connecting fails.
+     * @param connection The closed connection
+     * @param cause The error that closed the connection, or null if it was closed normally
+     */
+    void onDisconnected(@NotNull Connection connection, @Nullable Throwable cause);
+}
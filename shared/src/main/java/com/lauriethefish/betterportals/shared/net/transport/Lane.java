@@ -0,0 +1,34 @@
+package com.lauriethefish.betterportals.shared.net.transport;
+
+/**
+ * A logical stream of frames within a {@link Connection}.
+ * Frames are split into fragments, and the fragments of higher priority lanes are written first, so a small frame never waits for the whole of a large one.
+ * <br>Frames within a lane always arrive in the order that they were sent, but frames in different lanes may overtake each other.
+ */
+public enum Lane {
+    /**
+     * Small, latency sensitive messages, e.g. teleport requests and handshakes. This has the highest priority.
+     */
+    CONTROL,
+    /**
+     * Large payloads, e.g. relayed block data, which are only written when no control frames are waiting.
+     */
+    BULK;
+
+    private static final Lane[] VALUES = values();
+
+    /**
+     * @param id The ID sent in a fragment header
+     * @return The lane with the ID, or null if there is none
+     */
+    public static Lane fromId(int id) {
+        return id >= 0 && id < VALUES.length ? VALUES[id] : null;
+    }
+
+    /**
+     * @return The ID sent in fragment headers. Lanes with a lower ID have a higher priority
+     */
+    public int getId() {
+        return ordinal();
+    }
+}
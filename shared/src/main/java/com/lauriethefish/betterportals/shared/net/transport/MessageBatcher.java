@@ -0,0 +1,133 @@
+package com.lauriethefish.betterportals.shared.net.transport;
+
+import com.lauriethefish.betterportals.shared.net.MessageBatch;
+import com.lauriethefish.betterportals.shared.net.encryption.IMessageCodec;
+import org.jetbrains.annotations.NotNull;
+
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects outgoing messages for a {@link Connection}, then sends them together in one frame as a {@link MessageBatch}.
+ * Encoding and encryption is done on the {@link NetworkEventLoop} thread, so the thread adding messages never pays for it.
+ * <br>Messages are sent in the order that they were added, although messages on different {@link Lane}s may overtake each other.
+ */
+public class MessageBatcher {
+    /**
+     * Batches are flushed early once they reach this many messages, to avoid very large frames.
+     */
+    public static final int MAX_BATCH_SIZE = 256;
+
+    private final NetworkEventLoop eventLoop;
+    private final Connection connection;
+    private final IMessageCodec messageCodec;
+
+    private List<Object> pending = new ArrayList<>();
+    private boolean flushScheduled = false;
+
+    public MessageBatcher(@NotNull NetworkEventLoop eventLoop, @NotNull Connection connection, @NotNull IMessageCodec messageCodec) {
+        this.eventLoop = eventLoop;
+        this.connection = connection;
+        this.messageCodec = messageCodec;
+    }
+
+    /**
+     * Queues <code>message</code> until the next call to {@link MessageBatcher#flush()}.
+     * @param message The message to send
+     * @throws IOException If the connection is closed
+     */
+    public synchronized void add(@NotNull Object message) throws IOException {
+        if(!connection.isOpen()) {
+            throw new IOException("Attempted to send a message on a closed connection");
+        }
+
+        pending.add(message);
+        if(pending.size() >= MAX_BATCH_SIZE) {
+            flush();
+        }
+    }
+
+    /**
+     * Queues <code>message</code>, and flushes once the event loop has finished its current work.
+     * Used by senders that don't flush regularly, so that messages sent close together still share a frame.
+     * @param message The message to send
+     * @throws IOException If the connection is closed
+     */
+    public synchronized void addAndFlushSoon(@NotNull Object message) throws IOException {
+        add(message);
+        if(!flushScheduled && !pending.isEmpty()) {
+            flushScheduled = true;
+            eventLoop.execute(this::flush);
+        }
+    }
+
+    /**
+     * Sends all queued messages in one frame. Does nothing if there are none.
+     * If encoding fails, the connection is closed with the error.
+     */
+    public synchronized void flush() {
+        flushScheduled = false;
+        if(pending.isEmpty()) {return;}
+
+        // Always written from a task, even on the event loop thread, so that batches can't overtake earlier ones
+        List<Object> batch = pending;
+        pending = new ArrayList<>();
+        eventLoop.execute(() -> write(batch));
+    }
+
+    /**
+     * Flushes any queued messages, then switches the codec to encrypt later messages with <code>key</code>.
+     * The switch is made on the event loop thread between writes, so the other side receives every message encrypted with the key it expects.
+     * @param key This side's session key
+     */
+    public synchronized void startEncryptSession(@NotNull SecretKey key) {
+        flush();
+        eventLoop.execute(() -> {
+            try {
+                messageCodec.startEncryptSession(key);
+            }   catch(GeneralSecurityException ex) {
+                connection.closeNow(ex);
+            }
+        });
+    }
+
+    private void write(List<Object> batch) {
+        try {
+            // Each lane gets its own frames, so that control messages aren't held up by bulk ones in the same batch
+            List<List<Object>> laneGroups = new ArrayList<>();
+            for(int i = 0; i < Lane.values().length; i++) {
+                laneGroups.add(new ArrayList<>());
+            }
+
+            for(Object message : batch) {
+                Lane lane = messageCodec.getLane(message);
+                List<Object> group = laneGroups.get(lane.getId());
+
+                // Messages that need their own frame split the group, so that the order within the lane is kept
+                if(messageCodec.requiresOwnFrame(message)) {
+                    writeGroup(group, lane);
+                    group.clear();
+                    connection.send(messageCodec.encode(message, lane), lane);
+                }   else    {
+                    group.add(message);
+                }
+            }
+
+            for(Lane lane : Lane.values()) {
+                writeGroup(laneGroups.get(lane.getId()), lane);
+            }
+        }   catch(IOException | GeneralSecurityException ex) {
+            connection.closeNow(ex);
+        }
+    }
+
+    private void writeGroup(List<Object> group, Lane lane) throws IOException, GeneralSecurityException {
+        if(group.isEmpty()) {return;}
+
+        Object message = group.size() == 1 ? group.get(0) : new MessageBatch(group);
+        connection.send(messageCodec.encode(message, lane), lane);
+    }
+}
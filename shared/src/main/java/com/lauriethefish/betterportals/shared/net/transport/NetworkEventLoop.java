@@ -0,0 +1,314 @@
+package com.lauriethefish.betterportals.shared.net.transport;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.lauriethefish.betterportals.shared.logging.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.channels.*;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Supplier;
+
+/**
+ * Runs all network connections on a single thread using a {@link Selector}.
+ * This means that the proxy doesn't need a thread for every connected server, and sending never blocks the caller.
+ * <br>The loop is started when the first connection is made, and can be started again after {@link NetworkEventLoop#shutDown()}.
+ */
+@Singleton
+public class NetworkEventLoop {
+    // Time to wait for connections to finish writing their queued frames when shutting down
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = 1000;
+
+    private final Logger logger;
+
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+    private final Set<ServerSocketChannel> serverChannels = ConcurrentHashMap.newKeySet();
+
+    private volatile Selector selector;
+    private Thread thread;
+    private volatile boolean isRunning = false;
+    private volatile boolean isShuttingDown = false;
+
+    @Inject
+    public NetworkEventLoop(Logger logger) {
+        this.logger = logger;
+    }
+
+    private synchronized void ensureStarted() throws IOException {
+        if(isShuttingDown) {
+            throw new IOException("Network event loop is shutting down");
+        }
+        if(isRunning) {return;}
+
+        selector = Selector.open();
+        isRunning = true;
+        isShuttingDown = false;
+        thread = new Thread(this::run, "BetterPortals network thread");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Starts accepting connections on <code>address</code>.
+     * @param address Address to bind to
+     * @param handlerFactory Creates the handler for each accepted connection
+     * @return Closing this stops accepting connections
+     * @throws IOException If binding fails
+     */
+    public @NotNull Closeable listen(@NotNull SocketAddress address, @NotNull Supplier<IConnectionHandler> handlerFactory) throws IOException {
+        ensureStarted();
+
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(address);
+        serverChannel.configureBlocking(false);
+        serverChannels.add(serverChannel);
+
+        execute(() -> {
+            try {
+                serverChannel.register(selector, SelectionKey.OP_ACCEPT, handlerFactory);
+            }   catch(ClosedChannelException ex) {
+                serverChannels.remove(serverChannel);
+            }
+        });
+
+        return () -> {
+            serverChannels.remove(serverChannel);
+            serverChannel.close();
+        };
+    }
+
+    /**
+     * Starts connecting to <code>address</code>.
+     * This doesn't block, {@link IConnectionHandler#onConnected(Connection)} is called once the connection is established.
+     * If connecting fails, {@link IConnectionHandler#onDisconnected(Connection, Throwable)} is called instead.
+     * @param address Address to connect to
+     * @param handler Handler for the connection
+     * @return The new connection. Frames sent before it is established are queued
+     */
+    public @NotNull Connection connect(@NotNull SocketAddress address, @NotNull IConnectionHandler handler) throws IOException {
+        ensureStarted();
+
+        SocketChannel channel = SocketChannel.open();
+        channel.configureBlocking(false);
+        Connection connection = new Connection(this, channel, handler);
+        connections.add(connection);
+
+        execute(() -> {
+            try {
+                SelectionKey key = channel.register(selector, SelectionKey.OP_CONNECT, connection);
+                connection.setKey(key);
+                if(channel.connect(address)) {
+                    finishConnect(connection, channel);
+                }
+            }   catch(Exception ex) {
+                connection.closeNow(ex);
+            }
+        });
+        return connection;
+    }
+
+    /**
+     * Runs <code>task</code> on the event loop thread.
+     * @param task The task to run
+     */
+    public void execute(@NotNull Runnable task) {
+        tasks.add(task);
+        Selector currentSelector = selector;
+        if(currentSelector != null) {
+            currentSelector.wakeup();
+        }
+    }
+
+    /**
+     * @return Whether the calling thread is the event loop thread
+     */
+    public boolean isInEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Stops accepting connections, and closes all open connections once their queued frames are written.
+     * Waits up to {@link NetworkEventLoop#SHUTDOWN_TIMEOUT_MILLIS} for this to finish, unless called on the event loop thread.
+     */
+    public void shutDown() {
+        Thread currentThread;
+        synchronized(this) {
+            if(!isRunning || isShuttingDown) {return;}
+            isShuttingDown = true;
+            currentThread = thread;
+        }
+
+        logger.fine("Shutting down network event loop");
+        for(ServerSocketChannel serverChannel : serverChannels) {
+            try {
+                serverChannel.close();
+            }   catch(IOException ex) {
+                logger.warning("Error occurred while closing server socket");
+                ex.printStackTrace();
+            }
+        }
+        serverChannels.clear();
+
+        for(Connection connection : connections) {
+            connection.close();
+        }
+        execute(() -> {}); // Wake up the loop so that it checks if all connections have closed
+
+        if(!isInEventLoop()) {
+            try {
+                currentThread.join(SHUTDOWN_TIMEOUT_MILLIS * 2);
+            }   catch(InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    void onConnectionClosed(@NotNull Connection connection) {
+        connections.remove(connection);
+    }
+
+    private void run() {
+        logger.fine("Hello from network thread");
+        long shutdownDeadline = -1;
+
+        try {
+            while(true) {
+                if(isShuttingDown) {
+                    if(shutdownDeadline == -1) {
+                        shutdownDeadline = System.currentTimeMillis() + SHUTDOWN_TIMEOUT_MILLIS;
+                    }
+                    if(connections.isEmpty() || System.currentTimeMillis() > shutdownDeadline) {
+                        break;
+                    }
+                }
+
+                selector.select(isShuttingDown ? 50 : 0);
+                runTasks();
+
+                Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                while(iterator.hasNext()) {
+                    SelectionKey key = iterator.next();
+                    iterator.remove();
+                    handleKey(key);
+                }
+            }
+        }   catch(Exception ex) {
+            logger.warning("An error occurred on the network thread");
+            ex.printStackTrace();
+        }   finally     {
+            // Force close anything that didn't close in time
+            runTasks();
+            for(Connection connection : connections) {
+                connection.closeNow(null);
+            }
+            connections.clear();
+            tasks.clear();
+
+            try {
+                selector.close();
+            }   catch(IOException ex) {
+                logger.warning("Error occurred while closing network selector");
+                ex.printStackTrace();
+            }
+
+            synchronized(this) {
+                selector = null;
+                isRunning = false;
+                isShuttingDown = false;
+            }
+            logger.fine("Network event loop stopped");
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            }   catch(RuntimeException ex) {
+                logger.warning("An error occurred while running a network task");
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void handleKey(SelectionKey key) {
+        if(!key.isValid()) {return;}
+
+        if(key.isAcceptable()) {
+            accept((ServerSocketChannel) key.channel(), (Supplier<IConnectionHandler>) key.attachment());
+            return;
+        }
+
+        Connection connection = (Connection) key.attachment();
+        try {
+            if(key.isConnectable()) {
+                finishConnect(connection, (SocketChannel) key.channel());
+                return;
+            }
+            if(key.isWritable()) {
+                connection.flush();
+            }
+            if(key.isValid() && key.isReadable()) {
+                connection.handleRead();
+                connection.updateInterestOps();
+            }
+        }   catch(Exception ex) {
+            connection.closeNow(ex);
+        }
+    }
+
+    private void accept(ServerSocketChannel serverChannel, Supplier<IConnectionHandler> handlerFactory) {
+        SocketChannel channel;
+        try {
+            channel = serverChannel.accept();
+            if(channel == null) {return;}
+            channel.configureBlocking(false);
+        }   catch(IOException ex) {
+            logger.warning("An IO error occurred while accepting a connection");
+            ex.printStackTrace();
+            return;
+        }
+
+        IConnectionHandler handler;
+        try {
+            handler = handlerFactory.get();
+        }   catch(RuntimeException ex) {
+            // Throwing here would stop the event loop, so only this connection is dropped
+            logger.warning("An error occurred while creating the handler for an accepted connection");
+            ex.printStackTrace();
+            try {
+                channel.close();
+            }   catch(IOException closeEx) {
+                logger.warning("Error occurred while closing rejected connection");
+                closeEx.printStackTrace();
+            }
+            return;
+        }
+
+        Connection connection = new Connection(this, channel, handler);
+        connections.add(connection);
+        try {
+            connection.setKey(channel.register(selector, SelectionKey.OP_READ, connection));
+            connection.getHandler().onConnected(connection);
+        }   catch(Exception ex) {
+            connection.closeNow(ex);
+        }
+    }
+
+    private void finishConnect(Connection connection, SocketChannel channel) throws Exception {
+        if(!channel.finishConnect()) {return;}
+
+        connection.updateInterestOps();
+        connection.getHandler().onConnected(connection);
+    }
+}
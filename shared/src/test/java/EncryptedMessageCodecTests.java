@@ -0,0 +1,195 @@
+import com.lauriethefish.betterportals.shared.net.Response;
+import com.lauriethefish.betterportals.shared.net.encoding.DeflateCompressor;
+import com.lauriethefish.betterportals.shared.net.encoding.MessageRegistry;
+import com.lauriethefish.betterportals.shared.net.encoding.OpaquePayload;
+import com.lauriethefish.betterportals.shared.net.encryption.CipherManager;
+import com.lauriethefish.betterportals.shared.net.encryption.EncryptedMessageCodec;
+import com.lauriethefish.betterportals.shared.net.encryption.SessionKeys;
+import com.lauriethefish.betterportals.shared.net.requests.RelayRequest;
+import com.lauriethefish.betterportals.shared.net.transport.Lane;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class EncryptedMessageCodecTests {
+    private static class TestTransmit implements Serializable {
+        int testFieldA;
+        String testFieldB;
+
+        @Override
+        public boolean equals(Object other) {
+            if(!(other instanceof TestTransmit)) {
+                return false;
+            }
+            TestTransmit otherInstance = (TestTransmit) other;
+
+            return otherInstance.testFieldA == testFieldA && otherInstance.testFieldB.equals(testFieldB);
+        }
+    }
+
+    private CipherManager cipherManager;
+    private MessageRegistry messageRegistry;
+
+    @Before
+    public void setUp() throws NoSuchAlgorithmException {
+        this.cipherManager = new CipherManager();
+        cipherManager.init(UUID.randomUUID());
+        this.messageRegistry = new MessageRegistry();
+    }
+
+    @Test
+    public void testSendAndReceiveObject() throws GeneralSecurityException, IOException, ClassNotFoundException {
+        EncryptedMessageCodec codec = new EncryptedMessageCodec(cipherManager, messageRegistry);
+
+        TestTransmit obj = new TestTransmit();
+        obj.testFieldA = 42;
+        obj.testFieldB = "Fish man";
+
+        ByteBuffer frame = codec.encode(obj);
+
+        codec = new EncryptedMessageCodec(cipherManager, messageRegistry);
+        TestTransmit result = (TestTransmit) codec.decode(frame);
+
+        assertEquals(obj, result);
+    }
+
+    @Test
+    public void testSession() throws GeneralSecurityException, IOException, ClassNotFoundException {
+        EncryptedMessageCodec client = new EncryptedMessageCodec(cipherManager, messageRegistry);
+        EncryptedMessageCodec server = new EncryptedMessageCodec(cipherManager, messageRegistry);
+
+        SessionKeys keys = cipherManager.deriveSessionKeys(cipherManager.createSessionNonce(), cipherManager.createSessionNonce());
+        client.startEncryptSession(keys.getClientKey());
+        client.startDecryptSession(keys.getServerKey());
+        server.startEncryptSession(keys.getServerKey());
+        server.startDecryptSession(keys.getClientKey());
+
+        for(int i = 0; i < 3; i++) {
+            assertEquals("Request " + i, server.decode(client.encode("Request " + i)));
+            assertEquals("Response " + i, client.decode(server.encode("Response " + i)));
+        }
+    }
+
+    @Test
+    public void testCompression() throws GeneralSecurityException, IOException, ClassNotFoundException {
+        EncryptedMessageCodec sender = new EncryptedMessageCodec(cipherManager, messageRegistry);
+        EncryptedMessageCodec receiver = new EncryptedMessageCodec(cipherManager, messageRegistry);
+        sender.setCompressionThreshold(64);
+
+        StringBuilder builder = new StringBuilder();
+        for(int i = 0; i < 1000; i++) {
+            builder.append("Block ").append(i % 10);
+        }
+        String large = builder.toString();
+
+        // Small messages aren't compressed, but must still be decoded in between compressed ones
+        for(int i = 0; i < 3; i++) {
+            ByteBuffer frame = sender.encode(large);
+            assertTrue(frame.remaining() < large.length() / 4);
+            assertEquals(large, receiver.decode(frame));
+            assertEquals("Small " + i, receiver.decode(sender.encode("Small " + i)));
+        }
+    }
+
+    @Test
+    public void testLanesAreDecodedIndependently() throws GeneralSecurityException, IOException, ClassNotFoundException {
+        EncryptedMessageCodec sender = new EncryptedMessageCodec(cipherManager, messageRegistry);
+        EncryptedMessageCodec receiver = new EncryptedMessageCodec(cipherManager, messageRegistry);
+        sender.setCompressionThreshold(0);
+
+        SessionKeys keys = cipherManager.deriveSessionKeys(cipherManager.createSessionNonce(), cipherManager.createSessionNonce());
+        sender.startEncryptSession(keys.getClientKey());
+        receiver.startDecryptSession(keys.getClientKey());
+
+        // Control frames may arrive before bulk frames that were encoded earlier
+        ByteBuffer bulk = sender.encode("Bulk message", Lane.BULK);
+        ByteBuffer control = sender.encode("Control message", Lane.CONTROL);
+        assertEquals("Control message", receiver.decode(control, Lane.CONTROL));
+        assertEquals("Bulk message", receiver.decode(bulk, Lane.BULK));
+    }
+
+    @Test
+    public void testRelayFrames() throws GeneralSecurityException, IOException, ClassNotFoundException {
+        EncryptedMessageCodec sender = new EncryptedMessageCodec(cipherManager, messageRegistry);
+        EncryptedMessageCodec receiver = new EncryptedMessageCodec(cipherManager, messageRegistry);
+
+        RelayRequest request = new RelayRequest();
+        request.setId(5);
+        request.setDestination("survival");
+        request.setInnerRequest(OpaquePayload.encode(messageRegistry, "Inner request", -1));
+        assertTrue(sender.requiresOwnFrame(request));
+        assertEquals(Lane.BULK, sender.getLane(request));
+
+        RelayRequest decodedRequest = (RelayRequest) receiver.decode(sender.encode(request));
+        assertEquals(5, decodedRequest.getId());
+        assertEquals("survival", decodedRequest.getDestination());
+        assertEquals("Inner request", decodedRequest.getInnerRequest().decode(messageRegistry));
+
+        Response response = new Response();
+        response.setId(6);
+        response.setResult(OpaquePayload.encode(messageRegistry, "Inner response", 0)); // Compressed by the sender
+        assertTrue(sender.requiresOwnFrame(response));
+
+        Response decodedResponse = (Response) receiver.decode(sender.encode(response));
+        assertEquals(6, decodedResponse.getId());
+        assertEquals("Inner response", ((OpaquePayload) decodedResponse.getRawResult()).decode(messageRegistry));
+    }
+
+    // Small frames that inflate to a huge message must be rejected before they fill up our memory
+    @Test
+    public void testOversizedCompressedMessageIsRejected() throws IOException {
+        byte[] data = new byte[100_000];
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        new DeflateCompressor().compress(data, 0, data.length, compressed);
+        byte[] compressedData = compressed.toByteArray();
+        assertTrue(compressedData.length < 1000);
+
+        ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+        new DeflateCompressor().decompress(compressedData, 0, compressedData.length, decompressed, data.length);
+        assertEquals(data.length, decompressed.size());
+
+        assertThrows(IOException.class, () -> new DeflateCompressor().decompress(compressedData, 0, compressedData.length, new ByteArrayOutputStream(), 10_000));
+    }
+
+    // Payloads above the compression threshold are inflated before being read
+    @Test
+    public void testLargeCompressedPayload() throws IOException, ClassNotFoundException {
+        StringBuilder builder = new StringBuilder();
+        Random random = new Random(1234);
+        for(int i = 0; i < 9000; i++) {
+            builder.append((char) ('a' + random.nextInt(26)));
+        }
+        String message = builder.toString();
+
+        OpaquePayload payload = OpaquePayload.encode(messageRegistry, message, 512);
+        assertEquals(1, payload.getData()[payload.getOffset()], "Payload above the threshold wasn't compressed");
+        assertEquals(message, payload.decode(messageRegistry));
+    }
+
+    @Test
+    public void testOversizedCompressedPayloadIsRejected() throws IOException, ClassNotFoundException {
+        StringBuilder builder = new StringBuilder();
+        for(int i = 0; i < 100_000; i++) {
+            builder.append('a');
+        }
+        String message = builder.toString();
+
+        OpaquePayload payload = OpaquePayload.encode(messageRegistry, message, 0);
+        assertTrue(payload.getLength() < 1000);
+        assertEquals(message, payload.decode(messageRegistry));
+
+        assertThrows(IOException.class, () -> payload.decode(messageRegistry, 10_000));
+    }
+}
@@ -1,14 +1,18 @@
 import com.lauriethefish.betterportals.shared.net.encryption.CipherManager;
+import com.lauriethefish.betterportals.shared.net.encryption.FrameCipher;
+import com.lauriethefish.betterportals.shared.net.encryption.SessionKeys;
 import org.junit.Before;
 import org.junit.Test;
 
 import javax.crypto.AEADBadTagException;
+import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 import java.util.Random;
 import java.util.UUID;
 
-import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.*;
 
 public class EncryptionTests {
     private CipherManager cipherManager;
@@ -24,14 +28,22 @@ public class EncryptionTests {
         random.nextBytes(data);
     }
 
+    private ByteBuffer encrypt(FrameCipher cipher) throws GeneralSecurityException {
+        return cipher.encrypt(data, 0, data.length);
+    }
+
     @Test
     public void testEncryptAndDecrypt() throws GeneralSecurityException {
-        byte[] encrypted = cipherManager.createEncrypt().doFinal(data);
-        byte[] decrypted = cipherManager.createDecrypt().doFinal(encrypted);
+        ByteBuffer encrypted = encrypt(cipherManager.createHandshakeCipher());
+        byte[] decrypted = cipherManager.createHandshakeCipher().decrypt(encrypted);
 
-        for(int i = 0; i < data.length; i++) {
-            assertEquals(data[i], decrypted[i]);
-        }
+        assertArrayEquals(data, decrypted);
+    }
+
+    @Test
+    public void testHandshakeNoncesDiffer() throws GeneralSecurityException {
+        FrameCipher cipher = cipherManager.createHandshakeCipher();
+        assertNotEquals(encrypt(cipher), encrypt(cipher));
     }
 
     @Test(expected = AEADBadTagException.class)
@@ -39,7 +51,54 @@ public class EncryptionTests {
         CipherManager invalidCipher = new CipherManager();
         invalidCipher.init(UUID.fromString("6f653d86-c69c-4d3c-95b3-38037eedddd7"));
 
-        byte[] encrypted = cipherManager.createEncrypt().doFinal(data);
-        invalidCipher.createDecrypt().doFinal(encrypted);
+        ByteBuffer encrypted = encrypt(cipherManager.createHandshakeCipher());
+        invalidCipher.createHandshakeCipher().decrypt(encrypted);
+    }
+
+    @Test
+    public void testSessionKeys() throws GeneralSecurityException {
+        byte[] clientNonce = cipherManager.createSessionNonce();
+        byte[] serverNonce = cipherManager.createSessionNonce();
+
+        SessionKeys clientKeys = cipherManager.deriveSessionKeys(clientNonce, serverNonce);
+        SessionKeys serverKeys = cipherManager.deriveSessionKeys(clientNonce, serverNonce);
+        assertArrayEquals(clientKeys.getClientKey().getEncoded(), serverKeys.getClientKey().getEncoded());
+        assertFalse(Arrays.equals(clientKeys.getClientKey().getEncoded(), clientKeys.getServerKey().getEncoded()));
+
+        SessionKeys otherKeys = cipherManager.deriveSessionKeys(clientNonce, cipherManager.createSessionNonce());
+        assertFalse(Arrays.equals(clientKeys.getClientKey().getEncoded(), otherKeys.getClientKey().getEncoded()));
+    }
+
+    @Test
+    public void testSessionFramesInOrder() throws GeneralSecurityException {
+        SessionKeys keys = cipherManager.deriveSessionKeys(cipherManager.createSessionNonce(), cipherManager.createSessionNonce());
+        FrameCipher encrypt = cipherManager.createSessionCipher(keys.getClientKey(), 0);
+        FrameCipher decrypt = cipherManager.createSessionCipher(keys.getClientKey(), 0);
+
+        for(int i = 0; i < 3; i++) {
+            ByteBuffer encrypted = encrypt(encrypt);
+            assertEquals(data.length + 16, encrypted.remaining()); // Counted nonces aren't sent
+            assertArrayEquals(data, decrypt.decrypt(encrypted));
+        }
+    }
+
+    @Test(expected = AEADBadTagException.class)
+    public void testSessionReplayedFrame() throws GeneralSecurityException {
+        SessionKeys keys = cipherManager.deriveSessionKeys(cipherManager.createSessionNonce(), cipherManager.createSessionNonce());
+        FrameCipher encrypt = cipherManager.createSessionCipher(keys.getClientKey(), 0);
+        FrameCipher decrypt = cipherManager.createSessionCipher(keys.getClientKey(), 0);
+
+        ByteBuffer encrypted = encrypt(encrypt);
+        decrypt.decrypt(encrypted.duplicate());
+        decrypt.decrypt(encrypted);
+    }
+
+    @Test(expected = AEADBadTagException.class)
+    public void testSessionStreamsAreSeparate() throws GeneralSecurityException {
+        SessionKeys keys = cipherManager.deriveSessionKeys(cipherManager.createSessionNonce(), cipherManager.createSessionNonce());
+        FrameCipher encrypt = cipherManager.createSessionCipher(keys.getClientKey(), 0);
+        FrameCipher decrypt = cipherManager.createSessionCipher(keys.getClientKey(), 1);
+
+        decrypt.decrypt(encrypt(encrypt));
     }
 }
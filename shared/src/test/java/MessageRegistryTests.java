@@ -0,0 +1,160 @@
+import com.lauriethefish.betterportals.shared.net.DisconnectNotice;
+import com.lauriethefish.betterportals.shared.net.Handshake;
+import com.lauriethefish.betterportals.shared.net.MessageBatch;
+import com.lauriethefish.betterportals.shared.net.RequestException;
+import com.lauriethefish.betterportals.shared.net.Response;
+import com.lauriethefish.betterportals.shared.net.encoding.MessageRegistry;
+import com.lauriethefish.betterportals.shared.net.encoding.OpaquePayload;
+import com.lauriethefish.betterportals.shared.net.encoding.WireFormat;
+import com.lauriethefish.betterportals.shared.net.requests.RelayRequest;
+import com.lauriethefish.betterportals.shared.net.requests.TeleportRequest;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MessageRegistryTests {
+    private MessageRegistry messageRegistry;
+
+    @Before
+    public void setUp() {
+        messageRegistry = new MessageRegistry();
+    }
+
+    private Object roundTrip(Object message) throws IOException, ClassNotFoundException {
+        return messageRegistry.decode(messageRegistry.encode(message));
+    }
+
+    @Test
+    public void testTeleportRequest() throws IOException, ClassNotFoundException {
+        TeleportRequest request = new TeleportRequest();
+        request.setId(1234);
+        request.setPlayerId(UUID.randomUUID());
+        request.setDestServer("lobby");
+        request.setDestWorldName(null);
+        request.setDestX(-12.5);
+        request.setDestYaw(90.0f);
+        request.setGliding(true);
+
+        TeleportRequest result = (TeleportRequest) roundTrip(request);
+        assertEquals(1234, result.getId());
+        assertEquals(request.getPlayerId(), result.getPlayerId());
+        assertEquals("lobby", result.getDestServer());
+        assertNull(result.getDestWorldName());
+        assertNull(result.getDestWorldId());
+        assertEquals(-12.5, result.getDestX());
+        assertEquals(90.0f, result.getDestYaw());
+        assertTrue(result.isGliding());
+        assertFalse(result.isFlying());
+    }
+
+    @Test
+    public void testRelayRequest() throws IOException, ClassNotFoundException {
+        RelayRequest request = new RelayRequest();
+        request.setDestination("survival");
+        request.setInnerRequest(OpaquePayload.encode(messageRegistry, new TeleportRequest(), -1));
+
+        RelayRequest result = (RelayRequest) roundTrip(request);
+        assertEquals("survival", result.getDestination());
+        assertTrue(result.getInnerRequest().decode(messageRegistry) instanceof TeleportRequest);
+    }
+
+    @Test
+    public void testResponse() throws IOException, ClassNotFoundException, RequestException {
+        Map<Integer, Integer> result = new HashMap<>();
+        result.put(-5, 100);
+        result.put(70000, 0);
+
+        Response response = new Response();
+        response.setId(42);
+        response.setResult(result);
+
+        Response decoded = (Response) roundTrip(response);
+        assertEquals(42, decoded.getId());
+        assertEquals(result, decoded.getResult());
+    }
+
+    // Errors aren't registered, so should fall back to Java serialization
+    @Test
+    public void testResponseError() throws IOException, ClassNotFoundException {
+        Response response = new Response();
+        response.setError(new RequestException("Test error"));
+
+        Response decoded = (Response) roundTrip(response);
+        RequestException error = assertThrows(RequestException.class, decoded::getResult);
+        assertEquals("Test error", error.getMessage());
+    }
+
+    @Test
+    public void testHandshake() throws IOException, ClassNotFoundException {
+        Handshake handshake = new Handshake();
+        handshake.setPluginVersion("1.0");
+        handshake.setServerPort(25565);
+
+        Handshake result = (Handshake) roundTrip(handshake);
+        assertEquals("1.0", result.getPluginVersion());
+        assertEquals(25565, result.getServerPort());
+        assertEquals(-1, result.getDirectPort());
+    }
+
+    @Test
+    public void testAddress() throws IOException, ClassNotFoundException {
+        InetSocketAddress result = (InetSocketAddress) roundTrip(new InetSocketAddress("10.0.0.2", 25511));
+        assertEquals("10.0.0.2", result.getHostString());
+        assertEquals(25511, result.getPort());
+        assertTrue(result.isUnresolved());
+    }
+
+    @Test
+    public void testDisconnectNotice() throws IOException, ClassNotFoundException {
+        assertTrue(roundTrip(new DisconnectNotice()) instanceof DisconnectNotice);
+    }
+
+    @Test
+    public void testMessageBatch() throws IOException, ClassNotFoundException {
+        Response response = new Response();
+        response.setId(7);
+
+        MessageBatch result = (MessageBatch) roundTrip(new MessageBatch(Arrays.asList(response, new DisconnectNotice())));
+        assertEquals(2, result.getMessages().size());
+        assertEquals(7, ((Response) result.getMessages().get(0)).getId());
+        assertTrue(result.getMessages().get(1) instanceof DisconnectNotice);
+    }
+
+    @Test(expected = IOException.class)
+    public void testWrongProtocolVersion() throws IOException, ClassNotFoundException {
+        byte[] data = messageRegistry.encode(new DisconnectNotice());
+        data[0] = (byte) (MessageRegistry.PROTOCOL_VERSION + 1);
+        messageRegistry.decode(data);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDuplicateId() {
+        messageRegistry.register(16, Long.class, (value, out) -> out.writeLong(value), DataInputStream::readLong);
+    }
+
+    @Test
+    public void testVarInts() throws IOException {
+        int[] values = new int[]{0, 1, -1, 127, 128, -300, Integer.MAX_VALUE, Integer.MIN_VALUE};
+
+        ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(byteStream);
+        for(int value : values) {
+            WireFormat.writeVarInt(out, value);
+            WireFormat.writeSignedVarInt(out, value);
+        }
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(byteStream.toByteArray()));
+        for(int value : values) {
+            assertEquals(value, WireFormat.readVarInt(in));
+            assertEquals(value, WireFormat.readSignedVarInt(in));
+        }
+    }
+}
@@ -0,0 +1,185 @@
+import com.lauriethefish.betterportals.shared.logging.Logger;
+import com.lauriethefish.betterportals.shared.logging.OverrideLogger;
+import com.lauriethefish.betterportals.shared.net.transport.Connection;
+import com.lauriethefish.betterportals.shared.net.transport.IConnectionHandler;
+import com.lauriethefish.betterportals.shared.net.transport.Lane;
+import com.lauriethefish.betterportals.shared.net.transport.NetworkEventLoop;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class NetworkEventLoopTests {
+    // Sends every received frame straight back
+    private static class EchoHandler implements IConnectionHandler {
+        @Override
+        public void onConnected(@NotNull Connection connection) { }
+
+        @Override
+        public void onFrame(@NotNull Connection connection, @NotNull Lane lane, @NotNull ByteBuffer frame) throws IOException {
+            ByteBuffer copy = ByteBuffer.allocate(frame.remaining());
+            copy.put(frame).flip();
+            connection.send(copy, lane);
+        }
+
+        @Override
+        public void onDisconnected(@NotNull Connection connection, @Nullable Throwable cause) { }
+    }
+
+    private static class ReceivingHandler implements IConnectionHandler {
+        private final BlockingQueue<byte[]> received = new LinkedBlockingQueue<>();
+        private final BlockingQueue<Lane> receivedLanes = new LinkedBlockingQueue<>();
+        private final BlockingQueue<Boolean> disconnected = new LinkedBlockingQueue<>();
+
+        @Override
+        public void onConnected(@NotNull Connection connection) { }
+
+        @Override
+        public void onFrame(@NotNull Connection connection, @NotNull Lane lane, @NotNull ByteBuffer frame) {
+            byte[] data = new byte[frame.remaining()];
+            frame.get(data);
+            received.add(data);
+            receivedLanes.add(lane);
+        }
+
+        @Override
+        public void onDisconnected(@NotNull Connection connection, @Nullable Throwable cause) {
+            disconnected.add(cause == null);
+        }
+    }
+
+    private NetworkEventLoop eventLoop;
+    private InetSocketAddress address;
+    private Closeable listener;
+
+    @Before
+    public void setUp() throws IOException {
+        eventLoop = new NetworkEventLoop(new OverrideLogger(Logger.getAnonymousLogger()));
+
+        // Find a free port to listen on
+        try(ServerSocket socket = new ServerSocket(0)) {
+            address = new InetSocketAddress("127.0.0.1", socket.getLocalPort());
+        }
+        listener = eventLoop.listen(address, EchoHandler::new);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        listener.close();
+        eventLoop.shutDown();
+    }
+
+    @Test
+    public void testFramesAreEchoedInOrder() throws IOException, InterruptedException {
+        ReceivingHandler handler = new ReceivingHandler();
+        Connection connection = eventLoop.connect(address, handler);
+
+        // Frames sent before connecting should be queued
+        for(int i = 0; i < 100; i++) {
+            connection.send(ByteBuffer.wrap(new byte[]{(byte) i, (byte) (i * 2)}));
+        }
+
+        for(int i = 0; i < 100; i++) {
+            byte[] data = handler.received.poll(5, TimeUnit.SECONDS);
+            assertNotNull(data);
+            assertArrayEquals(new byte[]{(byte) i, (byte) (i * 2)}, data);
+        }
+    }
+
+    @Test
+    public void testLargeFrame() throws IOException, InterruptedException {
+        ReceivingHandler handler = new ReceivingHandler();
+        Connection connection = eventLoop.connect(address, handler);
+
+        // Split into many fragments, which must be reassembled
+        byte[] data = new byte[1024 * 1024];
+        for(int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 31);
+        }
+        connection.send(ByteBuffer.wrap(data));
+
+        assertArrayEquals(data, handler.received.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testControlFramesOvertakeBulkFrames() throws IOException, InterruptedException {
+        ReceivingHandler handler = new ReceivingHandler();
+        Connection connection = eventLoop.connect(address, handler);
+
+        byte[] bulk = new byte[1024 * 1024];
+        byte[] control = new byte[]{1, 2, 3};
+
+        // Both are queued before the connection is flushed, so the control frame should be written first despite being sent second
+        BlockingQueue<Boolean> sent = new LinkedBlockingQueue<>();
+        eventLoop.execute(() -> {
+            try {
+                connection.send(ByteBuffer.wrap(bulk), Lane.BULK);
+                connection.send(ByteBuffer.wrap(control), Lane.CONTROL);
+                sent.add(true);
+            }   catch(IOException ex) {
+                sent.add(false);
+            }
+        });
+        assertEquals(Boolean.TRUE, sent.poll(5, TimeUnit.SECONDS));
+
+        assertArrayEquals(control, handler.received.poll(5, TimeUnit.SECONDS));
+        assertEquals(Lane.CONTROL, handler.receivedLanes.poll());
+        assertArrayEquals(bulk, handler.received.poll(5, TimeUnit.SECONDS));
+        assertEquals(Lane.BULK, handler.receivedLanes.poll());
+    }
+
+    @Test
+    public void testOversizedFrameIsRejected() throws IOException {
+        ReceivingHandler handler = new ReceivingHandler();
+        Connection connection = eventLoop.connect(address, handler);
+
+        assertThrows(IOException.class, () -> connection.send(ByteBuffer.allocate(Connection.MAX_FRAME_SIZE + 1)));
+        connection.close();
+    }
+
+    @Test
+    public void testCloseIsReported() throws IOException, InterruptedException {
+        ReceivingHandler handler = new ReceivingHandler();
+        Connection connection = eventLoop.connect(address, handler);
+        connection.send(ByteBuffer.wrap(new byte[]{1}));
+        connection.close();
+
+        assertEquals(Boolean.TRUE, handler.disconnected.poll(5, TimeUnit.SECONDS));
+        assertFalse(connection.isOpen());
+    }
+
+    // A handler that fails to be created should only drop its own connection, not stop the event loop
+    @Test
+    public void testHandlerCreationErrorKeepsLoopRunning() throws IOException, InterruptedException {
+        AtomicBoolean hasFailed = new AtomicBoolean(false);
+        listener.close();
+        listener = eventLoop.listen(address, () -> {
+            if(hasFailed.compareAndSet(false, true)) {
+                throw new IllegalStateException("Test handler creation error");
+            }
+            return new EchoHandler();
+        });
+
+        ReceivingHandler failedHandler = new ReceivingHandler();
+        eventLoop.connect(address, failedHandler);
+        assertNotNull(failedHandler.disconnected.poll(5, TimeUnit.SECONDS), "Connection without a handler wasn't closed");
+
+        ReceivingHandler handler = new ReceivingHandler();
+        Connection connection = eventLoop.connect(address, handler);
+        connection.send(ByteBuffer.wrap(new byte[]{1, 2, 3}));
+        assertArrayEquals(new byte[]{1, 2, 3}, handler.received.poll(5, TimeUnit.SECONDS));
+    }
+}